@@ -0,0 +1,355 @@
+package com.kazurayam.jsonflyweight.cli;
+
+import com.kazurayam.jsonflyweight.JsonFlyweight;
+import com.kazurayam.jsonflyweight.PrettyPrintResult;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The command line of JsonFlyweight.
+ *
+ * <pre>
+ * $ curl -s https://example.com/api | jsonflyweight
+ * $ jsonflyweight --indent 4 a.json b.json > ab.json
+ * $ jsonflyweight --output pretty/ *.json
+ * $ jsonflyweight --minify < pretty.json > ugly.json
+ * </pre>
+ *
+ * The command is meant to be called many times from shell scripts, so it is written to start fast:
+ * it loads as few classes as it can (no lambdas, no String concatenation by invokedynamic,
+ * no buffered copies of stdin and stdout), and the build makes a Class Data Sharing archive
+ * of the classes it loads and a runtime of only the modules it needs.
+ */
+public final class Main {
+
+    static final int OK = 0;
+    static final int FAILED = 1;
+    static final int USAGE = 2;
+
+    private static final String USAGE_TEXT =
+            "Usage: jsonflyweight [options] [file ...]\n"
+                    + "Pretty-prints the JSON files, or stdin if no file or \"-\" is given, to stdout.\n"
+                    + "\n"
+                    + "  -i, --indent N     indent by N spaces (default 2), or by N tabs with --tab\n"
+                    + "  -t, --tab          indent with tabs\n"
+                    + "  -m, --minify       remove the whitespace instead of pretty-printing\n"
+                    + "  -s, --strict       fail if the input is not a well-formed JSON\n"
+                    + "      --crlf         end the lines with CR LF instead of LF\n"
+                    + "  -o, --output DIR   write every file into DIR under the same name, many at a time\n"
+                    + "  -j, --jobs N       number of files at a time with --output (default: the cores)\n"
+                    + "  -h, --help         print this help\n"
+                    + "\n"
+                    + "Exits with 0 if all went well, 1 if a file failed, 2 if the options are wrong\n"
+                    + "or if --output would overwrite an input.\n";
+
+    private final PrintStream err;
+
+    private int indent = -1;
+    private boolean tab;
+    private boolean minify;
+    private boolean strict;
+    private String lineSeparator = "\n";
+    private Path outputDir;
+    private int jobs = Runtime.getRuntime().availableProcessors();
+    private final List<String> files = new ArrayList<>();
+
+    private Main(PrintStream err) {
+        this.err = err;
+    }
+
+    public static void main(String[] args) {
+        int status = run(args,
+                new FileInputStream(FileDescriptor.in), new FileOutputStream(FileDescriptor.out), System.err);
+        System.exit(status);
+    }
+
+    /**
+     * @param stdin read when no file is given; not closed
+     * @param stdout written when no output directory is given; not closed
+     * @param stderr the errors are told here
+     * @return the exit status
+     */
+    static int run(String[] args, InputStream stdin, OutputStream stdout, PrintStream stderr) {
+        Main main = new Main(stderr);
+        try {
+            if (!main.parse(args)) {
+                stderr.print(USAGE_TEXT);
+                return OK;
+            }
+        } catch (IllegalArgumentException e) {
+            stderr.println("jsonflyweight: " + e.getMessage());
+            stderr.print(USAGE_TEXT);
+            return USAGE;
+        }
+        return main.outputDir != null ? main.toDirectory() : main.toStdout(stdin, stdout);
+    }
+
+    /**
+     * @return false if the help is asked for
+     * @throws IllegalArgumentException if an option is wrong
+     */
+    private boolean parse(String[] args) {
+        boolean options = true;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!options || arg.equals("-") || !arg.startsWith("-")) {
+                files.add(arg);
+                continue;
+            }
+            switch (arg) {
+                case "--":
+                    options = false;
+                    break;
+                case "-i":
+                case "--indent":
+                    indent = number(arg, args, ++i);
+                    break;
+                case "-t":
+                case "--tab":
+                    tab = true;
+                    break;
+                case "-m":
+                case "--minify":
+                    minify = true;
+                    break;
+                case "-s":
+                case "--strict":
+                    strict = true;
+                    break;
+                case "--crlf":
+                    lineSeparator = "\r\n";
+                    break;
+                case "-o":
+                case "--output":
+                    outputDir = Paths.get(value(arg, args, ++i));
+                    break;
+                case "-j":
+                case "--jobs":
+                    jobs = number(arg, args, ++i);
+                    if (jobs < 1) {
+                        throw new IllegalArgumentException("--jobs must be 1 or more");
+                    }
+                    break;
+                case "-h":
+                case "--help":
+                    return false;
+                default:
+                    throw new IllegalArgumentException("unknown option " + arg);
+            }
+        }
+        if (minify && strict) {
+            throw new IllegalArgumentException("--strict is not available with --minify");
+        }
+        if (outputDir != null && (files.isEmpty() || files.contains("-"))) {
+            throw new IllegalArgumentException("--output needs files, not stdin");
+        }
+        return true;
+    }
+
+    private static String value(String option, String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        return args[i];
+    }
+
+    private static int number(String option, String[] args, int i) {
+        String value = value(option, args, i);
+        try {
+            int n = Integer.parseInt(value);
+            if (n < 0) {
+                throw new IllegalArgumentException(option + " must not be negative: " + value);
+            }
+            return n;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(option + " needs a number: " + value);
+        }
+    }
+
+    private JsonFlyweight.Formatter formatter() {
+        JsonFlyweight.Formatter.Builder builder = new JsonFlyweight.Formatter.Builder()
+                .useTabs(tab).strict(strict).lineSeparator(lineSeparator);
+        if (indent >= 0) {
+            builder.indentWidth(indent);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Write the documents one after another to stdout, each followed by a line separator
+     */
+    private int toStdout(InputStream stdin, OutputStream stdout) {
+        if (files.isEmpty()) {
+            files.add("-");
+        }
+        JsonFlyweight.Formatter formatter = minify ? null : formatter();
+        Minifier minifier = minify ? new Minifier(32 * 1024) : null;
+        byte[] separator = lineSeparator.getBytes(StandardCharsets.US_ASCII);
+        int status = OK;
+        for (String file : files) {
+            try (InputStream in = file.equals("-") ? new Unclosed(stdin) : Files.newInputStream(Paths.get(file))) {
+                if (minifier != null) {
+                    minifier.minify(in, stdout);
+                } else {
+                    formatter.prettyPrint(in, stdout);
+                }
+                stdout.write(separator);
+                stdout.flush();
+            } catch (IOException e) {
+                if (isBrokenPipe(e)) {
+                    // the reader has gone, as head does; nobody is left to tell
+                    return FAILED;
+                }
+                status = fail(file, e);
+            }
+        }
+        return status;
+    }
+
+    /**
+     * Write every file into the output directory, many at a time
+     */
+    private int toDirectory() {
+        List<Path> inputs = new ArrayList<>(files.size());
+        for (String file : files) {
+            inputs.add(Paths.get(file));
+        }
+        try {
+            checkOutputs(inputs);
+        } catch (IllegalArgumentException e) {
+            // nothing has been written yet
+            err.println("jsonflyweight: " + e.getMessage());
+            return USAGE;
+        }
+        int status = OK;
+        try {
+            if (minify) {
+                return minifyAll(inputs);
+            }
+            for (PrettyPrintResult result : formatter().prettyPrintAll(inputs, outputDir, jobs)) {
+                if (!result.isSuccess()) {
+                    status = fail(result.getInput().toString(), result.getFailure());
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            status = fail(outputDir.toString(), e);
+        }
+        return status;
+    }
+
+    /**
+     * The checks of {@code prettyPrintAll}, made for the minifying too before any file is opened
+     *
+     * @throws IllegalArgumentException if an input would be overwritten by its own output,
+     *         or two inputs would be written into the same output
+     */
+    private void checkOutputs(List<Path> inputs) {
+        Map<Path, Path> outputs = new HashMap<>();
+        for (Path input : inputs) {
+            Path output = outputDir.resolve(input.getFileName().toString());
+            Path other = outputs.put(output, input);
+            if (other != null) {
+                throw new IllegalArgumentException(other + " and " + input + " would both be written into " + output);
+            }
+            if (output.toAbsolutePath().normalize().equals(input.toAbsolutePath().normalize())) {
+                throw new IllegalArgumentException(input + " would be overwritten by its own output");
+            }
+        }
+    }
+
+    private int minifyAll(List<Path> inputs) throws IOException {
+        Files.createDirectories(outputDir);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(jobs, inputs.size()));
+        try {
+            List<Future<Void>> futures = new ArrayList<>(inputs.size());
+            for (Path input : inputs) {
+                futures.add(executor.submit(new MinifyJob(input, outputDir.resolve(input.getFileName()))));
+            }
+            int status = OK;
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    status = fail(inputs.get(i).toString(), e.getCause());
+                }
+            }
+            return status;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private int fail(String file, Throwable t) {
+        err.println("jsonflyweight: " + file + ": " + t.getMessage());
+        return FAILED;
+    }
+
+    private static boolean isBrokenPipe(IOException e) {
+        return e.getMessage() != null && e.getMessage().contains("Broken pipe");
+    }
+
+    /**
+     * minifies a file into another; a class of its own rather than a lambda,
+     * which would load the invokedynamic machinery at startup
+     */
+    private static final class MinifyJob implements Callable<Void> {
+        private final Path input;
+        private final Path output;
+
+        MinifyJob(Path input, Path output) {
+            this.input = input;
+            this.output = output;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            try (InputStream in = Files.newInputStream(input);
+                 OutputStream out = Files.newOutputStream(output)) {
+                new Minifier(32 * 1024).minify(in, out);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * stdin, which must stay open for the next "-"
+     */
+    private static final class Unclosed extends FilterInputStream {
+        Unclosed(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return in.read(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            // leave stdin open
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.kazurayam.jsonflyweight.cli;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Removes the whitespace out of the strings of a JSON in UTF-8, leaving the rest as it is.
+ * Like the pretty-printer it works on the bytes without decoding them, and in a buffer
+ * of a fixed size however large the JSON is. It does not check the JSON.
+ */
+final class Minifier {
+
+    private final byte[] in;
+    private final byte[] out;
+
+    Minifier(int bufferCapacity) {
+        this.in = new byte[bufferCapacity];
+        this.out = new byte[bufferCapacity];
+    }
+
+    /**
+     * Minify the JSON from an InputStream into an OutputStream. The streams are not closed.
+     *
+     * @return number of bytes written
+     */
+    long minify(InputStream uglyJSON, OutputStream minifiedJSON) throws IOException {
+        boolean inQuote = false;
+        boolean escaped = false;
+        long written = 0;
+        int n;
+        while ((n = uglyJSON.read(in, 0, in.length)) != -1) {
+            int outPos = 0;
+            for (int i = 0; i < n; i++) {
+                byte ch = in[i];
+                if (inQuote) {
+                    if (escaped) {
+                        escaped = false;
+                    } else if (ch == '\\') {
+                        escaped = true;
+                    } else if (ch == '"') {
+                        inQuote = false;
+                    }
+                } else if (ch == ' ' || ch == '\t' || ch == '\r' || ch == '\n') {
+                    continue;
+                } else if (ch == '"') {
+                    inQuote = true;
+                }
+                out[outPos++] = ch;
+            }
+            minifiedJSON.write(out, 0, outPos);
+            written += outPos;
+        }
+        minifiedJSON.flush();
+        return written;
+    }
+}
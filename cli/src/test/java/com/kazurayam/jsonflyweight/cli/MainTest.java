@@ -0,0 +1,166 @@
+package com.kazurayam.jsonflyweight.cli;
+
+import com.kazurayam.jsonflyweight.JsonFlyweight;
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MainTest {
+
+    private static final TestOutputOrganizer too =
+            new TestOutputOrganizer.Builder(MainTest.class)
+                    .outputDirectoryRelativeToProject("build/tmp/testOutput")
+                    .subOutputDirectory(MainTest.class).build();
+
+    private static final String UGLY =
+            "{\"name\":\"say \\\"hi\\\" 日本\",\"list\":[1, 2.5, true, null],\"empty\":{}}";
+
+    @Test
+    public void test_stdin_to_stdout() throws IOException {
+        Call call = new Call(UGLY);
+        assertThat(call.run()).isEqualTo(Main.OK);
+        assertThat(call.out()).isEqualTo(pretty(new JsonFlyweight.Formatter.Builder().lineSeparator("\n")) + "\n");
+        assertThat(call.err()).isEmpty();
+    }
+
+    @Test
+    public void test_indent() throws IOException {
+        Call call = new Call(UGLY);
+        assertThat(call.run("--indent", "4", "--tab", "--crlf")).isEqualTo(Main.OK);
+        assertThat(call.out()).isEqualTo(pretty(new JsonFlyweight.Formatter.Builder()
+                .indentWidth(4).useTabs(true).lineSeparator("\r\n")) + "\r\n");
+    }
+
+    @Test
+    public void test_minify() {
+        Call call = new Call("{\n  \"a\": [ 1,\t2 ],\r\n  \"b\": \"x  y\\\" z\"\n}");
+        assertThat(call.run("-m")).isEqualTo(Main.OK);
+        assertThat(call.out()).isEqualTo("{\"a\":[1,2],\"b\":\"x  y\\\" z\"}\n");
+    }
+
+    @Test
+    public void test_files_to_stdout() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_files_to_stdout");
+        Path a = Files.writeString(dir.resolve("a.json"), "[1,2]");
+        Path b = Files.writeString(dir.resolve("b.json"), "{\"k\":\"v\"}");
+        Call call = new Call("");
+        assertThat(call.run(a.toString(), b.toString())).isEqualTo(Main.OK);
+        assertThat(call.out()).isEqualTo("[\n  1,\n  2\n]\n{\n  \"k\": \"v\"\n}\n");
+    }
+
+    @Test
+    public void test_files_to_directory() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_files_to_directory");
+        Path in = Files.createDirectories(dir.resolve("in"));
+        Path out = dir.resolve("out");
+        List<String> args = new ArrayList<>(List.of("--output", out.toString(), "--jobs", "3"));
+        for (int i = 0; i < 5; i++) {
+            args.add(Files.writeString(in.resolve(i + ".json"), "{\"i\":" + i + "}").toString());
+        }
+        assertThat(new Call("").run(args.toArray(new String[0]))).isEqualTo(Main.OK);
+        for (int i = 0; i < 5; i++) {
+            assertThat(Files.readString(out.resolve(i + ".json"))).isEqualTo("{\n  \"i\": " + i + "\n}");
+        }
+        Path minified = dir.resolve("minified");
+        assertThat(new Call("").run("--minify", "--output", minified.toString(), out.resolve("3.json").toString()))
+                .isEqualTo(Main.OK);
+        assertThat(Files.readString(minified.resolve("3.json"))).isEqualTo("{\"i\":3}");
+    }
+
+    /**
+     * an output which is its own input, or shared by two inputs, is refused before any file is opened
+     */
+    @Test
+    public void test_output_must_not_overwrite_an_input() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_output_must_not_overwrite_an_input");
+        Path a = Files.writeString(dir.resolve("a.json"), "{\"a\": [1, 2]}");
+        for (String mode : new String[] { "--minify", "--tab" }) {
+            Call call = new Call("");
+            assertThat(call.run(mode, "--output", dir.toString(), a.toString())).as(mode).isEqualTo(Main.USAGE);
+            assertThat(call.err()).as(mode).contains("would be overwritten by its own output");
+            assertThat(Files.readString(a)).as(mode).isEqualTo("{\"a\": [1, 2]}");
+        }
+        Path sub = Files.createDirectories(dir.resolve("sub"));
+        Path other = Files.writeString(sub.resolve("a.json"), "[3]");
+        Path out = dir.resolve("out");
+        for (String mode : new String[] { "--minify", "--tab" }) {
+            Call call = new Call("");
+            assertThat(call.run(mode, "--output", out.toString(), a.toString(), other.toString()))
+                    .as(mode).isEqualTo(Main.USAGE);
+            assertThat(call.err()).as(mode).contains("would both be written into");
+            assertThat(Files.exists(out)).as(mode).isFalse();
+        }
+    }
+
+    @Test
+    public void test_strict_fails() {
+        Call call = new Call("{\"a\" 1}");
+        assertThat(call.run("--strict")).isEqualTo(Main.FAILED);
+        assertThat(call.err()).contains("Expected ':'").contains("$.a");
+    }
+
+    @Test
+    public void test_missing_file_does_not_stop_the_others() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_missing_file_does_not_stop_the_others");
+        Path b = Files.writeString(dir.resolve("b.json"), "[1]");
+        Call call = new Call("");
+        assertThat(call.run(dir.resolve("missing.json").toString(), b.toString())).isEqualTo(Main.FAILED);
+        assertThat(call.err()).contains("missing.json");
+        assertThat(call.out()).isEqualTo("[\n  1\n]\n");
+    }
+
+    @Test
+    public void test_usage() {
+        assertThat(new Call("").run("--indent")).isEqualTo(Main.USAGE);
+        assertThat(new Call("").run("--indent", "two")).isEqualTo(Main.USAGE);
+        assertThat(new Call("").run("--bogus")).isEqualTo(Main.USAGE);
+        assertThat(new Call("").run("--minify", "--strict")).isEqualTo(Main.USAGE);
+        assertThat(new Call("").run("--output", "out")).isEqualTo(Main.USAGE);
+        Call help = new Call("");
+        assertThat(help.run("--help")).isEqualTo(Main.OK);
+        assertThat(help.err()).startsWith("Usage: jsonflyweight");
+    }
+
+    private static String pretty(JsonFlyweight.Formatter.Builder builder) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        builder.build().prettyPrint(new ByteArrayInputStream(UGLY.getBytes(StandardCharsets.UTF_8)), out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * a call of the command with stdin given, stdout and stderr caught
+     */
+    private static final class Call {
+        private final byte[] stdin;
+        private final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+
+        Call(String stdin) {
+            this.stdin = stdin.getBytes(StandardCharsets.UTF_8);
+        }
+
+        int run(String... args) {
+            return Main.run(args, new ByteArrayInputStream(stdin), stdout,
+                    new PrintStream(stderr, true, StandardCharsets.UTF_8));
+        }
+
+        String out() {
+            return stdout.toString(StandardCharsets.UTF_8);
+        }
+
+        String err() {
+            return stderr.toString(StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.kazurayam.jsonflyweight.jmh;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.kazurayam.jsonflyweight.JsonFlyweight;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Pretty-prints a synthetic JSON document of the given shape and size
+ * with JsonFlyweight, Jackson streaming and Gson streaming.
+ * All cases read the document from a file and discard the output,
+ * except the Path cases which write a file as the API requires.
+ *
+ * The primary score is in documents per second; the "megabytes" secondary score
+ * gives the throughput in MB/s of the input.
+ */
+@State(Scope.Benchmark)
+public class PrettyPrintBenchmark {
+
+    @Param({"HAR", "DEEP", "STRINGS", "NUMBERS"})
+    public SyntheticJson.Shape shape;
+
+    @Param({"1KB", "1MB", "64MB"})
+    public String size;
+
+    private Path input;
+    private long inputSize;
+    private Path output;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Path dataDir = Paths.get(System.getProperty("jsonflyweight.jmh.dataDir", "build/jmh-data"));
+        input = SyntheticJson.obtain(dataDir, shape, size);
+        inputSize = Files.size(input);
+        output = Files.createTempFile("PrettyPrintBenchmark", ".json");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(output);
+    }
+
+    /**
+     * counts the megabytes of input processed, reported as MB per second
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public double megabytes;
+
+        void add(long bytes) {
+            megabytes += bytes / (1024.0 * 1024.0);
+        }
+    }
+
+    @Benchmark
+    public int jsonFlyweightReaderWriter(Throughput throughput) throws IOException {
+        Reader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+        Writer writer = Writer.nullWriter();
+        int numLines = JsonFlyweight.prettyPrint(reader, writer);
+        throughput.add(inputSize);
+        return numLines;
+    }
+
+    @Benchmark
+    public int jsonFlyweightStreams(Throughput throughput) throws IOException {
+        InputStream is = Files.newInputStream(input);
+        OutputStream os = OutputStream.nullOutputStream();
+        int numLines = JsonFlyweight.prettyPrint(is, os);
+        throughput.add(inputSize);
+        return numLines;
+    }
+
+    @Benchmark
+    public int jsonFlyweightPaths(Throughput throughput) throws IOException {
+        int numLines = JsonFlyweight.prettyPrint(input, output);
+        throughput.add(inputSize);
+        return numLines;
+    }
+
+    @Benchmark
+    public int jsonFlyweightParallel(Throughput throughput) throws IOException {
+        int numLines = JsonFlyweight.prettyPrintParallel(input, output);
+        throughput.add(inputSize);
+        return numLines;
+    }
+
+    @Benchmark
+    public long jacksonStreaming(Throughput throughput) throws IOException {
+        try (InputStream is = Files.newInputStream(input);
+             JsonParser parser = jsonFactory.createParser(is);
+             JsonGenerator generator = jsonFactory.createGenerator(
+                     OutputStream.nullOutputStream(), JsonEncoding.UTF8)) {
+            generator.useDefaultPrettyPrinter();
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+            generator.flush();
+            throughput.add(inputSize);
+            return parser.currentLocation().getByteOffset();
+        }
+    }
+
+    @Benchmark
+    public int gsonStreaming(Throughput throughput) throws IOException {
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(input, StandardCharsets.UTF_8));
+             JsonWriter writer = new JsonWriter(Writer.nullWriter())) {
+            writer.setIndent("  ");
+            int numTokens = copy(reader, writer);
+            throughput.add(inputSize);
+            return numTokens;
+        }
+    }
+
+    /**
+     * Copy one JSON value token by token from the reader to the writer.
+     *
+     * @return number of tokens copied
+     */
+    private static int copy(JsonReader reader, JsonWriter writer) throws IOException {
+        int numTokens = 0;
+        int depth = 0;
+        do {
+            switch (reader.peek()) {
+                case BEGIN_ARRAY:
+                    reader.beginArray();
+                    writer.beginArray();
+                    depth++;
+                    break;
+                case END_ARRAY:
+                    reader.endArray();
+                    writer.endArray();
+                    depth--;
+                    break;
+                case BEGIN_OBJECT:
+                    reader.beginObject();
+                    writer.beginObject();
+                    depth++;
+                    break;
+                case END_OBJECT:
+                    reader.endObject();
+                    writer.endObject();
+                    depth--;
+                    break;
+                case NAME:
+                    writer.name(reader.nextName());
+                    break;
+                case STRING:
+                    writer.value(reader.nextString());
+                    break;
+                case NUMBER:
+                    // keep the lexeme as it is
+                    writer.jsonValue(reader.nextString());
+                    break;
+                case BOOLEAN:
+                    writer.value(reader.nextBoolean());
+                    break;
+                case NULL:
+                    reader.nextNull();
+                    writer.nullValue();
+                    break;
+                default:
+                    throw new IllegalStateException("unexpected token " + reader.peek());
+            }
+            numTokens++;
+        } while (depth > 0);
+        return numTokens;
+    }
+}
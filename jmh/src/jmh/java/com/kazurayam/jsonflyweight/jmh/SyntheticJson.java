@@ -0,0 +1,227 @@
+package com.kazurayam.jsonflyweight.jmh;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates minified JSON documents of a given shape and size for the benchmarks.
+ * The output is deterministic: the same shape and size always produce the same bytes,
+ * so that the numbers of different runs are comparable.
+ *
+ * The documents are written to a file as they are generated, so a document of
+ * 1 GB can be made without holding it in memory.
+ *
+ * <pre>
+ * java com.kazurayam.jsonflyweight.jmh.SyntheticJson HAR 300MB build/sample.har
+ * </pre>
+ */
+public final class SyntheticJson {
+
+    public enum Shape {
+        /** HTTP Archive: log.entries[] of requests and responses with base64 bodies */
+        HAR,
+        /** objects and arrays nested 64 levels deep, repeatedly */
+        DEEP,
+        /** an array of long strings with escapes and non-ASCII characters */
+        STRINGS,
+        /** an array of arrays of integers and decimals */
+        NUMBERS
+    }
+
+    private static final long SEED = 20240801L;
+
+    private static final String[] WORDS = {
+            "alpha", "beta", "gamma", "delta", "epsilon", "zeta", "eta", "theta",
+            "日本語", "テキスト", "Ünïcödé", "\\\"quoted\\\"", "back\\\\slash", "tab\\t", "line\\n", "a,b:c{d}[e]"
+    };
+
+    private static final String[] MIME_TYPES = {
+            "text/html", "application/javascript", "text/css", "image/png", "application/json"
+    };
+
+    private final Shape shape;
+    private final long targetSize;
+    private final Random random = new Random(SEED);
+    private long written;
+
+    private SyntheticJson(Shape shape, long targetSize) {
+        this.shape = shape;
+        this.targetSize = targetSize;
+    }
+
+    /**
+     * @param size such as "1KB", "300MB", "1GB" or a number of bytes
+     * @return the number of bytes
+     */
+    public static long parseSize(String size) {
+        String s = size.trim().toUpperCase(Locale.ROOT);
+        long unit = 1;
+        if (s.endsWith("KB")) {
+            unit = 1024L;
+        } else if (s.endsWith("MB")) {
+            unit = 1024L * 1024;
+        } else if (s.endsWith("GB")) {
+            unit = 1024L * 1024 * 1024;
+        }
+        if (unit > 1) {
+            s = s.substring(0, s.length() - 2);
+        }
+        return Long.parseLong(s) * unit;
+    }
+
+    /**
+     * Find the document of the shape and size in the directory, generate it if not there yet.
+     *
+     * @return path of the document
+     */
+    public static Path obtain(Path dataDir, Shape shape, String size) throws IOException {
+        Path file = dataDir.resolve(shape.name().toLowerCase(Locale.ROOT) + "-" + size + ".json");
+        if (!Files.exists(file)) {
+            Files.createDirectories(dataDir);
+            Path tmp = Files.createTempFile(dataDir, "generating", ".json");
+            generate(shape, parseSize(size), tmp);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return file;
+    }
+
+    /**
+     * Generate a minified JSON a little larger than the target size.
+     */
+    public static void generate(Shape shape, long targetSize, Path file) throws IOException {
+        try (Writer w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            new SyntheticJson(shape, targetSize).generate(w);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("usage: SyntheticJson <HAR|DEEP|STRINGS|NUMBERS> <size> <output file>");
+            System.exit(1);
+        }
+        generate(Shape.valueOf(args[0]), parseSize(args[1]), Paths.get(args[2]));
+    }
+
+    private void generate(Writer w) throws IOException {
+        switch (shape) {
+            case HAR:
+                emit(w, "{\"log\":{\"version\":\"1.2\",\"creator\":{\"name\":\"SyntheticJson\",\"version\":\"1.0\"},\"entries\":[");
+                for (int i = 0; written < targetSize; i++) {
+                    if (i > 0) {
+                        emit(w, ",");
+                    }
+                    harEntry(w, i);
+                }
+                emit(w, "]}}");
+                break;
+            case DEEP:
+                emit(w, "[");
+                for (int i = 0; written < targetSize; i++) {
+                    if (i > 0) {
+                        emit(w, ",");
+                    }
+                    nested(w, 64);
+                }
+                emit(w, "]");
+                break;
+            case STRINGS:
+                emit(w, "[");
+                for (int i = 0; written < targetSize; i++) {
+                    if (i > 0) {
+                        emit(w, ",");
+                    }
+                    emit(w, "\"");
+                    int n = 20 + random.nextInt(200);
+                    for (int k = 0; k < n; k++) {
+                        emit(w, WORDS[random.nextInt(WORDS.length)]);
+                        emit(w, " ");
+                    }
+                    emit(w, "\"");
+                }
+                emit(w, "]");
+                break;
+            case NUMBERS:
+                emit(w, "[");
+                for (int i = 0; written < targetSize; i++) {
+                    if (i > 0) {
+                        emit(w, ",");
+                    }
+                    emit(w, "[");
+                    for (int k = 0; k < 16; k++) {
+                        if (k > 0) {
+                            emit(w, ",");
+                        }
+                        emit(w, (k % 2 == 0)
+                                ? Integer.toString(random.nextInt())
+                                : Double.toString(random.nextDouble() * 1000));
+                    }
+                    emit(w, "]");
+                }
+                emit(w, "]");
+                break;
+            default:
+                throw new IllegalStateException(shape.name());
+        }
+    }
+
+    private void harEntry(Writer w, int i) throws IOException {
+        String mimeType = MIME_TYPES[random.nextInt(MIME_TYPES.length)];
+        emit(w, "{\"startedDateTime\":\"2024-08-01T12:00:" + String.format(Locale.ROOT, "%02d", i % 60) + ".000Z\"");
+        emit(w, ",\"time\":" + random.nextInt(2000));
+        emit(w, ",\"request\":{\"method\":\"GET\",\"url\":\"https://example.com/assets/" + i
+                + "?v=" + random.nextInt(1000) + "\",\"httpVersion\":\"HTTP/1.1\",\"headers\":[");
+        headers(w);
+        emit(w, "],\"queryString\":[],\"cookies\":[],\"headersSize\":-1,\"bodySize\":0}");
+        emit(w, ",\"response\":{\"status\":200,\"statusText\":\"OK\",\"httpVersion\":\"HTTP/1.1\",\"headers\":[");
+        headers(w);
+        byte[] body = new byte[256 + random.nextInt(8192)];
+        random.nextBytes(body);
+        emit(w, "],\"content\":{\"size\":" + body.length + ",\"mimeType\":\"" + mimeType
+                + "\",\"text\":\"" + Base64.getEncoder().encodeToString(body) + "\",\"encoding\":\"base64\"}");
+        emit(w, ",\"redirectURL\":\"\",\"headersSize\":-1,\"bodySize\":" + body.length + "}");
+        emit(w, ",\"cache\":{},\"timings\":{\"blocked\":" + random.nextInt(10) + ",\"dns\":-1,\"connect\":-1"
+                + ",\"send\":0,\"wait\":" + random.nextInt(500) + ",\"receive\":" + random.nextInt(100)
+                + ",\"ssl\":-1}}");
+    }
+
+    private void headers(Writer w) throws IOException {
+        int n = 4 + random.nextInt(8);
+        for (int k = 0; k < n; k++) {
+            if (k > 0) {
+                emit(w, ",");
+            }
+            emit(w, "{\"name\":\"X-Header-" + k + "\",\"value\":\"" + WORDS[random.nextInt(WORDS.length)]
+                    + "; " + Long.toHexString(random.nextLong()) + "\"}");
+        }
+    }
+
+    private void nested(Writer w, int depth) throws IOException {
+        if (depth == 0) {
+            emit(w, "\"" + WORDS[random.nextInt(WORDS.length)] + "\"");
+            return;
+        }
+        if (depth % 2 == 0) {
+            emit(w, "{\"k" + depth + "\":");
+            nested(w, depth - 1);
+            emit(w, ",\"n\":" + random.nextInt(100) + "}");
+        } else {
+            emit(w, "[");
+            nested(w, depth - 1);
+            emit(w, ",true,null]");
+        }
+    }
+
+    private void emit(Writer w, String s) throws IOException {
+        w.write(s);
+        // close enough to the number of bytes; exact for the ASCII content
+        written += s.length();
+    }
+}
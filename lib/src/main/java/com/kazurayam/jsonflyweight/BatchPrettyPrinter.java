@@ -0,0 +1,158 @@
+package com.kazurayam.jsonflyweight;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pretty-prints many files concurrently on a fixed number of threads.
+ *
+ * The buffers and the engines are held in a pool of {@code parallelism} workspaces;
+ * a job borrows a workspace and gives it back when done. So the heap used for the buffers
+ * is capped at {@code parallelism} workspaces however many files there are,
+ * and nothing is allocated per file once the workspaces are warmed up.
+ *
+ * The files are started from the largest one down, so that a large file found late
+ * does not keep the batch running alone on a single thread at the end.
+ */
+final class BatchPrettyPrinter {
+
+    private final JsonFlyweight.Formatter formatter;
+    private final int parallelism;
+
+    BatchPrettyPrinter(JsonFlyweight.Formatter formatter, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be 1 or more: " + parallelism);
+        }
+        this.formatter = formatter;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return the results in the order of the inputs
+     */
+    List<PrettyPrintResult> prettyPrintAll(Collection<Path> inputs, Path outputDir) throws IOException {
+        List<Job> jobs = new ArrayList<>(inputs.size());
+        Map<Path, Path> outputs = new HashMap<>();
+        for (Path input : inputs) {
+            Path output = outputDir.resolve(input.getFileName().toString());
+            Path other = outputs.put(output, input);
+            if (other != null) {
+                throw new IllegalArgumentException(other + " and " + input + " would both be written into " + output);
+            }
+            if (output.toAbsolutePath().normalize().equals(input.toAbsolutePath().normalize())) {
+                throw new IllegalArgumentException(input + " would be overwritten by its own output");
+            }
+            jobs.add(new Job(input, output));
+        }
+        Files.createDirectories(outputDir);
+
+        List<Job> largestFirst = new ArrayList<>(jobs);
+        largestFirst.sort(Comparator.comparingLong((Job job) -> job.inputBytes).reversed());
+
+        int numThreads = Math.min(parallelism, Math.max(1, jobs.size()));
+        BlockingQueue<JsonFlyweight.Formatter.Workspace> workspaces = new ArrayBlockingQueue<>(numThreads);
+        for (int i = 0; i < numThreads; i++) {
+            workspaces.add(formatter.newWorkspace());
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads, new BatchThreadFactory());
+        try {
+            List<Future<PrettyPrintResult>> futures = new ArrayList<>(jobs.size());
+            for (Job job : largestFirst) {
+                futures.add(executor.submit(() -> {
+                    JsonFlyweight.Formatter.Workspace ws = workspaces.take();
+                    try {
+                        return job.run(ws);
+                    } finally {
+                        workspaces.add(ws);
+                    }
+                }));
+            }
+            Map<Path, PrettyPrintResult> results = new HashMap<>();
+            for (int i = 0; i < futures.size(); i++) {
+                results.put(largestFirst.get(i).input, get(futures.get(i)));
+            }
+            List<PrettyPrintResult> ordered = new ArrayList<>(jobs.size());
+            for (Job job : jobs) {
+                ordered.add(results.get(job.input));
+            }
+            return ordered;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static PrettyPrintResult get(Future<PrettyPrintResult> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while pretty-printing a batch");
+        } catch (ExecutionException e) {
+            // failures of the files are in the results; only an Error comes here
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private final class Job {
+        private final Path input;
+        private final Path output;
+        private final long inputBytes;
+
+        Job(Path input, Path output) {
+            this.input = input;
+            this.output = output;
+            long size;
+            try {
+                size = Files.size(input);
+            } catch (IOException e) {
+                // will fail when opened, and be reported then
+                size = 0;
+            }
+            this.inputBytes = size;
+        }
+
+        PrettyPrintResult run(JsonFlyweight.Formatter.Workspace ws) {
+            long start = System.nanoTime();
+            try {
+                int numLines = formatter.prettyPrint(input, output, ws);
+                return new PrettyPrintResult(input, output, numLines, inputBytes, Files.size(output),
+                        Duration.ofNanos(System.nanoTime() - start), null);
+            } catch (IOException | RuntimeException e) {
+                return new PrettyPrintResult(input, output, 0, inputBytes, 0,
+                        Duration.ofNanos(System.nanoTime() - start), e);
+            }
+        }
+    }
+
+    private static final class BatchThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "JsonFlyweight-batch-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.kazurayam.jsonflyweight;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded ring of byte blocks which connects a producer thread to a consumer thread.
+ * All the blocks are allocated up front and recycled: the producer acquires a free block,
+ * fills it and publishes it; the consumer takes the published blocks in order and releases
+ * them for reuse. So the memory is fixed at {@code numBlocks * blockSize} bytes however long
+ * the stream is, and the producer waits whenever the consumer falls behind.
+ *
+ * Either side may {@link #fail(Throwable)} the ring; then every waiting call,
+ * on both sides, gives up with an IOException instead of waiting forever.
+ */
+final class BlockRing {
+
+    static final class Block {
+        final byte[] bytes;
+        int length;
+
+        Block(int size) {
+            this.bytes = new byte[size];
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    private final ArrayDeque<Block> free;
+    private final Block[] published;
+    private int head = 0;
+    private int count = 0;
+    private boolean closed = false;
+    private Throwable failure = null;
+
+    BlockRing(int numBlocks, int blockSize) {
+        if (numBlocks < 1) {
+            throw new IllegalArgumentException("numBlocks must be 1 or more: " + numBlocks);
+        }
+        this.free = new ArrayDeque<>(numBlocks);
+        this.published = new Block[numBlocks];
+        for (int i = 0; i < numBlocks; i++) {
+            free.add(new Block(blockSize));
+        }
+    }
+
+    /**
+     * Producer: wait for a free block
+     */
+    Block acquire() throws IOException {
+        lock.lock();
+        try {
+            while (free.isEmpty()) {
+                await();
+            }
+            checkFailure();
+            Block block = free.poll();
+            block.length = 0;
+            return block;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Producer: hand a filled block to the consumer
+     */
+    void publish(Block block) throws IOException {
+        lock.lock();
+        try {
+            checkFailure();
+            published[(head + count) % published.length] = block;
+            count++;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Producer: no more blocks will be published
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Consumer: wait for the next published block
+     *
+     * @return the block, or null if the producer has closed the ring and all blocks are taken
+     */
+    Block take() throws IOException {
+        lock.lock();
+        try {
+            while (count == 0 && !closed) {
+                await();
+            }
+            checkFailure();
+            if (count == 0) {
+                return null;
+            }
+            Block block = published[head];
+            published[head] = null;
+            head = (head + 1) % published.length;
+            count--;
+            return block;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Consumer: give a block back for reuse
+     */
+    void release(Block block) {
+        lock.lock();
+        try {
+            free.add(block);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Either side: abort the pipeline. The first failure is kept.
+     */
+    void fail(Throwable t) {
+        lock.lock();
+        try {
+            if (failure == null) {
+                failure = t;
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the first failure, or null
+     */
+    Throwable getFailure() {
+        lock.lock();
+        try {
+            return failure;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void await() throws IOException {
+        checkFailure();
+        try {
+            changed.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a block");
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("the pipeline has been aborted", failure);
+        }
+    }
+}
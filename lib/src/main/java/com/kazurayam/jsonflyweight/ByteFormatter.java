@@ -0,0 +1,770 @@
+package com.kazurayam.jsonflyweight;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The byte-oriented engine behind {@link JsonFlyweight#prettyPrint(java.io.InputStream, OutputStream)}.
+ *
+ * All structural characters of JSON are ASCII, and every byte of a multi-byte UTF-8 sequence
+ * is 0x80 or greater, so the state machine can scan UTF-8 bytes without decoding them.
+ * Multi-byte sequences are copied to the output untouched.
+ *
+ * Runs of bytes which need no translation, such as the content of a long string,
+ * are located by {@link SwarScanner} 8 bytes at a time and bulk-copied to the output.
+ *
+ * An instance keeps its state (indent level, quoting, escape) between calls to
+ * {@link #format(byte[], int, int)}, so the input can be fed in fragments of any size.
+ * The pretty-printed bytes are accumulated in an internal buffer which the caller drains.
+ *
+ * In the strict mode, the bytes consumed by every call are checked by a {@link JsonValidator}
+ * in the same pass as they are formatted, the automaton of the validator running in the loop
+ * of the formatter. When the strings are measured or cut, the bytes are checked right after
+ * they are formatted instead, while they are still in the cache.
+ *
+ * With a {@link JsonProjector}, {@link #format(byte[], int, int, OutputStream)} formats
+ * only the parts of the input the projector selects; the validator checks the whole input.
+ * With a {@link KeySorter}, it formats the members of every object sorted by their names,
+ * after the projection if any.
+ *
+ * With a maximum length of strings, a string value longer than that is cut after
+ * as many characters, and the rest is replaced by a marker like <code>&hellip;(+123456 chars)</code>.
+ * The rest is skipped 8 bytes at a time without being copied; only its characters are counted.
+ * An escape sequence, a character of multiple bytes and a surrogate pair in u-escapes
+ * count as one character, and are never cut.
+ * The names of the members are not cut: a string is known to be a name by the bracket or
+ * the comma before it, for which one bit per indent level tells an object from an array.
+ */
+final class ByteFormatter {
+
+    /**
+     * room reserved at the tail of the output buffer
+     * so that a single input byte never overflows it
+     */
+    private static final int RESERVE = 256;
+
+    private static final byte[] MARKER_HEAD = "\u2026(+".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] MARKER_TAIL = " chars)".getBytes(StandardCharsets.UTF_8);
+
+    private final Indentation indentation;
+
+    /** checks the input in the strict mode; null in the permissive mode */
+    private final JsonValidator validator;
+
+    /** selects the parts to format; null to format all */
+    private final JsonProjector projector;
+
+    /** sorts the members of the objects; null to keep their order */
+    private final KeySorter sorter;
+
+    private byte[] out;
+    private int outPos;
+
+    private int indentLevel;
+    private boolean inQuote;
+    private boolean escaped;
+    private int numLines;
+
+    /** records a sparse index of the lines; null if not wanted */
+    private LineIndexer indexer;
+
+    /** number of characters a string value is cut after; -1 for no limit */
+    private final int maxStringLength;
+
+    private int maxDepth;
+
+    // the measures of the strings: used only if measuring
+    private boolean measuring;
+    private long drained;
+    private long stringStart;
+    private long longestString;
+
+    /** true to take the strings on the slow path, to measure them or to cut them */
+    private boolean watchStrings;
+
+    // the state of a string on the slow path: used only if watchStrings
+    private long[] objectLevels = new long[1];
+    private boolean expectKey;
+    private boolean watching;
+    private int stringCap;
+    private boolean eliding;
+    private int stringChars;
+    private long omittedChars;
+    private int hexDigits;
+    private int hexValue;
+    private boolean highSurrogate;
+
+    /**
+     * @param formatter the layout, the projection, the sorting and the cutting of the strings
+     * @param validating true to check the input as in the strict mode
+     */
+    ByteFormatter(JsonFlyweight.Formatter formatter, boolean validating) {
+        this.indentation = formatter.getIndentation();
+        this.validator = validating ? new JsonValidator() : null;
+        this.projector = formatter.isProjecting() ? formatter.newProjector() : null;
+        this.sorter = formatter.isSortingKeys() ? new KeySorter(formatter.getSortKeysBudget()) : null;
+        this.maxStringLength = formatter.getMaxStringLength();
+        this.watchStrings = maxStringLength >= 0;
+        this.out = new byte[Math.max(formatter.getBufferCapacity(), RESERVE * 2)];
+        this.outPos = 0;
+    }
+
+    /**
+     * Translate the input bytes into the output buffer.
+     * Stops early when the output buffer gets nearly full; the caller should drain
+     * the output buffer and call this method again with the rest of the input.
+     *
+     * @param in the ugly JSON in UTF-8
+     * @param off offset of the first byte to process
+     * @param len number of bytes available
+     * @return number of bytes consumed from the input
+     * @throws JsonFlyweightException in the strict mode, if the input is found malformed
+     */
+    int format(byte[] in, int off, int len) throws JsonFlyweightException {
+        if (validator == null) {
+            return translate(in, off, len);
+        }
+        if (!watchStrings) {
+            return translateStrict(in, off, len);
+        }
+        // the strings measured or cut take the slow path of their own, and are checked after it
+        int consumed = translate(in, off, len);
+        validator.validate(in, off, consumed);
+        return consumed;
+    }
+
+    private int translate(byte[] in, int off, int len) {
+        final int end = off + len;
+        final int highWater = out.length - RESERVE;
+        int i = off;
+        while (i < end && outPos < highWater) {
+            if (watching) {
+                i = translateWatchedString(in, i, end, highWater);
+                continue;
+            }
+            if (inQuote && escaped) {
+                // the byte after a backslash never changes the state
+                out[outPos++] = in[i++];
+                escaped = false;
+                continue;
+            }
+            // bulk-copy the run of bytes which need no translation
+            int limit = Math.min(end, i + (highWater - outPos));
+            int stop = inQuote
+                    ? SwarScanner.indexOfQuoteOrBackslash(in, i, limit)
+                    : SwarScanner.indexOfStructural(in, i, limit);
+            if (stop > i) {
+                System.arraycopy(in, i, out, outPos, stop - i);
+                outPos += stop - i;
+                i = stop;
+            }
+            if (stop == limit) {
+                continue;
+            }
+            byte ch = in[i++];
+            if (inQuote) {
+                out[outPos++] = ch;
+                if (ch == '\\') {
+                    escaped = true;
+                } else {
+                    inQuote = false;
+                }
+                continue;
+            }
+            translateOutOfQuotes(ch);
+        }
+        return i - off;
+    }
+
+    /**
+     * Translate a byte out of quotes
+     */
+    private void translateOutOfQuotes(byte ch) {
+        switch (ch) {
+            case '"':
+                out[outPos++] = ch;
+                inQuote = true;
+                if (watchStrings) {
+                    watchString();
+                }
+                break;
+            case ' ':
+            case '\t':
+                // ignore the space as it is not being quoted
+                break;
+            case '{':
+            case '[':
+                // Starting a new block: increase the indent level
+                out[outPos++] = ch;
+                indentLevel++;
+                if (indentLevel > maxDepth) {
+                    maxDepth = indentLevel;
+                }
+                if (maxStringLength >= 0) {
+                    enterLevel(ch == '{');
+                }
+                newLineAndIndent(ch);
+                break;
+            case '}':
+            case ']':
+                // Ending a new block; decrease the indent level
+                indentLevel--;
+                newLineAndIndent(ch);
+                out[outPos++] = ch;
+                break;
+            case ',':
+                // Ending a JSON item; create a new line after
+                out[outPos++] = ch;
+                if (maxStringLength >= 0) {
+                    expectKey = isObjectLevel();
+                }
+                newLineAndIndent(ch);
+                break;
+            case ':':
+                // "key": "value" --- insert a space after colon :
+                out[outPos++] = ch;
+                out[outPos++] = ' ';
+                expectKey = false;
+                break;
+            default:
+                out[outPos++] = ch;
+        }
+    }
+
+    /**
+     * Translate the input bytes, checking them by the validator in the same pass.
+     * The automaton of the validator runs along: the plain content of a string is found by
+     * a single scan, which copies it and checks it at once, and any other byte is looked up
+     * by the validator before it is translated.
+     *
+     * @return number of bytes consumed from the input
+     */
+    private int translateStrict(byte[] in, int off, int len) throws JsonFlyweightException {
+        final int end = off + len;
+        final int highWater = out.length - RESERVE;
+        int s = validator.begin(off);
+        int i = off;
+        while (i < end && outPos < highWater) {
+            if (JsonValidator.isInString(s)) {
+                int limit = Math.min(end, i + (highWater - outPos));
+                int stop = SwarScanner.indexOfQuoteBackslashOrControl(in, i, limit);
+                if (stop > i) {
+                    validator.keyChars(s, in, i, stop);
+                    System.arraycopy(in, i, out, outPos, stop - i);
+                    outPos += stop - i;
+                    i = stop;
+                }
+                if (stop == limit) {
+                    continue;
+                }
+            } else if (JsonValidator.isInDigits(s)) {
+                int limit = Math.min(end, i + (highWater - outPos));
+                int stop = SwarScanner.indexOfNonDigit(in, i, limit);
+                System.arraycopy(in, i, out, outPos, stop - i);
+                outPos += stop - i;
+                i = stop;
+                if (stop == limit) {
+                    continue;
+                }
+            }
+            byte ch = in[i];
+            s = validator.step(s, ch, i);
+            i++;
+            if (inQuote) {
+                out[outPos++] = ch;
+                if (escaped) {
+                    escaped = false;
+                } else if (ch == '\\') {
+                    escaped = true;
+                } else if (ch == '"') {
+                    inQuote = false;
+                }
+                continue;
+            }
+            translateOutOfQuotes(ch);
+        }
+        validator.end(s, i - off);
+        return i - off;
+    }
+
+    /**
+     * Translate a part of a string which is measured or may be cut: a run of plain characters,
+     * or a backslash, or the byte after it, or the closing quote.
+     *
+     * @return index of the next input byte
+     */
+    private int translateWatchedString(byte[] in, int i, int end, int highWater) {
+        if (escaped || hexDigits > 0) {
+            // the byte after a backslash, or a hex digit of a u-escape;
+            // the backslash counted for the whole escape sequence
+            byte ch = in[i];
+            if (!escaped && hexDigit(ch) < 0) {
+                // a malformed u-escape ends at the first byte which is not a hex digit;
+                // that byte is taken as in any string, so that a quote closes it as the plain path does
+                hexDigits = 0;
+                highSurrogate = false;
+                return i;
+            }
+            if (!eliding) {
+                out[outPos++] = ch;
+            }
+            if (escaped) {
+                escaped = false;
+                if (ch == 'u') {
+                    hexDigits = 4;
+                    hexValue = 0;
+                }
+            } else {
+                hexValue = (hexValue << 4) | hexDigit(ch);
+                if (--hexDigits == 0) {
+                    highSurrogate = hexValue >= 0xD800 && hexValue <= 0xDBFF;
+                }
+            }
+            return i + 1;
+        }
+        if (eliding) {
+            // skip to the end of the string, counting the characters
+            int stop = SwarScanner.indexOfQuoteOrBackslash(in, i, end);
+            if (stop > i) {
+                omittedChars += SwarScanner.countCodePoints(in, i, stop);
+                highSurrogate = false;
+            }
+            if (stop == end) {
+                return stop;
+            }
+            if (in[stop] == '\\') {
+                // the low half of an escaped surrogate pair does not count
+                omittedChars += highSurrogate ? 0 : 1;
+                highSurrogate = false;
+                escaped = true;
+            } else {
+                putMarker();
+                if (measuring) {
+                    endString(outPos);
+                }
+                out[outPos++] = '"';
+                inQuote = false;
+                watching = false;
+            }
+            return stop + 1;
+        }
+        int limit = Math.min(end, i + (highWater - outPos));
+        int stop = SwarScanner.indexOfQuoteOrBackslash(in, i, limit);
+        if (stop > i) {
+            highSurrogate = false;
+            int room = stringCap - stringChars;
+            int chars = SwarScanner.countCodePoints(in, i, stop);
+            if (chars > room) {
+                // cut before the character which would go over the maximum
+                int cut = i;
+                for (int n = 0; n <= room; cut++) {
+                    if ((in[cut] & 0xC0) != 0x80) {
+                        n++;
+                    }
+                }
+                cut--;
+                System.arraycopy(in, i, out, outPos, cut - i);
+                outPos += cut - i;
+                stringChars = stringCap;
+                eliding = true;
+                omittedChars = 0;
+                return cut;
+            }
+            System.arraycopy(in, i, out, outPos, stop - i);
+            outPos += stop - i;
+            stringChars += chars;
+        }
+        if (stop == limit) {
+            return stop;
+        }
+        if (in[stop] == '"') {
+            if (measuring) {
+                endString(outPos);
+            }
+            out[outPos++] = '"';
+            inQuote = false;
+            watching = false;
+        } else if (highSurrogate) {
+            // the low half of an escaped surrogate pair; never cut off its high half
+            out[outPos++] = '\\';
+            highSurrogate = false;
+            escaped = true;
+        } else if (stringChars == stringCap) {
+            // an escape sequence would go over the maximum
+            eliding = true;
+            omittedChars = 0;
+            return stop;
+        } else {
+            out[outPos++] = '\\';
+            stringChars++;
+            escaped = true;
+        }
+        return stop + 1;
+    }
+
+    /**
+     * @return the value of a hex digit, or -1 if it is not one
+     */
+    private static int hexDigit(int c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * Translate all the input bytes, writing the output buffer into the sink whenever it gets full.
+     */
+    void format(byte[] in, int off, int len, OutputStream sink) throws IOException {
+        if (projector != null) {
+            if (validator != null) {
+                validator.validate(in, off, len);
+            }
+            projector.project(in, off, len, this, sink);
+            return;
+        }
+        if (sorter != null) {
+            if (validator != null) {
+                validator.validate(in, off, len);
+            }
+            sorter.sort(in, off, len, this, sink);
+            return;
+        }
+        int done = 0;
+        while (done < len) {
+            done += format(in, off + done, len - done);
+            if (outPos >= out.length - RESERVE) {
+                drainTo(sink);
+            }
+        }
+    }
+
+    /**
+     * Translate all the input bytes without checking them;
+     * used by the projector for the bytes it selects and for the brackets it puts.
+     */
+    void translate(byte[] in, int off, int len, OutputStream sink) throws IOException {
+        if (sorter != null) {
+            sorter.sort(in, off, len, this, sink);
+            return;
+        }
+        translateSorted(in, off, len, sink);
+    }
+
+    /**
+     * Translate all the input bytes in the order given; used by the sorter for the members it has sorted.
+     */
+    void translateSorted(byte[] in, int off, int len, OutputStream sink) throws IOException {
+        int done = 0;
+        while (done < len) {
+            done += translate(in, off + done, len - done);
+            if (outPos >= out.length - RESERVE) {
+                drainTo(sink);
+            }
+        }
+    }
+
+    /**
+     * Write whatever is in the output buffer into the sink and empty the buffer.
+     */
+    void drainTo(OutputStream sink) throws IOException {
+        if (outPos > 0) {
+            if (indexer != null) {
+                indexer.drained(out, outPos);
+            }
+            sink.write(out, 0, outPos);
+            drained += outPos;
+            outPos = 0;
+        }
+    }
+
+    byte[] buffer() {
+        return out;
+    }
+
+    int size() {
+        return outPos;
+    }
+
+    void clear() {
+        drained += outPos;
+        outPos = 0;
+    }
+
+    /**
+     * Declare the end of the input. In the strict mode, check that the JSON is complete.
+     * The members of an object left open by a malformed input are dropped.
+     */
+    void finish() throws JsonFlyweightException {
+        try {
+            if (validator != null) {
+                validator.finish();
+            }
+        } finally {
+            if (sorter != null) {
+                sorter.reset();
+            }
+        }
+    }
+
+    int getNumLines() {
+        return numLines;
+    }
+
+    /**
+     * @return true if an object or an array has been opened and closed, and nothing is open after it
+     */
+    boolean isComplete() {
+        return maxDepth > 0 && indentLevel <= 0 && !inQuote;
+    }
+
+    /**
+     * @return the deepest indent level so far
+     */
+    int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return length of the longest string written so far without the quotes, in bytes;
+     *         0 unless measuring
+     */
+    long getLongestString() {
+        return longestString;
+    }
+
+    /**
+     * @param measuring true to measure the strings for {@link PrettyPrintStats}
+     */
+    void setMeasuring(boolean measuring) {
+        this.measuring = measuring;
+        this.watchStrings = measuring || maxStringLength >= 0;
+    }
+
+    /**
+     * Tell the indexer of every line break from now on; null to stop.
+     * The indexer must have been reset for a new document along with this instance.
+     */
+    void setLineIndexer(LineIndexer indexer) {
+        this.indexer = indexer;
+    }
+
+    /**
+     * Forget the state and the buffered output so that this instance can be reused
+     * for another document.
+     */
+    void reset() {
+        outPos = 0;
+        indentLevel = 0;
+        inQuote = false;
+        escaped = false;
+        numLines = 0;
+        maxDepth = 0;
+        drained = 0;
+        longestString = 0;
+        expectKey = false;
+        watching = false;
+        if (validator != null) {
+            validator.reset();
+        }
+        if (projector != null) {
+            projector.reset();
+        }
+        if (sorter != null) {
+            sorter.reset();
+        }
+    }
+
+    /**
+     * Start from the given state instead of the beginning of a document;
+     * used when the input is a fragment cut out of the middle of a JSON.
+     */
+    void setState(int indentLevel, boolean inQuote, boolean escaped) {
+        this.indentLevel = indentLevel;
+        this.inQuote = inQuote;
+        this.escaped = inQuote && escaped;
+    }
+
+    /**
+     * Write the state between two calls of format, for a checkpoint.
+     * The output buffer must have been drained. No partial UTF-8 sequence needs saving,
+     * as the bytes are copied without being decoded.
+     */
+    byte[] saveState() throws IOException {
+        if (outPos != 0) {
+            throw new IllegalStateException("drain the output before saving the state");
+        }
+        if (projector != null || sorter != null || indexer != null) {
+            throw new UnsupportedOperationException(
+                    "cannot save the state of a projection, of a sorting or of a line index");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(indentLevel);
+        data.writeBoolean(inQuote);
+        data.writeBoolean(escaped);
+        data.writeInt(numLines);
+        data.writeInt(maxDepth);
+        data.writeLong(drained);
+        data.writeLong(stringStart);
+        data.writeLong(longestString);
+        data.writeInt(objectLevels.length);
+        for (long word : objectLevels) {
+            data.writeLong(word);
+        }
+        data.writeBoolean(expectKey);
+        data.writeBoolean(watching);
+        data.writeInt(stringCap);
+        data.writeBoolean(eliding);
+        data.writeInt(stringChars);
+        data.writeLong(omittedChars);
+        data.writeInt(hexDigits);
+        data.writeInt(hexValue);
+        data.writeBoolean(highSurrogate);
+        data.writeBoolean(validator != null);
+        if (validator != null) {
+            validator.saveState(data);
+        }
+        data.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Continue from a state written by {@link #saveState()} of an instance made alike
+     *
+     * @throws IOException if the state is malformed, or was saved in another mode
+     */
+    void restoreState(byte[] state) throws IOException {
+        reset();
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(state));
+        indentLevel = data.readInt();
+        inQuote = data.readBoolean();
+        escaped = data.readBoolean();
+        numLines = data.readInt();
+        maxDepth = data.readInt();
+        drained = data.readLong();
+        stringStart = data.readLong();
+        longestString = data.readLong();
+        int words = data.readInt();
+        if (words < 1 || words > state.length) {
+            throw new IOException("malformed state: " + words + " words of object levels");
+        }
+        objectLevels = new long[words];
+        for (int w = 0; w < words; w++) {
+            objectLevels[w] = data.readLong();
+        }
+        expectKey = data.readBoolean();
+        watching = data.readBoolean();
+        stringCap = data.readInt();
+        eliding = data.readBoolean();
+        stringChars = data.readInt();
+        omittedChars = data.readLong();
+        hexDigits = data.readInt();
+        hexValue = data.readInt();
+        highSurrogate = data.readBoolean();
+        if (data.readBoolean() != (validator != null)) {
+            throw new IOException("the state was saved " + (validator != null ? "out of" : "in") + " the strict mode");
+        }
+        if (validator != null) {
+            validator.restoreState(data);
+        }
+    }
+
+    /**
+     * A string has begun: from now on, take it on the slow path
+     */
+    private void watchString() {
+        if (measuring) {
+            stringStart = drained + outPos;
+        }
+        stringCap = (maxStringLength >= 0 && !expectKey) ? maxStringLength : Integer.MAX_VALUE;
+        watching = true;
+        eliding = false;
+        stringChars = 0;
+        hexDigits = 0;
+        highSurrogate = false;
+    }
+
+    /**
+     * @param closingQuote where the closing quote of the string is going in the output buffer
+     */
+    private void endString(int closingQuote) {
+        long length = drained + closingQuote - stringStart;
+        if (length > longestString) {
+            longestString = length;
+        }
+    }
+
+    /**
+     * Remember whether the level just entered is an object or an array,
+     * to tell a member name from a string value
+     */
+    private void enterLevel(boolean object) {
+        expectKey = object;
+        if (indentLevel < 0) {
+            return;
+        }
+        if ((indentLevel >>> 6) >= objectLevels.length) {
+            objectLevels = Arrays.copyOf(objectLevels, Math.max(objectLevels.length * 2, (indentLevel >>> 6) + 1));
+        }
+        if (object) {
+            objectLevels[indentLevel >>> 6] |= 1L << (indentLevel & 63);
+        } else {
+            objectLevels[indentLevel >>> 6] &= ~(1L << (indentLevel & 63));
+        }
+    }
+
+    private boolean isObjectLevel() {
+        return indentLevel >= 0 && (indentLevel >>> 6) < objectLevels.length
+                && (objectLevels[indentLevel >>> 6] & (1L << (indentLevel & 63))) != 0;
+    }
+
+    /**
+     * Write the marker which tells the number of characters cut off, like <code>&hellip;(+123456 chars)</code>
+     */
+    private void putMarker() {
+        System.arraycopy(MARKER_HEAD, 0, out, outPos, MARKER_HEAD.length);
+        outPos += MARKER_HEAD.length;
+        int digits = 1;
+        for (long n = omittedChars; n >= 10; n /= 10) {
+            digits++;
+        }
+        long n = omittedChars;
+        for (int d = digits - 1; d >= 0; d--) {
+            out[outPos + d] = (byte) ('0' + n % 10);
+            n /= 10;
+        }
+        outPos += digits;
+        System.arraycopy(MARKER_TAIL, 0, out, outPos, MARKER_TAIL.length);
+        outPos += MARKER_TAIL.length;
+    }
+
+    /**
+     * @param trigger the byte which breaks the line
+     */
+    private void newLineAndIndent(byte trigger) {
+        int needed = indentation.length(indentLevel);
+        // the line break and the closing bracket after it; the reserve is left to the bytes which follow,
+        // which are not taken before the buffer is drained
+        if (outPos + needed + 1 > out.length) {
+            // a very deep nesting; let the buffer grow rather than breaking the line
+            out = Arrays.copyOf(out, Math.max(out.length * 2, outPos + needed + RESERVE * 2));
+        }
+        int lineEnd = outPos;
+        outPos = indentation.put(out, outPos, indentLevel);
+        numLines++;
+        if (indexer != null) {
+            indexer.newLine(trigger, out, lineEnd, indentLevel);
+        }
+    }
+}
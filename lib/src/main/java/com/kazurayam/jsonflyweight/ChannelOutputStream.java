@@ -0,0 +1,76 @@
+package com.kazurayam.jsonflyweight;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * An OutputStream which collects bytes into a direct ByteBuffer
+ * and writes them into a WritableByteChannel.
+ * The capacity of the buffer is a multiple of the page size,
+ * so that every write but the last hands whole pages to the page cache.
+ * This class does not close the channel; the owner of the channel does.
+ */
+final class ChannelOutputStream extends OutputStream {
+
+    static final int PAGE_SIZE = 4096;
+
+    private WritableByteChannel channel;
+    private final ByteBuffer buffer;
+
+    ChannelOutputStream(WritableByteChannel channel, int capacity) {
+        this.channel = channel;
+        int pages = Math.max(1, capacity / PAGE_SIZE);
+        this.buffer = ByteBuffer.allocateDirect(pages * PAGE_SIZE);
+    }
+
+    /**
+     * Switch to another channel, reusing the direct buffer which is costly to allocate.
+     * Bytes not yet written to the previous channel are discarded.
+     */
+    ChannelOutputStream attach(WritableByteChannel channel) {
+        this.channel = channel;
+        buffer.clear();
+        return this;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            writeBuffer();
+        }
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!buffer.hasRemaining()) {
+                writeBuffer();
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeBuffer();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
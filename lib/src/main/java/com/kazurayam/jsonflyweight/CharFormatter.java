@@ -0,0 +1,532 @@
+package com.kazurayam.jsonflyweight;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * The character-oriented engine behind {@link JsonFlyweight#prettyPrint(java.io.Reader, Writer)}.
+ * This runs the same state machine as {@link ByteFormatter} does, over char[] instead of byte[].
+ *
+ * An instance keeps its state (indent level, quoting, escape) between calls to
+ * {@link #format(char[], int, int)}, so the input can be fed in fragments of any size.
+ * The pretty-printed chars are accumulated in an internal buffer which the caller drains.
+ * In the strict mode, the chars consumed by every call are checked by a {@link JsonValidator}
+ * in the same pass as they are formatted.
+ * Long string values are cut as {@link ByteFormatter} does; a surrogate pair, raw or in u-escapes,
+ * counts as one character.
+ */
+final class CharFormatter {
+
+    /**
+     * room reserved at the tail of the output buffer
+     * so that a single input char never overflows it
+     */
+    private static final int RESERVE = 256;
+
+    private static final String MARKER_HEAD = "\u2026(+";
+    private static final String MARKER_TAIL = " chars)";
+
+    private final Indentation indentation;
+
+    /** checks the input in the strict mode; null in the permissive mode */
+    private final JsonValidator validator;
+
+    private char[] out;
+    private int outPos;
+
+    private int indentLevel;
+    private boolean inQuote;
+    private boolean escaped;
+    private int numLines;
+
+    /** number of characters a string value is cut after; -1 for no limit */
+    private final int maxStringLength;
+
+    private int maxDepth;
+
+    // the measures of the strings: used only if measuring
+    private boolean measuring;
+    private long drained;
+    private long stringStart;
+    private long longestString;
+
+    /** true to take the strings on the slow path, to measure them or to cut them */
+    private boolean watchStrings;
+
+    // the state of a string on the slow path: used only if watchStrings
+    private long[] objectLevels = new long[1];
+    private boolean expectKey;
+    private boolean watching;
+    private int stringCap;
+    private boolean eliding;
+    private int stringChars;
+    private long omittedChars;
+    private int hexDigits;
+    private int hexValue;
+    private boolean highSurrogate;
+
+    /**
+     * @param formatter the layout, the mode and the cutting of the strings
+     */
+    CharFormatter(JsonFlyweight.Formatter formatter) {
+        this.indentation = formatter.getIndentation();
+        this.validator = formatter.isStrict() ? new JsonValidator() : null;
+        this.maxStringLength = formatter.getMaxStringLength();
+        this.watchStrings = maxStringLength >= 0;
+        this.out = new char[Math.max(formatter.getBufferCapacity(), RESERVE * 2)];
+        this.outPos = 0;
+    }
+
+    /**
+     * Translate the input chars into the output buffer.
+     * Stops early when the output buffer gets nearly full; the caller should drain
+     * the output buffer and call this method again with the rest of the input.
+     *
+     * @param in the ugly JSON
+     * @param off offset of the first char to process
+     * @param len number of chars available
+     * @return number of chars consumed from the input
+     * @throws JsonFlyweightException in the strict mode, if the input is found malformed
+     */
+    int format(char[] in, int off, int len) throws JsonFlyweightException {
+        if (validator == null) {
+            return translate(in, off, len);
+        }
+        if (!watchStrings) {
+            return translateStrict(in, off, len);
+        }
+        // the strings measured or cut take the slow path of their own, and are checked after it
+        int consumed = translate(in, off, len);
+        validator.validate(in, off, consumed);
+        return consumed;
+    }
+
+    private int translate(char[] in, int off, int len) {
+        final int end = off + len;
+        final int highWater = out.length - RESERVE;
+        int i = off;
+        while (i < end && outPos < highWater) {
+            if (watching) {
+                i = translateWatchedString(in, i, end, highWater);
+                continue;
+            }
+            if (inQuote && escaped) {
+                // the char after a backslash never changes the state
+                out[outPos++] = in[i++];
+                escaped = false;
+                continue;
+            }
+            if (inQuote) {
+                // copy the run of quoted chars at once
+                int limit = Math.min(end, i + (highWater - outPos));
+                int stop = i;
+                while (stop < limit && in[stop] != '"' && in[stop] != '\\') {
+                    stop++;
+                }
+                System.arraycopy(in, i, out, outPos, stop - i);
+                outPos += stop - i;
+                i = stop;
+                if (stop == limit) {
+                    continue;
+                }
+                char ch = in[i++];
+                out[outPos++] = ch;
+                if (ch == '\\') {
+                    escaped = true;
+                } else {
+                    inQuote = false;
+                }
+                continue;
+            }
+            translateOutOfQuotes(in[i++]);
+        }
+        return i - off;
+    }
+
+    /**
+     * Translate a char out of quotes
+     */
+    private void translateOutOfQuotes(char ch) {
+        switch (ch) {
+            case '"':
+                out[outPos++] = ch;
+                inQuote = true;
+                if (watchStrings) {
+                    watchString();
+                }
+                break;
+            case ' ':
+            case '\t':
+                // ignore the space as it is not being quoted
+                break;
+            case '{':
+            case '[':
+                // Starting a new block: increase the indent level
+                out[outPos++] = ch;
+                indentLevel++;
+                if (indentLevel > maxDepth) {
+                    maxDepth = indentLevel;
+                }
+                if (maxStringLength >= 0) {
+                    enterLevel(ch == '{');
+                }
+                newLineAndIndent();
+                break;
+            case '}':
+            case ']':
+                // Ending a new block; decrease the indent level
+                indentLevel--;
+                newLineAndIndent();
+                out[outPos++] = ch;
+                break;
+            case ',':
+                // Ending a JSON item; create a new line after
+                out[outPos++] = ch;
+                if (maxStringLength >= 0) {
+                    expectKey = isObjectLevel();
+                }
+                newLineAndIndent();
+                break;
+            case ':':
+                // "key": "value" --- insert a space after colon :
+                out[outPos++] = ch;
+                out[outPos++] = ' ';
+                expectKey = false;
+                break;
+            default:
+                out[outPos++] = ch;
+        }
+    }
+
+    /**
+     * Translate the input chars, checking them by the validator in the same pass
+     * as {@link ByteFormatter} does
+     *
+     * @return number of chars consumed from the input
+     */
+    private int translateStrict(char[] in, int off, int len) throws JsonFlyweightException {
+        final int end = off + len;
+        final int highWater = out.length - RESERVE;
+        int s = validator.begin(off);
+        int i = off;
+        while (i < end && outPos < highWater) {
+            if (JsonValidator.isInString(s)) {
+                int limit = Math.min(end, i + (highWater - outPos));
+                int stop = i;
+                char c;
+                while (stop < limit && (c = in[stop]) != '"' && c != '\\' && c >= ' ') {
+                    stop++;
+                }
+                if (stop > i) {
+                    validator.keyChars(s, in, i, stop);
+                    System.arraycopy(in, i, out, outPos, stop - i);
+                    outPos += stop - i;
+                    i = stop;
+                }
+                if (stop == limit) {
+                    continue;
+                }
+            }
+            char ch = in[i];
+            s = validator.step(s, ch, i);
+            i++;
+            if (inQuote) {
+                out[outPos++] = ch;
+                if (escaped) {
+                    escaped = false;
+                } else if (ch == '\\') {
+                    escaped = true;
+                } else if (ch == '"') {
+                    inQuote = false;
+                }
+                continue;
+            }
+            translateOutOfQuotes(ch);
+        }
+        validator.end(s, i - off);
+        return i - off;
+    }
+
+    /**
+     * Translate a part of a string which is measured or may be cut: a run of plain characters,
+     * or a backslash, or the char after it, or the closing quote.
+     *
+     * @return index of the next input char
+     */
+    private int translateWatchedString(char[] in, int i, int end, int highWater) {
+        if (escaped || hexDigits > 0) {
+            // the char after a backslash, or a hex digit of a u-escape;
+            // the backslash counted for the whole escape sequence
+            char ch = in[i];
+            if (!escaped && hexDigit(ch) < 0) {
+                // a malformed u-escape ends at the first char which is not a hex digit;
+                // that char is taken as in any string, so that a quote closes it as the plain path does
+                hexDigits = 0;
+                highSurrogate = false;
+                return i;
+            }
+            if (!eliding) {
+                out[outPos++] = ch;
+            }
+            if (escaped) {
+                escaped = false;
+                if (ch == 'u') {
+                    hexDigits = 4;
+                    hexValue = 0;
+                }
+            } else {
+                hexValue = (hexValue << 4) | hexDigit(ch);
+                if (--hexDigits == 0) {
+                    highSurrogate = hexValue >= 0xD800 && hexValue <= 0xDBFF;
+                }
+            }
+            return i + 1;
+        }
+        if (eliding) {
+            // skip to the end of the string, counting the characters
+            int stop = i;
+            while (stop < end && in[stop] != '"' && in[stop] != '\\') {
+                if (!Character.isLowSurrogate(in[stop])) {
+                    omittedChars++;
+                }
+                stop++;
+            }
+            if (stop > i) {
+                highSurrogate = false;
+            }
+            if (stop == end) {
+                return stop;
+            }
+            if (in[stop] == '\\') {
+                // the low half of an escaped surrogate pair does not count
+                omittedChars += highSurrogate ? 0 : 1;
+                highSurrogate = false;
+                escaped = true;
+            } else {
+                putMarker();
+                if (measuring) {
+                    endString(outPos);
+                }
+                out[outPos++] = '"';
+                inQuote = false;
+                watching = false;
+            }
+            return stop + 1;
+        }
+        int limit = Math.min(end, i + (highWater - outPos));
+        int stop = i;
+        while (stop < limit && in[stop] != '"' && in[stop] != '\\') {
+            if (!Character.isLowSurrogate(in[stop])) {
+                if (stringChars == stringCap) {
+                    // cut before the character which would go over the maximum
+                    break;
+                }
+                stringChars++;
+            }
+            stop++;
+        }
+        if (stop > i) {
+            highSurrogate = false;
+            System.arraycopy(in, i, out, outPos, stop - i);
+            outPos += stop - i;
+        }
+        if (stop == limit) {
+            return stop;
+        }
+        if (in[stop] == '"') {
+            if (measuring) {
+                endString(outPos);
+            }
+            out[outPos++] = '"';
+            inQuote = false;
+            watching = false;
+        } else if (in[stop] == '\\' && highSurrogate) {
+            // the low half of an escaped surrogate pair; never cut off its high half
+            out[outPos++] = '\\';
+            highSurrogate = false;
+            escaped = true;
+        } else if (stringChars == stringCap) {
+            eliding = true;
+            omittedChars = 0;
+            return stop;
+        } else {
+            out[outPos++] = '\\';
+            stringChars++;
+            escaped = true;
+        }
+        return stop + 1;
+    }
+
+    /**
+     * @return the value of a hex digit, or -1 if it is not one
+     */
+    private static int hexDigit(int c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * Translate all the input chars, writing the output buffer into the sink whenever it gets full.
+     */
+    void format(char[] in, int off, int len, Writer sink) throws IOException {
+        int done = 0;
+        while (done < len) {
+            done += format(in, off + done, len - done);
+            if (outPos >= out.length - RESERVE) {
+                drainTo(sink);
+            }
+        }
+    }
+
+    /**
+     * Write whatever is in the output buffer into the sink and empty the buffer.
+     */
+    void drainTo(Writer sink) throws IOException {
+        if (outPos > 0) {
+            sink.write(out, 0, outPos);
+            drained += outPos;
+            outPos = 0;
+        }
+    }
+
+    char[] buffer() {
+        return out;
+    }
+
+    /**
+     * Declare the end of the input. In the strict mode, check that the JSON is complete.
+     */
+    void finish() throws JsonFlyweightException {
+        if (validator != null) {
+            validator.finish();
+        }
+    }
+
+    int getNumLines() {
+        return numLines;
+    }
+
+    /**
+     * @return the deepest indent level so far
+     */
+    int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return length of the longest string written so far without the quotes, in chars;
+     *         0 unless measuring
+     */
+    long getLongestString() {
+        return longestString;
+    }
+
+    /**
+     * @param measuring true to measure the strings for {@link PrettyPrintStats}
+     */
+    void setMeasuring(boolean measuring) {
+        this.measuring = measuring;
+        this.watchStrings = measuring || maxStringLength >= 0;
+    }
+
+    /**
+     * Forget the state and the buffered output so that this instance can be reused
+     * for another document.
+     */
+    void reset() {
+        outPos = 0;
+        indentLevel = 0;
+        inQuote = false;
+        escaped = false;
+        numLines = 0;
+        maxDepth = 0;
+        drained = 0;
+        longestString = 0;
+        expectKey = false;
+        watching = false;
+        if (validator != null) {
+            validator.reset();
+        }
+    }
+
+    /**
+     * A string has begun: from now on, take it on the slow path
+     */
+    private void watchString() {
+        if (measuring) {
+            stringStart = drained + outPos;
+        }
+        stringCap = (maxStringLength >= 0 && !expectKey) ? maxStringLength : Integer.MAX_VALUE;
+        watching = true;
+        eliding = false;
+        stringChars = 0;
+        hexDigits = 0;
+        highSurrogate = false;
+    }
+
+    /**
+     * @param closingQuote where the closing quote of the string is going in the output buffer
+     */
+    private void endString(int closingQuote) {
+        long length = drained + closingQuote - stringStart;
+        if (length > longestString) {
+            longestString = length;
+        }
+    }
+
+    /**
+     * Remember whether the level just entered is an object or an array,
+     * to tell a member name from a string value
+     */
+    private void enterLevel(boolean object) {
+        expectKey = object;
+        if (indentLevel < 0) {
+            return;
+        }
+        if ((indentLevel >>> 6) >= objectLevels.length) {
+            objectLevels = Arrays.copyOf(objectLevels, Math.max(objectLevels.length * 2, (indentLevel >>> 6) + 1));
+        }
+        if (object) {
+            objectLevels[indentLevel >>> 6] |= 1L << (indentLevel & 63);
+        } else {
+            objectLevels[indentLevel >>> 6] &= ~(1L << (indentLevel & 63));
+        }
+    }
+
+    private boolean isObjectLevel() {
+        return indentLevel >= 0 && (indentLevel >>> 6) < objectLevels.length
+                && (objectLevels[indentLevel >>> 6] & (1L << (indentLevel & 63))) != 0;
+    }
+
+    /**
+     * Write the marker which tells the number of characters cut off, like <code>&hellip;(+123456 chars)</code>
+     */
+    private void putMarker() {
+        MARKER_HEAD.getChars(0, MARKER_HEAD.length(), out, outPos);
+        outPos += MARKER_HEAD.length();
+        String digits = Long.toString(omittedChars);
+        digits.getChars(0, digits.length(), out, outPos);
+        outPos += digits.length();
+        MARKER_TAIL.getChars(0, MARKER_TAIL.length(), out, outPos);
+        outPos += MARKER_TAIL.length();
+    }
+
+    private void newLineAndIndent() {
+        int needed = indentation.length(indentLevel);
+        // the line break and the closing bracket after it; the reserve is left to the bytes which follow,
+        // which are not taken before the buffer is drained
+        if (outPos + needed + 1 > out.length) {
+            // a very deep nesting; let the buffer grow rather than breaking the line
+            out = Arrays.copyOf(out, Math.max(out.length * 2, outPos + needed + RESERVE * 2));
+        }
+        outPos = indentation.put(out, outPos, indentLevel);
+        numLines++;
+    }
+}
@@ -0,0 +1,178 @@
+package com.kazurayam.jsonflyweight;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Where a long pretty-print of a file stood at a moment: how far the input had been read,
+ * how far the output had been written and forced to the disk, and the state of the formatter
+ * in between. Written beside the output by a Formatter built with
+ * {@link JsonFlyweight.Formatter.Builder#checkpointInterval(long)}, so that
+ * {@link JsonFlyweight.Formatter#resume(Path, Path)} can continue a job which was killed
+ * instead of starting it over.
+ *
+ * A checkpoint tells the size and the modification time of the input, and the layout
+ * of the Formatter, so that it is not taken up for another input nor for another layout.
+ * It is written into a temporary file, forced to the disk, which then replaces the former one,
+ * so a kill or a crash in the middle of writing it leaves the former one intact. A CRC-32 at the end
+ * tells a broken file, which is taken as no checkpoint at all.
+ */
+final class Checkpoint {
+
+    static final int MAGIC = 0x4A46434B;     // "JFCK"
+    static final int VERSION = 1;
+
+    private final String layout;
+    private final long inputSize;
+    private final long inputModified;
+    private final long inputOffset;
+    private final long outputOffset;
+    private final byte[] state;
+
+    /**
+     * @param layout what the output looks like, as {@link JsonFlyweight.Formatter} describes it
+     * @param inputSize size of the input in bytes
+     * @param inputModified modification time of the input in milliseconds
+     * @param inputOffset number of bytes of the input formatted
+     * @param outputOffset number of bytes of the output written out of them
+     * @param state the state of the formatter, as {@link ByteFormatter#saveState()} gives it
+     */
+    Checkpoint(String layout, long inputSize, long inputModified, long inputOffset, long outputOffset,
+               byte[] state) {
+        this.layout = layout;
+        this.inputSize = inputSize;
+        this.inputModified = inputModified;
+        this.inputOffset = inputOffset;
+        this.outputOffset = outputOffset;
+        this.state = state;
+    }
+
+    /**
+     * @param prettyPrintedJSON path of a pretty printed JSON
+     * @return path of its checkpoint: the same file name followed by ".ckpt", in the same directory
+     */
+    static Path sideCarOf(Path prettyPrintedJSON) {
+        return prettyPrintedJSON.resolveSibling(prettyPrintedJSON.getFileName().toString() + ".ckpt");
+    }
+
+    long getInputOffset() {
+        return inputOffset;
+    }
+
+    long getOutputOffset() {
+        return outputOffset;
+    }
+
+    byte[] getState() {
+        return state;
+    }
+
+    /**
+     * @return true if this checkpoint was taken of the given input in the given layout,
+     *         and the output has kept what was written until then
+     */
+    boolean matches(String layout, long inputSize, long inputModified, long outputSize) {
+        return this.layout.equals(layout) && this.inputSize == inputSize && this.inputModified == inputModified
+                && inputOffset <= inputSize && outputOffset <= outputSize;
+    }
+
+    /**
+     * Replace the checkpoint file with this one
+     */
+    void write(Path checkpointFile) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + state.length);
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeUTF(layout);
+        data.writeLong(inputSize);
+        data.writeLong(inputModified);
+        data.writeLong(inputOffset);
+        data.writeLong(outputOffset);
+        data.writeInt(state.length);
+        data.write(state);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        data.writeLong(crc.getValue());
+        data.flush();
+        Path temporary = checkpointFile.resolveSibling(checkpointFile.getFileName().toString() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            // the new checkpoint must be on the disk before it replaces the former one
+            channel.force(true);
+        }
+        try {
+            Files.move(temporary, checkpointFile,
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, checkpointFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @return the checkpoint in the file, or null if there is no such file, or if it is broken
+     * @throws IOException if the file is not a checkpoint, or of an unknown version
+     */
+    static Checkpoint read(Path checkpointFile) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(checkpointFile);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        if (bytes.length < 8 + Long.BYTES) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - Long.BYTES);
+        if (ByteBuffer.wrap(bytes, bytes.length - Long.BYTES, Long.BYTES).getLong() != crc.getValue()) {
+            // cut short or garbled by a crash; start over rather than fail
+            return null;
+        }
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            if (data.readInt() != MAGIC) {
+                throw new IOException(checkpointFile + " is not a checkpoint");
+            }
+            int version = data.readInt();
+            if (version != VERSION) {
+                throw new IOException(checkpointFile + " is a checkpoint of an unknown version " + version);
+            }
+            String layout = data.readUTF();
+            long inputSize = data.readLong();
+            long inputModified = data.readLong();
+            long inputOffset = data.readLong();
+            long outputOffset = data.readLong();
+            int stateLength = data.readInt();
+            if (stateLength < 0 || stateLength > bytes.length) {
+                throw new IOException(checkpointFile + " is a broken checkpoint");
+            }
+            byte[] state = new byte[stateLength];
+            data.readFully(state);
+            if (data.readLong() != crc.getValue() || inputOffset < 0 || outputOffset < 0) {
+                // intact, but not written by this class
+                throw new IOException(checkpointFile + " is a broken checkpoint");
+            }
+            return new Checkpoint(layout, inputSize, inputModified, inputOffset, outputOffset, state);
+        } catch (EOFException e) {
+            throw new IOException(checkpointFile + " is a broken checkpoint", e);
+        }
+    }
+}
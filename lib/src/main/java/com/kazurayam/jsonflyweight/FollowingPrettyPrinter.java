@@ -0,0 +1,143 @@
+package com.kazurayam.jsonflyweight;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pretty-prints a JSON file while another process is still appending to it, like {@code tail -f}.
+ *
+ * The formatter keeps its state (the quoting, the escape, the indent level) between the polls,
+ * so only the bytes appended since the last poll are read and formatted, wherever they end;
+ * the output is flushed after every poll. It stops when the top-level object or array has been closed.
+ *
+ * Between the polls it waits on a {@link WatchService} of the directory, which wakes it up
+ * as soon as the file is modified; it looks at the size of the file at least every
+ * {@value #POLL_MILLIS} ms anyway, for the file systems which cannot be watched or watch slowly.
+ */
+final class FollowingPrettyPrinter {
+
+    static final long POLL_MILLIS = 100;
+
+    private final ByteFormatter formatter;
+    private final byte[] buffer;
+
+    FollowingPrettyPrinter(ByteFormatter formatter, byte[] buffer) {
+        this.formatter = formatter;
+        this.buffer = buffer;
+    }
+
+    /**
+     * @return number of lines in the pretty printed JSON
+     * @throws InterruptedIOException if nothing was appended for idleTimeout, or if interrupted
+     */
+    int follow(Path uglyJSON, OutputStream sink, Duration idleTimeout) throws IOException {
+        ByteBuffer window = ByteBuffer.wrap(buffer);
+        try (FileChannel channel = FileChannel.open(uglyJSON, StandardOpenOption.READ);
+             Watch watch = Watch.of(uglyJSON)) {
+            long position = 0;
+            long lastAppended = System.nanoTime();
+            while (!formatter.isComplete()) {
+                long size = channel.size();
+                if (size < position) {
+                    throw new IOException(uglyJSON + " has shrunk from " + position + " to " + size
+                            + " bytes; a followed file must only be appended to");
+                }
+                if (size == position) {
+                    if (System.nanoTime() - lastAppended >= idleTimeout.toNanos()) {
+                        formatter.drainTo(sink);
+                        sink.flush();
+                        InterruptedIOException e = new InterruptedIOException(
+                                "nothing was appended to " + uglyJSON + " for " + idleTimeout);
+                        e.bytesTransferred = (int) Math.min(position, Integer.MAX_VALUE);
+                        throw e;
+                    }
+                    watch.await(POLL_MILLIS);
+                    continue;
+                }
+                // format what has been appended since the last poll
+                while (position < size) {
+                    window.clear();
+                    window.limit((int) Math.min(buffer.length, size - position));
+                    int n = channel.read(window, position);
+                    if (n <= 0) {
+                        break;
+                    }
+                    formatter.format(buffer, 0, n, sink);
+                    position += n;
+                }
+                formatter.drainTo(sink);
+                sink.flush();
+                lastAppended = System.nanoTime();
+            }
+        }
+        formatter.finish();
+        return formatter.getNumLines();
+    }
+
+    /**
+     * wakes up when the directory of the file changes, or after a while
+     */
+    private static final class Watch implements Closeable {
+        private final WatchService service;     // null if the file system cannot be watched
+
+        private Watch(WatchService service) {
+            this.service = service;
+        }
+
+        static Watch of(Path file) {
+            Path dir = file.toAbsolutePath().getParent();
+            WatchService service = null;
+            try {
+                service = file.getFileSystem().newWatchService();
+                dir.register(service, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+                return new Watch(service);
+            } catch (IOException | UnsupportedOperationException e) {
+                closeQuietly(service);
+                return new Watch(null);
+            }
+        }
+
+        void await(long millis) throws InterruptedIOException {
+            try {
+                if (service == null) {
+                    Thread.sleep(millis);
+                    return;
+                }
+                WatchKey key = service.poll(millis, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    key.pollEvents();
+                    key.reset();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while following a JSON file");
+            }
+        }
+
+        @Override
+        public void close() {
+            closeQuietly(service);
+        }
+
+        private static void closeQuietly(WatchService service) {
+            if (service != null) {
+                try {
+                    service.close();
+                } catch (IOException ignored) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+}
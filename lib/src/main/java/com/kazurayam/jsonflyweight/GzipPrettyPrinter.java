@@ -0,0 +1,225 @@
+package com.kazurayam.jsonflyweight;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Pretty-prints a gzipped JSON file into a gzipped file, with the three stages
+ * running on three threads at once:
+ * <pre>
+ * [inflate thread] --BlockRing--&gt; [formatting, the caller's thread] --BlockRing--&gt; [deflate thread]
+ * </pre>
+ * The stages are connected by two {@link BlockRing}s of recycled blocks, so the memory is fixed
+ * at {@code 2 * pipelineBlocks * bufferCapacity} bytes for the rings, plus the buffers of
+ * the GZIP streams and of the formatter, however large the files are.
+ * Only {@code java.util.zip} is used.
+ *
+ * If any of the stages fails, the rings are failed so that the other stages stop,
+ * and the first failure is thrown to the caller.
+ */
+final class GzipPrettyPrinter {
+
+    private final ByteFormatter formatter;
+    private final int blockSize;
+    private final int numBlocks;
+
+    GzipPrettyPrinter(ByteFormatter formatter, int blockSize, int numBlocks) {
+        this.formatter = formatter;
+        this.blockSize = blockSize;
+        this.numBlocks = numBlocks;
+    }
+
+    int prettyPrint(Path uglyJSON, Path prettyPrintedJSON) throws IOException {
+        BlockRing inflated = new BlockRing(numBlocks, blockSize);
+        BlockRing formatted = new BlockRing(numBlocks, blockSize);
+        try (FileChannel inChannel = FileChannel.open(uglyJSON, StandardOpenOption.READ);
+             FileChannel outChannel = FileChannel.open(prettyPrintedJSON,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                     StandardOpenOption.WRITE)) {
+            Stage inflater = new Stage("JsonFlyweight-inflate", inflated, formatted) {
+                @Override
+                void run() throws IOException {
+                    inflate(inChannel, inflated);
+                }
+            };
+            Stage deflater = new Stage("JsonFlyweight-deflate", inflated, formatted) {
+                @Override
+                void run() throws IOException {
+                    deflate(formatted, outChannel);
+                }
+            };
+            inflater.start();
+            deflater.start();
+            try {
+                format(inflated, formatted);
+            } catch (Throwable t) {
+                inflated.fail(t);
+                formatted.fail(t);
+            } finally {
+                inflater.join();
+                deflater.join();
+            }
+            // the stage which failed first tells the cause; the others only saw the abort
+            rethrow(inflated.getFailure());
+        }
+        return formatter.getNumLines();
+    }
+
+    private void inflate(FileChannel inChannel, BlockRing inflated) throws IOException {
+        try (InputStream gzin = new GZIPInputStream(Channels.newInputStream(inChannel), blockSize)) {
+            while (true) {
+                BlockRing.Block block = inflated.acquire();
+                int n = gzin.readNBytes(block.bytes, 0, block.bytes.length);
+                if (n == 0) {
+                    inflated.release(block);
+                    break;
+                }
+                block.length = n;
+                inflated.publish(block);
+            }
+        }
+        inflated.close();
+    }
+
+    private void format(BlockRing inflated, BlockRing formatted) throws IOException {
+        RingOutputStream sink = new RingOutputStream(formatted);
+        BlockRing.Block block;
+        while ((block = inflated.take()) != null) {
+            formatter.format(block.bytes, 0, block.length, sink);
+            inflated.release(block);
+        }
+        formatter.drainTo(sink);
+        sink.flush();
+        formatter.finish();
+        formatted.close();
+    }
+
+    private void deflate(BlockRing formatted, FileChannel outChannel) throws IOException {
+        OutputStream channelOut = new ChannelOutputStream(outChannel, blockSize);
+        Deflating gzout = new Deflating(channelOut, blockSize);
+        try {
+            BlockRing.Block block;
+            while ((block = formatted.take()) != null) {
+                gzout.write(block.bytes, 0, block.length);
+                formatted.release(block);
+            }
+            gzout.finish();
+            channelOut.flush();
+        } finally {
+            gzout.end();
+        }
+    }
+
+    /**
+     * A GZIPOutputStream whose Deflater, which holds native memory, is ended
+     * without closing the stream, whether the stream has been finished or not
+     */
+    private static final class Deflating extends GZIPOutputStream {
+        Deflating(OutputStream out, int size) throws IOException {
+            super(out, size);
+        }
+
+        void end() {
+            def.end();
+        }
+    }
+
+    /**
+     * An OutputStream which fills the blocks of a ring and publishes them as they get full
+     */
+    private static final class RingOutputStream extends OutputStream {
+        private final BlockRing ring;
+        private BlockRing.Block current;
+
+        RingOutputStream(BlockRing ring) {
+            this.ring = ring;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (current == null) {
+                    current = ring.acquire();
+                }
+                int n = Math.min(len, current.bytes.length - current.length);
+                System.arraycopy(b, off, current.bytes, current.length, n);
+                current.length += n;
+                off += n;
+                len -= n;
+                if (current.length == current.bytes.length) {
+                    flush();
+                }
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        /**
+         * publish the block filled so far
+         */
+        @Override
+        public void flush() throws IOException {
+            if (current != null && current.length > 0) {
+                ring.publish(current);
+                current = null;
+            }
+        }
+    }
+
+    private static void rethrow(Throwable t) throws IOException {
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            throw new IOException(t);
+        }
+    }
+
+    /**
+     * A stage of the pipeline on its own thread. A failure fails both rings.
+     */
+    private abstract static class Stage {
+        private final Thread thread;
+
+        Stage(String name, BlockRing inflated, BlockRing formatted) {
+            this.thread = new Thread(() -> {
+                try {
+                    run();
+                } catch (Throwable t) {
+                    inflated.fail(t);
+                    formatted.fail(t);
+                }
+            }, name);
+            this.thread.setDaemon(true);
+        }
+
+        abstract void run() throws IOException;
+
+        void start() {
+            thread.start();
+        }
+
+        void join() throws IOException {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for " + thread.getName());
+            }
+        }
+    }
+}
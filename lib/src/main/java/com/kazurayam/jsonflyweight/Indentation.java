@@ -0,0 +1,91 @@
+package com.kazurayam.jsonflyweight;
+
+import java.util.Arrays;
+
+/**
+ * A line separator followed by the indentation of a line.
+ * The line separator and the indent characters of the first 64 levels are precomputed
+ * in a table, so that a new line with indentation is put into the output buffer
+ * by a single array copy with no allocation.
+ */
+final class Indentation {
+
+    static final Indentation DEFAULT = new Indentation(System.lineSeparator(), ' ', 2);
+
+    private static final int TABLE_LEVELS = 64;
+
+    private final String lineSeparator;
+    private final int separatorLength;
+    private final char indentChar;
+    private final int indentWidth;
+    private final byte[] byteTable;
+    private final char[] charTable;
+
+    /**
+     * @param lineSeparator one of "\n", "\r\n" and "\r"
+     * @param indentChar ' ' or '\t'
+     * @param indentWidth number of indentChar per indent level
+     */
+    Indentation(String lineSeparator, char indentChar, int indentWidth) {
+        this.lineSeparator = lineSeparator;
+        this.separatorLength = lineSeparator.length();
+        this.indentChar = indentChar;
+        this.indentWidth = indentWidth;
+        this.charTable = new char[separatorLength + indentWidth * TABLE_LEVELS];
+        lineSeparator.getChars(0, separatorLength, charTable, 0);
+        Arrays.fill(charTable, separatorLength, charTable.length, indentChar);
+        this.byteTable = new byte[charTable.length];
+        for (int i = 0; i < charTable.length; i++) {
+            byteTable[i] = (byte) charTable[i];
+        }
+    }
+
+    String lineSeparator() {
+        return lineSeparator;
+    }
+
+    char indentChar() {
+        return indentChar;
+    }
+
+    int indentWidth() {
+        return indentWidth;
+    }
+
+    /**
+     * @return number of bytes or chars of a line separator plus the indentation of the level
+     */
+    int length(int indentLevel) {
+        return separatorLength + indentWidth * Math.max(0, indentLevel);
+    }
+
+    /**
+     * @return the position in the buffer next to the indentation
+     */
+    int put(byte[] buffer, int position, int indentLevel) {
+        int length = length(indentLevel);
+        if (length <= byteTable.length) {
+            System.arraycopy(byteTable, 0, buffer, position, length);
+        } else {
+            // deeper than the table
+            System.arraycopy(byteTable, 0, buffer, position, byteTable.length);
+            Arrays.fill(buffer, position + byteTable.length, position + length, (byte) indentChar);
+        }
+        return position + length;
+    }
+
+    /**
+     * @return the position in the buffer next to the indentation
+     */
+    int put(char[] buffer, int position, int indentLevel) {
+        int length = length(indentLevel);
+        if (length <= charTable.length) {
+            System.arraycopy(charTable, 0, buffer, position, length);
+        } else {
+            // deeper than the table
+            System.arraycopy(charTable, 0, buffer, position, charTable.length);
+            Arrays.fill(buffer, position + charTable.length, position + length, indentChar);
+        }
+        return position + length;
+    }
+}
@@ -1,17 +1,22 @@
 package com.kazurayam.jsonflyweight;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.Writer;
-import java.nio.charset.StandardCharsets;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * This utility class performs pretty-printing a JSON.
@@ -21,14 +26,29 @@ import java.util.Objects;
  * Therefore, the methods requires very small size of memory runtime
  * regardless how large the input JSON is (such as 300 MB).
  * It used a buffer of 32 KB and no more.
+ *
+ * The static methods indent a line with 2 spaces per level and end a line with
+ * the line separator of the platform. If you want another layout, or if you want to
+ * pretty-print many small JSONs without allocating buffers for each call,
+ * use a {@link Formatter}.
  */
 public class JsonFlyweight {
 
     private static final int BUFFER_CAPACITY = 32768;
 
+    /**
+     * size of the window of the input file mapped into memory at a time.
+     * The mapped pages are backed by the page cache, not by the Java heap.
+     */
+    static final long MAPPED_WINDOW_SIZE = 4L * 1024 * 1024;
+
     /**
      * This method will pretty-print a JSON as an InputStream,
      * write the result into an OutputStream.
+     * The input is assumed to be encoded in UTF-8.
+     * This method scans the bytes as they are, without decoding them into characters,
+     * so it runs faster than {@link #prettyPrint(Reader, Writer)}.
+     * Multi-byte UTF-8 sequences are copied to the output untouched.
      *
      * @param uglyJSON ugly JSON. The source could be a large file of 2 megabytes or more
      * @param prettyPrintedJSON pretty printed JSON
@@ -36,12 +56,117 @@ public class JsonFlyweight {
      * @throws IOException anything may happen
      */
     public static int prettyPrint(InputStream uglyJSON, OutputStream prettyPrintedJSON) throws IOException {
-        Reader reader = new InputStreamReader(uglyJSON, StandardCharsets.UTF_8);
-        Writer writer = new OutputStreamWriter(prettyPrintedJSON, StandardCharsets.UTF_8);
-        int numLines = prettyPrint(reader, writer);
+        Objects.requireNonNull(uglyJSON);
+        Objects.requireNonNull(prettyPrintedJSON);
+        int numLines = new Formatter.Builder().build().prettyPrint(uglyJSON, prettyPrintedJSON);
+        prettyPrintedJSON.close();
+        uglyJSON.close();
         return numLines;
     }
 
+    /**
+     * This method will pretty-print a JSON file, write the result into another file.
+     * The input file is assumed to be encoded in UTF-8.
+     * The input is read through a FileChannel which maps the file into memory
+     * window by window, so no copy is made through the stream stack of the JDK.
+     * The output is written through a FileChannel in chunks of whole pages.
+     * Regardless how large the input file is (such as some gigabytes),
+     * this method uses buffers of 32 KB and a mapped window of 4 MB and no more.
+     *
+     * @param uglyJSON path of the ugly JSON file
+     * @param prettyPrintedJSON path of the pretty printed JSON file; will be created or truncated
+     * @return number of lines in the pretty printed JSON
+     * @throws IOException anything may happen
+     */
+    public static int prettyPrint(Path uglyJSON, Path prettyPrintedJSON) throws IOException {
+        return new Formatter.Builder().build().prettyPrint(uglyJSON, prettyPrintedJSON);
+    }
+
+    /**
+     * This method will pretty-print a JSON file using all cores of the common ForkJoinPool,
+     * write the result into another file.
+     * The output is byte-identical to the one {@link #prettyPrint(Path, Path)} produces.
+     *
+     * @param uglyJSON path of the ugly JSON file
+     * @param prettyPrintedJSON path of the pretty printed JSON file; will be created or truncated
+     * @return number of lines in the pretty printed JSON
+     * @throws IOException anything may happen
+     */
+    public static int prettyPrintParallel(Path uglyJSON, Path prettyPrintedJSON) throws IOException {
+        return prettyPrintParallel(uglyJSON, prettyPrintedJSON, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * This method will pretty-print a JSON file in parallel, write the result into another file.
+     * The input is split into chunks of 1 MB, which are formatted on the given ForkJoinPool
+     * and stitched together in order.
+     * The output is byte-identical to the one {@link #prettyPrint(Path, Path)} produces.
+     * This method holds at most 2 formatted chunks per thread of the pool in memory.
+     *
+     * @param uglyJSON path of the ugly JSON file
+     * @param prettyPrintedJSON path of the pretty printed JSON file; will be created or truncated
+     * @param pool the ForkJoinPool on which the chunks are formatted
+     * @return number of lines in the pretty printed JSON
+     * @throws IOException anything may happen
+     */
+    public static int prettyPrintParallel(Path uglyJSON, Path prettyPrintedJSON,
+                                          ForkJoinPool pool) throws IOException {
+        return new Formatter.Builder().build().prettyPrintParallel(uglyJSON, prettyPrintedJSON, pool);
+    }
+
+    /**
+     * This method will pretty-print many JSON files concurrently, one thread per core,
+     * write the results into the output directory under the same file names.
+     * The largest files are started first, and the buffers are recycled among the jobs.
+     *
+     * @param uglyJSONs paths of the ugly JSON files; their file names must be distinct
+     * @param outputDir directory of the pretty printed JSON files; will be created if not present
+     * @return the result of each file, in the order of uglyJSONs; a file which failed has its exception
+     * @throws IOException if the output directory cannot be created, or if interrupted
+     */
+    public static List<PrettyPrintResult> prettyPrintAll(Collection<Path> uglyJSONs, Path outputDir)
+            throws IOException {
+        return new Formatter.Builder().build()
+                .prettyPrintAll(uglyJSONs, outputDir, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * This method will pretty-print a gzipped JSON file, write the result into another gzipped file.
+     * The decompression, the formatting and the compression run on three threads at once,
+     * connected by rings of 4 blocks of 32 KB, so that the formatting does not wait for the GZIP codec
+     * and the memory stays fixed however large the files are.
+     *
+     * @param uglyJSONgz path of the gzipped ugly JSON file
+     * @param prettyPrintedJSONgz path of the gzipped pretty printed JSON file; will be created or truncated
+     * @return number of lines in the pretty printed JSON
+     * @throws IOException anything may happen
+     */
+    public static int prettyPrintGzip(Path uglyJSONgz, Path prettyPrintedJSONgz) throws IOException {
+        return new Formatter.Builder().build().prettyPrintGzip(uglyJSONgz, prettyPrintedJSONgz);
+    }
+
+    /**
+     * This method will pretty-print newline-delimited JSON (NDJSON, JSON Lines) as an InputStream
+     * using all cores of the common ForkJoinPool, write the result into an OutputStream.
+     * Every record is pretty-printed as a document of its own, followed by the line separator,
+     * and the records are written in the original order.
+     *
+     * @param uglyNDJSON ugly JSON records, one per line, in UTF-8
+     * @param prettyPrintedJSON pretty printed JSON records
+     * @return number of records pretty printed; blank lines are not counted
+     * @throws IOException anything may happen
+     */
+    public static long prettyPrintNdjson(InputStream uglyNDJSON, OutputStream prettyPrintedJSON)
+            throws IOException {
+        Objects.requireNonNull(uglyNDJSON);
+        Objects.requireNonNull(prettyPrintedJSON);
+        long numRecords = new Formatter.Builder().build()
+                .prettyPrintNdjson(uglyNDJSON, prettyPrintedJSON, ForkJoinPool.commonPool());
+        prettyPrintedJSON.close();
+        uglyNDJSON.close();
+        return numRecords;
+    }
+
     /**
      * This method will pretty-print a JSON as a Reader, write the result into a Writer.
      * This method runs very fast. This method requires minimum size of runtime memory.
@@ -54,103 +179,890 @@ public class JsonFlyweight {
     public static int prettyPrint(Reader uglyJSON, Writer prettyPrintedJSON) throws IOException {
         Objects.requireNonNull(uglyJSON);
         Objects.requireNonNull(prettyPrintedJSON);
-        BufferedReader br = new BufferedReader(uglyJSON);
-        PrintWriter pw = new PrintWriter(new BufferedWriter(prettyPrintedJSON));
-        int numLines = 0;
-        //
-        StringBuilder sb = new StringBuilder();
-        int indentLevel = 0;
-        boolean inQuote = false;
-
-        char[] charBuffer = new char[BUFFER_CAPACITY];
-        int numCharsRead;
-        // consume all characters from the input
-        while ((numCharsRead = br.read(charBuffer, 0, charBuffer.length)) != -1) {
-            // loop over all characters buffered
-            char prevChar = ' ';
-            for (int i = 0; i < numCharsRead; i++) {
-                char ch = charBuffer[i];
-                // translate characters
-                switch (ch) {
-                    case '"':
-                        sb.append(ch);
-                        if (prevChar != '\\') {
-                            // switch the quoting status
-                            inQuote = !inQuote;
-                        }
-                        break;
-                    case ' ':
-                    case '\t':
-                        // For space and tab: ignore the space if it is not being quoted.
-                        if (inQuote) {
-                            sb.append(ch);
-                        }
-                        break;
-                    case '{':
-                    case '[':
-                        // Starting a new block: increase the indent level
-                        sb.append(ch);
-                        if (!inQuote) {
-                            indentLevel++;
-                            newLineAndIndent(indentLevel, sb);
-                            numLines++;
-                        }
-                        break;
-                    case '}':
-                    case ']':
-                        // Ending a new block; decrease the indent level
-                        if (!inQuote) {
-                            indentLevel--;
-                            newLineAndIndent(indentLevel, sb);
-                            numLines++;
-                        }
-                        sb.append(ch);
-                        break;
-                    case ',':
-                        sb.append(ch);
-                        // Ending a JSON item; create a new line after
-                        if (!inQuote) {
-                            newLineAndIndent(indentLevel, sb);
-                            numLines++;
-                        }
-                        break;
-                    case ':':
-                        sb.append(ch);
-                        if (!inQuote) {
-                            sb.append(" ");
-                            // "key": "value" --- insert a space after colon :
+        int numLines = new Formatter.Builder().build().prettyPrint(uglyJSON, prettyPrintedJSON);
+        prettyPrintedJSON.close();
+        uglyJSON.close();
+        return numLines;
+    }
+
+    /**
+     * A reusable pretty-printer with a configurable layout.
+     * A Formatter keeps its buffers between calls, so that pretty-printing
+     * thousands of small JSONs allocates nothing once it is warmed up.
+     * The indentation of every level is precomputed.
+     *
+     * Unlike the static methods of {@link JsonFlyweight},
+     * the methods of a Formatter do not close the given streams.
+     *
+     * A Formatter built with {@link Builder#threadLocal(boolean)} set to true
+     * keeps a set of buffers per thread and can be shared by many threads at once.
+     * Otherwise a Formatter must not be used by multiple threads concurrently.
+     *
+     * A Formatter built with {@link Builder#strict(boolean)} set to true checks that
+     * the input is a well-formed JSON in the same pass as it formats, and throws
+     * a {@link JsonFlyweightException} which tells the offset, the line and the JSON path
+     * where the input went wrong. By default a Formatter formats malformed input as it is.
+     *
+     * A Formatter built with {@link Builder#include(String...)} or {@link Builder#exclude(String...)}
+     * pretty-prints only the selected parts of a JSON in UTF-8, like {@code log.entries[*].request},
+     * skipping the rest without copying it. The projection works on bytes: it is not available
+     * with a Reader and a Writer, nor with a {@link NonBlockingFormatter}.
+     *
+     * A Formatter built with {@link Builder#sortKeys(int)} writes the members of every object
+     * sorted by their names, so that the output is the same whatever order the producer wrote them in.
+     * The objects which do not fit the memory budget are sorted through temporary files.
+     * The sorting works on bytes, like the projection.
+     *
+     * A Formatter built with {@link Builder#maxStringLength(int)} cuts the long string values,
+     * such as the bodies in base64 of a HAR, and tells how many characters were cut off:
+     * <code>"iVBORw0KGgo&hellip;(+183742 chars)"</code>. The output stays a valid JSON.
+     *
+     * A Formatter built with {@link Builder#listener(PrettyPrintListener)} tells the listener
+     * the {@link PrettyPrintStats} of every call of prettyPrint: the sizes, the lines, the depth,
+     * and the time blocked in reading, in formatting and in writing. The same measures are
+     * recorded as the JFR event {@code com.kazurayam.jsonflyweight.PrettyPrint} while a Flight Recording
+     * is running; the event {@code com.kazurayam.jsonflyweight.PrettyPrintChunk}, one per chunk,
+     * can be enabled in the recording settings. Without a listener nor a recording, nothing is measured.
+     *
+     * A JSON file which is still being written, such as a HAR of a proxy, is pretty-printed as it grows
+     * with {@link #follow(Path, OutputStream, Duration)}.
+     *
+     * Newline-delimited JSON, as log shippers emit, is pretty-printed record by record
+     * with {@link #prettyPrintNdjson(InputStream, OutputStream, ForkJoinPool)}.
+     *
+     * A Formatter built with {@link Builder#lineIndex(int)} writes a {@link LineIndex}
+     * beside every file it pretty-prints by {@link #prettyPrint(Path, Path)}.
+     *
+     * A Formatter built with {@link Builder#checkpointInterval(long)} saves where it stands
+     * beside the output every so many bytes of a file, so that a job which was killed
+     * is continued by {@link #resume(Path, Path)} instead of being started over.
+     *
+     * <pre>
+     * JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder()
+     *         .indentWidth(4).lineSeparator("\n").threadLocal(true).build();
+     * int lines = formatter.prettyPrint(reader, writer);
+     * </pre>
+     */
+    public static final class Formatter {
+
+        private final Indentation indentation;
+        private final int bufferCapacity;
+        private final boolean strict;
+        private final int pipelineBlocks;
+        private final boolean flushWhenIdle;
+        private final int lineIndexInterval;
+        private final int maxStringLength;
+        private final long checkpointInterval;
+        private final int overlappedWrites;
+        private final int sortKeysBudget;
+        private final PrettyPrintListener listener;
+        private final JsonProjector.Pattern[] includes;
+        private final JsonProjector.Pattern[] excludes;
+        private final ThreadLocal<Workspace> workspaces;
+        private final Workspace workspace;
+
+        private Formatter(Builder builder) {
+            this.indentation = new Indentation(builder.lineSeparator,
+                    builder.useTabs ? '\t' : ' ',
+                    builder.indentWidth >= 0 ? builder.indentWidth : (builder.useTabs ? 1 : 2));
+            this.bufferCapacity = builder.bufferCapacity;
+            this.strict = builder.strict;
+            this.pipelineBlocks = builder.pipelineBlocks;
+            this.flushWhenIdle = builder.flushWhenIdle;
+            this.lineIndexInterval = builder.lineIndexInterval;
+            this.maxStringLength = builder.maxStringLength;
+            this.checkpointInterval = builder.checkpointInterval;
+            this.overlappedWrites = builder.overlappedWrites;
+            this.sortKeysBudget = builder.sortKeysBudget;
+            this.listener = builder.listener;
+            this.includes = builder.includes.toArray(new JsonProjector.Pattern[0]);
+            this.excludes = builder.excludes.toArray(new JsonProjector.Pattern[0]);
+            if (builder.threadLocal) {
+                this.workspaces = ThreadLocal.withInitial(Workspace::new);
+                this.workspace = null;
+            } else {
+                this.workspaces = null;
+                this.workspace = new Workspace();
+            }
+        }
+
+        /**
+         * Pretty-print a JSON as an InputStream in UTF-8, write the result into an OutputStream.
+         * The bytes are scanned as they are, without decoding them into characters.
+         * The streams are not closed.
+         *
+         * @param uglyJSON ugly JSON
+         * @param prettyPrintedJSON pretty printed JSON
+         * @return number of lines in the pretty printed JSON
+         * @throws JsonFlyweightException in the strict mode, if the input is not a well-formed JSON
+         * @throws IOException anything may happen
+         */
+        public int prettyPrint(InputStream uglyJSON, OutputStream prettyPrintedJSON) throws IOException {
+            Objects.requireNonNull(uglyJSON);
+            Objects.requireNonNull(prettyPrintedJSON);
+            Workspace ws = workspace();
+            ByteFormatter formatter = ws.byteFormatter();
+            byte[] byteBuffer = ws.byteBuffer();
+            PrettyPrintMeter meter = PrettyPrintMeter.start(listener, null, false);
+            formatter.setMeasuring(meter != null);
+            OutputStream sink = meter != null ? meter.wrap(prettyPrintedJSON) : prettyPrintedJSON;
+            int numBytesRead;
+            // consume all bytes from the input
+            while (true) {
+                long t = meter != null ? meter.beginChunk() : 0;
+                numBytesRead = uglyJSON.read(byteBuffer, 0, byteBuffer.length);
+                if (meter != null) {
+                    meter.read(t, numBytesRead);
+                }
+                if (numBytesRead == -1) {
+                    break;
+                }
+                formatter.format(byteBuffer, 0, numBytesRead, sink);
+                if (meter != null) {
+                    meter.endChunk();
+                }
+            }
+            formatter.drainTo(sink);
+            sink.flush();
+            formatter.finish();
+            if (meter != null) {
+                meter.finish(formatter.getNumLines(), formatter.getMaxDepth(), formatter.getLongestString());
+            }
+            return formatter.getNumLines();
+        }
+
+        /**
+         * Pretty-print a JSON as a Reader, write the result into a Writer.
+         * The Reader and the Writer are not closed.
+         *
+         * @param uglyJSON ugly JSON
+         * @param prettyPrintedJSON pretty printed JSON
+         * @return number of lines in the pretty printed JSON
+         * @throws JsonFlyweightException in the strict mode, if the input is not a well-formed JSON
+         * @throws UnsupportedOperationException if this Formatter projects or sorts the keys
+         * @throws IOException anything may happen
+         */
+        public int prettyPrint(Reader uglyJSON, Writer prettyPrintedJSON) throws IOException {
+            Objects.requireNonNull(uglyJSON);
+            Objects.requireNonNull(prettyPrintedJSON);
+            Workspace ws = workspace();
+            CharFormatter formatter = ws.charFormatter();
+            char[] charBuffer = ws.charBuffer();
+            PrettyPrintMeter meter = PrettyPrintMeter.start(listener, null, true);
+            formatter.setMeasuring(meter != null);
+            Writer sink = meter != null ? meter.wrap(prettyPrintedJSON) : prettyPrintedJSON;
+            int numCharsRead;
+            // consume all characters from the input
+            while (true) {
+                long t = meter != null ? meter.beginChunk() : 0;
+                numCharsRead = uglyJSON.read(charBuffer, 0, charBuffer.length);
+                if (meter != null) {
+                    meter.read(t, numCharsRead);
+                }
+                if (numCharsRead == -1) {
+                    break;
+                }
+                formatter.format(charBuffer, 0, numCharsRead, sink);
+                if (meter != null) {
+                    meter.endChunk();
+                }
+            }
+            formatter.drainTo(sink);
+            sink.flush();
+            formatter.finish();
+            if (meter != null) {
+                meter.finish(formatter.getNumLines(), formatter.getMaxDepth(), formatter.getLongestString());
+            }
+            return formatter.getNumLines();
+        }
+
+        /**
+         * Pretty-print a JSON file in UTF-8, write the result into another file.
+         * The input is read through a FileChannel which maps the file into memory
+         * window by window; the output is written through a FileChannel in chunks of whole pages,
+         * on a thread of its own with {@link Builder#overlappedWrites(int)}.
+         * With {@link Builder#lineIndex(int)}, the index is written into
+         * {@link LineIndex#sideCarOf(Path)} of the output when the output is complete.
+         *
+         * @param uglyJSON path of the ugly JSON file
+         * @param prettyPrintedJSON path of the pretty printed JSON file; will be created or truncated
+         * @return number of lines in the pretty printed JSON
+         * @throws JsonFlyweightException in the strict mode, if the input is not a well-formed JSON
+         * @throws IOException anything may happen
+         */
+        public int prettyPrint(Path uglyJSON, Path prettyPrintedJSON) throws IOException {
+            Objects.requireNonNull(uglyJSON);
+            Objects.requireNonNull(prettyPrintedJSON);
+            return prettyPrint(uglyJSON, prettyPrintedJSON, workspace());
+        }
+
+        int prettyPrint(Path uglyJSON, Path prettyPrintedJSON, Workspace ws) throws IOException {
+            return prettyPrint(uglyJSON, prettyPrintedJSON, ws, null);
+        }
+
+        /**
+         * Continue to pretty-print a JSON file from the checkpoint which a call of
+         * {@link #prettyPrint(Path, Path)} left beside the output when it was killed.
+         * The output is truncated to what had been written at the checkpoint, and the input
+         * is read on from where it stood then; the result is byte-identical to the one
+         * of a run which was not interrupted. If there is no checkpoint, or if it is broken,
+         * or if it was taken of an input of another size or time or in another layout,
+         * the file is pretty-printed from the beginning.
+         *
+         * @param uglyJSON path of the ugly JSON file
+         * @param prettyPrintedJSON path of the pretty printed JSON file, partly written
+         * @return number of lines in the pretty printed JSON
+         * @throws JsonFlyweightException in the strict mode, if the input is not a well-formed JSON
+         * @throws UnsupportedOperationException if this Formatter projects, sorts the keys or writes a line index
+         * @throws IOException if the file beside the output is not a checkpoint; anything else may happen
+         */
+        public int resume(Path uglyJSON, Path prettyPrintedJSON) throws IOException {
+            Objects.requireNonNull(uglyJSON);
+            Objects.requireNonNull(prettyPrintedJSON);
+            if (isProjecting() || sortKeysBudget > 0 || lineIndexInterval > 0) {
+                throw new UnsupportedOperationException("cannot resume a projection, a sorting or a line index");
+            }
+            Checkpoint checkpoint = Checkpoint.read(Checkpoint.sideCarOf(prettyPrintedJSON));
+            if (checkpoint != null && !(Files.exists(prettyPrintedJSON)
+                    && checkpoint.matches(layout(), Files.size(uglyJSON),
+                    Files.getLastModifiedTime(uglyJSON).toMillis(), Files.size(prettyPrintedJSON)))) {
+                checkpoint = null;
+            }
+            int numLines = prettyPrint(uglyJSON, prettyPrintedJSON, workspace(), checkpoint);
+            Files.deleteIfExists(Checkpoint.sideCarOf(prettyPrintedJSON));
+            return numLines;
+        }
+
+        /**
+         * @param from the checkpoint to continue from; null to start from the beginning
+         */
+        private int prettyPrint(Path uglyJSON, Path prettyPrintedJSON, Workspace ws, Checkpoint from)
+                throws IOException {
+            ByteFormatter formatter = ws.byteFormatter();
+            byte[] byteBuffer = ws.byteBuffer();
+            LineIndexer indexer = ws.lineIndexer();
+            formatter.setLineIndexer(indexer);
+            PrettyPrintMeter meter = PrettyPrintMeter.start(listener, uglyJSON.toString(), false);
+            formatter.setMeasuring(meter != null);
+            Path checkpointFile = checkpointInterval > 0 ? Checkpoint.sideCarOf(prettyPrintedJSON) : null;
+            try (FileChannel inChannel = FileChannel.open(uglyJSON, StandardOpenOption.READ);
+                 FileChannel outChannel = from == null
+                         ? FileChannel.open(prettyPrintedJSON, StandardOpenOption.CREATE,
+                                 StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)
+                         : FileChannel.open(prettyPrintedJSON, StandardOpenOption.WRITE)) {
+                long start = 0;
+                if (from != null) {
+                    formatter.restoreState(from.getState());
+                    outChannel.truncate(from.getOutputOffset());
+                    outChannel.position(from.getOutputOffset());
+                    start = from.getInputOffset();
+                }
+                // with overlapped writes, a thread of its own writes what the formatter has filled
+                OverlappedChannelOutputStream overlapped =
+                        overlappedWrites > 0 ? ws.overlappedOutputStream().attach(outChannel) : null;
+                OutputStream sink = overlapped != null ? overlapped : ws.channelOutputStream().attach(outChannel);
+                if (meter != null) {
+                    sink = meter.wrap(sink);
+                }
+                try {
+                    long size = inChannel.size();
+                    long modified = checkpointFile != null ? Files.getLastModifiedTime(uglyJSON).toMillis() : 0;
+                    long nextCheckpoint = start + checkpointInterval;
+                    for (long position = start; position < size; position += MAPPED_WINDOW_SIZE) {
+                        MappedByteBuffer window = inChannel.map(FileChannel.MapMode.READ_ONLY,
+                                position, Math.min(MAPPED_WINDOW_SIZE, size - position));
+                        // copy the mapped pages into the heap buffer chunk by chunk
+                        while (window.hasRemaining()) {
+                            long t = meter != null ? meter.beginChunk() : 0;
+                            int numBytes = Math.min(window.remaining(), byteBuffer.length);
+                            window.get(byteBuffer, 0, numBytes);
+                            if (meter != null) {
+                                meter.read(t, numBytes);
+                            }
+                            formatter.format(byteBuffer, 0, numBytes, sink);
+                            if (meter != null) {
+                                meter.endChunk();
+                            }
+                            long consumed = position + window.position();
+                            if (checkpointFile != null && consumed >= nextCheckpoint && consumed < size) {
+                                // the output must be on the disk before the checkpoint which tells its size
+                                formatter.drainTo(sink);
+                                sink.flush();
+                                outChannel.force(false);
+                                new Checkpoint(layout(), size, modified, consumed, outChannel.position(),
+                                        formatter.saveState()).write(checkpointFile);
+                                nextCheckpoint = consumed + checkpointInterval;
+                            }
                         }
-                        break;
-                    default:
-                        sb.append(ch);
+                    }
+                    formatter.drainTo(sink);
+                    sink.flush();
+                    formatter.finish();
+                } finally {
+                    if (overlapped != null) {
+                        overlapped.detach();
+                    }
                 }
-                prevChar = ch;   // to distinguish " and \"
+            } finally {
+                formatter.setLineIndexer(null);
+            }
+            if (checkpointFile != null) {
+                Files.deleteIfExists(checkpointFile);
             }
-            // we will flush the buffer before it gets too large
-            if (sb.length() >  BUFFER_CAPACITY * 0.9) {
-                pw.print(sb);
-                pw.flush();
-                sb.setLength(0);
+            if (indexer != null) {
+                indexer.write(LineIndex.sideCarOf(prettyPrintedJSON), formatter.getNumLines());
             }
+            if (meter != null) {
+                meter.finish(formatter.getNumLines(), formatter.getMaxDepth(), formatter.getLongestString());
+            }
+            return formatter.getNumLines();
         }
-        pw.print(sb);
-        pw.flush();
-        pw.close();
-        br.close();
-        return numLines;
-    }
 
+        /**
+         * Pretty-print a JSON file in UTF-8 which another process is still appending to, like {@code tail -f},
+         * write the result into an OutputStream as the file grows.
+         * Only the bytes appended since the last look are read and formatted; the state of the formatter
+         * is kept in between, and the output is flushed every time. This method waits on a
+         * {@link java.nio.file.WatchService} for the file to grow, and looks at its size every 100 ms anyway.
+         * The OutputStream is not closed.
+         *
+         * @param uglyJSON path of the JSON file being written
+         * @param prettyPrintedJSON pretty printed JSON, flushed as the file grows
+         * @param idleTimeout how long to wait for the file to grow before giving up
+         * @return number of lines in the pretty printed JSON, when the top-level object or array is closed
+         * @throws InterruptedIOException if nothing was appended for idleTimeout, or if the thread is interrupted;
+         *                                what was appended until then has been written
+         * @throws JsonFlyweightException in the strict mode, if the input is not a well-formed JSON
+         * @throws IOException anything may happen, such as the file being truncated
+         */
+        public int follow(Path uglyJSON, OutputStream prettyPrintedJSON, Duration idleTimeout) throws IOException {
+            Objects.requireNonNull(uglyJSON);
+            Objects.requireNonNull(prettyPrintedJSON);
+            Objects.requireNonNull(idleTimeout);
+            Workspace ws = workspace();
+            return new FollowingPrettyPrinter(ws.byteFormatter(), ws.byteBuffer())
+                    .follow(uglyJSON, prettyPrintedJSON, idleTimeout);
+        }
 
-    /**
-     * Print a new line with indentation at the beginning of the new line.
-     * Append a NewLine char at the end.
-     *
-     * @param indentLevel 0,1,2,3,...
-     * @param stringBuilder buffer where the output JSON string is constructed
-     */
-    private static void newLineAndIndent(int indentLevel, StringBuilder stringBuilder) {
-        stringBuilder.append(System.lineSeparator());
-        // Assuming indentation using 2 spaces per level
-        stringBuilder.append("  ".repeat(Math.max(0, indentLevel)));
+        /**
+         * Pretty-print a JSON file in parallel on the given ForkJoinPool,
+         * write the result into another file.
+         * The output is byte-identical to the one {@link #prettyPrint(Path, Path)} produces.
+         * A Formatter which projects, sorts the keys, cuts long strings or writes a line index
+         * pretty-prints sequentially, as the selection of a part, the order of the members,
+         * the count of the characters and the path of a line depend on all that comes before them.
+         *
+         * @param uglyJSON path of the ugly JSON file
+         * @param prettyPrintedJSON path of the pretty printed JSON file; will be created or truncated
+         * @param pool the ForkJoinPool on which the chunks are formatted
+         * @return number of lines in the pretty printed JSON
+         * @throws JsonFlyweightException in the strict mode, if the input is not a well-formed JSON
+         * @throws IOException anything may happen
+         */
+        public int prettyPrintParallel(Path uglyJSON, Path prettyPrintedJSON,
+                                       ForkJoinPool pool) throws IOException {
+            Objects.requireNonNull(uglyJSON);
+            Objects.requireNonNull(prettyPrintedJSON);
+            Objects.requireNonNull(pool);
+            if (isProjecting() || sortKeysBudget > 0 || maxStringLength >= 0 || lineIndexInterval > 0
+                    || checkpointInterval > 0) {
+                return prettyPrint(uglyJSON, prettyPrintedJSON);
+            }
+            return new ParallelPrettyPrinter(this, pool).prettyPrint(uglyJSON, prettyPrintedJSON);
+        }
+
+        /**
+         * Pretty-print newline-delimited JSON (NDJSON, JSON Lines) in UTF-8 in parallel on the given ForkJoinPool,
+         * write the result into an OutputStream.
+         * The input is split into records at the line feeds out of quotes and out of brackets,
+         * and every record is pretty-printed as a document of its own, followed by the line separator.
+         * The records are formatted in batches of about 1 MB and written in the original order;
+         * at most 2 batches per thread of the pool are held in memory. A record larger than a batch
+         * is formatted on the caller's thread as it is read. Blank lines are skipped.
+         * With {@link Builder#flushWhenIdle(boolean)} the records are written as soon as they come in.
+         * The streams are not closed.
+         *
+         * @param uglyNDJSON ugly JSON records, one per line
+         * @param prettyPrintedJSON pretty printed JSON records
+         * @param pool the ForkJoinPool on which the records are formatted
+         * @return number of records pretty printed
+         * @throws JsonFlyweightException in the strict mode, if a record is not a well-formed JSON;
+         *                                it tells the offset and the line in the whole input
+         * @throws IOException anything may happen
+         */
+        public long prettyPrintNdjson(InputStream uglyNDJSON, OutputStream prettyPrintedJSON,
+                                      ForkJoinPool pool) throws IOException {
+            Objects.requireNonNull(uglyNDJSON);
+            Objects.requireNonNull(prettyPrintedJSON);
+            Objects.requireNonNull(pool);
+            return new NdjsonPrettyPrinter(this, pool).prettyPrint(uglyNDJSON, prettyPrintedJSON);
+        }
+
+        /**
+         * Pretty-print many JSON files concurrently on a fixed number of threads,
+         * write the results into the output directory under the same file names.
+         * The largest files are started first. The buffers are held in a pool of
+         * {@code parallelism} sets of about 3 * {@link Builder#bufferCapacity(int)} bytes,
+         * shared by the jobs, so the heap stays capped however many files there are.
+         * A file which fails does not stop the others.
+         *
+         * @param uglyJSONs paths of the ugly JSON files; their file names must be distinct
+         * @param outputDir directory of the pretty printed JSON files; will be created if not present
+         * @param parallelism number of files pretty-printed at a time
+         * @return the result of each file, in the order of uglyJSONs
+         * @throws IllegalArgumentException if two inputs have the same file name,
+         *                                  or if an input would be overwritten by its output
+         * @throws IOException if the output directory cannot be created, or if interrupted
+         */
+        public List<PrettyPrintResult> prettyPrintAll(Collection<Path> uglyJSONs, Path outputDir,
+                                                      int parallelism) throws IOException {
+            Objects.requireNonNull(uglyJSONs);
+            Objects.requireNonNull(outputDir);
+            return new BatchPrettyPrinter(this, parallelism).prettyPrintAll(uglyJSONs, outputDir);
+        }
+
+        /**
+         * Pretty-print a gzipped JSON file, write the result into another gzipped file.
+         * The decompression and the compression run on two threads of their own while
+         * the caller's thread formats, connected by rings of {@link Builder#pipelineBlocks(int)}
+         * blocks of {@link Builder#bufferCapacity(int)} bytes.
+         * The uncompressed output is byte-identical to the one {@link #prettyPrint(Path, Path)} produces.
+         *
+         * @param uglyJSONgz path of the gzipped ugly JSON file
+         * @param prettyPrintedJSONgz path of the gzipped pretty printed JSON file; will be created or truncated
+         * @return number of lines in the pretty printed JSON
+         * @throws JsonFlyweightException in the strict mode, if the input is not a well-formed JSON
+         * @throws IOException anything may happen, such as a corrupt GZIP input
+         */
+        public int prettyPrintGzip(Path uglyJSONgz, Path prettyPrintedJSONgz) throws IOException {
+            Objects.requireNonNull(uglyJSONgz);
+            Objects.requireNonNull(prettyPrintedJSONgz);
+            return new GzipPrettyPrinter(workspace().byteFormatter(), bufferCapacity, pipelineBlocks)
+                    .prettyPrint(uglyJSONgz, prettyPrintedJSONgz);
+        }
+
+        /**
+         * @return a new byte-oriented engine with the layout and the mode of this Formatter
+         */
+        ByteFormatter newByteFormatter() {
+            return newByteFormatter(strict);
+        }
+
+        /**
+         * @param validating true for an engine which checks the input
+         * @return a new byte-oriented engine with the layout of this Formatter
+         */
+        ByteFormatter newByteFormatter(boolean validating) {
+            return new ByteFormatter(this, validating);
+        }
+
+        /**
+         * @return a new char-oriented engine with the layout and the mode of this Formatter
+         */
+        CharFormatter newCharFormatter() {
+            if (isProjecting() || sortKeysBudget > 0) {
+                throw new UnsupportedOperationException(
+                        "the projection and the sorting work on bytes; use an InputStream, an OutputStream or a Path");
+            }
+            return new CharFormatter(this);
+        }
+
+        /**
+         * @return a new projector of the paths this Formatter includes and excludes
+         */
+        JsonProjector newProjector() {
+            return new JsonProjector(includes, excludes);
+        }
+
+        boolean isProjecting() {
+            return includes.length > 0 || excludes.length > 0;
+        }
+
+        boolean isSortingKeys() {
+            return sortKeysBudget > 0;
+        }
+
+        boolean isStrict() {
+            return strict;
+        }
+
+        int getBufferCapacity() {
+            return bufferCapacity;
+        }
+
+        Indentation getIndentation() {
+            return indentation;
+        }
+
+        int getMaxStringLength() {
+            return maxStringLength;
+        }
+
+        int getSortKeysBudget() {
+            return sortKeysBudget;
+        }
+
+        boolean isFlushWhenIdle() {
+            return flushWhenIdle;
+        }
+
+        String getLineSeparator() {
+            return indentation.lineSeparator();
+        }
+
+        /**
+         * @return what the output looks like, which a checkpoint must have been taken in
+         */
+        String layout() {
+            return "lineSeparator=" + indentation.lineSeparator().replace("\r", "CR").replace("\n", "LF")
+                    + " indent=" + indentation.indentWidth() + (indentation.indentChar() == '\t' ? "tab" : "space")
+                    + " maxStringLength=" + maxStringLength + " strict=" + strict
+                    + (sortKeysBudget > 0 ? " sortKeys" : "");
+        }
+
+        /**
+         * @return a new set of buffers, for a caller which pools them by itself
+         */
+        Workspace newWorkspace() {
+            return new Workspace();
+        }
+
+        private Workspace workspace() {
+            return workspace != null ? workspace : workspaces.get();
+        }
+
+        /**
+         * the buffers and the engines reused by the calls; created when first needed
+         */
+        final class Workspace {
+            private ByteFormatter byteFormatter;
+            private byte[] byteBuffer;
+            private CharFormatter charFormatter;
+            private char[] charBuffer;
+            private ChannelOutputStream channelOutputStream;
+            private OverlappedChannelOutputStream overlappedOutputStream;
+            private LineIndexer lineIndexer;
+
+            ByteFormatter byteFormatter() {
+                if (byteFormatter == null) {
+                    byteFormatter = newByteFormatter();
+                }
+                byteFormatter.reset();
+                return byteFormatter;
+            }
+
+            byte[] byteBuffer() {
+                if (byteBuffer == null) {
+                    byteBuffer = new byte[bufferCapacity];
+                }
+                return byteBuffer;
+            }
+
+            CharFormatter charFormatter() {
+                if (charFormatter == null) {
+                    charFormatter = newCharFormatter();
+                }
+                charFormatter.reset();
+                return charFormatter;
+            }
+
+            char[] charBuffer() {
+                if (charBuffer == null) {
+                    charBuffer = new char[bufferCapacity];
+                }
+                return charBuffer;
+            }
+
+            ChannelOutputStream channelOutputStream() {
+                if (channelOutputStream == null) {
+                    channelOutputStream = new ChannelOutputStream(null, bufferCapacity);
+                }
+                return channelOutputStream;
+            }
+
+            OverlappedChannelOutputStream overlappedOutputStream() {
+                if (overlappedOutputStream == null) {
+                    overlappedOutputStream = new OverlappedChannelOutputStream(bufferCapacity, overlappedWrites);
+                }
+                return overlappedOutputStream;
+            }
+
+            /**
+             * @return the indexer reset for a new document, or null if no index is wanted
+             */
+            LineIndexer lineIndexer() {
+                if (lineIndexInterval == 0) {
+                    return null;
+                }
+                if (lineIndexer == null) {
+                    lineIndexer = new LineIndexer(lineIndexInterval, indentation.lineSeparator());
+                }
+                lineIndexer.reset();
+                return lineIndexer;
+            }
+        }
+
+        /**
+         * Builder of {@link Formatter}.
+         */
+        public static final class Builder {
+            private int indentWidth = -1;
+            private boolean useTabs = false;
+            private String lineSeparator = System.lineSeparator();
+            private int bufferCapacity = BUFFER_CAPACITY;
+            private boolean threadLocal = false;
+            private boolean strict = false;
+            private int pipelineBlocks = 4;
+            private boolean flushWhenIdle = false;
+            private int lineIndexInterval = 0;
+            private int maxStringLength = -1;
+            private long checkpointInterval = 0;
+            private int overlappedWrites = 0;
+            private int sortKeysBudget = 0;
+            private PrettyPrintListener listener;
+            private final List<JsonProjector.Pattern> includes = new ArrayList<>();
+            private final List<JsonProjector.Pattern> excludes = new ArrayList<>();
+
+            public Builder() {}
+
+            /**
+             * @param indentWidth number of indent characters per indent level.
+             *                    Defaults to 2 for spaces, 1 for tabs.
+             * @return this Builder
+             */
+            public Builder indentWidth(int indentWidth) {
+                if (indentWidth < 0) {
+                    throw new IllegalArgumentException("indentWidth must not be negative: " + indentWidth);
+                }
+                this.indentWidth = indentWidth;
+                return this;
+            }
+
+            /**
+             * @param useTabs true to indent with tabs, false to indent with spaces (default)
+             * @return this Builder
+             */
+            public Builder useTabs(boolean useTabs) {
+                this.useTabs = useTabs;
+                return this;
+            }
+
+            /**
+             * @param lineSeparator "\n", "\r\n" or "\r". Defaults to the line separator of the platform.
+             * @return this Builder
+             */
+            public Builder lineSeparator(String lineSeparator) {
+                Objects.requireNonNull(lineSeparator);
+                if (!lineSeparator.equals("\n") && !lineSeparator.equals("\r\n")
+                        && !lineSeparator.equals("\r")) {
+                    throw new IllegalArgumentException(
+                            "lineSeparator must be one of \"\\n\", \"\\r\\n\" and \"\\r\"");
+                }
+                this.lineSeparator = lineSeparator;
+                return this;
+            }
+
+            /**
+             * @param bufferCapacity size of the input and the output buffers. Defaults to 32 KB.
+             * @return this Builder
+             */
+            public Builder bufferCapacity(int bufferCapacity) {
+                if (bufferCapacity < 1024) {
+                    throw new IllegalArgumentException("bufferCapacity must be 1024 or more: " + bufferCapacity);
+                }
+                this.bufferCapacity = bufferCapacity;
+                return this;
+            }
+
+            /**
+             * @param threadLocal true to keep a set of buffers per thread,
+             *                    so that the Formatter can be shared by many threads
+             * @return this Builder
+             */
+            public Builder threadLocal(boolean threadLocal) {
+                this.threadLocal = threadLocal;
+                return this;
+            }
+
+            /**
+             * @param strict true to check that the input is a well-formed JSON,
+             *               and to throw a {@link JsonFlyweightException} if not.
+             *               Defaults to false, which formats malformed input as it is.
+             * @return this Builder
+             */
+            public Builder strict(boolean strict) {
+                this.strict = strict;
+                return this;
+            }
+
+            /**
+             * @param pipelineBlocks number of blocks in each of the two rings which connect
+             *                       the stages of {@link Formatter#prettyPrintGzip(Path, Path)}.
+             *                       The rings hold {@code 2 * pipelineBlocks * bufferCapacity} bytes.
+             *                       Defaults to 4.
+             * @return this Builder
+             */
+            public Builder pipelineBlocks(int pipelineBlocks) {
+                if (pipelineBlocks < 2) {
+                    throw new IllegalArgumentException("pipelineBlocks must be 2 or more: " + pipelineBlocks);
+                }
+                this.pipelineBlocks = pipelineBlocks;
+                return this;
+            }
+
+            /**
+             * @param flushWhenIdle true to have
+             *                      {@link Formatter#prettyPrintNdjson(InputStream, OutputStream, ForkJoinPool)}
+             *                      write and flush the records read so far whenever no more input is ready,
+             *                      as from a pipe fed by {@code tail -f}. The input must tell the bytes ready
+             *                      by {@link InputStream#available()}; one which always tells 0 makes every read
+             *                      a batch of its own. Defaults to false, which writes a batch when it is full.
+             * @return this Builder
+             */
+            public Builder flushWhenIdle(boolean flushWhenIdle) {
+                this.flushWhenIdle = flushWhenIdle;
+                return this;
+            }
+
+            /**
+             * @param maxStringLength number of characters a string value is cut after. The rest is
+             *                        replaced by a marker like <code>&hellip;(+123456 chars)</code>, and skipped
+             *                        without being copied. An escape sequence counts as one character.
+             *                        The names of the members are never cut. 0 leaves only the marker.
+             *                        By default the strings are not cut.
+             * @return this Builder
+             */
+            public Builder maxStringLength(int maxStringLength) {
+                if (maxStringLength < 0) {
+                    throw new IllegalArgumentException("maxStringLength must not be negative: " + maxStringLength);
+                }
+                this.maxStringLength = maxStringLength;
+                return this;
+            }
+
+            /**
+             * @param listener to be told the {@link PrettyPrintStats} of every call of prettyPrint
+             *                 with an InputStream, a Reader or a Path; null for none (default)
+             * @return this Builder
+             */
+            public Builder listener(PrettyPrintListener listener) {
+                this.listener = listener;
+                return this;
+            }
+
+            /**
+             * @param interval K, to index every K-th line of the files pretty-printed by
+             *                 {@link Formatter#prettyPrint(Path, Path)} into a {@link LineIndex}
+             *                 beside them. The index takes about 16 bytes plus the length of a path
+             *                 per K lines, held in memory until the file is done.
+             *                 Defaults to 0, which writes no index.
+             * @return this Builder
+             */
+            public Builder lineIndex(int interval) {
+                if (interval < 0) {
+                    throw new IllegalArgumentException("interval must not be negative: " + interval);
+                }
+                this.lineIndexInterval = interval;
+                return this;
+            }
+
+            /**
+             * @param buffers number of direct buffers of {@link #bufferCapacity(int)} bytes the output of
+             *                {@link Formatter#prettyPrint(Path, Path)} alternates between: one is filled
+             *                by the formatter while the others are written by a thread of its own,
+             *                so that the formatting does not wait for the writes, as on a network file system.
+             *                Defaults to 0, which writes on the calling thread through a single buffer.
+             * @return this Builder
+             */
+            public Builder overlappedWrites(int buffers) {
+                if (buffers != 0 && buffers < 2) {
+                    throw new IllegalArgumentException("buffers must be 0, or 2 or more: " + buffers);
+                }
+                this.overlappedWrites = buffers;
+                return this;
+            }
+
+            /**
+             * @param memoryBudget bytes of the buffers which hold the members of the objects in memory,
+             *                     the arrays of their offsets included, to write
+             *                     the members of every object sorted by their names. An object whose
+             *                     members take more is sorted by a merge of runs written into temporary files,
+             *                     so the heap stays bounded however large the objects are.
+             *                     The names are compared by their bytes as written; the members of
+             *                     the same name keep their order. Defaults to 0, which keeps the order.
+             * @return this Builder
+             */
+            public Builder sortKeys(int memoryBudget) {
+                if (memoryBudget != 0 && memoryBudget < 1024) {
+                    throw new IllegalArgumentException("memoryBudget must be 0, or 1024 or more: " + memoryBudget);
+                }
+                this.sortKeysBudget = memoryBudget;
+                return this;
+            }
+
+            /**
+             * @param interval number of bytes of the input, to save a checkpoint beside the output
+             *                 every so many bytes of the files pretty-printed by
+             *                 {@link Formatter#prettyPrint(Path, Path)}. The output is forced
+             *                 to the disk at every checkpoint, so an interval of many megabytes is wise.
+             *                 The checkpoint is deleted when the file is done.
+             *                 Defaults to 0, which saves no checkpoint.
+             * @return this Builder
+             */
+            public Builder checkpointInterval(long interval) {
+                if (interval < 0) {
+                    throw new IllegalArgumentException("interval must not be negative: " + interval);
+                }
+                this.checkpointInterval = interval;
+                return this;
+            }
+
+            /**
+             * @param paths the parts of the JSON to pretty-print, like {@code log.entries[*].request}
+             *              or {@code $.data[0]['content-type']}; {@code *} matches any member or element.
+             *              The members and the elements leading to them are kept, the others dropped.
+             *              By default the whole JSON is pretty-printed.
+             * @return this Builder
+             * @throws IllegalArgumentException if a path is malformed, or if more than 64 paths are given
+             */
+            public Builder include(String... paths) {
+                addPatterns(includes, paths);
+                return this;
+            }
+
+            /**
+             * @param paths the parts of the JSON to leave out, like {@code log.entries[*].response.content.text}.
+             *              An excluded part is left out even inside an included one.
+             * @return this Builder
+             * @throws IllegalArgumentException if a path is malformed, or if more than 64 paths are given
+             */
+            public Builder exclude(String... paths) {
+                addPatterns(excludes, paths);
+                return this;
+            }
+
+            private static void addPatterns(List<JsonProjector.Pattern> patterns, String... paths) {
+                for (String path : paths) {
+                    if (patterns.size() == JsonProjector.MAX_PATTERNS) {
+                        throw new IllegalArgumentException(
+                                "no more than " + JsonProjector.MAX_PATTERNS + " paths are allowed");
+                    }
+                    patterns.add(JsonProjector.Pattern.parse(Objects.requireNonNull(path)));
+                }
+            }
+
+            /**
+             * @throws IllegalStateException if checkpoints are asked for along with a projection, a sorting
+             *                               or a line index, whose state is not saved
+             */
+            public Formatter build() {
+                if (checkpointInterval > 0 && (!includes.isEmpty() || !excludes.isEmpty() || sortKeysBudget > 0
+                        || lineIndexInterval > 0)) {
+                    throw new IllegalStateException(
+                            "checkpoints are not available with include, exclude, sortKeys nor lineIndex");
+                }
+                return new Formatter(this);
+            }
+        }
     }
 }
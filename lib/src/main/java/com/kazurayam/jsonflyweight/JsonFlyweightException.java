@@ -0,0 +1,65 @@
+package com.kazurayam.jsonflyweight;
+
+import java.io.IOException;
+
+/**
+ * Thrown by a strict {@link JsonFlyweight.Formatter} when the input is not a well-formed JSON.
+ * Tells where the input went wrong: the offset from the start of the input
+ * (in bytes for an InputStream or a file, in chars for a Reader), the line and the column,
+ * and the JSON path of the value being read, like {@code $.log.entries[3].request}.
+ */
+public class JsonFlyweightException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String reason;
+    private final long offset;
+    private final long line;
+    private final long column;
+    private final String path;
+
+    public JsonFlyweightException(String reason, long offset, long line, long column, String path) {
+        super(reason + " at line " + line + ", column " + column
+                + " (offset " + offset + "), path " + path);
+        this.reason = reason;
+        this.offset = offset;
+        this.line = line;
+        this.column = column;
+        this.path = path;
+    }
+
+    /**
+     * @return what was wrong, without the location
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * @return offset of the offending byte (or char) from the start of the input, 0-based
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return line of the offending byte (or char), 1-based
+     */
+    public long getLine() {
+        return line;
+    }
+
+    /**
+     * @return column of the offending byte (or char) in the line, 1-based
+     */
+    public long getColumn() {
+        return column;
+    }
+
+    /**
+     * @return JSON path of the value being read, e.g. {@code $.log.entries[3].request}
+     */
+    public String getPath() {
+        return path;
+    }
+}
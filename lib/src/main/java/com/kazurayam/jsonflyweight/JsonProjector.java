@@ -0,0 +1,632 @@
+package com.kazurayam.jsonflyweight;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Selects the parts of a JSON to be pretty-printed, by a set of paths to include
+ * and a set of paths to exclude, like {@code log.entries[*].request}.
+ *
+ * The projector scans the ugly JSON as it streams, keeping track of where it is with
+ * a {@link PathTracker}, and hands only the selected bytes to the {@link ByteFormatter}.
+ * A subtree which is not selected is skipped without being copied; the content of
+ * a long string is skipped by {@link SwarScanner} 8 bytes at a time.
+ * The members and the elements which lead to a selected subtree are kept, and those
+ * which lead nowhere are dropped, with the commas put right, so the output is a valid JSON.
+ * The root container is always kept, so nothing selected gives {@code {}}.
+ *
+ * Which patterns still match the path is tracked per level as a bit mask, so deciding
+ * on a value costs a look at the patterns which matched its parent only.
+ * The memory grows with the depth of the nesting only, never with the size of the document.
+ */
+final class JsonProjector {
+
+    /** at most 64 patterns of either kind, as a level keeps them in a bit mask */
+    static final int MAX_PATTERNS = Long.SIZE;
+
+    // what the scanner is doing
+    private static final int STRUCTURE = 0;   // between the tokens of a container being projected
+    private static final int KEY = 1;         // in the name of a member
+    private static final int STRING = 2;      // in a string value, to be copied or skipped
+    private static final int CONTAINER = 3;   // in an object or an array, to be copied or skipped as a whole
+    private static final int SCALAR = 4;      // in a number or a literal, to be copied or skipped
+
+    // what to do with a value
+    private static final int SKIP = 0;
+    private static final int COPY = 1;
+    private static final int DESCEND = 2;
+
+    private static final byte[] CLOSE_OBJECT = { '}' };
+    private static final byte[] CLOSE_ARRAY = { ']' };
+
+    private final Pattern[] includes;
+    private final Pattern[] excludes;
+
+    private final PathTracker path = new PathTracker();
+
+    // per level of the containers being projected; the level 0 is the root
+    private long[] liveIncludes = new long[16];
+    private long[] liveExcludes = new long[16];
+    private boolean[] included = new boolean[16];
+    private boolean[] hasChild = new boolean[16];
+    private int[] pendingMark = new int[16];
+
+    /** the levels up to this one have been written out */
+    private int openedDepth;
+
+    /** the bytes which open the levels not written out yet, waiting for a selected value */
+    private byte[] pending = new byte[256];
+    private int pendingLength;
+
+    /** the name of the current member, as it appears in the JSON */
+    private byte[] key = new byte[64];
+    private int keyLength;
+
+    private int mode;
+    private boolean expectKey;
+    private boolean copying;
+    private int nesting;
+    private boolean inQuote;
+    private boolean escaped;
+
+    // the decision on the value being started, for the level to be pushed
+    private long nextIncludes;
+    private long nextExcludes;
+    private boolean nextIncluded;
+
+    JsonProjector(Pattern[] includes, Pattern[] excludes) {
+        this.includes = includes;
+        this.excludes = excludes;
+        reset();
+    }
+
+    /**
+     * Scan the input and hand the selected bytes to the formatter.
+     * Keeps the state between calls, so the input can be fed in fragments of any size.
+     */
+    void project(byte[] in, int off, int len, ByteFormatter formatter, OutputStream sink) throws IOException {
+        final int end = off + len;
+        int i = off;
+        while (i < end) {
+            switch (mode) {
+                case STRUCTURE:
+                    i = structure(in, i, end, formatter, sink);
+                    break;
+                case KEY:
+                    i = key(in, i, end);
+                    break;
+                case STRING:
+                    i = string(in, i, end, formatter, sink);
+                    break;
+                case CONTAINER:
+                    i = container(in, i, end, formatter, sink);
+                    break;
+                default:
+                    i = scalar(in, i, end, formatter, sink);
+            }
+        }
+    }
+
+    void reset() {
+        path.reset();
+        openedDepth = 0;
+        pendingLength = 0;
+        keyLength = 0;
+        mode = STRUCTURE;
+        expectKey = false;
+        copying = false;
+        nesting = 0;
+        inQuote = false;
+        escaped = false;
+        hasChild[0] = false;
+    }
+
+    private int structure(byte[] in, int i, int end, ByteFormatter formatter, OutputStream sink) throws IOException {
+        while (i < end) {
+            byte ch = in[i];
+            switch (ch) {
+                case ':':
+                    i++;
+                    break;
+                case ',':
+                    i++;
+                    if (path.isObject()) {
+                        expectKey = true;
+                    } else if (path.depth() > 0) {
+                        path.nextElement();
+                    }
+                    break;
+                case '}':
+                case ']':
+                    i++;
+                    close(formatter, sink);
+                    break;
+                case '"':
+                    if (expectKey && path.isObject()) {
+                        path.startKey();
+                        keyLength = 0;
+                        escaped = false;
+                        mode = KEY;
+                        return i + 1;
+                    }
+                    startValue(classifyLeaf(), STRING, formatter, sink);
+                    return i;
+                case '{':
+                case '[':
+                    int action = classify();
+                    if (action == DESCEND) {
+                        i++;
+                        open(ch == '{', formatter, sink);
+                        break;
+                    }
+                    startValue(action, CONTAINER, formatter, sink);
+                    return i;
+                default:
+                    if (ch >= 0 && ch <= ' ') {
+                        // white spaces are not copied; the formatter puts its own
+                        i++;
+                        break;
+                    }
+                    startValue(classifyLeaf(), SCALAR, formatter, sink);
+                    return i;
+            }
+        }
+        return i;
+    }
+
+    private int key(byte[] in, int i, int end) {
+        while (i < end) {
+            if (escaped) {
+                appendKey(in, i, i + 1);
+                escaped = false;
+                i++;
+                continue;
+            }
+            int stop = SwarScanner.indexOfQuoteOrBackslash(in, i, end);
+            appendKey(in, i, stop);
+            i = stop;
+            if (i == end) {
+                break;
+            }
+            if (in[i] == '\\') {
+                appendKey(in, i, i + 1);
+                escaped = true;
+                i++;
+            } else {
+                expectKey = false;
+                mode = STRUCTURE;
+                return i + 1;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * a string value, from its opening quote to its closing quote
+     */
+    private int string(byte[] in, int i, int end, ByteFormatter formatter, OutputStream sink) throws IOException {
+        final int start = i;
+        if (!inQuote) {
+            // the opening quote
+            inQuote = true;
+            i++;
+        }
+        while (i < end) {
+            if (escaped) {
+                escaped = false;
+                i++;
+                continue;
+            }
+            i = SwarScanner.indexOfQuoteOrBackslash(in, i, end);
+            if (i == end) {
+                break;
+            }
+            if (in[i++] == '\\') {
+                escaped = true;
+            } else {
+                inQuote = false;
+                mode = STRUCTURE;
+                break;
+            }
+        }
+        if (copying) {
+            formatter.translate(in, start, i - start, sink);
+        }
+        return i;
+    }
+
+    /**
+     * an object or an array as a whole, from its opening bracket to its closing bracket
+     */
+    private int container(byte[] in, int i, int end, ByteFormatter formatter, OutputStream sink) throws IOException {
+        final int start = i;
+        while (i < end) {
+            if (inQuote) {
+                if (escaped) {
+                    escaped = false;
+                    i++;
+                    continue;
+                }
+                i = SwarScanner.indexOfQuoteOrBackslash(in, i, end);
+                if (i == end) {
+                    break;
+                }
+                if (in[i++] == '\\') {
+                    escaped = true;
+                } else {
+                    inQuote = false;
+                }
+                continue;
+            }
+            i = SwarScanner.indexOfQuoteOrBracket(in, i, end);
+            if (i == end) {
+                break;
+            }
+            byte ch = in[i++];
+            if (ch == '"') {
+                inQuote = true;
+            } else if (ch == '{' || ch == '[') {
+                nesting++;
+            } else if (ch == '}' || ch == ']') {
+                if (--nesting == 0) {
+                    mode = STRUCTURE;
+                    break;
+                }
+            }
+        }
+        if (copying) {
+            formatter.translate(in, start, i - start, sink);
+        }
+        return i;
+    }
+
+    /**
+     * a number or a literal, up to the byte which ends it
+     */
+    private int scalar(byte[] in, int i, int end, ByteFormatter formatter, OutputStream sink) throws IOException {
+        final int start = i;
+        while (i < end && !SwarScanner.isStructural(in[i])) {
+            i++;
+        }
+        if (i < end) {
+            mode = STRUCTURE;
+        }
+        if (copying) {
+            formatter.translate(in, start, i - start, sink);
+        }
+        return i;
+    }
+
+    /**
+     * Decide on the value which starts now, a child of the current container.
+     * Sets the live patterns and the inclusion for the level to be pushed, if descended.
+     */
+    private int classify() {
+        int depth = path.depth();
+        long inc;
+        long exc;
+        boolean incl;
+        if (depth == 0) {
+            inc = allBits(includes.length);
+            exc = allBits(excludes.length);
+            incl = includes.length == 0;
+        } else {
+            incl = included[depth];
+            inc = incl ? 0 : match(includes, liveIncludes[depth], depth - 1);
+            exc = match(excludes, liveExcludes[depth], depth - 1);
+        }
+        if (anyComplete(excludes, exc, depth)) {
+            return SKIP;
+        }
+        if (!incl && anyComplete(includes, inc, depth)) {
+            incl = true;
+            inc = 0;
+        }
+        nextIncludes = inc;
+        nextExcludes = exc;
+        nextIncluded = incl;
+        if (incl) {
+            return exc == 0 ? COPY : DESCEND;
+        }
+        return inc != 0 ? DESCEND : SKIP;
+    }
+
+    /**
+     * Decide on a string, a number or a literal, which has nothing inside to descend into
+     */
+    private int classifyLeaf() {
+        int action = classify();
+        if (action == DESCEND) {
+            return nextIncluded ? COPY : SKIP;
+        }
+        return action;
+    }
+
+    private void startValue(int action, int valueMode, ByteFormatter formatter, OutputStream sink) throws IOException {
+        copying = (action == COPY);
+        if (copying) {
+            writeMemberPrefix();
+            flushPending(formatter, sink);
+            hasChild[path.depth()] = true;
+        }
+        mode = valueMode;
+        nesting = 0;
+        inQuote = false;
+        escaped = false;
+    }
+
+    /**
+     * Enter a container which is projected member by member. Unless included as a whole,
+     * its opening is held as pending until a selected value is found in it, and dropped if none is.
+     */
+    private void open(boolean object, ByteFormatter formatter, OutputStream sink) throws IOException {
+        int mark = pendingLength;
+        writeMemberPrefix();
+        appendPending((byte) (object ? '{' : '['));
+        path.push(object);
+        int depth = path.depth();
+        if (depth == liveIncludes.length) {
+            int n = depth * 2;
+            liveIncludes = Arrays.copyOf(liveIncludes, n);
+            liveExcludes = Arrays.copyOf(liveExcludes, n);
+            included = Arrays.copyOf(included, n);
+            hasChild = Arrays.copyOf(hasChild, n);
+            pendingMark = Arrays.copyOf(pendingMark, n);
+        }
+        liveIncludes[depth] = nextIncludes;
+        liveExcludes[depth] = nextExcludes;
+        included[depth] = nextIncluded;
+        hasChild[depth] = false;
+        pendingMark[depth] = mark;
+        expectKey = object;
+        if (depth == 1 || nextIncluded) {
+            // the root container is always written, and so is an included one even if all in it is excluded
+            flushPending(formatter, sink);
+        }
+    }
+
+    private void close(ByteFormatter formatter, OutputStream sink) throws IOException {
+        int depth = path.depth();
+        if (depth == 0) {
+            // a stray closing bracket in a malformed input
+            return;
+        }
+        if (depth > openedDepth) {
+            // nothing was selected in it
+            pendingLength = pendingMark[depth];
+        } else {
+            formatter.translate(path.isObject() ? CLOSE_OBJECT : CLOSE_ARRAY, 0, 1, sink);
+            openedDepth = depth - 1;
+        }
+        path.pop();
+        expectKey = false;
+    }
+
+    /**
+     * the comma and the name which precede a value in its container
+     */
+    private void writeMemberPrefix() {
+        int depth = path.depth();
+        if (depth == 0) {
+            return;
+        }
+        if (hasChild[depth]) {
+            appendPending((byte) ',');
+        }
+        if (path.isObject()) {
+            appendPending((byte) '"');
+            appendPending(key, 0, keyLength);
+            appendPending((byte) '"');
+            appendPending((byte) ':');
+        }
+    }
+
+    /**
+     * Write out the openings of the pending levels, as a selected value has been found in them
+     */
+    private void flushPending(ByteFormatter formatter, OutputStream sink) throws IOException {
+        if (pendingLength > 0) {
+            formatter.translate(pending, 0, pendingLength, sink);
+            pendingLength = 0;
+        }
+        int depth = path.depth();
+        for (int level = openedDepth + 1; level <= depth; level++) {
+            hasChild[level - 1] = true;
+        }
+        openedDepth = depth;
+    }
+
+    private long match(Pattern[] patterns, long bits, int segment) {
+        long matched = 0;
+        for (long b = bits; b != 0; b &= b - 1) {
+            int p = Long.numberOfTrailingZeros(b);
+            if (patterns[p].segments[segment].matches(path, key, keyLength)) {
+                matched |= 1L << p;
+            }
+        }
+        return matched;
+    }
+
+    private static boolean anyComplete(Pattern[] patterns, long bits, int length) {
+        for (long b = bits; b != 0; b &= b - 1) {
+            if (patterns[Long.numberOfTrailingZeros(b)].segments.length == length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long allBits(int n) {
+        return n == Long.SIZE ? -1L : (1L << n) - 1;
+    }
+
+    private void appendKey(byte[] b, int from, int to) {
+        int n = to - from;
+        if (keyLength + n > key.length) {
+            key = Arrays.copyOf(key, Math.max(key.length * 2, keyLength + n));
+        }
+        System.arraycopy(b, from, key, keyLength, n);
+        keyLength += n;
+    }
+
+    private void appendPending(byte b) {
+        if (pendingLength == pending.length) {
+            pending = Arrays.copyOf(pending, pending.length * 2);
+        }
+        pending[pendingLength++] = b;
+    }
+
+    private void appendPending(byte[] b, int from, int to) {
+        int n = to - from;
+        if (pendingLength + n > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + n));
+        }
+        System.arraycopy(b, from, pending, pendingLength, n);
+        pendingLength += n;
+    }
+
+    /**
+     * A path to include or to exclude, parsed from a JSONPath-like expression:
+     * {@code $.log.entries[*].request}, {@code log.entries[0]['content-type']}, {@code data.*.id}.
+     * The leading {@code $} is optional. A segment is a member name, {@code ['a name']},
+     * an index {@code [3]}, or a wildcard {@code *} or {@code [*]} which matches any member
+     * and any element. A name is compared with the member name as it appears in the JSON,
+     * escape sequences not decoded.
+     */
+    static final class Pattern {
+
+        private final String expression;
+        private final Segment[] segments;
+
+        private Pattern(String expression, Segment[] segments) {
+            this.expression = expression;
+            this.segments = segments;
+        }
+
+        static Pattern parse(String expression) {
+            String s = expression.trim();
+            List<Segment> segments = new ArrayList<>();
+            int i = s.startsWith("$") ? 1 : 0;
+            while (i < s.length()) {
+                char c = s.charAt(i);
+                if (c == '[') {
+                    int close = s.indexOf(']', i);
+                    if (close < 0) {
+                        throw invalid(expression, "missing ']'");
+                    }
+                    String inside = s.substring(i + 1, close);
+                    if (inside.equals("*")) {
+                        segments.add(Segment.ANY);
+                        i = close + 1;
+                    } else if (inside.startsWith("'") || inside.startsWith("\"")) {
+                        char quote = inside.charAt(0);
+                        StringBuilder name = new StringBuilder();
+                        int j = i + 2;
+                        while (j < s.length() && s.charAt(j) != quote) {
+                            if (s.charAt(j) == '\\' && j + 1 < s.length()) {
+                                j++;
+                            }
+                            name.append(s.charAt(j++));
+                        }
+                        if (j + 1 >= s.length() || s.charAt(j + 1) != ']') {
+                            throw invalid(expression, "missing " + quote + "]");
+                        }
+                        segments.add(Segment.name(name.toString()));
+                        i = j + 2;
+                    } else {
+                        try {
+                            int index = Integer.parseInt(inside);
+                            if (index < 0) {
+                                throw invalid(expression, "negative index");
+                            }
+                            segments.add(Segment.index(index));
+                        } catch (NumberFormatException e) {
+                            throw invalid(expression, "not an index: " + inside);
+                        }
+                        i = close + 1;
+                    }
+                } else if (c == '.' || (i == 0 && segments.isEmpty())) {
+                    int from = (c == '.') ? i + 1 : i;
+                    int to = from;
+                    while (to < s.length() && s.charAt(to) != '.' && s.charAt(to) != '[') {
+                        to++;
+                    }
+                    String name = s.substring(from, to);
+                    if (name.isEmpty()) {
+                        throw invalid(expression, "empty name");
+                    }
+                    segments.add(name.equals("*") ? Segment.ANY : Segment.name(name));
+                    i = to;
+                } else {
+                    throw invalid(expression, "unexpected '" + c + "'");
+                }
+            }
+            return new Pattern(expression, segments.toArray(new Segment[0]));
+        }
+
+        int size() {
+            return segments.length;
+        }
+
+        boolean isWildcard(int i) {
+            return segments[i] == Segment.ANY;
+        }
+
+        /**
+         * @return the name of the i-th segment as UTF-8, or null if it is an index or a wildcard
+         */
+        byte[] name(int i) {
+            return segments[i].name;
+        }
+
+        /**
+         * @return the index of the i-th segment, or -1 if it is a name or a wildcard
+         */
+        int index(int i) {
+            return segments[i].index;
+        }
+
+        private static IllegalArgumentException invalid(String expression, String reason) {
+            return new IllegalArgumentException("invalid path \"" + expression + "\": " + reason);
+        }
+
+        @Override
+        public String toString() {
+            return expression;
+        }
+    }
+
+    private static final class Segment {
+
+        static final Segment ANY = new Segment(null, -1);
+
+        private final byte[] name;
+        private final int index;
+
+        private Segment(byte[] name, int index) {
+            this.name = name;
+            this.index = index;
+        }
+
+        static Segment name(String name) {
+            return new Segment(name.getBytes(StandardCharsets.UTF_8), -1);
+        }
+
+        static Segment index(int index) {
+            return new Segment(null, index);
+        }
+
+        boolean matches(PathTracker path, byte[] key, int keyLength) {
+            if (name != null) {
+                return path.isObject() && Arrays.equals(name, 0, name.length, key, 0, keyLength);
+            } else if (index >= 0) {
+                return !path.isObject() && path.index() == index;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,526 @@
+package com.kazurayam.jsonflyweight;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Checks that the input is a well-formed JSON (RFC 8259), in a single streaming pass
+ * and in a memory which grows with the depth of the nesting only.
+ * The structure is checked against the bit-packed nesting stack of a {@link PathTracker},
+ * as well as the literals, the numbers, the escape sequences and the control characters in strings.
+ * Exactly one JSON value is expected, optionally surrounded by whitespace.
+ *
+ * The lexical part is a table-driven automaton: the next state is looked up by the current
+ * state and the byte, one load per byte. The transitions which need more than that,
+ * such as entering an object or counting a line, are flagged in the table and
+ * handled out of the loop. The plain content of strings is skipped 8 bytes at a time
+ * by {@link SwarScanner}.
+ *
+ * An instance keeps its state between calls to {@link #validate(byte[], int, int)},
+ * so the input can be fed in fragments of any size. Call {@link #finish()} at the end of the input.
+ *
+ * {@link ByteFormatter} and {@link CharFormatter} run the automaton in their own loops instead, so that a byte is checked
+ * and formatted in the same pass: {@link #begin(int)}, then {@link #step(int, byte, int)} per byte
+ * and {@link #keyChars(int, byte[], int, int)} per run of plain chars in a string, then {@link #end(int, int)}.
+ */
+final class JsonValidator {
+
+    // states; the two string states come first so that a single comparison finds them
+    private static final int STRING = 0;         // the content of a string value
+    private static final int KEY_STRING = 1;     // the content of a key
+    private static final int VALUE = 2;          // a value
+    private static final int FIRST_ELEMENT = 3;  // a value or ']' after '['
+    private static final int FIRST_KEY = 4;      // a key or '}' after '{'
+    private static final int KEY = 5;            // a key after ','
+    private static final int COLON = 6;          // ':' after a key
+    private static final int AFTER_VALUE = 7;    // ',' or the closing bracket, or the end at the root
+    private static final int ESCAPE = 8;         // the char after a backslash in a string value
+    private static final int UNICODE_1 = 9;      // the 4 hex digits of a unicode escape
+    private static final int UNICODE_2 = 10;
+    private static final int UNICODE_3 = 11;
+    private static final int UNICODE_4 = 12;
+    private static final int KEY_ESCAPE = 13;    // the same in a key, whose chars are recorded
+    private static final int KEY_UNICODE_1 = 14;
+    private static final int KEY_UNICODE_2 = 15;
+    private static final int KEY_UNICODE_3 = 16;
+    private static final int KEY_UNICODE_4 = 17;
+    private static final int MINUS = 18;         // a digit after '-'
+    private static final int ZERO = 19;          // '.' or an exponent after a leading 0
+    private static final int INTEGER = 20;       // digits of the integer part
+    private static final int DOT = 21;           // a digit after '.'
+    private static final int FRACTION = 22;      // digits of the fraction part
+    private static final int EXPONENT_MARK = 23; // a sign or a digit after 'e'
+    private static final int EXPONENT_SIGN = 24; // a digit after the sign of the exponent
+    private static final int EXPONENT = 25;      // digits of the exponent
+    private static final int TRUE_R = 26;        // the rest of true, false and null
+    private static final int TRUE_U = 27;
+    private static final int TRUE_E = 28;
+    private static final int FALSE_A = 29;
+    private static final int FALSE_L = 30;
+    private static final int FALSE_S = 31;
+    private static final int FALSE_E = 32;
+    private static final int NULL_U = 33;
+    private static final int NULL_L1 = 34;
+    private static final int NULL_L2 = 35;
+    private static final int ERROR = 36;
+    private static final int NUM_STATES = 37;
+
+    /** set in a transition which needs an action besides the change of the state */
+    private static final int ACTION = 0x80;
+
+    /** the next state, indexed by (state << 8 | byte) */
+    private static final byte[] TRANSITIONS = buildTransitions();
+
+    private final PathTracker path = new PathTracker();
+
+    private int state = VALUE;
+
+    /** offset of the input at index 0 of the array being validated */
+    private long base;
+    /** offset of the input consumed so far */
+    private long offset;
+    private long line = 1;
+    private long lineStart;
+
+    /**
+     * @param in the JSON in UTF-8
+     * @param off offset of the first byte to validate
+     * @param len number of bytes to validate
+     * @throws JsonFlyweightException if the input is found malformed
+     */
+    void validate(byte[] in, int off, int len) throws JsonFlyweightException {
+        final int end = off + len;
+        base = offset - off;
+        int s = state;
+        int i = off;
+        while (i < end) {
+            if (s <= KEY_STRING) {
+                int stop = SwarScanner.indexOfQuoteBackslashOrControl(in, i, end);
+                if (s == KEY_STRING) {
+                    path.appendKey(in, i, stop);
+                }
+                i = stop;
+                if (i == end) {
+                    break;
+                }
+            } else if (s == INTEGER || s == FRACTION) {
+                // skip the run of digits, which do not change the state
+                while (i < end && in[i] >= '0' && in[i] <= '9') {
+                    i++;
+                }
+                if (i == end) {
+                    break;
+                }
+            }
+            int b = in[i] & 0xFF;
+            int t = TRANSITIONS[(s << 8) | b] & 0xFF;
+            if (t >= ACTION) {
+                t = act(s, t - ACTION, b, i);
+            }
+            s = t;
+            i++;
+        }
+        state = s;
+        offset += len;
+    }
+
+    /**
+     * Start checking a span of the input in the loop of the caller
+     *
+     * @param off offset of the first byte of the span in the array
+     * @return the state to pass to the first {@link #step(int, byte, int)}
+     */
+    int begin(int off) {
+        base = offset - off;
+        return state;
+    }
+
+    /**
+     * Run the automaton over a byte
+     *
+     * @param s the state before the byte
+     * @param b the byte
+     * @param i index of the byte in the array
+     * @return the state after the byte
+     * @throws JsonFlyweightException if the byte is not allowed in the state
+     */
+    int step(int s, byte b, int i) throws JsonFlyweightException {
+        int t = TRANSITIONS[(s << 8) | (b & 0xFF)] & 0xFF;
+        if (t >= ACTION) {
+            t = act(s, t - ACTION, b & 0xFF, i);
+        }
+        return t;
+    }
+
+    /**
+     * Run the automaton over a char, as {@link #step(int, byte, int)} does over a byte
+     */
+    int step(int s, char c, int i) throws JsonFlyweightException {
+        // any char beyond Latin-1 behaves like a non-ASCII byte
+        int t = TRANSITIONS[(s << 8) | (c < 0x100 ? c : 0x80)] & 0xFF;
+        if (t >= ACTION) {
+            t = act(s, t - ACTION, c, i);
+        }
+        return t;
+    }
+
+    /**
+     * Take a run of plain chars in a string, as {@link SwarScanner#indexOfQuoteBackslashOrControl} finds it,
+     * which does not change the state
+     */
+    void keyChars(int s, byte[] in, int from, int to) {
+        if (s == KEY_STRING) {
+            path.appendKey(in, from, to);
+        }
+    }
+
+    void keyChars(int s, char[] in, int from, int to) {
+        if (s == KEY_STRING) {
+            for (int i = from; i < to; i++) {
+                path.appendKey(in[i]);
+            }
+        }
+    }
+
+    /**
+     * Finish checking a span
+     *
+     * @param s the state after the last byte
+     * @param len number of bytes checked
+     */
+    void end(int s, int len) {
+        state = s;
+        offset += len;
+    }
+
+    /**
+     * @return true if in the state, a run of plain chars in a string is skipped by {@link #keyChars}
+     */
+    static boolean isInString(int s) {
+        return s <= KEY_STRING;
+    }
+
+    /**
+     * @return true if in the state, a run of digits does not change the state
+     */
+    static boolean isInDigits(int s) {
+        return s == INTEGER || s == FRACTION;
+    }
+
+    /**
+     * @param in the JSON
+     * @param off offset of the first char to validate
+     * @param len number of chars to validate
+     * @throws JsonFlyweightException if the input is found malformed
+     */
+    void validate(char[] in, int off, int len) throws JsonFlyweightException {
+        final int end = off + len;
+        base = offset - off;
+        int s = state;
+        int i = off;
+        while (i < end) {
+            if (s <= KEY_STRING) {
+                char ch;
+                while (i < end && (ch = in[i]) != '"' && ch != '\\' && ch >= ' ') {
+                    if (s == KEY_STRING) {
+                        path.appendKey(ch);
+                    }
+                    i++;
+                }
+                if (i == end) {
+                    break;
+                }
+            }
+            int c = in[i];
+            // any char beyond Latin-1 behaves like a non-ASCII byte
+            int t = TRANSITIONS[(s << 8) | (c < 0x100 ? c : 0x80)] & 0xFF;
+            if (t >= ACTION) {
+                t = act(s, t - ACTION, c, i);
+            }
+            s = t;
+            i++;
+        }
+        state = s;
+        offset += len;
+    }
+
+    /**
+     * Check that the input ended where a JSON may end.
+     *
+     * @throws JsonFlyweightException if the JSON is incomplete
+     */
+    void finish() throws JsonFlyweightException {
+        boolean complete = path.depth() == 0 &&
+                (state == AFTER_VALUE || state == ZERO || state == INTEGER
+                        || state == FRACTION || state == EXPONENT);
+        if (!complete) {
+            throw errorAt("Unexpected end of input", offset);
+        }
+    }
+
+    /**
+     * Write the state between two calls of validate, for a checkpoint
+     */
+    void saveState(DataOutput out) throws IOException {
+        out.writeInt(state);
+        out.writeLong(offset);
+        out.writeLong(line);
+        out.writeLong(lineStart);
+        path.saveState(out);
+    }
+
+    void restoreState(DataInput in) throws IOException {
+        state = in.readInt();
+        if (state < 0 || state >= NUM_STATES) {
+            throw new IOException("malformed state: " + state);
+        }
+        offset = in.readLong();
+        line = in.readLong();
+        lineStart = in.readLong();
+        path.restoreState(in);
+    }
+
+    void reset() {
+        path.reset();
+        state = VALUE;
+        offset = 0;
+        line = 1;
+        lineStart = 0;
+    }
+
+    /**
+     * Carry out a flagged transition.
+     *
+     * @param from the state before c
+     * @param to the state after c given by the table
+     * @param c the byte (0 to 255) or the char
+     * @param i index of c in the array
+     * @return the state after c
+     */
+    private int act(int from, int to, int c, int i) throws JsonFlyweightException {
+        if (to == ERROR) {
+            throw error(describeError(from, c), i);
+        }
+        if (isKeyState(from)) {
+            // a char of an escape sequence in a key
+            path.appendKey((byte) c);
+            return to;
+        }
+        switch (c) {
+            case '\n':
+                line++;
+                lineStart = base + i + 1;
+                return to;
+            case '"':
+                path.startKey();
+                return to;
+            case '{':
+                path.push(true);
+                return to;
+            case '[':
+                path.push(false);
+                return to;
+            case '}':
+            case ']':
+                if (path.depth() == 0 || path.isObject() != (c == '}')) {
+                    throw error(describeError(from, c), i);
+                }
+                path.pop();
+                return AFTER_VALUE;
+            case ',':
+                if (path.depth() == 0) {
+                    throw error(describeError(from, c), i);
+                }
+                if (path.isObject()) {
+                    return KEY;
+                }
+                path.nextElement();
+                return VALUE;
+            default:
+                throw new IllegalStateException("no action for " + describe(c) + " in the state " + from);
+        }
+    }
+
+    private static boolean isKeyState(int s) {
+        return s == KEY_STRING || (s >= KEY_ESCAPE && s <= KEY_UNICODE_4);
+    }
+
+    private String describeError(int from, int c) {
+        switch (from) {
+            case STRING:
+            case KEY_STRING:
+                return "Unescaped control character " + describe(c) + " in a string";
+            case ESCAPE:
+            case KEY_ESCAPE:
+                return "Invalid escape sequence, a backslash followed by " + describe(c);
+            case VALUE:
+            case FIRST_ELEMENT:
+                return "Expected a value but found " + describe(c);
+            case FIRST_KEY:
+            case KEY:
+                return "Expected a key in double quotes but found " + describe(c);
+            case COLON:
+                return "Expected ':' but found " + describe(c);
+            case MINUS:
+            case DOT:
+            case EXPONENT_MARK:
+            case EXPONENT_SIGN:
+                return "Invalid number, expected a digit but found " + describe(c);
+            case TRUE_R:
+            case TRUE_U:
+            case TRUE_E:
+                return "Invalid literal, expected true";
+            case FALSE_A:
+            case FALSE_L:
+            case FALSE_S:
+            case FALSE_E:
+                return "Invalid literal, expected false";
+            case NULL_U:
+            case NULL_L1:
+            case NULL_L2:
+                return "Invalid literal, expected null";
+            default:
+                if (from >= UNICODE_1 && from <= KEY_UNICODE_4) {
+                    return "Invalid hex digit " + describe(c) + " in a unicode escape";
+                }
+                if (from == ZERO && c >= '0' && c <= '9') {
+                    return "Invalid number, a leading zero";
+                }
+                // after a value
+                if (path.depth() == 0) {
+                    return "Unexpected " + describe(c) + " after the end of the JSON";
+                }
+                return "Expected ',' or '" + (path.isObject() ? '}' : ']') + "' but found " + describe(c);
+        }
+    }
+
+    private JsonFlyweightException error(String reason, int i) {
+        return errorAt(reason, base + i);
+    }
+
+    private JsonFlyweightException errorAt(String reason, long position) {
+        return new JsonFlyweightException(reason, position, line, position - lineStart + 1, path.toString());
+    }
+
+    private static String describe(int c) {
+        if (c >= 0x20 && c < 0x7F) {
+            return "'" + (char) c + "'";
+        }
+        return String.format("0x%02X", c);
+    }
+
+    private static byte[] buildTransitions() {
+        byte[] t = new byte[NUM_STATES << 8];
+        for (int s = 0; s < NUM_STATES; s++) {
+            for (int c = 0; c < 256; c++) {
+                set(t, s, c, ERROR | ACTION);
+            }
+        }
+        // strings
+        for (int c = ' '; c < 256; c++) {
+            set(t, STRING, c, STRING);
+            // the plain chars of a key are recorded by the scanning loop, not by the table
+            set(t, KEY_STRING, c, KEY_STRING | ACTION);
+        }
+        set(t, STRING, '"', AFTER_VALUE);
+        set(t, STRING, '\\', ESCAPE);
+        set(t, KEY_STRING, '"', COLON);
+        set(t, KEY_STRING, '\\', KEY_ESCAPE | ACTION);
+        for (char c : "\"\\/bfnrt".toCharArray()) {
+            set(t, ESCAPE, c, STRING);
+            set(t, KEY_ESCAPE, c, KEY_STRING | ACTION);
+        }
+        set(t, ESCAPE, 'u', UNICODE_1);
+        set(t, KEY_ESCAPE, 'u', KEY_UNICODE_1 | ACTION);
+        for (char c : "0123456789abcdefABCDEF".toCharArray()) {
+            set(t, UNICODE_1, c, UNICODE_2);
+            set(t, UNICODE_2, c, UNICODE_3);
+            set(t, UNICODE_3, c, UNICODE_4);
+            set(t, UNICODE_4, c, STRING);
+            set(t, KEY_UNICODE_1, c, KEY_UNICODE_2 | ACTION);
+            set(t, KEY_UNICODE_2, c, KEY_UNICODE_3 | ACTION);
+            set(t, KEY_UNICODE_3, c, KEY_UNICODE_4 | ACTION);
+            set(t, KEY_UNICODE_4, c, KEY_STRING | ACTION);
+        }
+        // between tokens
+        for (int s : new int[] { VALUE, FIRST_ELEMENT, FIRST_KEY, KEY, COLON, AFTER_VALUE }) {
+            whitespace(t, s, s);
+        }
+        for (int s : new int[] { VALUE, FIRST_ELEMENT }) {
+            set(t, s, '{', FIRST_KEY | ACTION);
+            set(t, s, '[', FIRST_ELEMENT | ACTION);
+            set(t, s, '"', STRING);
+            set(t, s, '-', MINUS);
+            set(t, s, '0', ZERO);
+            digits(t, s, '1', INTEGER);
+            set(t, s, 't', TRUE_R);
+            set(t, s, 'f', FALSE_A);
+            set(t, s, 'n', NULL_U);
+        }
+        set(t, FIRST_ELEMENT, ']', AFTER_VALUE | ACTION);
+        set(t, FIRST_KEY, '}', AFTER_VALUE | ACTION);
+        set(t, FIRST_KEY, '"', KEY_STRING | ACTION);
+        set(t, KEY, '"', KEY_STRING | ACTION);
+        set(t, COLON, ':', VALUE);
+        afterValue(t, AFTER_VALUE);
+        // numbers; a number ends at the first byte which cannot continue it
+        set(t, MINUS, '0', ZERO);
+        digits(t, MINUS, '1', INTEGER);
+        for (int s : new int[] { ZERO, INTEGER, FRACTION }) {
+            set(t, s, 'e', EXPONENT_MARK);
+            set(t, s, 'E', EXPONENT_MARK);
+            afterValue(t, s);
+        }
+        set(t, ZERO, '.', DOT);
+        set(t, INTEGER, '.', DOT);
+        digits(t, INTEGER, '0', INTEGER);
+        digits(t, DOT, '0', FRACTION);
+        digits(t, FRACTION, '0', FRACTION);
+        set(t, EXPONENT_MARK, '+', EXPONENT_SIGN);
+        set(t, EXPONENT_MARK, '-', EXPONENT_SIGN);
+        digits(t, EXPONENT_MARK, '0', EXPONENT);
+        digits(t, EXPONENT_SIGN, '0', EXPONENT);
+        digits(t, EXPONENT, '0', EXPONENT);
+        afterValue(t, EXPONENT);
+        // literals
+        set(t, TRUE_R, 'r', TRUE_U);
+        set(t, TRUE_U, 'u', TRUE_E);
+        set(t, TRUE_E, 'e', AFTER_VALUE);
+        set(t, FALSE_A, 'a', FALSE_L);
+        set(t, FALSE_L, 'l', FALSE_S);
+        set(t, FALSE_S, 's', FALSE_E);
+        set(t, FALSE_E, 'e', AFTER_VALUE);
+        set(t, NULL_U, 'u', NULL_L1);
+        set(t, NULL_L1, 'l', NULL_L2);
+        set(t, NULL_L2, 'l', AFTER_VALUE);
+        return t;
+    }
+
+    /**
+     * what may follow a value: whitespace, ',' and the closing brackets
+     */
+    private static void afterValue(byte[] t, int s) {
+        whitespace(t, s, AFTER_VALUE);
+        set(t, s, ',', VALUE | ACTION);
+        set(t, s, '}', AFTER_VALUE | ACTION);
+        set(t, s, ']', AFTER_VALUE | ACTION);
+    }
+
+    private static void whitespace(byte[] t, int s, int next) {
+        set(t, s, ' ', next);
+        set(t, s, '\t', next);
+        set(t, s, '\r', next);
+        set(t, s, '\n', next | ACTION);
+    }
+
+    private static void digits(byte[] t, int s, char first, int next) {
+        for (char c = first; c <= '9'; c++) {
+            set(t, s, c, next);
+        }
+    }
+
+    private static void set(byte[] t, int s, int c, int next) {
+        t[(s << 8) | c] = (byte) next;
+    }
+}
@@ -0,0 +1,849 @@
+package com.kazurayam.jsonflyweight;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Sorts the members of every object by their names, so that the output does not depend on
+ * the order the producer wrote them in, and two versions of a document differ by what changed only.
+ *
+ * The sorter scans the ugly JSON as it streams and hands it, without the whitespace, to the
+ * {@link ByteFormatter}; the members of an object are held back until the object closes,
+ * then handed over sorted. An object nested in a member is sorted when it closes, and becomes
+ * a part of the value of that member. The elements of an array keep their order.
+ *
+ * The buffers which hold the members back, of the open objects and of the closed ones kept for reuse,
+ * take the memory budget at most, counted by their capacity rather than by the bytes in use,
+ * with the arrays of the offsets of the members and of their sorting.
+ * When a buffer would have to grow over it, the object with the largest buffers writes its members
+ * sorted into a temporary file as a run, the member in progress following them there however large
+ * its value grows, and gives its buffer back. When the object closes, its runs are merged, {@value #FAN_IN} at a time,
+ * through a buffer of 8 KB per run. A large document is so written to the disk about once
+ * per level of the objects which do not fit the budget, and the heap stays bounded.
+ *
+ * The names are compared by their bytes in UTF-8 as they are written, escapes included,
+ * which is the order of the code points for the names without escapes.
+ * The members of the same name keep their order. A malformed object is sorted
+ * as well as it can be: the bytes before a colon are taken for the name.
+ */
+final class KeySorter {
+
+    /** number of runs merged at a time; more runs are merged into longer ones first */
+    static final int FAN_IN = 32;
+
+    /** size of the buffer of a run being merged, of a temporary file being written, and of the output */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    // a member is held as a record: the int sequence number, the int length of the name, the name,
+    // 1 if a colon follows or else 0, the long length of the value, the value
+    private static final int NAME_AT = 8;
+    private static final int VALUE_HEADER = 9;
+
+    /** size of the buffer of an object, as it is opened first and as it is given back */
+    private static final int INITIAL_SIZE = 256;
+
+    /** number of the offsets of the records an object holds at first and as it gives its buffers back */
+    private static final int INITIAL_RECORDS = 16;
+
+    /** bytes of the buffers of an object as it is opened first and as it gives them back */
+    private static final int INITIAL_FOOTPRINT = INITIAL_SIZE + 2 * INITIAL_RECORDS * Integer.BYTES;
+
+    private final int memoryBudget;
+
+    /** bytes of the buffers of the objects, open or kept for reuse, the arrays of offsets included */
+    private long held;
+
+    /** the object whose members are being handed over; its buffer is in use though it is closed */
+    private Frame closing;
+
+    /** the open objects, innermost last; reused, with their buffers, by the objects opened later */
+    private Frame[] frames = new Frame[4];
+    private int numOpen;
+
+    /** per level of nesting, true for an object and false for an array */
+    private boolean[] objects = new boolean[16];
+    private int depth;
+
+    private boolean inQuote;
+    private boolean escaped;
+
+    /** the bytes outside any object, on the way to the formatter */
+    private final byte[] out = new byte[BUFFER_SIZE];
+    private int outPos;
+    private ByteFormatter formatter;
+    private OutputStream sink;
+
+    /** the readers of the runs being merged; created when first needed */
+    private Run[] runs;
+    private Run[] live;
+
+    private final byte[] one = new byte[1];
+    private final byte[] scratch = new byte[VALUE_HEADER];
+
+    /**
+     * @param memoryBudget bytes of the buffers the objects may hold before their members are written
+     *                     into temporary files
+     */
+    KeySorter(int memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * @return bytes of the buffers of the objects, open or kept for reuse
+     */
+    long getHeld() {
+        return held;
+    }
+
+    /**
+     * Scan the input and hand it to the formatter, the members of every object sorted.
+     */
+    void sort(byte[] in, int off, int len, ByteFormatter formatter, OutputStream sink) throws IOException {
+        this.formatter = formatter;
+        this.sink = sink;
+        final int end = off + len;
+        int i = off;
+        while (i < end) {
+            if (inQuote) {
+                if (escaped) {
+                    // the byte after a backslash never changes the state
+                    put(in, i, 1);
+                    escaped = false;
+                    i++;
+                    continue;
+                }
+                int stop = SwarScanner.indexOfQuoteOrBackslash(in, i, end);
+                if (stop == end) {
+                    put(in, i, end - i);
+                    break;
+                }
+                if (in[stop] == '\\') {
+                    escaped = true;
+                } else {
+                    inQuote = false;
+                }
+                put(in, i, stop + 1 - i);
+                i = stop + 1;
+                continue;
+            }
+            int stop = SwarScanner.indexOfStructural(in, i, end);
+            if (stop > i) {
+                put(in, i, stop - i);
+                i = stop;
+            }
+            if (stop == end) {
+                break;
+            }
+            byte ch = in[i++];
+            switch (ch) {
+                case '"':
+                    put(in, i - 1, 1);
+                    inQuote = true;
+                    break;
+                case '{':
+                case '[':
+                    open(ch);
+                    break;
+                case '}':
+                case ']':
+                    close(ch);
+                    break;
+                case ',':
+                    if (isObjectLevel()) {
+                        frames[numOpen - 1].endMember();
+                    } else {
+                        put(ch);
+                    }
+                    break;
+                case ':':
+                    if (isObjectLevel() && !frames[numOpen - 1].inValue) {
+                        frames[numOpen - 1].startValue();
+                    } else {
+                        put(ch);
+                    }
+                    break;
+                case ' ':
+                case '\t':
+                case '\n':
+                case '\r':
+                    // the whitespace out of quotes is dropped
+                    break;
+                default:
+                    put(ch);
+            }
+        }
+        flushOut();
+    }
+
+    /**
+     * Forget the state, and delete the temporary files of the objects left open by a malformed input
+     */
+    void reset() {
+        for (Frame frame : frames) {
+            if (frame != null) {
+                frame.clear();
+                frame.shrink();
+            }
+        }
+        closing = null;
+        numOpen = 0;
+        depth = 0;
+        inQuote = false;
+        escaped = false;
+        outPos = 0;
+        formatter = null;
+        sink = null;
+    }
+
+    private boolean isObjectLevel() {
+        return depth > 0 && objects[depth - 1];
+    }
+
+    private void open(byte bracket) throws IOException {
+        if (depth == objects.length) {
+            objects = Arrays.copyOf(objects, depth * 2);
+        }
+        boolean object = bracket == '{';
+        objects[depth++] = object;
+        if (!object) {
+            put(bracket);
+            return;
+        }
+        // the brace is put when the object closes, before its members
+        if (numOpen == frames.length) {
+            frames = Arrays.copyOf(frames, numOpen * 2);
+        }
+        if (frames[numOpen] == null) {
+            frames[numOpen] = new Frame();
+        }
+        numOpen++;
+    }
+
+    /**
+     * @param bracket the closing bracket, which closes the innermost level whatever it is
+     */
+    private void close(byte bracket) throws IOException {
+        if (depth == 0 || !objects[--depth]) {
+            put(bracket);
+            return;
+        }
+        Frame frame = frames[--numOpen];
+        frame.endMember();
+        // from now on the members are being handed over
+        closing = frame;
+        put((byte) '{');
+        if (frame.numRuns == 0) {
+            frame.sortRecords();
+            for (int r = 0; r < frame.count; r++) {
+                if (r > 0) {
+                    put((byte) ',');
+                }
+                int at = frame.records[r];
+                int nameLength = getInt(frame.bytes, at + 4);
+                int valueAt = at + NAME_AT + nameLength;
+                put(frame.bytes, at + NAME_AT, nameLength);
+                if (frame.bytes[valueAt] != 0) {
+                    put((byte) ':');
+                }
+                put(frame.bytes, valueAt + VALUE_HEADER, (int) getLong(frame.bytes, valueAt + 1));
+            }
+        } else {
+            if (frame.count > 0) {
+                frame.writeRun();
+            }
+            frame.length = 0;
+            merge(frame);
+        }
+        put(bracket);
+        frame.clear();
+        closing = null;
+    }
+
+    /**
+     * Put the bytes into the member in progress of the innermost object, or into the output
+     */
+    private void put(byte[] b, int off, int len) throws IOException {
+        if (numOpen > 0) {
+            frames[numOpen - 1].put(b, off, len);
+            return;
+        }
+        if (len > out.length - outPos) {
+            flushOut();
+            if (len >= out.length) {
+                formatter.translateSorted(b, off, len, sink);
+                return;
+            }
+        }
+        System.arraycopy(b, off, out, outPos, len);
+        outPos += len;
+    }
+
+    private void put(byte ch) throws IOException {
+        one[0] = ch;
+        put(one, 0, 1);
+    }
+
+    private void flushOut() throws IOException {
+        if (outPos > 0) {
+            int n = outPos;
+            outPos = 0;
+            formatter.translateSorted(out, 0, n, sink);
+        }
+    }
+
+    /**
+     * Give back the largest buffer: an open object writes its members into its temporary file first
+     *
+     * @return false if there is no buffer to give back
+     */
+    private boolean makeRoom() throws IOException {
+        Frame largest = null;
+        for (int f = 0; f < frames.length && frames[f] != null; f++) {
+            Frame frame = frames[f];
+            if (frame != closing && frame.footprint() > INITIAL_FOOTPRINT
+                    && (largest == null || frame.footprint() > largest.footprint())) {
+                largest = frame;
+            }
+        }
+        if (largest == null) {
+            return false;
+        }
+        largest.spill();
+        return true;
+    }
+
+    /**
+     * Merge the runs of a closing object into the output of the object around it.
+     * If there are more runs than can be merged at once, merge them into longer runs first,
+     * at the end of the same file.
+     */
+    private void merge(Frame frame) throws IOException {
+        frame.flushFile();
+        while (frame.numRuns > FAN_IN) {
+            long start = frame.fileEnd();
+            mergeRuns(frame, FAN_IN, true);
+            frame.flushFile();
+            frame.numRuns -= FAN_IN;
+            System.arraycopy(frame.runs, FAN_IN * 2, frame.runs, 0, frame.numRuns * 2);
+            frame.addRun(start, frame.fileEnd());
+        }
+        mergeRuns(frame, frame.numRuns, false);
+    }
+
+    /**
+     * @param k number of the runs to merge, from the first
+     * @param toFile true to append the records merged into the file of the frame,
+     *               false to put the members into the output
+     */
+    private void mergeRuns(Frame frame, int k, boolean toFile) throws IOException {
+        if (runs == null) {
+            runs = new Run[FAN_IN];
+            live = new Run[FAN_IN];
+        }
+        int numLive = 0;
+        for (int r = 0; r < k; r++) {
+            if (runs[r] == null) {
+                runs[r] = new Run();
+            }
+            runs[r].open(frame.file, frame.runs[r * 2], frame.runs[r * 2 + 1]);
+            if (runs[r].next()) {
+                live[numLive++] = runs[r];
+            }
+        }
+        boolean first = true;
+        while (numLive > 0) {
+            int min = 0;
+            for (int r = 1; r < numLive; r++) {
+                if (live[r].compareTo(live[min]) < 0) {
+                    min = r;
+                }
+            }
+            Run run = live[min];
+            if (toFile) {
+                putInt(scratch, 0, run.seq);
+                putInt(scratch, 4, run.nameLength);
+                frame.append(scratch, 0, NAME_AT);
+                frame.append(run.name, 0, run.nameLength);
+                scratch[0] = (byte) (run.colon ? 1 : 0);
+                putLong(scratch, 1, run.valueLength);
+                frame.append(scratch, 0, VALUE_HEADER);
+            } else {
+                if (!first) {
+                    put((byte) ',');
+                }
+                put(run.name, 0, run.nameLength);
+                if (run.colon) {
+                    put((byte) ':');
+                }
+            }
+            copyValue(run, toFile ? frame : null);
+            first = false;
+            if (!run.next()) {
+                live[min] = live[--numLive];
+            }
+        }
+    }
+
+    /**
+     * @param frame to append the value to its file; null to put it into the output
+     */
+    private void copyValue(Run run, Frame frame) throws IOException {
+        ByteBuffer buffer = run.buffer;
+        while (run.valueLength > 0) {
+            if (!buffer.hasRemaining()) {
+                run.fill();
+            }
+            int n = (int) Math.min(buffer.remaining(), run.valueLength);
+            if (frame != null) {
+                frame.append(buffer.array(), buffer.position(), n);
+            } else {
+                put(buffer.array(), buffer.position(), n);
+            }
+            buffer.position(buffer.position() + n);
+            run.valueLength -= n;
+        }
+    }
+
+    /**
+     * @return the order of two names, the quotes around them aside
+     */
+    static int compareNames(byte[] a, int aOff, int aLen, byte[] b, int bOff, int bLen) {
+        if (aLen >= 2 && a[aOff] == '"' && a[aOff + aLen - 1] == '"') {
+            aOff++;
+            aLen -= 2;
+        }
+        if (bLen >= 2 && b[bOff] == '"' && b[bOff + bLen - 1] == '"') {
+            bOff++;
+            bLen -= 2;
+        }
+        return Arrays.compareUnsigned(a, aOff, aOff + aLen, b, bOff, bOff + bLen);
+    }
+
+    private static int getInt(byte[] b, int at) {
+        return (b[at] & 0xFF) << 24 | (b[at + 1] & 0xFF) << 16 | (b[at + 2] & 0xFF) << 8 | (b[at + 3] & 0xFF);
+    }
+
+    private static long getLong(byte[] b, int at) {
+        return (long) getInt(b, at) << 32 | (getInt(b, at + 4) & 0xFFFFFFFFL);
+    }
+
+    private static void putInt(byte[] b, int at, int v) {
+        b[at] = (byte) (v >>> 24);
+        b[at + 1] = (byte) (v >>> 16);
+        b[at + 2] = (byte) (v >>> 8);
+        b[at + 3] = (byte) v;
+    }
+
+    private static void putLong(byte[] b, int at, long v) {
+        putInt(b, at, (int) (v >>> 32));
+        putInt(b, at + 4, (int) v);
+    }
+
+    /**
+     * An open object: the records of its members in memory, and the runs in its temporary file
+     */
+    private final class Frame {
+        byte[] bytes = new byte[INITIAL_SIZE];
+        int length;
+
+        /** offsets of the complete records in bytes */
+        int[] records = new int[INITIAL_RECORDS];
+        int count;
+        /** as long as records */
+        private int[] sorting = new int[INITIAL_RECORDS];
+
+        /** number of the members begun */
+        private int seq;
+
+        // the member in progress, whose record is at the end of bytes or of the file
+        private boolean inMember;
+        private boolean inValue;
+        private boolean partInFile;
+        private long partStart;
+        private long valueAt;
+
+        // the temporary file, and the runs in it as pairs of start and end
+        FileChannel file;
+        private ByteBuffer fileOut;
+        private long written;
+        long[] runs = new long[8];
+        int numRuns;
+
+        Frame() {
+            held += footprint();
+        }
+
+        /**
+         * @return the bytes of the buffers of this object, as they are counted against the budget
+         */
+        long footprint() {
+            return bytes.length + (long) (records.length + sorting.length) * Integer.BYTES;
+        }
+
+        void put(byte[] b, int off, int len) throws IOException {
+            if (!inMember) {
+                beginMember();
+            }
+            if (partInFile) {
+                append(b, off, len);
+                return;
+            }
+            hold(b, off, len);
+        }
+
+        private void hold(byte[] b, int off, int len) throws IOException {
+            while (length + len > bytes.length) {
+                int capacity = Math.max(bytes.length * 2, length + len);
+                if (held + capacity - bytes.length <= memoryBudget || !makeRoom()) {
+                    held += capacity - bytes.length;
+                    bytes = Arrays.copyOf(bytes, capacity);
+                } else if (partInFile) {
+                    // this object gave its buffer back; the member in progress goes on in the file
+                    append(b, off, len);
+                    return;
+                }
+            }
+            System.arraycopy(b, off, bytes, length, len);
+            length += len;
+        }
+
+        private void beginMember() throws IOException {
+            inMember = true;
+            inValue = false;
+            partStart = length;
+            putInt(scratch, 0, seq++);
+            putInt(scratch, 4, 0);
+            hold(scratch, 0, NAME_AT);
+        }
+
+        /**
+         * The colon: the name is complete
+         */
+        void startValue() throws IOException {
+            if (!inMember) {
+                beginMember();
+            }
+            endName(true);
+            inValue = true;
+        }
+
+        /**
+         * The comma or the end of the object: the member is complete
+         */
+        void endMember() throws IOException {
+            if (!inMember) {
+                // nothing since the comma before
+                return;
+            }
+            if (inValue) {
+                putLongAt(valueAt + 1, position() - valueAt - VALUE_HEADER);
+            } else {
+                // a name without a value, in a malformed input
+                endName(false);
+            }
+            if (!partInFile && count == records.length && held + 2L * count * Integer.BYTES > memoryBudget) {
+                // this object may give its buffers back, the member moving into the file
+                makeRoom();
+            }
+            if (partInFile) {
+                flushFile();
+                addRun(partStart, written);
+                partInFile = false;
+            } else {
+                if (count == records.length) {
+                    held += 2L * count * Integer.BYTES;
+                    records = Arrays.copyOf(records, count * 2);
+                    sorting = new int[count * 2];
+                }
+                records[count++] = (int) partStart;
+            }
+            inMember = false;
+            inValue = false;
+        }
+
+        private void endName(boolean colon) throws IOException {
+            long nameEnd = position();
+            putIntAt(partStart + 4, (int) (nameEnd - partStart - NAME_AT));
+            valueAt = nameEnd;
+            // the length of the value is put when it ends
+            Arrays.fill(scratch, (byte) 0);
+            scratch[0] = (byte) (colon ? 1 : 0);
+            put(scratch, 0, VALUE_HEADER);
+        }
+
+        private long position() {
+            return partInFile ? fileEnd() : length;
+        }
+
+        /**
+         * Write the complete members sorted into the file as a run, move the member in progress there,
+         * and give the buffer back
+         */
+        void spill() throws IOException {
+            if (count > 0 || (inMember && !partInFile)) {
+                openFile();
+                if (count > 0) {
+                    writeRun();
+                }
+                if (inMember && !partInFile) {
+                    long start = fileEnd();
+                    int from = (int) partStart;
+                    append(bytes, from, length - from);
+                    valueAt += start - partStart;
+                    partStart = start;
+                    partInFile = true;
+                }
+            }
+            length = 0;
+            shrink();
+        }
+
+        /**
+         * Give back the buffers grown larger than at first; call when they are empty
+         */
+        void shrink() {
+            if (bytes.length > INITIAL_SIZE) {
+                held -= bytes.length - INITIAL_SIZE;
+                bytes = new byte[INITIAL_SIZE];
+            }
+            if (records.length > INITIAL_RECORDS) {
+                held -= 2L * (records.length - INITIAL_RECORDS) * Integer.BYTES;
+                records = new int[INITIAL_RECORDS];
+                sorting = new int[INITIAL_RECORDS];
+            }
+        }
+
+        void writeRun() throws IOException {
+            openFile();
+            sortRecords();
+            long start = fileEnd();
+            for (int r = 0; r < count; r++) {
+                int at = records[r];
+                int valueAt = at + NAME_AT + getInt(bytes, at + 4);
+                append(bytes, at, valueAt + VALUE_HEADER + (int) getLong(bytes, valueAt + 1) - at);
+            }
+            addRun(start, fileEnd());
+            count = 0;
+        }
+
+        void addRun(long start, long end) {
+            if (numRuns * 2 == runs.length) {
+                runs = Arrays.copyOf(runs, runs.length * 2);
+            }
+            runs[numRuns * 2] = start;
+            runs[numRuns * 2 + 1] = end;
+            numRuns++;
+        }
+
+        /**
+         * Sort the complete records by their names, then by their sequence numbers
+         */
+        void sortRecords() {
+            mergeSort(records, sorting, 0, count);
+        }
+
+        private void mergeSort(int[] a, int[] tmp, int from, int to) {
+            if (to - from < 2) {
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            mergeSort(a, tmp, from, mid);
+            mergeSort(a, tmp, mid, to);
+            if (compare(a[mid - 1], a[mid]) <= 0) {
+                return;
+            }
+            System.arraycopy(a, from, tmp, from, to - from);
+            int i = from;
+            int j = mid;
+            for (int k = from; k < to; k++) {
+                if (j >= to || (i < mid && compare(tmp[i], tmp[j]) <= 0)) {
+                    a[k] = tmp[i++];
+                } else {
+                    a[k] = tmp[j++];
+                }
+            }
+        }
+
+        private int compare(int a, int b) {
+            int c = compareNames(bytes, a + NAME_AT, getInt(bytes, a + 4), bytes, b + NAME_AT, getInt(bytes, b + 4));
+            return c != 0 ? c : Integer.compare(getInt(bytes, a), getInt(bytes, b));
+        }
+
+        private void openFile() throws IOException {
+            if (file != null) {
+                return;
+            }
+            Path path = Files.createTempFile("jsonflyweight-", ".sort");
+            try {
+                file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.DELETE_ON_CLOSE);
+            } catch (IOException e) {
+                Files.deleteIfExists(path);
+                throw e;
+            }
+            if (fileOut == null) {
+                fileOut = ByteBuffer.allocate(BUFFER_SIZE);
+            }
+            fileOut.clear();
+            written = 0;
+        }
+
+        void append(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (!fileOut.hasRemaining()) {
+                    flushFile();
+                }
+                int n = Math.min(len, fileOut.remaining());
+                fileOut.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        void flushFile() throws IOException {
+            fileOut.flip();
+            while (fileOut.hasRemaining()) {
+                written += file.write(fileOut, written);
+            }
+            fileOut.clear();
+        }
+
+        long fileEnd() {
+            return written + fileOut.position();
+        }
+
+        private void putIntAt(long at, int v) throws IOException {
+            if (!partInFile) {
+                putInt(bytes, (int) at, v);
+                return;
+            }
+            putInt(scratch, 0, v);
+            writeAt(at, 4);
+        }
+
+        private void putLongAt(long at, long v) throws IOException {
+            if (!partInFile) {
+                putLong(bytes, (int) at, v);
+                return;
+            }
+            putLong(scratch, 0, v);
+            writeAt(at, 8);
+        }
+
+        private void writeAt(long at, int n) throws IOException {
+            flushFile();
+            ByteBuffer b = ByteBuffer.wrap(scratch, 0, n);
+            while (b.hasRemaining()) {
+                at += file.write(b, at);
+            }
+        }
+
+        /**
+         * Forget the members, and delete the temporary file
+         */
+        void clear() {
+            length = 0;
+            count = 0;
+            seq = 0;
+            inMember = false;
+            inValue = false;
+            partInFile = false;
+            numRuns = 0;
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    // the file was opened to be deleted on close; nothing is lost if it stays
+                }
+                file = null;
+            }
+        }
+    }
+
+    /**
+     * A reader of a run of records in a temporary file
+     */
+    private static final class Run {
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private FileChannel file;
+        private long position;
+        private long end;
+
+        // the record read, up to its value
+        int seq;
+        byte[] name = new byte[64];
+        int nameLength;
+        boolean colon;
+        long valueLength;
+
+        void open(FileChannel file, long start, long end) {
+            this.file = file;
+            this.position = start;
+            this.end = end;
+            buffer.position(0).limit(0);
+        }
+
+        /**
+         * @return false if there is no record left
+         */
+        boolean next() throws IOException {
+            if (!buffer.hasRemaining() && position == end) {
+                return false;
+            }
+            require(NAME_AT);
+            seq = buffer.getInt();
+            nameLength = buffer.getInt();
+            if (nameLength < 0 || nameLength > end - position + buffer.remaining()) {
+                throw new IOException("a run of sorted members is broken: a name of " + nameLength + " bytes");
+            }
+            if (name.length < nameLength) {
+                name = new byte[Math.max(name.length * 2, nameLength)];
+            }
+            for (int got = 0; got < nameLength; ) {
+                if (!buffer.hasRemaining()) {
+                    fill();
+                }
+                int n = Math.min(buffer.remaining(), nameLength - got);
+                buffer.get(name, got, n);
+                got += n;
+            }
+            require(VALUE_HEADER);
+            colon = buffer.get() != 0;
+            valueLength = buffer.getLong();
+            return true;
+        }
+
+        int compareTo(Run other) {
+            int c = compareNames(name, 0, nameLength, other.name, 0, other.nameLength);
+            return c != 0 ? c : Integer.compare(seq, other.seq);
+        }
+
+        private void require(int n) throws IOException {
+            while (buffer.remaining() < n) {
+                fill();
+            }
+        }
+
+        void fill() throws IOException {
+            if (position == end) {
+                throw new IOException("a run of sorted members is truncated");
+            }
+            buffer.compact();
+            buffer.limit(buffer.position() + (int) Math.min(buffer.remaining(), end - position));
+            while (buffer.hasRemaining()) {
+                int n = file.read(buffer, position);
+                if (n < 0) {
+                    throw new IOException("a run of sorted members is truncated");
+                }
+                position += n;
+            }
+            buffer.flip();
+        }
+    }
+}
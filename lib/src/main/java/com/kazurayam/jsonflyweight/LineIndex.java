@@ -0,0 +1,467 @@
+package com.kazurayam.jsonflyweight;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * A sparse index of the lines of a pretty printed JSON, written beside it by a Formatter
+ * built with {@link JsonFlyweight.Formatter.Builder#lineIndex(int)}.
+ * Every K-th line of the JSON has an entry which tells where the line starts in bytes,
+ * its indent level and the JSON path of the value on it, so that a reader can seek
+ * into a file of gigabytes without reading it from the top.
+ *
+ * <pre>
+ * try (LineIndex index = LineIndex.open(LineIndex.sideCarOf(pretty))) {
+ *     LineIndex.Entry entry = index.floorPath("$.log.entries[70000].request");
+ *     // read the pretty printed JSON from entry.getOffset()
+ * }
+ * </pre>
+ *
+ * The index file is mapped into memory; the entries are read from the mapping as they are asked for.
+ * The lines are numbered from 0, counting the line breaks the Formatter puts.
+ * A line break which was already in the ugly JSON, outside a string, is copied to the output
+ * but not counted, so the numbers match the lines of the file when the ugly JSON had none.
+ */
+public final class LineIndex implements Closeable {
+
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final int interval;
+    private final int count;
+    private final long numLines;
+    private final byte[] lineSeparator;
+    private final int depthsStart;
+    private final int pathEndsStart;
+    private final int pathsStart;
+
+    private LineIndex(Path indexFile, FileChannel channel) throws IOException {
+        this.channel = channel;
+        long size = channel.size();
+        if (size < LineIndexer.HEADER_SIZE || size > Integer.MAX_VALUE) {
+            throw new IOException(indexFile + " is not a line index");
+        }
+        this.map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        if (map.getInt(0) != LineIndexer.MAGIC) {
+            throw new IOException(indexFile + " is not a line index");
+        }
+        if (map.getInt(4) != LineIndexer.VERSION) {
+            throw new IOException(indexFile + " is a line index of an unknown version " + map.getInt(4));
+        }
+        this.interval = map.getInt(8);
+        this.count = map.getInt(12);
+        this.numLines = map.getLong(16);
+        this.lineSeparator = new byte[map.get(24)];
+        for (int i = 0; i < lineSeparator.length; i++) {
+            lineSeparator[i] = map.get(25 + i);
+        }
+        this.depthsStart = LineIndexer.HEADER_SIZE + count * Long.BYTES;
+        this.pathEndsStart = depthsStart + count * Integer.BYTES;
+        this.pathsStart = pathEndsStart + count * Integer.BYTES;
+        if (interval < 1 || count < 1 || pathsStart > size
+                || pathsStart + (long) map.getInt(pathEndsStart + (count - 1) * Integer.BYTES) > size) {
+            throw new IOException(indexFile + " is a broken line index");
+        }
+    }
+
+    /**
+     * Open an index file; it stays mapped until closed
+     *
+     * @param indexFile path of the index, as given by {@link #sideCarOf(Path)}
+     * @return the index
+     * @throws IOException if the file cannot be read, or is not a line index
+     */
+    public static LineIndex open(Path indexFile) throws IOException {
+        Objects.requireNonNull(indexFile);
+        FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ);
+        try {
+            return new LineIndex(indexFile, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param prettyPrintedJSON path of a pretty printed JSON
+     * @return path of its index: the same file name followed by ".idx", in the same directory
+     */
+    public static Path sideCarOf(Path prettyPrintedJSON) {
+        return prettyPrintedJSON.resolveSibling(prettyPrintedJSON.getFileName().toString() + ".idx");
+    }
+
+    /**
+     * @return K: every K-th line has an entry
+     */
+    public int getInterval() {
+        return interval;
+    }
+
+    /**
+     * @return number of lines in the pretty printed JSON
+     */
+    public long getNumLines() {
+        return numLines;
+    }
+
+    /**
+     * @return number of entries
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @param i number of the entry, from 0 to size() - 1
+     * @return the entry of the line i * K
+     */
+    public Entry get(int i) {
+        Objects.checkIndex(i, count);
+        int depth = map.getInt(depthsStart + i * Integer.BYTES);
+        return new Entry((long) i * interval, map.getLong(LineIndexer.HEADER_SIZE + i * Long.BYTES),
+                depth & ~LineIndexer.CLOSING, (depth & LineIndexer.CLOSING) != 0, path(i));
+    }
+
+    /**
+     * Find the nearest entry at or before a line, in constant time
+     *
+     * @param line number of the line, from 0
+     * @return the entry of the line, or of the nearest line before it
+     * @throws IllegalArgumentException if the line is out of the JSON
+     */
+    public Entry floorLine(long line) {
+        if (line < 0 || line >= numLines) {
+            throw new IllegalArgumentException("line " + line + " is out of 0.." + (numLines - 1));
+        }
+        return get((int) Math.min(line / interval, count - 1));
+    }
+
+    /**
+     * Find where to start reading to reach the value at a JSON path, such as
+     * {@code $.log.entries[70000].request}. The entries are narrowed down level by level:
+     * the elements of an array by binary search on their indexes, the members of an object
+     * by skipping over the runs of entries which share a name.
+     *
+     * @param path a JSON path without wildcards
+     * @return the entry of the line where the value starts, if the line has an entry;
+     *         otherwise an entry of a line before it. Compare {@link Entry#getPath()} to tell.
+     *         If the value is not in the JSON, an entry of a line before where it would be
+     * @throws IllegalArgumentException if the path is invalid, or has a wildcard
+     */
+    public Entry floorPath(String path) {
+        JsonProjector.Pattern target = JsonProjector.Pattern.parse(path);
+        for (int i = 0; i < target.size(); i++) {
+            if (target.isWildcard(i)) {
+                throw new IllegalArgumentException("invalid path \"" + path + "\": a wildcard does not locate a line");
+            }
+        }
+        // the entries from lo to hi are in the value at the first d segments of the target
+        int lo = 0;
+        int hi = count;
+        for (int d = 0; d < target.size(); d++) {
+            // leave out the lines of the container itself: the opening one and the closing one
+            int from = lo;
+            while (from < hi && numSegments(from) == d) {
+                from++;
+            }
+            int to = hi;
+            while (to > from && numSegments(to - 1) == d) {
+                to--;
+            }
+            int index = target.index(d);
+            if (index >= 0) {
+                int first = lowerBound(from, to, d, index);
+                int last = lowerBound(first, to, d, index + 1);
+                if (first == last) {
+                    return get(first - 1);
+                }
+                lo = first;
+                hi = last;
+            } else {
+                byte[] name = target.name(d);
+                int run = from;
+                while (run < to && !hasName(run, d, name)) {
+                    run = endOfRun(run, to, d);
+                }
+                if (run == to) {
+                    // not sampled; the member is somewhere after the start of the container
+                    return get(from - 1);
+                }
+                lo = run;
+                hi = endOfRun(run, to, d);
+            }
+        }
+        if (numSegments(lo) == target.size() && (map.getInt(depthsStart + lo * Integer.BYTES) & LineIndexer.CLOSING) == 0) {
+            return get(lo);
+        }
+        return get(lo - 1);
+    }
+
+    /**
+     * Find the byte offset where a line starts, by reading the pretty printed JSON
+     * from the nearest entry at or before the line. At most K - 1 lines are read.
+     *
+     * @param line number of the line, from 0
+     * @param prettyPrintedJSON the pretty printed JSON which this index was written with
+     * @return the offset of the line in bytes
+     * @throws IllegalArgumentException if the line is out of the JSON
+     * @throws IOException if the JSON cannot be read, or ends before the line
+     */
+    public long offsetOfLine(long line, FileChannel prettyPrintedJSON) throws IOException {
+        Entry entry = floorLine(line);
+        long position = entry.getOffset();
+        long remaining = line - entry.getLine();
+        if (remaining == 0) {
+            return position;
+        }
+        byte last = lineSeparator[lineSeparator.length - 1];
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        int n;
+        while ((n = prettyPrintedJSON.read(buffer, position)) > 0) {
+            for (int i = 0; i < n; i++) {
+                if (buffer.get(i) == last && --remaining == 0) {
+                    return position + i + 1;
+                }
+            }
+            position += n;
+            buffer.clear();
+        }
+        throw new IOException("the JSON ended before the line " + line);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private String path(int i) {
+        int start = i == 0 ? 0 : map.getInt(pathEndsStart + (i - 1) * Integer.BYTES);
+        int end = map.getInt(pathEndsStart + i * Integer.BYTES);
+        byte[] bytes = new byte[end - start];
+        for (int j = 0; j < bytes.length; j++) {
+            bytes[j] = map.get(pathsStart + start + j);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // The paths are compared where they lie in the mapping, segment by segment, without being decoded:
+    // a path is "$" followed by segments like ".name", "['name with \\' quotes']" and "[123]",
+    // as PathTracker writes them.
+
+    private int pathStart(int i) {
+        return pathsStart + (i == 0 ? 0 : map.getInt(pathEndsStart + (i - 1) * Integer.BYTES));
+    }
+
+    private int pathEnd(int i) {
+        return pathsStart + map.getInt(pathEndsStart + i * Integer.BYTES);
+    }
+
+    /**
+     * @param p position of a segment
+     * @return position of the next segment, or the end of the path
+     */
+    private int skipSegment(int p, int end) {
+        if (map.get(p) == '.') {
+            p++;
+            while (p < end && map.get(p) != '.' && map.get(p) != '[') {
+                p++;
+            }
+            return p;
+        }
+        p++;
+        if (p < end && map.get(p) == '\'') {
+            for (p++; p < end && map.get(p) != '\''; p++) {
+                if (map.get(p) == '\\') {
+                    p++;
+                }
+            }
+            return Math.min(p + 2, end);
+        }
+        while (p < end && map.get(p) != ']') {
+            p++;
+        }
+        return Math.min(p + 1, end);
+    }
+
+    /**
+     * @return position of the segment d of the path of the entry i
+     */
+    private int segment(int i, int d) {
+        int end = pathEnd(i);
+        int p = pathStart(i) + 1;
+        for (int k = 0; k < d && p < end; k++) {
+            p = skipSegment(p, end);
+        }
+        return p;
+    }
+
+    private int numSegments(int i) {
+        int end = pathEnd(i);
+        int n = 0;
+        for (int p = pathStart(i) + 1; p < end; p = skipSegment(p, end)) {
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * @return the index of the segment d of the path of the entry i, or -1 if it is a name
+     */
+    private int indexAt(int i, int d) {
+        int p = segment(i, d);
+        if (map.get(p) != '[' || map.get(p + 1) == '\'') {
+            return -1;
+        }
+        int index = 0;
+        for (p++; map.get(p) != ']'; p++) {
+            index = index * 10 + (map.get(p) - '0');
+        }
+        return index;
+    }
+
+    /**
+     * @param name a name in UTF-8, as JsonProjector.Pattern gives it
+     * @return true if the segment d of the path of the entry i is the name
+     */
+    private boolean hasName(int i, int d, byte[] name) {
+        int end = pathEnd(i);
+        int p = segment(i, d);
+        int k = 0;
+        if (map.get(p) == '.') {
+            for (p++; p < end && map.get(p) != '.' && map.get(p) != '['; p++) {
+                if (k == name.length || map.get(p) != name[k++]) {
+                    return false;
+                }
+            }
+            return k == name.length;
+        }
+        if (map.get(p + 1) != '\'') {
+            return false;
+        }
+        for (p += 2; p < end && map.get(p) != '\''; p++) {
+            if (map.get(p) == '\\') {
+                p++;
+            }
+            if (k == name.length || map.get(p) != name[k++]) {
+                return false;
+            }
+        }
+        return k == name.length;
+    }
+
+    /**
+     * @return true if the segments d of the paths of the entries i and j are the same
+     */
+    private boolean sameSegment(int i, int j, int d) {
+        int p = segment(i, d);
+        int q = segment(j, d);
+        int length = skipSegment(p, pathEnd(i)) - p;
+        if (skipSegment(q, pathEnd(j)) - q != length) {
+            return false;
+        }
+        for (int k = 0; k < length; k++) {
+            if (map.get(p + k) != map.get(q + k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the first entry from {@code from} whose index at the level d is not less than the given one
+     */
+    private int lowerBound(int from, int to, int d, int index) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (indexAt(mid, d) < index) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * @return the first entry after {@code run} which has another name at the level d
+     */
+    private int endOfRun(int run, int to, int d) {
+        int from = run + 1;
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (sameSegment(mid, run, d)) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * A line which has an entry in the index
+     */
+    public static final class Entry {
+
+        private final long line;
+        private final long offset;
+        private final int depth;
+        private final boolean closing;
+        private final String path;
+
+        Entry(long line, long offset, int depth, boolean closing, String path) {
+            this.line = line;
+            this.offset = offset;
+            this.depth = depth;
+            this.closing = closing;
+            this.path = path;
+        }
+
+        /**
+         * @return number of the line, from 0
+         */
+        public long getLine() {
+            return line;
+        }
+
+        /**
+         * @return byte offset where the line starts in the pretty printed JSON
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return indent level of the line
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        /**
+         * @return true if the line closes an object or an array, or is the blank line
+         *         inside an empty one; its path is then the path of the object or the array
+         */
+        public boolean isClosing() {
+            return closing;
+        }
+
+        /**
+         * @return JSON path of the value on the line, or of the object or array the line closes
+         */
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public String toString() {
+            return "line " + line + " @" + offset + " depth " + depth + (closing ? " closing " : " ") + path;
+        }
+    }
+}
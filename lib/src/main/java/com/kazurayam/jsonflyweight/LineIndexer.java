@@ -0,0 +1,292 @@
+package com.kazurayam.jsonflyweight;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Builds a sparse index of the lines of a pretty printed JSON while a {@link ByteFormatter}
+ * writes it: for every {@code interval}-th line, the byte offset where the line starts,
+ * its indent level and the JSON path of the value on it. Read by {@link LineIndex}.
+ *
+ * The formatter tells the indexer of every line break it makes, with the byte which caused it,
+ * so the nesting is followed without a second scan. The name of a member is picked up
+ * from the line it is on, when the line is over; as the line may have been drained
+ * to the sink by then, the head of the current line is kept at every drain.
+ *
+ * The index file is laid out as primitive arrays, big-endian, after a header of
+ * {@value #HEADER_SIZE} bytes:
+ * <pre>
+ * int magic "JFLX", int version, int interval, int count, long numLines,
+ * byte length of the line separator, the line separator, padding
+ * long[count] offsets
+ * int[count]  depths, with {@link #CLOSING} set for a line which closes an object or an array,
+ *             and for the blank line inside an empty one
+ * int[count]  ends of the paths in the blob
+ * byte[]      the paths in UTF-8
+ * </pre>
+ */
+final class LineIndexer {
+
+    static final int MAGIC = 0x4A464C58;     // "JFLX"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int CLOSING = 1 << 31;
+
+    /** enough for the opening quote, the longest name kept, and the closing quote */
+    private static final int HEAD_LIMIT = PathTracker.MAX_KEY_LENGTH + 2;
+
+    private final int interval;
+    private final String lineSeparator;
+    private final int separatorLength;
+    private final PathTracker path = new PathTracker();
+
+    /** number of bytes drained to the sink before the current buffer */
+    private long base;
+
+    // the current line
+    private long lineNumber;
+    private long lineStart;
+    private boolean lineClosing;
+    private final byte[] head = new byte[HEAD_LIMIT];
+    private int headLength;
+
+    // the current line is to be recorded when its name is known
+    private boolean pending;
+    private int pendingDepth;
+    // the current line is the first one in an object or an array, which may be empty
+    private boolean pendingOpened;
+
+    // the entries
+    private long[] offsets = new long[64];
+    private int[] depths = new int[64];
+    private int[] pathEnds = new int[64];
+    private byte[] paths = new byte[1024];
+    private int count;
+
+    LineIndexer(int interval, String lineSeparator) {
+        this.interval = interval;
+        this.lineSeparator = lineSeparator;
+        this.separatorLength = lineSeparator.length();
+        reset();
+    }
+
+    void reset() {
+        base = 0;
+        lineNumber = 0;
+        lineStart = 0;
+        lineClosing = false;
+        headLength = 0;
+        pending = false;
+        pendingOpened = false;
+        count = 0;
+        path.reset();
+        record(0, 0, "$");
+    }
+
+    /**
+     * The formatter has put a line break at {@code lineEnd} in its buffer, and the indentation after it.
+     *
+     * @param trigger the byte which caused the line break: '{', '[', ',', '}' or ']'
+     * @param out the output buffer of the formatter
+     * @param lineEnd where the line just ended in the buffer
+     * @param depth the indent level of the new line
+     */
+    void newLine(byte trigger, byte[] out, int lineEnd, int depth) {
+        // the blank line inside an empty object or array has no element of its own;
+        // it goes under the path of the container, as its closing line does
+        boolean empty = pending && pendingOpened && (trigger == '}' || trigger == ']') && isBlank(out, lineEnd);
+        // the line just ended: pick up the name of the member on it
+        if (!lineClosing && path.isObject() && !empty) {
+            readKey(out, lineEnd);
+        }
+        if (pending && !empty) {
+            record(lineStart, pendingDepth, path.toString());
+            pending = false;
+        }
+        // follow the nesting
+        switch (trigger) {
+            case '{':
+                path.push(true);
+                break;
+            case '[':
+                path.push(false);
+                break;
+            case ',':
+                if (path.depth() > 0 && !path.isObject()) {
+                    path.nextElement();
+                }
+                break;
+            default:
+                if (path.depth() > 0) {
+                    path.pop();
+                }
+        }
+        if (empty) {
+            record(lineStart, pendingDepth | CLOSING, path.toString());
+            pending = false;
+        }
+        // the new line
+        lineNumber++;
+        lineStart = base + lineEnd + separatorLength;
+        lineClosing = (trigger == '}' || trigger == ']');
+        headLength = 0;
+        pendingOpened = false;
+        if (lineNumber % interval == 0) {
+            if (lineClosing) {
+                record(lineStart, depth | CLOSING, path.toString());
+            } else if (path.isObject() || trigger == '[') {
+                pending = true;
+                pendingDepth = depth;
+                pendingOpened = trigger == '{' || trigger == '[';
+            } else {
+                record(lineStart, depth, path.toString());
+            }
+        }
+    }
+
+    /**
+     * @return true if the line which has just ended has nothing but its indentation
+     */
+    private boolean isBlank(byte[] out, int lineEnd) {
+        if (headLength > 0) {
+            return false;
+        }
+        for (int i = (int) Math.max(0, lineStart - base); i < lineEnd; i++) {
+            if (out[i] != ' ' && out[i] != '\t') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The formatter is about to write its buffer to the sink and to empty it.
+     * Keep the head of the current line, where the name of a member is.
+     */
+    void drained(byte[] out, int size) {
+        int from = (int) Math.max(0, lineStart - base);
+        if (headLength == 0) {
+            // the indentation is not kept
+            while (from < size && (out[from] == ' ' || out[from] == '\t')) {
+                from++;
+            }
+        }
+        int n = Math.min(size - from, HEAD_LIMIT - headLength);
+        if (n > 0) {
+            System.arraycopy(out, from, head, headLength, n);
+            headLength += n;
+        }
+        base += size;
+    }
+
+    /**
+     * Write the index file
+     *
+     * @param numLines number of line breaks the formatter made
+     */
+    void write(Path indexFile, int numLines) throws IOException {
+        if (pending) {
+            record(lineStart, pendingDepth, path.toString());
+            pending = false;
+        }
+        int pathBytes = count == 0 ? 0 : pathEnds[count - 1];
+        try (FileChannel channel = FileChannel.open(indexFile,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(interval).putInt(count).putLong(numLines + 1L);
+            header.put((byte) separatorLength).put(lineSeparator.getBytes(StandardCharsets.US_ASCII));
+            header.clear();
+            writeFully(channel, header);
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            for (int i = 0; i < count; i++) {
+                ensureRemaining(channel, buffer, Long.BYTES);
+                buffer.putLong(offsets[i]);
+            }
+            for (int i = 0; i < count; i++) {
+                ensureRemaining(channel, buffer, Integer.BYTES);
+                buffer.putInt(depths[i]);
+            }
+            for (int i = 0; i < count; i++) {
+                ensureRemaining(channel, buffer, Integer.BYTES);
+                buffer.putInt(pathEnds[i]);
+            }
+            buffer.flip();
+            writeFully(channel, buffer);
+            writeFully(channel, ByteBuffer.wrap(paths, 0, pathBytes));
+        }
+    }
+
+    /**
+     * Read the name of the member on the line which has just ended, and set it to the path
+     */
+    private void readKey(byte[] out, int lineEnd) {
+        // the head kept at the drains, followed by the rest of the line in the buffer
+        byte[] line = head;
+        int length = headLength;
+        int from = (int) Math.max(0, lineStart - base);
+        if (length == 0) {
+            while (from < lineEnd && (out[from] == ' ' || out[from] == '\t')) {
+                from++;
+            }
+            line = out;
+            length = lineEnd;
+        } else if (length < HEAD_LIMIT && from < lineEnd) {
+            int n = Math.min(lineEnd - from, HEAD_LIMIT - length);
+            System.arraycopy(out, from, head, length, n);
+            length += n;
+            from = 0;
+        } else {
+            from = 0;
+        }
+        if (from >= length || line[from] != '"') {
+            // an empty line in an empty object
+            return;
+        }
+        int i = from + 1;
+        int limit = Math.min(length, from + HEAD_LIMIT);
+        boolean escaped = false;
+        while (i < limit && (escaped || line[i] != '"')) {
+            escaped = !escaped && line[i] == '\\';
+            i++;
+        }
+        path.startKey();
+        path.appendKey(line, from + 1, i);
+    }
+
+    private void record(long offset, int depth, String pathString) {
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+            depths = Arrays.copyOf(depths, count * 2);
+            pathEnds = Arrays.copyOf(pathEnds, count * 2);
+        }
+        byte[] bytes = pathString.getBytes(StandardCharsets.UTF_8);
+        int start = count == 0 ? 0 : pathEnds[count - 1];
+        if (start + bytes.length > paths.length) {
+            paths = Arrays.copyOf(paths, Math.max(paths.length * 2, start + bytes.length));
+        }
+        System.arraycopy(bytes, 0, paths, start, bytes.length);
+        offsets[count] = offset;
+        depths[count] = depth;
+        pathEnds[count] = start + bytes.length;
+        count++;
+    }
+
+    private static void ensureRemaining(FileChannel channel, ByteBuffer buffer, int n) throws IOException {
+        if (buffer.remaining() < n) {
+            buffer.flip();
+            writeFully(channel, buffer);
+            buffer.clear();
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,487 @@
+package com.kazurayam.jsonflyweight;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pretty-prints newline-delimited JSON (NDJSON, JSON Lines): a stream of JSON documents,
+ * one per line. Every record is pretty-printed as a document of its own and followed by
+ * the line separator, so that the records stay apart in the output.
+ *
+ * The calling thread reads the input into batches of about 1 MB, each cut right after
+ * the last line feed in it, and formats them on a ForkJoinPool; the outputs are written
+ * in the original order. At most 2 batches per thread of the pool are in flight at a time,
+ * which bounds the memory however large the input is; the input buffers, the output buffers
+ * and the engines of the batches written are recycled for the batches to come.
+ * If the Formatter is built to flush when idle, a batch is also cut when no more input is ready,
+ * as from a pipe fed by {@code tail -f}; then the batches in flight are written and the output
+ * is flushed, so that the records come out as soon as they come in.
+ *
+ * A record ends at a line feed which is out of quotes and out of brackets, so a record may span lines.
+ * Every batch is split into records on the pool, speculatively from the top level,
+ * which is right unless a record runs over the end of the batch before. In that case the record
+ * is carried on into the next batch, with the engine in the middle of it, and the next batch
+ * is formatted again on the calling thread; so a record larger than a batch is formatted
+ * as it is read, never held in memory as a whole.
+ *
+ * Blank lines are skipped. In the strict mode every record is checked on its own;
+ * the exception tells the offset and the line in the whole input.
+ */
+final class NdjsonPrettyPrinter {
+
+    static final int DEFAULT_BATCH_SIZE = 1024 * 1024;
+
+    /** most bytes of the blanks held back at the end of a batch; the engine is given the rest, and skips them */
+    static final int MAX_PENDING = 4096;
+
+    private final JsonFlyweight.Formatter formatter;
+    private final ForkJoinPool pool;
+    private final int batchSize;
+    private final byte[] separator;
+    private final boolean flushWhenIdle;
+
+    NdjsonPrettyPrinter(JsonFlyweight.Formatter formatter, ForkJoinPool pool) {
+        this(formatter, pool, DEFAULT_BATCH_SIZE);
+    }
+
+    NdjsonPrettyPrinter(JsonFlyweight.Formatter formatter, ForkJoinPool pool, int batchSize) {
+        this.formatter = formatter;
+        this.pool = pool;
+        this.batchSize = batchSize;
+        this.separator = formatter.getLineSeparator().getBytes(StandardCharsets.US_ASCII);
+        this.flushWhenIdle = formatter.isFlushWhenIdle();
+    }
+
+    /**
+     * @return number of records pretty printed
+     */
+    long prettyPrint(InputStream in, OutputStream out) throws IOException {
+        int maxInFlight = Math.max(2, pool.getParallelism() * 2);
+        Deque<Batch> inFlight = new ArrayDeque<>();
+        Writing writing = new Writing(out);
+        byte[] buffer = writing.takeBuffer();
+        int length = 0;
+        // the last line feed in the buffer, or -1
+        int lastLf = -1;
+        long offset = 0;
+        boolean continued = false;
+        boolean eof = false;
+        while (!eof) {
+            int n = in.read(buffer, length, buffer.length - length);
+            boolean idle = false;
+            if (n < 0) {
+                eof = true;
+            } else {
+                for (int i = length + n - 1; i >= length; i--) {
+                    if (buffer[i] == '\n') {
+                        lastLf = i;
+                        break;
+                    }
+                }
+                length += n;
+                if (length < buffer.length) {
+                    if (!flushWhenIdle || lastLf < 0 || in.available() > 0) {
+                        continue;
+                    }
+                    // no more input is ready; do not wait for a full batch to write the lines read
+                    idle = true;
+                }
+            }
+            // cut the batch right after the last line feed, if any
+            int cut = !eof && lastLf >= 0 ? lastLf + 1 : length;
+            if (cut == 0) {
+                break;
+            }
+            Batch batch = new Batch(buffer, cut, offset, writing.takeOutput(), writing.takeEngine());
+            if (!continued) {
+                batch.task = pool.submit(() -> batch.claim() ? format(batch, null) : null);
+            }
+            // a batch which begins in the middle of a line is not worth speculating on
+            continued = buffer[cut - 1] != '\n';
+            if (inFlight.size() >= maxInFlight) {
+                writing.write(inFlight.removeFirst());
+            }
+            inFlight.addLast(batch);
+            byte[] next = writing.takeBuffer();
+            length -= cut;
+            System.arraycopy(buffer, cut, next, 0, length);
+            buffer = next;
+            lastLf = -1;
+            offset += cut;
+            if (idle) {
+                while (!inFlight.isEmpty()) {
+                    writing.write(inFlight.removeFirst());
+                }
+                out.flush();
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            writing.write(inFlight.removeFirst());
+        }
+        writing.finish();
+        out.flush();
+        return writing.numRecords;
+    }
+
+    /**
+     * Writes the batches in order, formatting again the batches which were split
+     * from a wrong state, and keeps what the batches written leave for reuse; runs on the calling thread
+     */
+    private final class Writing {
+        private final OutputStream out;
+        private final Deque<byte[]> buffers = new ArrayDeque<>();
+        private final Deque<ByteArrayOutputStream> outputs = new ArrayDeque<>();
+        private final Deque<ByteFormatter> engines = new ArrayDeque<>();
+        private Carry carry;
+        private long firstLine = 1;
+        private long numRecords;
+
+        Writing(OutputStream out) {
+            this.out = out;
+        }
+
+        byte[] takeBuffer() {
+            byte[] buffer = buffers.poll();
+            return buffer != null ? buffer : new byte[batchSize];
+        }
+
+        ByteArrayOutputStream takeOutput() {
+            ByteArrayOutputStream output = outputs.poll();
+            return output != null ? output : new ByteArrayOutputStream(batchSize + batchSize / 2);
+        }
+
+        ByteFormatter takeEngine() {
+            ByteFormatter engine = engines.poll();
+            return engine != null ? engine : formatter.newByteFormatter();
+        }
+
+        void write(Batch batch) throws IOException {
+            Result result;
+            if (carry != null || batch.task == null) {
+                // the batch begins in the middle of a record
+                if (batch.task != null && !batch.claim()) {
+                    // the speculation has begun; it shares the output and the engine of the batch
+                    batch.task.quietlyJoin();
+                    batch.output.reset();
+                }
+                result = format(batch, carry);
+            } else {
+                result = ParallelPrettyPrinter.join(batch.task);
+            }
+            if (result.error != null) {
+                throw relocate(result.error, result.errorOffset, firstLine + result.errorLine, result.errorColumn);
+            }
+            result.output.writeTo(out);
+            numRecords += result.numRecords;
+            firstLine += result.numLines;
+            Carry before = carry;
+            carry = result.carry;
+            if (carry != null) {
+                // make the line of the carried record relative to the next batch
+                carry.recordLine -= result.numLines;
+            }
+            buffers.push(batch.bytes);
+            batch.output.reset();
+            outputs.push(batch.output);
+            ByteFormatter carried = carry != null ? carry.engine : null;
+            if (batch.engine != carried) {
+                engines.push(batch.engine);
+            }
+            if (before != null && before.engine != carried) {
+                engines.push(before.engine);
+            }
+        }
+
+        /**
+         * end the record which runs to the end of the input, if any
+         */
+        void finish() throws IOException {
+            if (carry == null) {
+                return;
+            }
+            try {
+                carry.engine.drainTo(out);
+                carry.engine.finish();
+            } catch (JsonFlyweightException e) {
+                throw relocate(e, carry.recordOffset, firstLine + carry.recordLine, carry.column);
+            }
+            out.write(separator);
+            numRecords++;
+        }
+    }
+
+    /**
+     * Split a batch into records and format them into the output of the batch.
+     * Runs on the pool from the top level, or on the calling thread with the record carried on
+     * from the batch before.
+     *
+     * @return the output and where it stopped
+     */
+    private Result format(Batch batch, Carry carry) throws IOException {
+        Result result = new Result();
+        ByteArrayOutputStream output = batch.output;
+        Splitter splitter = carry != null ? carry.splitter : new Splitter();
+        ByteFormatter engine = carry != null ? carry.engine : batch.engine;
+        byte[] b = batch.bytes;
+        int end = batch.length;
+        int numRecords = 0;
+        splitter.lines = 0;
+        // where the record in progress began
+        boolean open = carry != null;
+        long recordOffset = open ? carry.recordOffset : 0;
+        long recordLine = open ? carry.recordLine : 0;
+        int column = open ? carry.column : 0;
+        byte[] pending = open ? carry.pending : null;
+        int lineStart = 0;
+        int i = 0;
+        try {
+            while (i < end) {
+                if (!open) {
+                    // skip the blanks and the blank lines between the records
+                    while (i < end && isBlank(b[i])) {
+                        if (b[i] == '\n') {
+                            splitter.lines++;
+                            lineStart = i + 1;
+                        }
+                        i++;
+                    }
+                    if (i == end) {
+                        break;
+                    }
+                    engine.reset();
+                    open = true;
+                    recordOffset = batch.offset + i;
+                    recordLine = splitter.lines;
+                    column = i - lineStart;
+                }
+                int lf = splitter.scan(b, i, end);
+                int upTo = i + trimEnd(b, i, lf);
+                if (upTo > i && pending != null) {
+                    // the blanks held back were in the middle of the record
+                    engine.format(pending, 0, pending.length, output);
+                    pending = null;
+                }
+                if (lf < end) {
+                    engine.format(b, i, upTo - i, output);
+                    engine.drainTo(output);
+                    engine.finish();
+                    output.write(separator);
+                    numRecords++;
+                    open = false;
+                    pending = null;
+                    lineStart = lf + 1;
+                    i = lf + 1;
+                } else if (splitter.isTopLevel()) {
+                    // hold back the blanks at the end, which may be the tail of the record
+                    engine.format(b, i, upTo - i, output);
+                    if (upTo < end) {
+                        pending = concat(pending, b, upTo, end);
+                        if (pending.length > MAX_PENDING) {
+                            engine.format(pending, 0, pending.length, output);
+                            pending = null;
+                        }
+                    }
+                    i = end;
+                } else {
+                    engine.format(b, i, end - i, output);
+                    i = end;
+                }
+            }
+            if (open) {
+                engine.drainTo(output);
+                result.carry = new Carry(engine, splitter, recordOffset, recordLine, column, pending);
+            }
+        } catch (JsonFlyweightException e) {
+            result.error = e;
+            result.errorOffset = recordOffset;
+            result.errorLine = recordLine;
+            result.errorColumn = column;
+        }
+        result.output = output;
+        result.numRecords = numRecords;
+        result.numLines = splitter.lines;
+        return result;
+    }
+
+    private static byte[] concat(byte[] head, byte[] b, int from, int to) {
+        int headLength = head != null ? head.length : 0;
+        byte[] joined = new byte[headLength + to - from];
+        if (head != null) {
+            System.arraycopy(head, 0, joined, 0, headLength);
+        }
+        System.arraycopy(b, from, joined, headLength, to - from);
+        return joined;
+    }
+
+    /**
+     * @return length of the bytes from {@code from} without the blanks at the end
+     */
+    private static int trimEnd(byte[] b, int from, int to) {
+        while (to > from && isBlank(b[to - 1])) {
+            to--;
+        }
+        return to - from;
+    }
+
+    /**
+     * space, tab, CR, LF and other control characters, which may surround a record
+     */
+    private static boolean isBlank(byte ch) {
+        return ch >= 0 && ch <= ' ';
+    }
+
+    /**
+     * Tell where a record went wrong in the whole input rather than in the record
+     */
+    private static JsonFlyweightException relocate(JsonFlyweightException e,
+                                                   long recordOffset, long recordLine, int recordColumn) {
+        JsonFlyweightException relocated = new JsonFlyweightException(e.getReason(),
+                recordOffset + e.getOffset(), recordLine + e.getLine() - 1,
+                e.getLine() == 1 ? recordColumn + e.getColumn() : e.getColumn(), e.getPath());
+        relocated.initCause(e);
+        return relocated;
+    }
+
+    /**
+     * Finds the line feeds which end the records: out of quotes and out of brackets
+     */
+    private static final class Splitter {
+        private boolean inQuote;
+        private boolean escaped;
+        private int depth;
+        // line feeds passed
+        int lines;
+
+        /**
+         * @return index of the line feed which ends the record, or {@code to} if there is none
+         */
+        int scan(byte[] b, int from, int to) {
+            int i = from;
+            while (i < to) {
+                if (escaped) {
+                    escaped = false;
+                    i++;
+                    continue;
+                }
+                if (inQuote) {
+                    i = SwarScanner.indexOfQuoteOrBackslash(b, i, to);
+                    if (i == to) {
+                        break;
+                    }
+                    if (b[i] == '\\') {
+                        escaped = true;
+                    } else {
+                        inQuote = false;
+                    }
+                    i++;
+                    continue;
+                }
+                i = SwarScanner.indexOfQuoteBracketOrLineFeed(b, i, to);
+                if (i == to) {
+                    break;
+                }
+                switch (b[i]) {
+                    case '"':
+                        inQuote = true;
+                        break;
+                    case '{':
+                    case '[':
+                        depth++;
+                        break;
+                    case '}':
+                    case ']':
+                        depth--;
+                        break;
+                    default:
+                        // a line feed
+                        lines++;
+                        if (depth <= 0) {
+                            // a malformed record must not swallow the rest of the input
+                            depth = 0;
+                            return i;
+                        }
+                        break;
+                }
+                i++;
+            }
+            return to;
+        }
+
+        boolean isTopLevel() {
+            return !inQuote && depth <= 0;
+        }
+    }
+
+    /**
+     * a record which runs over the end of a batch into the next
+     */
+    private static final class Carry {
+        final ByteFormatter engine;
+        final Splitter splitter;
+        final long recordOffset;
+        long recordLine;        // relative to the first line of the batch being formatted
+        final int column;
+        final byte[] pending;   // the blanks held back at the end of the batch, or null
+
+        Carry(ByteFormatter engine, Splitter splitter, long recordOffset, long recordLine, int column,
+              byte[] pending) {
+            this.engine = engine;
+            this.splitter = splitter;
+            this.recordOffset = recordOffset;
+            this.recordLine = recordLine;
+            this.column = column;
+            this.pending = pending;
+        }
+    }
+
+    /**
+     * consecutive lines of the input, formatted as a unit
+     */
+    private static final class Batch {
+        final byte[] bytes;
+        final int length;
+        final long offset;      // of bytes[0] in the input
+        final ByteArrayOutputStream output;
+        final ByteFormatter engine; // unless a record is carried on into the batch
+        ForkJoinTask<Result> task;  // null if not formatted on the pool
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        Batch(byte[] bytes, int length, long offset, ByteArrayOutputStream output, ByteFormatter engine) {
+            this.bytes = bytes;
+            this.length = length;
+            this.offset = offset;
+            this.output = output;
+            this.engine = engine;
+        }
+
+        /**
+         * @return true for the first one to format the batch, either the speculation or the writing
+         */
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+    }
+
+    /**
+     * a batch formatted; an error found in a record is kept until the batch is written,
+     * as it may be found from a wrong state
+     */
+    private static final class Result {
+        ByteArrayOutputStream output;
+        int numRecords;
+        int numLines;
+        Carry carry;            // the record which runs into the next batch, or null
+        JsonFlyweightException error;
+        long errorOffset;
+        long errorLine;         // relative to the first line of the batch
+        int errorColumn;
+    }
+}
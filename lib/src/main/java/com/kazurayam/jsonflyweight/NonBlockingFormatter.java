@@ -0,0 +1,152 @@
+package com.kazurayam.jsonflyweight;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * A resumable pretty-printer which never blocks, for NIO and reactive pipelines
+ * which receive a JSON in UTF-8 as ByteBuffer fragments.
+ *
+ * Call {@link #feed(ByteBuffer, ByteBuffer)} with every fragment as it arrives;
+ * it consumes as much of the input as it can and puts as much of the pretty printed
+ * output as fits into the output buffer. Any of the two buffers may be left with
+ * bytes remaining; call again when there is more input or more room for output.
+ * When the input is over, call {@link #finish()}, then {@link #flush(ByteBuffer)}
+ * until it returns true.
+ *
+ * The state of the formatter is kept across the fragments, so a fragment may end anywhere,
+ * for example in the middle of a multi-byte UTF-8 sequence or right after a backslash.
+ * A NonBlockingFormatter holds two buffers of the {@code bufferCapacity} of the Formatter,
+ * 32 KB by default, and no more: one which the input is copied into, and one for the pending output.
+ *
+ * <pre>
+ * while (channel.read(in) != -1) {
+ *     in.flip();
+ *     formatter.feed(in, out);
+ *     in.compact();
+ *     ... write out ...
+ * }
+ * formatter.finish();
+ * while (!formatter.flush(out)) {
+ *     ... write out ...
+ * }
+ * </pre>
+ *
+ * An instance is not thread-safe.
+ */
+public class NonBlockingFormatter {
+
+    private final ByteFormatter formatter;
+    private final byte[] scratch;
+    private int pendingStart = 0;
+    private boolean finished = false;
+
+    public NonBlockingFormatter() {
+        this(new JsonFlyweight.Formatter.Builder().build());
+    }
+
+    /**
+     * @param formatter gives the layout
+     * @throws UnsupportedOperationException if the formatter projects or sorts the keys
+     */
+    public NonBlockingFormatter(JsonFlyweight.Formatter formatter) {
+        if (formatter.isProjecting() || formatter.isSortingKeys()) {
+            throw new UnsupportedOperationException("NonBlockingFormatter does not project nor sort the keys");
+        }
+        this.formatter = formatter.newByteFormatter();
+        this.scratch = new byte[formatter.getBufferCapacity()];
+    }
+
+    /**
+     * Consume the input and produce the pretty printed output, as much as possible.
+     * Returns when the input is exhausted or the output buffer is full.
+     *
+     * @param in a fragment of ugly JSON in UTF-8; its position is advanced by the bytes consumed
+     * @param out receives the pretty printed JSON; its position is advanced by the bytes produced
+     * @throws JsonFlyweightException if the Formatter is strict and the input is not a well-formed JSON
+     * @throws IllegalStateException if {@link #finish()} has been called
+     */
+    public void feed(ByteBuffer in, ByteBuffer out) throws JsonFlyweightException {
+        Objects.requireNonNull(in);
+        Objects.requireNonNull(out);
+        if (finished) {
+            throw new IllegalStateException("finish() has been called");
+        }
+        while (true) {
+            if (!transferPending(out) || !in.hasRemaining()) {
+                return;
+            }
+            if (in.hasArray()) {
+                int start = in.position();
+                int consumed = formatter.format(in.array(), in.arrayOffset() + start, in.remaining());
+                in.position(start + consumed);
+            } else {
+                int start = in.position();
+                int n = Math.min(in.remaining(), scratch.length);
+                in.get(scratch, 0, n);
+                int consumed = formatter.format(scratch, 0, n);
+                in.position(start + consumed);
+            }
+        }
+    }
+
+    /**
+     * Declare that the input is over. No more {@link #feed(ByteBuffer, ByteBuffer)} is allowed.
+     *
+     * @throws JsonFlyweightException if the Formatter is strict and the JSON is incomplete
+     */
+    public void finish() throws JsonFlyweightException {
+        if (!finished) {
+            finished = true;
+            formatter.finish();
+        }
+    }
+
+    /**
+     * Put the pending output into the output buffer, as much as fits.
+     *
+     * @param out receives the pretty printed JSON
+     * @return true if no output is pending any longer
+     */
+    public boolean flush(ByteBuffer out) {
+        Objects.requireNonNull(out);
+        return transferPending(out);
+    }
+
+    /**
+     * @return true if {@link #finish()} has been called and all the output has been flushed
+     */
+    public boolean isFinished() {
+        return finished && !hasPendingOutput();
+    }
+
+    /**
+     * @return true if some pretty printed output is waiting for room in an output buffer
+     */
+    public boolean hasPendingOutput() {
+        return pendingStart < formatter.size();
+    }
+
+    /**
+     * @return number of lines in the pretty printed JSON so far
+     */
+    public int getNumLines() {
+        return formatter.getNumLines();
+    }
+
+    /**
+     * @return true if all the pending output has been transferred
+     */
+    private boolean transferPending(ByteBuffer out) {
+        int pending = formatter.size() - pendingStart;
+        int n = Math.min(pending, out.remaining());
+        out.put(formatter.buffer(), pendingStart, n);
+        pendingStart += n;
+        if (pendingStart < formatter.size()) {
+            return false;
+        }
+        formatter.clear();
+        pendingStart = 0;
+        return true;
+    }
+}
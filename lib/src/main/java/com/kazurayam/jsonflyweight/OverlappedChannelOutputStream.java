@@ -0,0 +1,224 @@
+package com.kazurayam.jsonflyweight;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+
+/**
+ * An OutputStream which collects bytes into a fixed set of direct ByteBuffers and writes them
+ * into a WritableByteChannel on a thread of its own, so that the caller fills the next buffer
+ * while the one before is being written. The formatting and the writes overlap instead of taking turns,
+ * which matters when a write takes long, as on a network file system.
+ *
+ * The memory is exactly {@code numBuffers} buffers, allocated once and recycled:
+ * the caller waits only when all of them are full and still being written.
+ * The buffers are written in the order they were filled. A failure of a write is thrown
+ * to the caller at its next write or flush.
+ *
+ * The writer thread is started by {@link #attach(WritableByteChannel)} and stopped by {@link #detach()},
+ * which the caller must call before it closes the channel.
+ * This class does not close the channel; the owner of the channel does.
+ */
+final class OverlappedChannelOutputStream extends OutputStream {
+
+    private final int numBuffers;
+    private final Object lock = new Object();
+
+    // guarded by lock
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+    private final ArrayDeque<ByteBuffer> full = new ArrayDeque<>();
+    private IOException failure;
+    private boolean stopping;
+
+    private WritableByteChannel channel;
+    private ByteBuffer current;
+    private Thread writer;
+
+    /**
+     * @param capacity size of every buffer, rounded down to whole pages
+     * @param numBuffers number of buffers, 2 or more
+     */
+    OverlappedChannelOutputStream(int capacity, int numBuffers) {
+        if (numBuffers < 2) {
+            throw new IllegalArgumentException("numBuffers must be 2 or more: " + numBuffers);
+        }
+        this.numBuffers = numBuffers;
+        int pages = Math.max(1, capacity / ChannelOutputStream.PAGE_SIZE);
+        for (int i = 0; i < numBuffers; i++) {
+            free.add(ByteBuffer.allocateDirect(pages * ChannelOutputStream.PAGE_SIZE));
+        }
+    }
+
+    /**
+     * Start writing into a channel, reusing the direct buffers which are costly to allocate
+     */
+    OverlappedChannelOutputStream attach(WritableByteChannel channel) {
+        if (writer != null) {
+            throw new IllegalStateException("attached to another channel");
+        }
+        this.channel = channel;
+        synchronized (lock) {
+            failure = null;
+            stopping = false;
+        }
+        current = free.poll();
+        current.clear();
+        writer = new Thread(this::writeAll, "JsonFlyweight-writer");
+        writer.setDaemon(true);
+        writer.start();
+        return this;
+    }
+
+    /**
+     * Stop the writer thread once it has written the buffers handed to it.
+     * The bytes not flushed are discarded.
+     * An interrupt does not cut the wait short, as the buffers and the channel may be
+     * given to another writer only when this one has ended; it is kept for the caller to see.
+     */
+    void detach() {
+        if (writer == null) {
+            return;
+        }
+        synchronized (lock) {
+            stopping = true;
+            lock.notifyAll();
+        }
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        writer = null;
+        channel = null;
+        current.clear();
+        free.add(current);
+        current = null;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!current.hasRemaining()) {
+            handOver();
+        }
+        current.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!current.hasRemaining()) {
+                handOver();
+            }
+            int n = Math.min(len, current.remaining());
+            current.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Hand the buffer filled so far to the writer, and wait until all has been written
+     */
+    @Override
+    public void flush() throws IOException {
+        if (current.position() > 0) {
+            handOver();
+        }
+        synchronized (lock) {
+            while (free.size() < numBuffers - 1) {
+                await();
+            }
+            throwIfFailed();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    /**
+     * Hand the current buffer to the writer, and take a free one to fill next
+     */
+    private void handOver() throws IOException {
+        current.flip();
+        synchronized (lock) {
+            throwIfFailed();
+            full.add(current);
+            lock.notifyAll();
+            while (free.isEmpty()) {
+                await();
+            }
+            current = free.poll();
+        }
+    }
+
+    /**
+     * The loop of the writer thread
+     */
+    private void writeAll() {
+        while (true) {
+            ByteBuffer buffer;
+            boolean failed;
+            synchronized (lock) {
+                while (full.isEmpty() && !stopping) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        failure = new InterruptedIOException("the writer was interrupted");
+                        stopping = true;
+                    }
+                }
+                buffer = full.poll();
+                if (buffer == null) {
+                    return;
+                }
+                failed = failure != null;
+            }
+            IOException e = null;
+            if (!failed) {
+                try {
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                } catch (IOException ioe) {
+                    e = ioe;
+                }
+            }
+            buffer.clear();
+            synchronized (lock) {
+                if (e != null && failure == null) {
+                    failure = e;
+                }
+                free.add(buffer);
+                lock.notifyAll();
+            }
+        }
+    }
+
+    // call with the lock held
+    private void await() throws InterruptedIOException {
+        try {
+            lock.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the writer");
+        }
+    }
+
+    // call with the lock held
+    private void throwIfFailed() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
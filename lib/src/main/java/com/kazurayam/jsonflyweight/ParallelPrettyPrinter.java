@@ -0,0 +1,291 @@
+package com.kazurayam.jsonflyweight;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Pretty-prints a JSON file by splitting it into chunks and formatting the chunks
+ * on a ForkJoinPool. The output is byte-identical to the sequential engine.
+ *
+ * The state of the formatter at the start of a chunk (inQuote, escape, indentLevel)
+ * depends on all bytes before it. It is resolved in three phases:
+ * <ol>
+ *     <li>Summarize: every chunk is scanned in parallel, speculatively from each of the
+ *     3 possible quoting states (outside, inside, inside right after a backslash).
+ *     A summary records the quoting state at the end and the net change of indentLevel.</li>
+ *     <li>Resolve: the summaries are chained in order, which is cheap and sequential,
+ *     giving the exact state at the start of every chunk.</li>
+ *     <li>Format: every chunk is formatted in parallel from its resolved state;
+ *     the outputs are written in the original order.</li>
+ * </ol>
+ * Only a bounded number of formatted chunks are held in memory at a time.
+ *
+ * A strict Formatter cannot check a chunk on its own, as the validity of a chunk depends
+ * on the whole nesting before it. The chunks are formatted permissively, and checked in order
+ * by a single {@link JsonValidator} on the writing thread right before their output is written,
+ * while the chunks after them are being formatted.
+ */
+final class ParallelPrettyPrinter {
+
+    static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    // quoting states of the state machine
+    private static final int OUTSIDE = 0;
+    private static final int INSIDE = 1;
+    private static final int ESCAPED = 2;
+
+    private final JsonFlyweight.Formatter formatter;
+    private final ForkJoinPool pool;
+    private final int bufferCapacity;
+    private final int chunkSize;
+
+    ParallelPrettyPrinter(JsonFlyweight.Formatter formatter, ForkJoinPool pool) {
+        this(formatter, pool, DEFAULT_CHUNK_SIZE);
+    }
+
+    ParallelPrettyPrinter(JsonFlyweight.Formatter formatter, ForkJoinPool pool, int chunkSize) {
+        this.formatter = formatter;
+        this.pool = pool;
+        this.bufferCapacity = formatter.getBufferCapacity();
+        this.chunkSize = chunkSize;
+    }
+
+    int prettyPrint(Path uglyJSON, Path prettyPrintedJSON) throws IOException {
+        try (FileChannel inChannel = FileChannel.open(uglyJSON, StandardOpenOption.READ);
+             FileChannel outChannel = FileChannel.open(prettyPrintedJSON,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                     StandardOpenOption.WRITE)) {
+            long size = inChannel.size();
+            int numChunks = (int) ((size + chunkSize - 1) / chunkSize);
+            // phase 1: summarize all chunks in parallel
+            List<Callable<Summary>> summarizers = new ArrayList<>(numChunks);
+            for (int i = 0; i < numChunks; i++) {
+                long position = (long) i * chunkSize;
+                int length = (int) Math.min(chunkSize, size - position);
+                summarizers.add(() -> summarize(inChannel, position, length));
+            }
+            List<Summary> summaries = new ArrayList<>(numChunks);
+            for (ForkJoinTask<Summary> task : invokeAll(summarizers)) {
+                summaries.add(join(task));
+            }
+            // phase 2: chain the summaries to find the state at the start of every chunk
+            int[] startState = new int[numChunks];
+            int[] startIndent = new int[numChunks];
+            int state = OUTSIDE;
+            int indentLevel = 0;
+            for (int i = 0; i < numChunks; i++) {
+                startState[i] = state;
+                startIndent[i] = indentLevel;
+                Summary summary = summaries.get(i);
+                indentLevel += summary.indentDelta[state];
+                state = summary.endState[state];
+            }
+            // phase 3: format the chunks in parallel, write the results in order
+            OutputStream sink = new ChannelOutputStream(outChannel, bufferCapacity);
+            int maxInFlight = Math.max(2, pool.getParallelism() * 2);
+            Deque<ForkJoinTask<Formatted>> inFlight = new ArrayDeque<>();
+            JsonValidator validator = formatter.isStrict() ? new JsonValidator() : null;
+            int numLines = 0;
+            int next = 0;
+            int written = 0;
+            while (next < numChunks || !inFlight.isEmpty()) {
+                while (next < numChunks && inFlight.size() < maxInFlight) {
+                    long position = (long) next * chunkSize;
+                    int length = (int) Math.min(chunkSize, size - position);
+                    int chunkState = startState[next];
+                    int chunkIndent = startIndent[next];
+                    inFlight.addLast(pool.submit(() ->
+                            format(inChannel, position, length, chunkIndent, chunkState)));
+                    next++;
+                }
+                Formatted formatted = join(inFlight.removeFirst());
+                if (validator != null) {
+                    long position = (long) written * chunkSize;
+                    validate(inChannel, position, (int) Math.min(chunkSize, size - position), validator);
+                }
+                formatted.bytes.writeTo(sink);
+                numLines += formatted.numLines;
+                written++;
+            }
+            sink.flush();
+            if (validator != null) {
+                validator.finish();
+            }
+            return numLines;
+        }
+    }
+
+    /**
+     * Scan a chunk from each of the 3 quoting states at once.
+     * Once two of the speculative state machines arrive at the same quoting state
+     * at the same position, they will go the same way; the later one stops scanning
+     * and follows the earlier one.
+     */
+    private Summary summarize(FileChannel channel, long position, int length) throws IOException {
+        MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        byte[] buffer = new byte[bufferCapacity];
+        int[] state = { OUTSIDE, INSIDE, ESCAPED };
+        int[] delta = new int[3];
+        int[] follows = { -1, -1, -1 };
+        int[] deltaAtMerge = new int[3];
+        while (window.hasRemaining()) {
+            int numBytes = Math.min(window.remaining(), buffer.length);
+            window.get(buffer, 0, numBytes);
+            for (int m = 0; m < 3; m++) {
+                if (follows[m] < 0) {
+                    long result = scan(buffer, numBytes, state[m]);
+                    state[m] = (int) (result >>> 32);
+                    delta[m] += (int) result;
+                }
+            }
+            for (int m = 1; m < 3; m++) {
+                for (int k = 0; k < m && follows[m] < 0; k++) {
+                    if (follows[k] < 0 && state[k] == state[m]) {
+                        follows[m] = k;
+                        deltaAtMerge[m] = delta[k];
+                    }
+                }
+            }
+        }
+        Summary summary = new Summary();
+        for (int m = 0; m < 3; m++) {
+            int k = follows[m];
+            if (k < 0) {
+                summary.endState[m] = state[m];
+                summary.indentDelta[m] = delta[m];
+            } else {
+                // k < m, so the summary of k has been settled already
+                summary.endState[m] = summary.endState[k];
+                summary.indentDelta[m] = delta[m] + summary.indentDelta[k] - deltaAtMerge[m];
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * Run the quoting part of the state machine without producing any output.
+     *
+     * @return the quoting state at the end in the upper 32 bits,
+     * the net change of the indentLevel in the lower 32 bits
+     */
+    private static long scan(byte[] buffer, int length, int state) {
+        int delta = 0;
+        int i = 0;
+        while (i < length) {
+            if (state == ESCAPED) {
+                state = INSIDE;
+                i++;
+                continue;
+            }
+            // skip the bytes which do not change the state
+            i = (state == INSIDE)
+                    ? SwarScanner.indexOfQuoteOrBackslash(buffer, i, length)
+                    : SwarScanner.indexOfStructural(buffer, i, length);
+            if (i == length) {
+                break;
+            }
+            byte ch = buffer[i++];
+            if (state == INSIDE) {
+                state = (ch == '\\') ? ESCAPED : OUTSIDE;
+                continue;
+            }
+            switch (ch) {
+                case '"':
+                    state = INSIDE;
+                    break;
+                case '{':
+                case '[':
+                    delta++;
+                    break;
+                case '}':
+                case ']':
+                    delta--;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return ((long) state << 32) | (delta & 0xFFFFFFFFL);
+    }
+
+    private Formatted format(FileChannel channel, long position, int length,
+                             int indentLevel, int state) throws IOException {
+        MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        ByteFormatter byteFormatter = formatter.newByteFormatter(false);
+        byteFormatter.setState(indentLevel, state != OUTSIDE, state == ESCAPED);
+        byte[] buffer = new byte[bufferCapacity];
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(length + length / 2);
+        while (window.hasRemaining()) {
+            int numBytes = Math.min(window.remaining(), buffer.length);
+            window.get(buffer, 0, numBytes);
+            byteFormatter.format(buffer, 0, numBytes, bytes);
+        }
+        byteFormatter.drainTo(bytes);
+        return new Formatted(bytes, byteFormatter.getNumLines());
+    }
+
+    private void validate(FileChannel channel, long position, int length,
+                          JsonValidator validator) throws IOException {
+        MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        byte[] buffer = new byte[bufferCapacity];
+        while (window.hasRemaining()) {
+            int numBytes = Math.min(window.remaining(), buffer.length);
+            window.get(buffer, 0, numBytes);
+            validator.validate(buffer, 0, numBytes);
+        }
+    }
+
+    private <T> List<ForkJoinTask<T>> invokeAll(List<Callable<T>> tasks) {
+        List<ForkJoinTask<T>> submitted = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            submitted.add(pool.submit(task));
+        }
+        return submitted;
+    }
+
+    static <T> T join(ForkJoinTask<T> task) throws IOException {
+        try {
+            return task.join();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (RuntimeException e) {
+            // a task joined from another thread may come wrapped twice
+            for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * what a chunk does to the state, for each of the 3 possible quoting states at its start
+     */
+    private static final class Summary {
+        final int[] endState = new int[3];
+        final int[] indentDelta = new int[3];
+    }
+
+    private static final class Formatted {
+        final ByteArrayOutputStream bytes;
+        final int numLines;
+        Formatted(ByteArrayOutputStream bytes, int numLines) {
+            this.bytes = bytes;
+            this.numLines = numLines;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.kazurayam.jsonflyweight;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Keeps track of where in a JSON document a streaming scanner is,
+ * so that the location can be told as a JSON path like {@code $.log.entries[3].request}.
+ *
+ * The nesting stack is bit-packed: one bit per level tells an object from an array.
+ * Besides, every level holds the index of the current element (or member) and,
+ * for an object, the name of the current member. The names are stacked up in a single
+ * byte[] as UTF-8, in their escaped form as they appear in the JSON; a name longer than
+ * {@value #MAX_KEY_LENGTH} bytes is cut off. The memory grows with the depth of
+ * the nesting only, never with the size of the document.
+ *
+ * Level 0 is the root; the containers are at the levels 1 and deeper.
+ */
+final class PathTracker {
+
+    static final int MAX_KEY_LENGTH = 256;
+
+    private long[] objectBits = new long[1];
+    private int[] index = new int[16];
+    private int[] keyEnd = new int[16];
+    private byte[] keys = new byte[256];
+    private int depth = 0;
+    private int highSurrogate = 0;
+
+    /**
+     * Enter an object or an array
+     */
+    void push(boolean object) {
+        depth++;
+        if (depth == index.length) {
+            index = Arrays.copyOf(index, depth * 2);
+            keyEnd = Arrays.copyOf(keyEnd, depth * 2);
+        }
+        if ((depth >>> 6) == objectBits.length) {
+            objectBits = Arrays.copyOf(objectBits, objectBits.length * 2);
+        }
+        if (object) {
+            objectBits[depth >>> 6] |= 1L << (depth & 63);
+        } else {
+            objectBits[depth >>> 6] &= ~(1L << (depth & 63));
+        }
+        // an object has no member until the first key comes
+        index[depth] = object ? -1 : 0;
+        keyEnd[depth] = keyEnd[depth - 1];
+    }
+
+    /**
+     * Leave the current object or array
+     */
+    void pop() {
+        depth--;
+    }
+
+    /**
+     * @return the nesting level; 0 at the root
+     */
+    int depth() {
+        return depth;
+    }
+
+    /**
+     * @return true if the current container is an object, false if an array or at the root
+     */
+    boolean isObject() {
+        return depth > 0 && (objectBits[depth >>> 6] & (1L << (depth & 63))) != 0;
+    }
+
+    /**
+     * @return index of the current element of the array, or of the current member of the object
+     */
+    int index() {
+        return index[depth];
+    }
+
+    /**
+     * Move to the next element of the current array
+     */
+    void nextElement() {
+        index[depth]++;
+    }
+
+    /**
+     * Move to the next member of the current object; the name follows by appendKey
+     */
+    void startKey() {
+        index[depth]++;
+        keyEnd[depth] = keyEnd[depth - 1];
+        highSurrogate = 0;
+    }
+
+    /**
+     * Append the bytes of UTF-8 to the name of the current member
+     */
+    void appendKey(byte[] b, int from, int to) {
+        int start = keyEnd[depth - 1];
+        int n = Math.min(to - from, MAX_KEY_LENGTH - (keyEnd[depth] - start));
+        if (n <= 0) {
+            return;
+        }
+        ensureKeyCapacity(n);
+        System.arraycopy(b, from, keys, keyEnd[depth], n);
+        keyEnd[depth] += n;
+    }
+
+    void appendKey(byte b) {
+        if (keyEnd[depth] - keyEnd[depth - 1] < MAX_KEY_LENGTH) {
+            ensureKeyCapacity(1);
+            keys[keyEnd[depth]++] = b;
+        }
+    }
+
+    /**
+     * Append a char to the name of the current member, encoding it into UTF-8
+     */
+    void appendKey(char c) {
+        if (c < 0x80) {
+            appendKey((byte) c);
+        } else if (c < 0x800) {
+            appendKey((byte) (0xC0 | (c >> 6)));
+            appendKey((byte) (0x80 | (c & 0x3F)));
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c) && highSurrogate != 0) {
+            int cp = Character.toCodePoint((char) highSurrogate, c);
+            highSurrogate = 0;
+            appendKey((byte) (0xF0 | (cp >> 18)));
+            appendKey((byte) (0x80 | ((cp >> 12) & 0x3F)));
+            appendKey((byte) (0x80 | ((cp >> 6) & 0x3F)));
+            appendKey((byte) (0x80 | (cp & 0x3F)));
+        } else {
+            appendKey((byte) (0xE0 | (c >> 12)));
+            appendKey((byte) (0x80 | ((c >> 6) & 0x3F)));
+            appendKey((byte) (0x80 | (c & 0x3F)));
+        }
+    }
+
+    /**
+     * @return the name of the current member of the object in the given level
+     */
+    String key(int level) {
+        int start = keyEnd[level - 1];
+        return new String(keys, start, keyEnd[level] - start, StandardCharsets.UTF_8);
+    }
+
+    void reset() {
+        depth = 0;
+        highSurrogate = 0;
+    }
+
+    /**
+     * Write the levels down to the current one, for a checkpoint
+     */
+    void saveState(DataOutput out) throws IOException {
+        out.writeInt(depth);
+        out.writeInt(highSurrogate);
+        for (int w = 0; w <= (depth >>> 6); w++) {
+            out.writeLong(objectBits[w]);
+        }
+        for (int level = 0; level <= depth; level++) {
+            out.writeInt(index[level]);
+            out.writeInt(keyEnd[level]);
+        }
+        out.writeInt(keyEnd[depth]);
+        out.write(keys, 0, keyEnd[depth]);
+    }
+
+    void restoreState(DataInput in) throws IOException {
+        depth = in.readInt();
+        highSurrogate = in.readInt();
+        if (depth < 0) {
+            throw new IOException("malformed state: depth " + depth);
+        }
+        objectBits = new long[Math.max(objectBits.length, (depth >>> 6) + 1)];
+        for (int w = 0; w <= (depth >>> 6); w++) {
+            objectBits[w] = in.readLong();
+        }
+        index = new int[Math.max(index.length, depth + 1)];
+        keyEnd = new int[index.length];
+        for (int level = 0; level <= depth; level++) {
+            index[level] = in.readInt();
+            keyEnd[level] = in.readInt();
+        }
+        int keysLength = in.readInt();
+        keys = new byte[Math.max(keys.length, keysLength)];
+        in.readFully(keys, 0, keysLength);
+    }
+
+    /**
+     * @return the JSON path of the current location, e.g. {@code $.log.entries[3].request}
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("$");
+        for (int level = 1; level <= depth; level++) {
+            boolean object = (objectBits[level >>> 6] & (1L << (level & 63))) != 0;
+            if (!object) {
+                sb.append('[').append(index[level]).append(']');
+            } else if (index[level] >= 0) {
+                String key = key(level);
+                if (isIdentifier(key)) {
+                    sb.append('.').append(key);
+                } else {
+                    sb.append("['").append(key.replace("'", "\\'")).append("']");
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isIdentifier(String key) {
+        if (key.isEmpty() || !Character.isJavaIdentifierStart(key.charAt(0))) {
+            return false;
+        }
+        for (int i = 1; i < key.length(); i++) {
+            if (!Character.isJavaIdentifierPart(key.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void ensureKeyCapacity(int n) {
+        if (keyEnd[depth] + n > keys.length) {
+            keys = Arrays.copyOf(keys, Math.max(keys.length * 2, keyEnd[depth] + n));
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.kazurayam.jsonflyweight;
+
+/**
+ * Told of every call of prettyPrint made through a Formatter built with
+ * {@link JsonFlyweight.Formatter.Builder#listener(PrettyPrintListener)}, when the call has completed.
+ *
+ * The listener is called on the thread which pretty-printed; a listener of a Formatter
+ * shared by many threads, or used by {@link JsonFlyweight.Formatter#prettyPrintAll}, must be thread-safe.
+ */
+@FunctionalInterface
+public interface PrettyPrintListener {
+
+    /**
+     * @param stats what the call did and where its time went
+     */
+    void prettyPrinted(PrettyPrintStats stats);
+}
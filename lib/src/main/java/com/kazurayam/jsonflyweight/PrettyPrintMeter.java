@@ -0,0 +1,300 @@
+package com.kazurayam.jsonflyweight;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Measures a call of prettyPrint: the sizes, and the time blocked in reading and in writing.
+ * The reads are timed by the caller around every read of a chunk; the writes by wrapping the sink.
+ *
+ * A meter is started only when the Formatter has a {@link PrettyPrintListener} or when a JFR recording
+ * has the event {@value #EVENT_NAME} enabled; otherwise {@link #start} returns null
+ * and the call runs as if there were no meter at all.
+ * The event {@value #CHUNK_EVENT_NAME}, one per chunk read, is off unless enabled in the JFR settings.
+ *
+ * The event classes are touched only after the Flight Recorder has been started: loading them
+ * registers them with JFR, which costs a cold start of the JVM more than formatting a small JSON does.
+ */
+final class PrettyPrintMeter {
+
+    static final String EVENT_NAME = "com.kazurayam.jsonflyweight.PrettyPrint";
+    static final String CHUNK_EVENT_NAME = "com.kazurayam.jsonflyweight.PrettyPrintChunk";
+
+    private final PrettyPrintListener listener;
+    private final Events events;
+    private final String source;
+    private final boolean chars;
+    private final long start;
+
+    private long readNanos;
+    private long writeNanos;
+    private long inputSize;
+    private long outputSize;
+
+    private PrettyPrintMeter(PrettyPrintListener listener, Events events, String source, boolean chars) {
+        this.listener = listener;
+        this.events = events;
+        this.source = source;
+        this.chars = chars;
+        if (events != null) {
+            events.begin();
+        }
+        this.start = System.nanoTime();
+    }
+
+    /**
+     * @param listener the listener of the Formatter, or null
+     * @param source path of the ugly JSON, or null for a stream
+     * @param chars true if the call reads chars
+     * @return a meter, or null if nobody would look at the measures
+     */
+    static PrettyPrintMeter start(PrettyPrintListener listener, String source, boolean chars) {
+        Events events = FlightRecorder.isInitialized() ? Events.ifEnabled() : null;
+        if (listener == null && events == null) {
+            return null;
+        }
+        return new PrettyPrintMeter(listener, events, source, chars);
+    }
+
+    /**
+     * Call right before reading a chunk
+     *
+     * @return the time to give to {@link #read(long, int)}
+     */
+    long beginChunk() {
+        if (events != null) {
+            events.beginChunk();
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Call right after reading a chunk
+     *
+     * @param since the time {@link #beginChunk()} returned
+     * @param n number of bytes or chars read; -1 at the end of the input
+     */
+    void read(long since, int n) {
+        readNanos += System.nanoTime() - since;
+        if (events != null) {
+            events.read(inputSize, n);
+        }
+        if (n >= 0) {
+            inputSize += n;
+        }
+    }
+
+    /**
+     * Call after formatting a chunk
+     */
+    void endChunk() {
+        if (events != null) {
+            events.endChunk();
+        }
+    }
+
+    /**
+     * @return the sink whose writes are timed and counted
+     */
+    OutputStream wrap(OutputStream sink) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                long t = System.nanoTime();
+                sink.write(b);
+                writeNanos += System.nanoTime() - t;
+                outputSize++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                long t = System.nanoTime();
+                sink.write(b, off, len);
+                writeNanos += System.nanoTime() - t;
+                outputSize += len;
+            }
+
+            @Override
+            public void flush() throws IOException {
+                long t = System.nanoTime();
+                sink.flush();
+                writeNanos += System.nanoTime() - t;
+            }
+        };
+    }
+
+    /**
+     * @return the sink whose writes are timed and counted
+     */
+    Writer wrap(Writer sink) {
+        return new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                long t = System.nanoTime();
+                sink.write(cbuf, off, len);
+                writeNanos += System.nanoTime() - t;
+                outputSize += len;
+            }
+
+            @Override
+            public void flush() throws IOException {
+                long t = System.nanoTime();
+                sink.flush();
+                writeNanos += System.nanoTime() - t;
+            }
+
+            @Override
+            public void close() throws IOException {
+                sink.close();
+            }
+        };
+    }
+
+    /**
+     * Call when the call has completed: commit the JFR event and tell the listener
+     */
+    void finish(int numLines, int maxDepth, long longestString) {
+        long formatNanos = Math.max(0, System.nanoTime() - start - readNanos - writeNanos);
+        if (events != null) {
+            events.commit(source, inputSize, outputSize, chars, numLines, maxDepth, longestString,
+                    readNanos, formatNanos, writeNanos);
+        }
+        if (listener != null) {
+            listener.prettyPrinted(new PrettyPrintStats(source, chars, inputSize, outputSize, numLines,
+                    maxDepth, longestString, readNanos, formatNanos, writeNanos));
+        }
+    }
+
+    /**
+     * The JFR events of a meter, apart so that the event classes are loaded only when they are used
+     */
+    private static final class Events {
+        private final PrettyPrintEvent event;
+        private final boolean chunkEvents;
+        private PrettyPrintChunkEvent chunk;
+
+        private Events(PrettyPrintEvent event) {
+            this.event = event;
+            this.chunkEvents = new PrettyPrintChunkEvent().isEnabled();
+        }
+
+        /**
+         * @return the events of a call, or null if the event {@value PrettyPrintMeter#EVENT_NAME} is not enabled
+         */
+        static Events ifEnabled() {
+            PrettyPrintEvent event = new PrettyPrintEvent();
+            return event.isEnabled() ? new Events(event) : null;
+        }
+
+        void begin() {
+            event.begin();
+        }
+
+        void beginChunk() {
+            if (chunkEvents) {
+                chunk = new PrettyPrintChunkEvent();
+                chunk.begin();
+            }
+        }
+
+        void read(long offset, int n) {
+            if (n < 0) {
+                chunk = null;
+            } else if (chunk != null) {
+                chunk.offset = offset;
+                chunk.size = n;
+            }
+        }
+
+        void endChunk() {
+            if (chunk != null) {
+                chunk.commit();
+                chunk = null;
+            }
+        }
+
+        void commit(String source, long inputSize, long outputSize, boolean chars, int numLines, int maxDepth,
+                    long longestString, long readNanos, long formatNanos, long writeNanos) {
+            if (event.shouldCommit()) {
+                event.source = source;
+                event.inputSize = inputSize;
+                event.outputSize = outputSize;
+                event.chars = chars;
+                event.numLines = numLines;
+                event.maxDepth = maxDepth;
+                event.longestString = longestString;
+                event.readTime = readNanos;
+                event.formatTime = formatNanos;
+                event.writeTime = writeNanos;
+                event.commit();
+            }
+        }
+    }
+
+    @Name(EVENT_NAME)
+    @Label("Pretty Print")
+    @Category("JsonFlyweight")
+    @Description("A call of prettyPrint")
+    static final class PrettyPrintEvent extends Event {
+        @Label("Source")
+        String source;
+
+        @Label("Input Size")
+        @Description("in bytes, or in chars if Chars is true")
+        @DataAmount
+        long inputSize;
+
+        @Label("Output Size")
+        @DataAmount
+        long outputSize;
+
+        @Label("Chars")
+        boolean chars;
+
+        @Label("Lines")
+        int numLines;
+
+        @Label("Max Depth")
+        int maxDepth;
+
+        @Label("Longest String")
+        long longestString;
+
+        @Label("Read Time")
+        @Timespan
+        long readTime;
+
+        @Label("Format Time")
+        @Timespan
+        long formatTime;
+
+        @Label("Write Time")
+        @Timespan
+        long writeTime;
+    }
+
+    @Name(CHUNK_EVENT_NAME)
+    @Label("Pretty Print Chunk")
+    @Category("JsonFlyweight")
+    @Description("A chunk of the input read and formatted")
+    @Enabled(false)
+    static final class PrettyPrintChunkEvent extends Event {
+        @Label("Offset")
+        long offset;
+
+        @Label("Size")
+        @DataAmount
+        int size;
+    }
+}
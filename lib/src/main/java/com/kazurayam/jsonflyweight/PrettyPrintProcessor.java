@@ -0,0 +1,247 @@
+package com.kazurayam.jsonflyweight;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Flow.Processor} which pretty-prints a JSON in UTF-8 flowing through it
+ * as a sequence of ByteBuffer fragments.
+ * Subscribe it to a Publisher of the ugly JSON, and subscribe a Subscriber to it;
+ * the Subscriber receives the pretty printed JSON as a sequence of read-only ByteBuffers.
+ *
+ * The demand of the Subscriber is respected: the next fragment is requested from
+ * the upstream only when the Subscriber has requested more and the output of
+ * the previous fragment has been delivered. No call blocks, and no thread is created.
+ * A PrettyPrintProcessor accepts only one Subscriber and can be used only once.
+ * With a strict Formatter, a malformed input cancels the upstream and is signalled
+ * to the Subscriber as a {@link JsonFlyweightException}.
+ *
+ * The ByteBuffers delivered are read-only slices of chunks of
+ * {@link JsonFlyweight.Formatter.Builder#bufferCapacity(int)} bytes, which are filled one after another,
+ * a slice per fragment of the input, and never reused.
+ * The Subscriber may so keep a ByteBuffer as long as it likes, and the processor allocates
+ * about as many bytes on the heap as it delivers, however small the fragments are.
+ *
+ * <pre>
+ * SubmissionPublisher&lt;ByteBuffer&gt; publisher = new SubmissionPublisher&lt;&gt;();
+ * PrettyPrintProcessor processor = new PrettyPrintProcessor();
+ * publisher.subscribe(processor);
+ * processor.subscribe(subscriber);
+ * </pre>
+ */
+public class PrettyPrintProcessor implements Flow.Processor<ByteBuffer, ByteBuffer> {
+
+    private final NonBlockingFormatter formatter;
+    private final int chunkSize;
+
+    /** the chunk being filled; the slices before its position have been queued */
+    private ByteBuffer chunk;
+    private int sliced;
+
+    private final Queue<ByteBuffer> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private volatile Flow.Subscription upstream;
+    private volatile Flow.Subscriber<? super ByteBuffer> downstream;
+    private volatile boolean upstreamRequested = false;
+    private volatile boolean upstreamDone = false;
+    private volatile Throwable error;
+    private volatile boolean cancelled = false;
+    private boolean terminated = false;
+
+    public PrettyPrintProcessor() {
+        this(new JsonFlyweight.Formatter.Builder().build());
+    }
+
+    /**
+     * @param formatter gives the layout
+     */
+    public PrettyPrintProcessor(JsonFlyweight.Formatter formatter) {
+        this.formatter = new NonBlockingFormatter(formatter);
+        this.chunkSize = formatter.getBufferCapacity();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        Objects.requireNonNull(subscriber);
+        synchronized (this) {
+            if (downstream != null) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override public void request(long n) {}
+                    @Override public void cancel() {}
+                });
+                subscriber.onError(new IllegalStateException("PrettyPrintProcessor accepts only one Subscriber"));
+                return;
+            }
+            downstream = subscriber;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    error = new IllegalArgumentException("non-positive request: " + n);
+                    upstreamDone = true;
+                    queue.clear();
+                    cancelUpstream();
+                } else {
+                    // saturate at Long.MAX_VALUE, which means unbounded
+                    demand.getAndAccumulate(n, (a, b) -> (a + b < 0) ? Long.MAX_VALUE : a + b);
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+                queue.clear();
+                cancelUpstream();
+            }
+        });
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        Objects.requireNonNull(subscription);
+        if (upstream != null || cancelled) {
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        drain();
+    }
+
+    @Override
+    public void onNext(ByteBuffer item) {
+        Objects.requireNonNull(item);
+        if (upstreamDone || cancelled) {
+            return;
+        }
+        ByteBuffer in = item.duplicate();
+        try {
+            do {
+                formatter.feed(in, chunk());
+                emit();
+            } while (in.hasRemaining() || formatter.hasPendingOutput());
+        } catch (JsonFlyweightException e) {
+            // deliver what has been formatted, then the error
+            emit();
+            cancelUpstream();
+            onError(e);
+            return;
+        }
+        upstreamRequested = false;
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        Objects.requireNonNull(throwable);
+        if (upstreamDone) {
+            return;
+        }
+        error = throwable;
+        upstreamDone = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        if (upstreamDone) {
+            return;
+        }
+        try {
+            formatter.finish();
+        } catch (JsonFlyweightException e) {
+            error = e;
+        }
+        boolean flushed;
+        do {
+            flushed = formatter.flush(chunk());
+            emit();
+        } while (!flushed);
+        upstreamDone = true;
+        drain();
+    }
+
+    /**
+     * @return number of lines in the pretty printed JSON so far
+     */
+    public int getNumLines() {
+        return formatter.getNumLines();
+    }
+
+    /**
+     * @return the chunk to fill next, positioned after the slices queued already
+     */
+    private ByteBuffer chunk() {
+        if (chunk == null || !chunk.hasRemaining()) {
+            chunk = ByteBuffer.allocate(chunkSize);
+        }
+        return chunk;
+    }
+
+    /**
+     * Queue a slice of the output filled into the chunk since the last slice, if any
+     */
+    private void emit() {
+        ByteBuffer filled = chunk.duplicate();
+        filled.flip();
+        filled.position(sliced);
+        if (filled.hasRemaining()) {
+            queue.offer(filled.slice().asReadOnlyBuffer());
+        }
+        sliced = chunk.hasRemaining() ? chunk.position() : 0;
+    }
+
+    private void cancelUpstream() {
+        Flow.Subscription s = upstream;
+        if (s != null) {
+            s.cancel();
+        }
+    }
+
+    /**
+     * Deliver the queued output as far as the demand allows, then request the next fragment
+     * or signal the termination. Only one thread runs the loop at a time; a thread which
+     * finds the loop running leaves the work to it.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            Flow.Subscriber<? super ByteBuffer> subscriber = downstream;
+            if (subscriber != null && !cancelled && !terminated) {
+                while (demand.get() > 0 && !queue.isEmpty() && !cancelled) {
+                    ByteBuffer b = queue.poll();
+                    if (demand.get() != Long.MAX_VALUE) {
+                        demand.decrementAndGet();
+                    }
+                    subscriber.onNext(b);
+                }
+                if (queue.isEmpty() && !cancelled) {
+                    if (upstreamDone) {
+                        terminated = true;
+                        if (error != null) {
+                            subscriber.onError(error);
+                        } else {
+                            subscriber.onComplete();
+                        }
+                    } else if (demand.get() > 0 && !upstreamRequested && upstream != null) {
+                        upstreamRequested = true;
+                        upstream.request(1);
+                    }
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+}
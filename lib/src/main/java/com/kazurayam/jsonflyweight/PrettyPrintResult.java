@@ -0,0 +1,95 @@
+package com.kazurayam.jsonflyweight;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * The outcome of pretty-printing one file of a batch,
+ * as returned by {@link JsonFlyweight#prettyPrintAll(java.util.Collection, Path)}.
+ * A failure of one file does not stop the others; it is recorded here.
+ */
+public final class PrettyPrintResult {
+
+    private final Path input;
+    private final Path output;
+    private final int numLines;
+    private final long inputBytes;
+    private final long outputBytes;
+    private final Duration elapsed;
+    private final Exception failure;
+
+    PrettyPrintResult(Path input, Path output, int numLines, long inputBytes, long outputBytes,
+                      Duration elapsed, Exception failure) {
+        this.input = input;
+        this.output = output;
+        this.numLines = numLines;
+        this.inputBytes = inputBytes;
+        this.outputBytes = outputBytes;
+        this.elapsed = elapsed;
+        this.failure = failure;
+    }
+
+    /**
+     * @return path of the ugly JSON file
+     */
+    public Path getInput() {
+        return input;
+    }
+
+    /**
+     * @return path of the pretty printed JSON file
+     */
+    public Path getOutput() {
+        return output;
+    }
+
+    /**
+     * @return number of lines in the pretty printed JSON, 0 if failed
+     */
+    public int getNumLines() {
+        return numLines;
+    }
+
+    /**
+     * @return size of the input file in bytes
+     */
+    public long getInputBytes() {
+        return inputBytes;
+    }
+
+    /**
+     * @return size of the output file in bytes, 0 if failed
+     */
+    public long getOutputBytes() {
+        return outputBytes;
+    }
+
+    /**
+     * @return time taken to pretty-print the file
+     */
+    public Duration getElapsed() {
+        return elapsed;
+    }
+
+    /**
+     * @return true if the file was pretty-printed
+     */
+    public boolean isSuccess() {
+        return failure == null;
+    }
+
+    /**
+     * @return the exception which stopped the file, such as a {@link JsonFlyweightException}
+     *         in the strict mode, or null if succeeded
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+
+    @Override
+    public String toString() {
+        return input + " -> " + output + (failure == null
+                ? ": " + numLines + " lines, " + inputBytes + " -> " + outputBytes + " bytes in " + elapsed.toMillis() + " ms"
+                : ": failed, " + failure);
+    }
+}
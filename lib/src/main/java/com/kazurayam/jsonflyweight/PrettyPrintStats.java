@@ -0,0 +1,141 @@
+package com.kazurayam.jsonflyweight;
+
+import java.time.Duration;
+
+/**
+ * What a call of prettyPrint did and where its time went, told to a {@link PrettyPrintListener}.
+ *
+ * The elapsed time is split into the time blocked in reading the input, the time blocked
+ * in writing the output, and the rest, which is the formatting (and the checking in the strict mode).
+ * The sizes are in bytes, or in chars when a Reader and a Writer were given.
+ */
+public final class PrettyPrintStats {
+
+    private final String source;
+    private final boolean chars;
+    private final long inputSize;
+    private final long outputSize;
+    private final int numLines;
+    private final int maxDepth;
+    private final long longestString;
+    private final long readNanos;
+    private final long formatNanos;
+    private final long writeNanos;
+
+    PrettyPrintStats(String source, boolean chars, long inputSize, long outputSize, int numLines,
+                     int maxDepth, long longestString, long readNanos, long formatNanos, long writeNanos) {
+        this.source = source;
+        this.chars = chars;
+        this.inputSize = inputSize;
+        this.outputSize = outputSize;
+        this.numLines = numLines;
+        this.maxDepth = maxDepth;
+        this.longestString = longestString;
+        this.readNanos = readNanos;
+        this.formatNanos = formatNanos;
+        this.writeNanos = writeNanos;
+    }
+
+    /**
+     * @return path of the ugly JSON file, or null if it was a stream
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return true if the sizes are in chars, false if in bytes
+     */
+    public boolean isChars() {
+        return chars;
+    }
+
+    /**
+     * @return size of the ugly JSON
+     */
+    public long getInputSize() {
+        return inputSize;
+    }
+
+    /**
+     * @return size of the pretty printed JSON
+     */
+    public long getOutputSize() {
+        return outputSize;
+    }
+
+    /**
+     * @return number of lines in the pretty printed JSON
+     */
+    public int getNumLines() {
+        return numLines;
+    }
+
+    /**
+     * @return the deepest nesting of objects and arrays
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return length of the longest string in the pretty printed JSON, without the quotes,
+     *         as it is written with its escape sequences
+     */
+    public long getLongestString() {
+        return longestString;
+    }
+
+    /**
+     * @return time blocked in reading the ugly JSON
+     */
+    public Duration getReadTime() {
+        return Duration.ofNanos(readNanos);
+    }
+
+    /**
+     * @return time spent in formatting
+     */
+    public Duration getFormatTime() {
+        return Duration.ofNanos(formatNanos);
+    }
+
+    /**
+     * @return time blocked in writing the pretty printed JSON
+     */
+    public Duration getWriteTime() {
+        return Duration.ofNanos(writeNanos);
+    }
+
+    /**
+     * @return time taken by the whole call
+     */
+    public Duration getElapsed() {
+        return Duration.ofNanos(readNanos + formatNanos + writeNanos);
+    }
+
+    /**
+     * @return the input consumed per second of the whole call, in MB (10^6 bytes or chars)
+     */
+    public double getThroughput() {
+        long nanos = readNanos + formatNanos + writeNanos;
+        return nanos == 0 ? 0 : inputSize * 1000.0 / nanos;
+    }
+
+    /**
+     * @return the input consumed per second of formatting alone, in MB (10^6 bytes or chars)
+     */
+    public double getFormatThroughput() {
+        return formatNanos == 0 ? 0 : inputSize * 1000.0 / formatNanos;
+    }
+
+    @Override
+    public String toString() {
+        String unit = chars ? " chars" : " bytes";
+        return (source != null ? source + ": " : "") + inputSize + " -> " + outputSize + unit + ", "
+                + numLines + " lines, depth " + maxDepth + ", longest string " + longestString + unit
+                + ", read " + readNanos / 1_000_000 + " ms, format " + formatNanos / 1_000_000
+                + " ms, write " + writeNanos / 1_000_000 + " ms, "
+                + String.format("%.1f", getThroughput()) + " MB/s";
+    }
+}
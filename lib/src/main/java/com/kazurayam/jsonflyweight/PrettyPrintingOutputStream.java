@@ -0,0 +1,101 @@
+package com.kazurayam.jsonflyweight;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+
+/**
+ * An OutputStream which pretty-prints the JSON in UTF-8 written into it on the fly,
+ * and passes the result to the underlying OutputStream.
+ * The bytes are scanned as they are, without decoding them into characters,
+ * so a write may end in the middle of a multi-byte UTF-8 sequence.
+ *
+ * The state of the formatter is kept between the calls to the write methods,
+ * so the JSON can be written in fragments of any size.
+ * No copy of the document is made; the stream holds a buffer of 32 KB and no more.
+ *
+ * <pre>
+ * try (OutputStream os = new PrettyPrintingOutputStream(Files.newOutputStream(log))) {
+ *     objectMapper.writeValue(os, entity);
+ * }
+ * </pre>
+ */
+public class PrettyPrintingOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final ByteFormatter formatter;
+    private final byte[] singleByte = new byte[1];
+    private boolean closed = false;
+
+    /**
+     * @param out the OutputStream which receives the pretty printed JSON
+     */
+    public PrettyPrintingOutputStream(OutputStream out) {
+        this(out, new JsonFlyweight.Formatter.Builder().build());
+    }
+
+    /**
+     * @param out the OutputStream which receives the pretty printed JSON
+     * @param formatter gives the layout
+     */
+    public PrettyPrintingOutputStream(OutputStream out, JsonFlyweight.Formatter formatter) {
+        this.out = Objects.requireNonNull(out);
+        this.formatter = formatter.newByteFormatter();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        ensureOpen();
+        formatter.format(b, off, len, out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        singleByte[0] = (byte) b;
+        write(singleByte, 0, 1);
+    }
+
+    /**
+     * Pass the pretty printed JSON formatted so far to the underlying OutputStream, and flush it.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        formatter.drainTo(out);
+        out.flush();
+    }
+
+    /**
+     * Flush, then close the underlying OutputStream.
+     * With a strict Formatter, throws a {@link JsonFlyweightException} if the JSON is incomplete;
+     * the underlying OutputStream is closed all the same.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            formatter.drainTo(out);
+            out.flush();
+            formatter.finish();
+        } finally {
+            closed = true;
+            out.close();
+        }
+    }
+
+    /**
+     * @return number of lines in the pretty printed JSON so far
+     */
+    public int getNumLines() {
+        return formatter.getNumLines();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
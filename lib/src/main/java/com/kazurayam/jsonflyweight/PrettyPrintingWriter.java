@@ -0,0 +1,129 @@
+package com.kazurayam.jsonflyweight;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Objects;
+
+/**
+ * A Writer which pretty-prints the JSON written into it on the fly,
+ * and passes the result to the underlying Writer.
+ * This is useful when a JSON is produced incrementally, for example by a JSON generator
+ * or a string template; you do not have to finish the whole document before pretty-printing it.
+ *
+ * The state of the formatter is kept between the calls to the write methods,
+ * so the JSON can be written in fragments of any size.
+ * No copy of the document is made; the Writer holds a buffer of 32 KB and no more.
+ *
+ * <pre>
+ * try (Writer w = new PrettyPrintingWriter(response.getWriter())) {
+ *     generator.writeTo(w);
+ * }
+ * </pre>
+ */
+public class PrettyPrintingWriter extends Writer {
+
+    private final Writer out;
+    private final CharFormatter formatter;
+    private final char[] stringBuffer;
+    private boolean closed = false;
+
+    /**
+     * @param out the Writer which receives the pretty printed JSON
+     */
+    public PrettyPrintingWriter(Writer out) {
+        this(out, new JsonFlyweight.Formatter.Builder().build());
+    }
+
+    /**
+     * @param out the Writer which receives the pretty printed JSON
+     * @param formatter gives the layout
+     * @throws UnsupportedOperationException if the formatter projects or sorts the keys, which work on bytes only
+     */
+    public PrettyPrintingWriter(Writer out, JsonFlyweight.Formatter formatter) {
+        super(out);
+        this.out = Objects.requireNonNull(out);
+        this.formatter = formatter.newCharFormatter();
+        this.stringBuffer = new char[1024];
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, cbuf.length);
+        synchronized (lock) {
+            ensureOpen();
+            formatter.format(cbuf, off, len, out);
+        }
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        synchronized (lock) {
+            stringBuffer[0] = (char) c;
+            write(stringBuffer, 0, 1);
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, str.length());
+        synchronized (lock) {
+            // copy the String into the buffer piece by piece
+            while (len > 0) {
+                int n = Math.min(len, stringBuffer.length);
+                str.getChars(off, off + n, stringBuffer, 0);
+                write(stringBuffer, 0, n);
+                off += n;
+                len -= n;
+            }
+        }
+    }
+
+    /**
+     * Pass the pretty printed JSON formatted so far to the underlying Writer, and flush it.
+     */
+    @Override
+    public void flush() throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            formatter.drainTo(out);
+            out.flush();
+        }
+    }
+
+    /**
+     * Flush, then close the underlying Writer.
+     * With a strict Formatter, throws a {@link JsonFlyweightException} if the JSON is incomplete;
+     * the underlying Writer is closed all the same.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            try {
+                formatter.drainTo(out);
+                out.flush();
+                formatter.finish();
+            } finally {
+                closed = true;
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * @return number of lines in the pretty printed JSON so far
+     */
+    public int getNumLines() {
+        synchronized (lock) {
+            return formatter.getNumLines();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.kazurayam.jsonflyweight;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Finds the next interesting byte in a byte[] 8 bytes at a time
+ * using SIMD-within-a-register (SWAR) tricks on long words.
+ *
+ * A word is read in little-endian order, so the lowest byte of the word is the first byte
+ * in the array. For every byte of the word which matches, the expressions below set
+ * the top bit of that byte. They may also set bits in bytes above a matching byte
+ * (borrows propagate upward), but never below the first match; therefore the number of
+ * trailing zero bits of the mask tells the exact position of the first match.
+ */
+final class SwarScanner {
+
+    private static final VarHandle LONG =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    private static final long QUOTES = ONES * '"';
+    private static final long BACKSLASHES = ONES * '\\';
+    private static final long COMMAS = ONES * ',';
+    private static final long COLONS = ONES * ':';
+    private static final long LOWER_CASE = ONES * 0x20;
+    private static final long OPENS = ONES * '{';     // '[' | 0x20 == '{'
+    private static final long CLOSES = ONES * '}';    // ']' | 0x20 == '}'
+    private static final long SPACES = ONES * ' ';
+    private static final long SPACES_PLUS_ONE = ONES * (' ' + 1);
+    private static final long LINE_FEEDS = ONES * '\n';
+    private static final long ABOVE_NINE = ONES * (0x80 - ('9' + 1));
+    private static final long NOT_BELOW_ZERO = ONES * (0x80 - '0');
+
+    private SwarScanner() {}
+
+    /**
+     * @return index of the first '"' or '\' in the range, or {@code to} if there is none
+     */
+    static int indexOfQuoteOrBackslash(byte[] b, int from, int to) {
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            long word = (long) LONG.get(b, i);
+            long mask = zeros(word ^ QUOTES) | zeros(word ^ BACKSLASHES);
+            if (mask != 0) {
+                return i + (Long.numberOfTrailingZeros(mask) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            byte ch = b[i];
+            if (ch == '"' || ch == '\\') {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Find a byte which ends a run of plain characters in a string:
+     * '"', '\', and the control characters which a strict JSON does not allow unescaped.
+     *
+     * @return index of the first such byte in the range, or {@code to} if there is none
+     */
+    static int indexOfQuoteBackslashOrControl(byte[] b, int from, int to) {
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            long word = (long) LONG.get(b, i);
+            long mask = zeros(word ^ QUOTES) | zeros(word ^ BACKSLASHES) | lessThan(word, SPACES);
+            if (mask != 0) {
+                return i + (Long.numberOfTrailingZeros(mask) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            byte ch = b[i];
+            if (ch == '"' || ch == '\\' || (ch >= 0 && ch < ' ')) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Find a byte which the state machine has to look at when it is out of quotes:
+     * '"', '{', '}', '[', ']', ',', ':', and the space, tab and other control characters.
+     *
+     * @return index of the first structural byte in the range, or {@code to} if there is none
+     */
+    static int indexOfStructural(byte[] b, int from, int to) {
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            long word = (long) LONG.get(b, i);
+            long folded = word | LOWER_CASE;
+            long mask = zeros(word ^ QUOTES)
+                    | zeros(word ^ COMMAS)
+                    | zeros(word ^ COLONS)
+                    | zeros(folded ^ OPENS)
+                    | zeros(folded ^ CLOSES)
+                    | lessThan(word, SPACES_PLUS_ONE);
+            if (mask != 0) {
+                return i + (Long.numberOfTrailingZeros(mask) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            if (isStructural(b[i])) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Find the end of a run of digits, for the strict mode which checks the numbers.
+     * With the top bits cleared, adding 0x46 to a byte sets its top bit if it is above '9',
+     * and adding 0x50 leaves it clear if it is below '0'; neither carries into the next byte.
+     *
+     * @return index of the first byte in the range which is not '0' to '9', or {@code to} if there is none
+     */
+    static int indexOfNonDigit(byte[] b, int from, int to) {
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            long word = (long) LONG.get(b, i);
+            long low = word & ~HIGHS;
+            long mask = (word | (low + ABOVE_NINE) | ~(low + NOT_BELOW_ZERO)) & HIGHS;
+            if (mask != 0) {
+                return i + (Long.numberOfTrailingZeros(mask) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            if (b[i] < '0' || b[i] > '9') {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Find a byte which changes the nesting or the quoting: '"', '{', '}', '[' and ']'.
+     * Used to skip over a whole object or array.
+     *
+     * @return index of the first such byte in the range, or {@code to} if there is none
+     */
+    static int indexOfQuoteOrBracket(byte[] b, int from, int to) {
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            long word = (long) LONG.get(b, i);
+            long folded = word | LOWER_CASE;
+            long mask = zeros(word ^ QUOTES)
+                    | zeros(folded ^ OPENS)
+                    | zeros(folded ^ CLOSES);
+            if (mask != 0) {
+                return i + (Long.numberOfTrailingZeros(mask) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            byte ch = b[i];
+            if (ch == '"' || ch == '{' || ch == '}' || ch == '[' || ch == ']') {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Find a byte which changes the nesting or the quoting, or which may end a line of NDJSON:
+     * '"', '{', '}', '[', ']' and '\n'.
+     *
+     * @return index of the first such byte in the range, or {@code to} if there is none
+     */
+    static int indexOfQuoteBracketOrLineFeed(byte[] b, int from, int to) {
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            long word = (long) LONG.get(b, i);
+            long folded = word | LOWER_CASE;
+            long mask = zeros(word ^ QUOTES)
+                    | zeros(folded ^ OPENS)
+                    | zeros(folded ^ CLOSES)
+                    | zeros(word ^ LINE_FEEDS);
+            if (mask != 0) {
+                return i + (Long.numberOfTrailingZeros(mask) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            byte ch = b[i];
+            if (ch == '"' || ch == '{' || ch == '}' || ch == '[' || ch == ']' || ch == '\n') {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Count the characters of UTF-8 in the range, that is the bytes which are not
+     * continuation bytes (10xxxxxx). A continuation byte has the top bit set and the next bit clear;
+     * shifting the word left by 1 brings the next bit of every byte under its top bit.
+     *
+     * @return number of the bytes in the range which start a character
+     */
+    static int countCodePoints(byte[] b, int from, int to) {
+        int count = to - from;
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            long word = (long) LONG.get(b, i);
+            count -= Long.bitCount(word & ~(word << 1) & HIGHS);
+        }
+        for (; i < to; i++) {
+            if ((b[i] & 0xC0) == 0x80) {
+                count--;
+            }
+        }
+        return count;
+    }
+
+    static boolean isStructural(byte ch) {
+        switch (ch) {
+            case '"':
+            case '{':
+            case '}':
+            case '[':
+            case ']':
+            case ',':
+            case ':':
+                return true;
+            default:
+                // space, tab, CR, LF and other control characters; not the bytes >= 0x80
+                return ch >= 0 && ch <= ' ';
+        }
+    }
+
+    /**
+     * sets the top bit of the bytes which are 0x00
+     */
+    private static long zeros(long x) {
+        return (x - ONES) & ~x & HIGHS;
+    }
+
+    /**
+     * sets the top bit of the bytes which are less than the byte repeated in n,
+     * which must be 0x80 or less; e.g. 0x21 for space and control characters.
+     * The bytes of 0x80 or greater are excluded by {@code ~x}.
+     */
+    private static long lessThan(long x, long n) {
+        return (x - n) & ~x & HIGHS;
+    }
+}
@@ -1,6 +1,9 @@
+import com.fasterxml.jackson.databind.JsonNode
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.google.gson.Gson
 import com.google.gson.GsonBuilder
+import com.google.gson.JsonElement
+import com.google.gson.JsonParser
 import com.kazurayam.jsonflyweight.JsonFlyweight;
 import com.kazurayam.timekeeper.Measurement;
 import com.kazurayam.timekeeper.ReportOptions;
@@ -20,10 +23,13 @@ import groovy.json.JsonOutput;
  * This test examines 4 pretty-printers :
  * - Gson
  * - Jackson Databind
- * - FlyPrettyPrinter
+ * - JsonFlyweight, both the byte-oriented InputStream/OutputStream path
+ *   and the character-oriented Reader/Writer path, and the parallel mode
  * - Groovy's JsonOutput
  *
  * This test measures how long each pretty-printers take to finish their job.
+ * This is a single-shot timing; see the jmh subproject for the benchmarks
+ * with warm-up, throughput in MB/s and allocation rate.
  */
 class PerformanceMeasurement {
 
@@ -53,7 +59,8 @@ class PerformanceMeasurement {
         m1.before(Collections.singletonMap("Case", "Gson"))
         Gson gson = new GsonBuilder().setPrettyPrinting().create();
         String source = Files.readString(getFixtureHAR())
-        String pp = gson.toJson(source)                  // this runs fine
+        JsonElement tree = JsonParser.parseString(source)
+        String pp = gson.toJson(tree)
         Path outFile = too.cleanMethodOutputDirectory("testGson")
                 .resolve("flyweight.json")
         Files.writeString(outFile, pp)
@@ -64,8 +71,8 @@ class PerformanceMeasurement {
     void testJackson() {
         m1.before(["Case": "Jackson Databind"])
         ObjectMapper mapper = new ObjectMapper()
-        Object source = Files.readString(getFixtureHAR())
-        String pp = mapper.writerWithDefaultPrettyPrinter().writeValueAsString(source)
+        JsonNode tree = mapper.readTree(Files.readString(getFixtureHAR()))
+        String pp = mapper.writerWithDefaultPrettyPrinter().writeValueAsString(tree)
         Path outFile = too.cleanMethodOutputDirectory("testJackson")
                 .resolve("flyweight.json")
         Files.writeString(outFile, pp)
@@ -83,6 +90,26 @@ class PerformanceMeasurement {
         m1.after()
     }
 
+    @Test
+    void testJsonFlyweightReaderWriter() throws IOException {
+        m1.before(Collections.singletonMap("Case", "JsonFlyweight Reader/Writer"))
+        Reader reader = Files.newBufferedReader(getFixtureHAR())
+        Path outFile = too.cleanMethodOutputDirectory("testJsonFlyweightReaderWriter")
+                .resolve("flyweight.json")
+        Writer writer = Files.newBufferedWriter(outFile)
+        int lines = JsonFlyweight.prettyPrint(reader, writer)
+        m1.after()
+    }
+
+    @Test
+    void testJsonFlyweightParallel() throws IOException {
+        m1.before(Collections.singletonMap("Case", "JsonFlyweight parallel"))
+        Path outFile = too.cleanMethodOutputDirectory("testJsonFlyweightParallel")
+                .resolve("flyweight.json")
+        int lines = JsonFlyweight.prettyPrintParallel(getFixtureHAR(), outFile)
+        m1.after()
+    }
+
     @Test
     void testGroovyJsonOutput() throws IOException {
         m1.before(Collections.singletonMap("Case", "Groovy JsonOutput"))
@@ -0,0 +1,103 @@
+package com.kazurayam.jsonflyweight;
+
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BatchPrettyPrinterTest {
+
+    private static final TestOutputOrganizer too =
+            new TestOutputOrganizer.Builder(BatchPrettyPrinterTest.class)
+                    .outputDirectoryRelativeToProject("build/tmp/testOutput")
+                    .subOutputDirectory(BatchPrettyPrinterTest.class).build();
+
+    private Path fixtures;
+
+    @BeforeClass
+    public void beforeClass() {
+        fixtures = too.getProjectDirectory().resolve("src/test/fixtures");
+    }
+
+    @Test
+    public void test_prettyPrintAll() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_prettyPrintAll");
+        Path inputDir = Files.createDirectories(dir.resolve("in"));
+        String store = Files.readString(fixtures.resolve("store.json"));
+        List<Path> inputs = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Path input = inputDir.resolve("file" + i + ".json");
+            try (Writer w = Files.newBufferedWriter(input)) {
+                w.write("[");
+                // sizes vary so that the schedule differs from the order of the inputs
+                for (int j = 0; j <= (i * 37) % 200; j++) {
+                    if (j > 0) {
+                        w.write(",");
+                    }
+                    w.write(store);
+                }
+                w.write("]");
+            }
+            inputs.add(input);
+        }
+        Path outputDir = dir.resolve("out");
+        JsonFlyweight.Formatter formatter =
+                new JsonFlyweight.Formatter.Builder().bufferCapacity(1024).build();
+        List<PrettyPrintResult> results = formatter.prettyPrintAll(inputs, outputDir, 4);
+        assertThat(results).hasSize(inputs.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            PrettyPrintResult result = results.get(i);
+            assertThat(result.isSuccess()).as(result.toString()).isTrue();
+            assertThat(result.getInput()).isEqualTo(inputs.get(i));
+            assertThat(result.getOutput()).isEqualTo(outputDir.resolve("file" + i + ".json"));
+            Path expected = dir.resolve("expected.json");
+            int expectedLines = JsonFlyweight.prettyPrint(inputs.get(i), expected);
+            assertThat(result.getNumLines()).isEqualTo(expectedLines);
+            assertThat(result.getInputBytes()).isEqualTo(Files.size(inputs.get(i)));
+            assertThat(result.getOutputBytes()).isEqualTo(Files.size(expected));
+            assertThat(Files.readAllBytes(result.getOutput())).isEqualTo(Files.readAllBytes(expected));
+        }
+    }
+
+    @Test
+    public void test_failures_are_reported_per_file() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_failures_are_reported_per_file");
+        Path good = dir.resolve("good.json");
+        Files.writeString(good, "{\"a\":[1,2,3]}");
+        Path bad = dir.resolve("bad.json");
+        Files.writeString(bad, "{\"a\":[1,2,3}");
+        Path missing = dir.resolve("missing.json");
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder().strict(true).build();
+        List<PrettyPrintResult> results =
+                formatter.prettyPrintAll(Arrays.asList(good, bad, missing), dir.resolve("out"), 2);
+        assertThat(results.get(0).isSuccess()).isTrue();
+        assertThat(results.get(0).getNumLines())
+                .isEqualTo(JsonFlyweight.prettyPrint(good, dir.resolve("expected.json")));
+        assertThat(results.get(1).isSuccess()).isFalse();
+        assertThat(results.get(1).getFailure()).isInstanceOf(JsonFlyweightException.class);
+        assertThat(results.get(2).isSuccess()).isFalse();
+        assertThat(results.get(2).getFailure()).isInstanceOf(NoSuchFileException.class);
+    }
+
+    @Test
+    public void test_same_file_names_are_rejected() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_same_file_names_are_rejected");
+        Path a = Files.createDirectories(dir.resolve("a")).resolve("x.json");
+        Path b = Files.createDirectories(dir.resolve("b")).resolve("x.json");
+        assertThatThrownBy(() -> JsonFlyweight.prettyPrintAll(Arrays.asList(a, b), dir.resolve("out")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> JsonFlyweight.prettyPrintAll(Arrays.asList(a), dir.resolve("a")))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,197 @@
+package com.kazurayam.jsonflyweight;
+
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+public class CheckpointTest {
+
+    private static final TestOutputOrganizer too =
+            new TestOutputOrganizer.Builder(CheckpointTest.class)
+                    .outputDirectoryRelativeToProject("build/tmp/testOutput")
+                    .subOutputDirectory(CheckpointTest.class).build();
+
+    private static final byte[] GARBAGE = "written after the checkpoint, before the kill"
+            .getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * the kills fall in strings, right after a backslash, in a u-escape,
+     * in a character of multiple bytes and in a string being cut
+     */
+    @Test
+    public void test_resume_is_byte_identical() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_resume_is_byte_identical");
+        Path ugly = dir.resolve("ugly.json");
+        String json = sample();
+        Files.writeString(ugly, json);
+        for (String s : new String[] { "\\\"", "\\u00e9", "日本", "xxxxx" }) {
+            assertThat(json).contains(s);
+        }
+        int[] cuts = { 1, bytesBefore(json, "\\\"") + 1, bytesBefore(json, "\\u00e9") + 3,
+                bytesBefore(json, "日本") + 1, bytesBefore(json, "xxxxx") + 40, json.length() - 1 };
+        JsonFlyweight.Formatter[] formatters = {
+                new JsonFlyweight.Formatter.Builder().lineSeparator("\n").build(),
+                new JsonFlyweight.Formatter.Builder().strict(true).useTabs(true).build(),
+                new JsonFlyweight.Formatter.Builder().maxStringLength(20).strict(true).build() };
+        for (int f = 0; f < formatters.length; f++) {
+            JsonFlyweight.Formatter formatter = formatters[f];
+            Path expected = dir.resolve("expected" + f + ".json");
+            int expectedLines = formatter.prettyPrint(ugly, expected);
+            for (int cut = 997; cut < json.length(); cut += 997) {
+                assertResumed(formatter, ugly, dir.resolve("pretty" + f + ".json"), cut, expected, expectedLines);
+            }
+            for (int cut : cuts) {
+                assertResumed(formatter, ugly, dir.resolve("pretty" + f + ".json"), cut, expected, expectedLines);
+            }
+        }
+    }
+
+    @Test
+    public void test_checkpoints_are_taken_and_removed() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_checkpoints_are_taken_and_removed");
+        Path ugly = dir.resolve("ugly.json");
+        String json = sample();
+        Files.writeString(ugly, json + " x");
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder()
+                .strict(true).bufferCapacity(1024).checkpointInterval(4096).build();
+        Path pretty = dir.resolve("pretty.json");
+        // fails at the trailing x, after the checkpoints have been taken
+        assertThat(catchThrowable(() -> formatter.prettyPrint(ugly, pretty)))
+                .isInstanceOf(JsonFlyweightException.class);
+        Checkpoint checkpoint = Checkpoint.read(Checkpoint.sideCarOf(pretty));
+        assertThat(checkpoint).isNotNull();
+        assertThat(checkpoint.getInputOffset()).isGreaterThan(json.length() / 2);
+        Path whole = dir.resolve("whole.json");
+        formatter.prettyPrint(writeString(dir.resolve("valid.json"), json), whole);
+        assertThat(Files.exists(Checkpoint.sideCarOf(whole))).isFalse();
+        byte[] written = Files.readAllBytes(pretty);
+        byte[] expected = Files.readAllBytes(whole);
+        assertThat(checkpoint.getOutputOffset()).isLessThanOrEqualTo(written.length);
+        assertThat(Arrays.copyOf(written, (int) checkpoint.getOutputOffset()))
+                .isEqualTo(Arrays.copyOf(expected, (int) checkpoint.getOutputOffset()));
+    }
+
+    @Test
+    public void test_checkpoint_of_another_input_is_ignored() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_checkpoint_of_another_input_is_ignored");
+        Path ugly = writeString(dir.resolve("ugly.json"), sample());
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder().build();
+        Path expected = dir.resolve("expected.json");
+        int expectedLines = formatter.prettyPrint(ugly, expected);
+        Path pretty = dir.resolve("pretty.json");
+        kill(formatter, ugly, pretty, 5000);
+        // the input has been written again since
+        Files.setLastModifiedTime(ugly,
+                FileTime.fromMillis(Files.getLastModifiedTime(ugly).toMillis() + 60_000));
+        assertThat(formatter.resume(ugly, pretty)).isEqualTo(expectedLines);
+        assertThat(Files.readAllBytes(pretty)).isEqualTo(Files.readAllBytes(expected));
+        // so it has for another layout
+        kill(formatter, ugly, pretty, 5000);
+        JsonFlyweight.Formatter other = new JsonFlyweight.Formatter.Builder().indentWidth(4).build();
+        other.resume(ugly, pretty);
+        other.prettyPrint(ugly, expected);
+        assertThat(Files.readAllBytes(pretty)).isEqualTo(Files.readAllBytes(expected));
+    }
+
+    /**
+     * a checkpoint garbled or cut short, as by a crash while it was written, is taken as none
+     */
+    @Test
+    public void test_broken_checkpoint() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_broken_checkpoint");
+        Path ugly = writeString(dir.resolve("ugly.json"), sample());
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder().build();
+        Path expected = dir.resolve("expected.json");
+        int expectedLines = formatter.prettyPrint(ugly, expected);
+        Path pretty = dir.resolve("pretty.json");
+        Path checkpointFile = Checkpoint.sideCarOf(pretty);
+        kill(formatter, ugly, pretty, 5000);
+        byte[] bytes = Files.readAllBytes(checkpointFile);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(checkpointFile, bytes);
+        assertThat(formatter.resume(ugly, pretty)).isEqualTo(expectedLines);
+        assertThat(Files.readAllBytes(pretty)).isEqualTo(Files.readAllBytes(expected));
+        kill(formatter, ugly, pretty, 5000);
+        Files.write(checkpointFile, Arrays.copyOf(Files.readAllBytes(checkpointFile), 20));
+        assertThat(formatter.resume(ugly, pretty)).isEqualTo(expectedLines);
+        assertThat(Files.readAllBytes(pretty)).isEqualTo(Files.readAllBytes(expected));
+        // but a file which is intact and is not a checkpoint is not taken for none
+        byte[] other = Arrays.copyOf("not a checkpoint".getBytes(StandardCharsets.UTF_8), 16 + Long.BYTES);
+        CRC32 crc = new CRC32();
+        crc.update(other, 0, 16);
+        ByteBuffer.wrap(other).putLong(16, crc.getValue());
+        Files.write(checkpointFile, other);
+        Throwable t = catchThrowable(() -> formatter.resume(ugly, pretty));
+        assertThat(t).isInstanceOf(IOException.class);
+        assertThat(t.getMessage()).isEqualTo(checkpointFile + " is not a checkpoint");
+    }
+
+    @Test
+    public void test_not_with_projection() {
+        Throwable t = catchThrowable(() -> new JsonFlyweight.Formatter.Builder()
+                .include("log.entries[*].request").checkpointInterval(1 << 20).build());
+        assertThat(t).isInstanceOf(IllegalStateException.class);
+    }
+
+    private static void assertResumed(JsonFlyweight.Formatter formatter, Path ugly, Path pretty, int cut,
+                                      Path expected, int expectedLines) throws IOException {
+        kill(formatter, ugly, pretty, cut);
+        assertThat(formatter.resume(ugly, pretty)).as("cut at %d", cut).isEqualTo(expectedLines);
+        assertThat(Files.readAllBytes(pretty)).as("cut at %d", cut).isEqualTo(Files.readAllBytes(expected));
+        assertThat(Files.exists(Checkpoint.sideCarOf(pretty))).isFalse();
+    }
+
+    /**
+     * Leave the output and the checkpoint as a run killed right after a checkpoint
+     * at the given offset of the input would: with some output written after it
+     */
+    private static void kill(JsonFlyweight.Formatter formatter, Path ugly, Path pretty, int cut)
+            throws IOException {
+        byte[] input = Files.readAllBytes(ugly);
+        ByteFormatter engine = formatter.newByteFormatter();
+        try (OutputStream out = Files.newOutputStream(pretty)) {
+            engine.format(input, 0, cut, out);
+            engine.drainTo(out);
+        }
+        long outputOffset = Files.size(pretty);
+        new Checkpoint(formatter.layout(), Files.size(ugly), Files.getLastModifiedTime(ugly).toMillis(),
+                cut, outputOffset, engine.saveState()).write(Checkpoint.sideCarOf(pretty));
+        Files.write(pretty, GARBAGE, StandardOpenOption.APPEND);
+    }
+
+    private static int bytesBefore(String text, String s) {
+        return text.substring(0, text.indexOf(s)).getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static Path writeString(Path path, String text) throws IOException {
+        return Files.writeString(path, text);
+    }
+
+    private static String sample() {
+        StringBuilder sb = new StringBuilder("{\"log\":{\"version\":\"1.2\",\"entries\":[");
+        for (int i = 0; i < 120; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"request\":{\"url\":\"https://example.com/").append(i).append("?q=[{,}]\",")
+                    .append("\"headers\":[{\"name\":\"note\",\"value\":\"say \\\"hi\\\" \\u00e9\\ud83d\\ude00 日本語\"}]},")
+                    .append("\"response\":{\"status\":200,\"content\":{\"text\":\"")
+                    .append("x".repeat(i % 7 == 0 ? 300 : 10)).append("\"}},")
+                    .append("\"time\":").append(i * 1.5).append(",\"cache\":{},\"tags\":[]}");
+        }
+        return sb.append("]}}").toString();
+    }
+}
@@ -0,0 +1,134 @@
+package com.kazurayam.jsonflyweight;
+
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+public class FollowingPrettyPrinterTest {
+
+    private static final TestOutputOrganizer too =
+            new TestOutputOrganizer.Builder(FollowingPrettyPrinterTest.class)
+                    .outputDirectoryRelativeToProject("build/tmp/testOutput")
+                    .subOutputDirectory(FollowingPrettyPrinterTest.class).build();
+
+    private static final String[] PIECES = {
+            "{\"log\":{\"version\":\"1.2\",\"entries\":[",
+            "{\"request\":{\"url\":\"https://example.com/?q=[{,}]\",\"headers\":[{\"name\":\"a\",\"va",
+            "lue\":\"say \\",
+            "\"hi\\\"\"}]},\"time\":12.5},",
+            "{\"request\":{\"url\":\"https://example.com/日本",
+            "語\"},\"time\":3}",
+            "]}}" };
+
+    /**
+     * the pieces end in the middle of strings and right after a backslash;
+     * the writer waits for the output of every piece before it appends the next
+     */
+    @Test
+    public void test_follow_a_growing_file() throws Exception {
+        Path dir = too.cleanMethodOutputDirectory("test_follow_a_growing_file");
+        Path file = dir.resolve("growing.har");
+        Files.writeString(file, "");
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        int expectedLines = new JsonFlyweight.Formatter.Builder().strict(true).build().prettyPrint(
+                new ByteArrayInputStream(String.join("", PIECES).getBytes(StandardCharsets.UTF_8)),
+                expected);
+
+        Flushes sink = new Flushes();
+        AtomicBoolean late = new AtomicBoolean(false);
+        Thread writer = new Thread(() -> {
+            try {
+                for (String piece : PIECES) {
+                    CountDownLatch flushed = sink.expectFlush();
+                    Files.write(file, piece.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+                    if (!flushed.await(10, TimeUnit.SECONDS)) {
+                        late.set(true);
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                late.set(true);
+            }
+        });
+        writer.start();
+        int lines = new JsonFlyweight.Formatter.Builder().strict(true).build()
+                .follow(file, sink, Duration.ofSeconds(10));
+        writer.join();
+        assertThat(late.get()).isFalse();
+        assertThat(lines).isEqualTo(expectedLines);
+        assertThat(sink.bytes.toByteArray()).isEqualTo(expected.toByteArray());
+    }
+
+    @Test
+    public void test_complete_file() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_complete_file");
+        Path file = dir.resolve("complete.json");
+        Files.writeString(file, String.join("", PIECES) + "\n");
+        Path expected = dir.resolve("expected.json");
+        int expectedLines = JsonFlyweight.prettyPrint(file, expected);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        int lines = new JsonFlyweight.Formatter.Builder().build().follow(file, actual, Duration.ofSeconds(10));
+        assertThat(lines).isEqualTo(expectedLines);
+        assertThat(actual.toByteArray()).isEqualTo(Files.readAllBytes(expected));
+    }
+
+    @Test
+    public void test_idle_timeout() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_idle_timeout");
+        Path file = dir.resolve("stalled.json");
+        Files.writeString(file, PIECES[0] + PIECES[1]);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        Throwable t = catchThrowable(() -> new JsonFlyweight.Formatter.Builder().build()
+                .follow(file, actual, Duration.ofMillis(300)));
+        assertThat(t).isInstanceOf(InterruptedIOException.class);
+        // what was appended has been written
+        assertThat(actual.toString(StandardCharsets.UTF_8)).contains("\"headers\": [").contains("\"va");
+    }
+
+    /**
+     * counts down a latch when flushed with some output
+     */
+    private static final class Flushes extends OutputStream {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private volatile CountDownLatch latch;
+        private int flushedSize;
+
+        CountDownLatch expectFlush() {
+            latch = new CountDownLatch(1);
+            return latch;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            bytes.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            bytes.write(b, off, len);
+        }
+
+        @Override
+        public synchronized void flush() {
+            if (bytes.size() > flushedSize && latch != null) {
+                flushedSize = bytes.size();
+                latch.countDown();
+            }
+        }
+    }
+}
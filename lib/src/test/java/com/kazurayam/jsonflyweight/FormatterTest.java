@@ -0,0 +1,129 @@
+package com.kazurayam.jsonflyweight;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class FormatterTest {
+
+    private static final String UGLY = "{\"a\":[1,{\"b\":\"x, y\"}],\"c\":true}";
+
+    @Test
+    public void test_indentWidth_and_lineSeparator() throws IOException {
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder()
+                .indentWidth(4).lineSeparator("\n").build();
+        StringWriter sw = new StringWriter();
+        int numLines = formatter.prettyPrint(new StringReader(UGLY), sw);
+        assertThat(sw.toString()).isEqualTo(
+                "{\n" +
+                "    \"a\": [\n" +
+                "        1,\n" +
+                "        {\n" +
+                "            \"b\": \"x, y\"\n" +
+                "        }\n" +
+                "    ],\n" +
+                "    \"c\": true\n" +
+                "}");
+        assertThat(numLines).isEqualTo(8);
+    }
+
+    @Test
+    public void test_tabs_and_CRLF() throws IOException {
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder()
+                .useTabs(true).lineSeparator("\r\n").build();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        formatter.prettyPrint(new ByteArrayInputStream(UGLY.getBytes(StandardCharsets.UTF_8)), baos);
+        assertThat(baos.toString(StandardCharsets.UTF_8)).startsWith("{\r\n\t\"a\": [\r\n\t\t1,\r\n");
+    }
+
+    /**
+     * a Formatter reuses its buffers; the state of the previous call must not leak into the next
+     */
+    @Test
+    public void test_reuse() throws IOException {
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder().lineSeparator("\n").build();
+        StringWriter first = new StringWriter();
+        formatter.prettyPrint(new StringReader(UGLY), first);
+        // a broken document leaves the formatter inside a string
+        formatter.prettyPrint(new StringReader("{\"unterminated"), new StringWriter());
+        StringWriter second = new StringWriter();
+        formatter.prettyPrint(new StringReader(UGLY), second);
+        assertThat(second.toString()).isEqualTo(first.toString());
+    }
+
+    @Test
+    public void test_threadLocal() throws Exception {
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder()
+                .lineSeparator("\n").threadLocal(true).build();
+        StringWriter expected = new StringWriter();
+        JsonFlyweight.prettyPrint(new StringReader(UGLY), expected);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                futures.add(executor.submit(() -> {
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                    formatter.prettyPrint(
+                            new ByteArrayInputStream(UGLY.getBytes(StandardCharsets.UTF_8)), baos);
+                    return baos.toString(StandardCharsets.UTF_8);
+                }));
+            }
+            for (Future<String> future : futures) {
+                assertThat(future.get())
+                        .isEqualTo(expected.toString().replace(System.lineSeparator(), "\n"));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * a line break near the end of the output buffer must not make the buffer grow;
+     * it is drained instead, and stays at its capacity however long the document is
+     */
+    @Test
+    public void test_buffers_keep_their_capacity() throws IOException {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; sb.length() < 4 * 1024 * 1024; i++) {
+            sb.append(i > 0 ? "," : "").append("{\"id\":").append(i).append(",\"tags\":[\"a\",\"bc\"]}");
+        }
+        String ugly = sb.append("]").toString();
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder().bufferCapacity(32 * 1024).build();
+        ByteFormatter bytes = formatter.newByteFormatter();
+        byte[] in = ugly.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        for (int off = 0; off < in.length; off += 32 * 1024) {
+            bytes.format(in, off, Math.min(32 * 1024, in.length - off), sink);
+        }
+        bytes.drainTo(sink);
+        assertThat(bytes.buffer().length).isEqualTo(32 * 1024);
+        CharFormatter chars = formatter.newCharFormatter();
+        char[] cin = ugly.toCharArray();
+        StringWriter writer = new StringWriter();
+        for (int off = 0; off < cin.length; off += 32 * 1024) {
+            chars.format(cin, off, Math.min(32 * 1024, cin.length - off), writer);
+        }
+        chars.drainTo(writer);
+        assertThat(chars.buffer().length).isEqualTo(32 * 1024);
+        assertThat(writer.toString()).isEqualTo(sink.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void test_invalid_lineSeparator() {
+        assertThatThrownBy(() -> new JsonFlyweight.Formatter.Builder().lineSeparator(" "))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,130 @@
+package com.kazurayam.jsonflyweight;
+
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class GzipPrettyPrinterTest {
+
+    private static final TestOutputOrganizer too =
+            new TestOutputOrganizer.Builder(GzipPrettyPrinterTest.class)
+                    .outputDirectoryRelativeToProject("build/tmp/testOutput")
+                    .subOutputDirectory(GzipPrettyPrinterTest.class).build();
+
+    private static final String TRICKY =
+            "{\"path\":\"C:\\\\temp\\\\\",\"quote\":\"say \\\"hi\\\", {ok} [ok]\"," +
+                    "\"list\":[1, 2.5, true, null, {\"名前\":\"日本語\"}],\"empty\":{}}";
+
+    private Path fixtures;
+
+    @BeforeClass
+    public void beforeClass() {
+        fixtures = too.getProjectDirectory().resolve("src/test/fixtures");
+    }
+
+    @Test
+    public void test_prettyPrintGzip_small() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_prettyPrintGzip_small");
+        Path in = fixtures.resolve("store.json");
+        Path inGz = dir.resolve("store.json.gz");
+        gzip(in, inGz);
+        Path expected = dir.resolve("expected.json");
+        int expectedLines = JsonFlyweight.prettyPrint(in, expected);
+        Path actualGz = dir.resolve("actual.json.gz");
+        int actualLines = JsonFlyweight.prettyPrintGzip(inGz, actualGz);
+        assertThat(actualLines).isEqualTo(expectedLines);
+        assertThat(gunzip(actualGz)).isEqualTo(Files.readAllBytes(expected));
+    }
+
+    /**
+     * with small blocks and short rings, the stages wait for each other all the time
+     */
+    @Test
+    public void test_prettyPrintGzip_large_with_small_rings() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_prettyPrintGzip_large_with_small_rings");
+        Path in = dir.resolve("in.json");
+        try (Writer w = Files.newBufferedWriter(in)) {
+            w.write("[");
+            for (int i = 0; i < 20_000; i++) {
+                if (i > 0) {
+                    w.write(",");
+                }
+                w.write(TRICKY);
+            }
+            w.write("]");
+        }
+        Path inGz = dir.resolve("in.json.gz");
+        gzip(in, inGz);
+        Path expected = dir.resolve("expected.json");
+        int expectedLines = JsonFlyweight.prettyPrint(in, expected);
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder()
+                .bufferCapacity(1024).pipelineBlocks(2).strict(true).build();
+        Path actualGz = dir.resolve("actual.json.gz");
+        int actualLines = formatter.prettyPrintGzip(inGz, actualGz);
+        assertThat(actualLines).isEqualTo(expectedLines);
+        assertThat(gunzip(actualGz)).isEqualTo(Files.readAllBytes(expected));
+        // the Formatter is reusable
+        assertThat(formatter.prettyPrintGzip(inGz, actualGz)).isEqualTo(expectedLines);
+    }
+
+    @Test
+    public void test_corrupt_gzip() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_corrupt_gzip");
+        Path inGz = dir.resolve("in.json.gz");
+        gzip(fixtures.resolve("store.json"), inGz);
+        byte[] bytes = Files.readAllBytes(inGz);
+        for (int i = 20; i < bytes.length - 8; i++) {
+            bytes[i] = (byte) 0xff;
+        }
+        Files.write(inGz, bytes);
+        assertThatThrownBy(() -> JsonFlyweight.prettyPrintGzip(inGz, dir.resolve("actual.json.gz")))
+                .isInstanceOf(IOException.class)
+                .isNotInstanceOf(JsonFlyweightException.class);
+    }
+
+    @Test
+    public void test_not_gzip() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_not_gzip");
+        assertThatThrownBy(() ->
+                JsonFlyweight.prettyPrintGzip(fixtures.resolve("store.json"), dir.resolve("actual.json.gz")))
+                .isInstanceOf(IOException.class);
+    }
+
+    @Test
+    public void test_strict_error_is_thrown() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_strict_error_is_thrown");
+        Path in = dir.resolve("in.json");
+        Files.writeString(in, "{\"a\": [1, 2, tru]}");
+        Path inGz = dir.resolve("in.json.gz");
+        gzip(in, inGz);
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder().strict(true).build();
+        assertThatThrownBy(() -> formatter.prettyPrintGzip(inGz, dir.resolve("actual.json.gz")))
+                .isInstanceOf(JsonFlyweightException.class)
+                .hasMessageContaining("path $.a[2]");
+    }
+
+    private static void gzip(Path source, Path target) throws IOException {
+        try (OutputStream os = new GZIPOutputStream(Files.newOutputStream(target))) {
+            Files.copy(source, os);
+        }
+    }
+
+    private static byte[] gunzip(Path source) throws IOException {
+        try (InputStream is = new GZIPInputStream(Files.newInputStream(source))) {
+            return is.readAllBytes();
+        }
+    }
+}
@@ -9,11 +9,15 @@ import org.slf4j.LoggerFactory;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -109,6 +113,80 @@ public class JsonFlyweightTest {
         assertThat(isValid(Files.readString(out))).isTrue();
     }
 
+    /**
+     * the byte-oriented InputStream/OutputStream path must produce
+     * exactly the same output as the Reader/Writer path,
+     * with multi-byte UTF-8 characters passed through untouched
+     */
+    @Test
+    public void test_streams_same_as_reader_writer() throws IOException {
+        String ugly = "{\"名前\": \"日本語 テキスト\", \"emoji\": [\"\uD83D\uDE00\", \"a,b:{c}\"]," +
+                " \"path\": \"C:\\\\temp\\\\\", \"quote\": \"say \\\"hi\\\"\"}";
+        StringWriter sw = new StringWriter();
+        int numLines1 = JsonFlyweight.prettyPrint(new StringReader(ugly), sw);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        int numLines2 = JsonFlyweight.prettyPrint(
+                new ByteArrayInputStream(ugly.getBytes(StandardCharsets.UTF_8)), baos);
+        String pretty = baos.toString(StandardCharsets.UTF_8);
+        logger.debug(pretty);
+        assertThat(pretty).isEqualTo(sw.toString());
+        assertThat(numLines2).isEqualTo(numLines1);
+        assertThat(pretty).contains("\"日本語 テキスト\"");
+        assertThat(isValid(pretty)).isTrue();
+    }
+
+    /**
+     * an escaped backslash followed by a quote closes the string; e.g,
+     * {"path":"C:\\temp\\","next":1}
+     *                  ^^^
+     */
+    @Test
+    public void test_escaped_backslash_before_quote() throws IOException {
+        String ugly = "{\"path\":\"C:\\\\temp\\\\\",\"next\":1}";
+        StringWriter sw = new StringWriter();
+        int numLines = JsonFlyweight.prettyPrint(new StringReader(ugly), sw);
+        assertThat(numLines).isEqualTo(3);
+        assertThat(isValid(sw.toString())).isTrue();
+    }
+
+    @Test
+    public void test_pp_path_to_path() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_pp_path_to_path");
+        Path out = dir.resolve("out.json");
+        int numLines = JsonFlyweight.prettyPrint(storeJson, out);
+        assertThat(numLines).isEqualTo(20);
+        assertThat(isValid(Files.readString(out))).isTrue();
+    }
+
+    /**
+     * the input file is larger than a mapped window,
+     * so the formatter state must be carried over the window boundaries
+     */
+    @Test
+    public void test_pp_path_to_path_across_mapped_windows() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_pp_path_to_path_across_mapped_windows");
+        Path in = dir.resolve("in.json");
+        String store = Files.readString(storeJson);
+        try (Writer w = Files.newBufferedWriter(in)) {
+            w.write("[");
+            long written = 1;
+            for (int i = 0; written < JsonFlyweight.MAPPED_WINDOW_SIZE * 2 + 1000; i++) {
+                if (i > 0) {
+                    w.write(",");
+                    written++;
+                }
+                w.write(store);
+                written += store.length();
+            }
+            w.write("]");
+        }
+        Path out1 = dir.resolve("out1.json");
+        int numLines1 = JsonFlyweight.prettyPrint(in, out1);
+        Path out2 = dir.resolve("out2.json");
+        int numLines2 = JsonFlyweight.prettyPrint(Files.newInputStream(in), Files.newOutputStream(out2));
+        assertThat(numLines1).isEqualTo(numLines2);
+        assertThat(Files.readAllBytes(out1)).isEqualTo(Files.readAllBytes(out2));
+    }
 
     private Boolean isValid(String json) {
         try {
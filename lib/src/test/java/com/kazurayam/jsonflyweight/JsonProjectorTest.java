@@ -0,0 +1,174 @@
+package com.kazurayam.jsonflyweight;
+
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class JsonProjectorTest {
+
+    private static final TestOutputOrganizer too =
+            new TestOutputOrganizer.Builder(JsonProjectorTest.class)
+                    .outputDirectoryRelativeToProject("build/tmp/testOutput")
+                    .subOutputDirectory(JsonProjectorTest.class).build();
+
+    private static final String HAR =
+            "{\"log\":{\"version\":\"1.2\",\"entries\":[" +
+                    "{\"request\":{\"method\":\"GET\",\"url\":\"https://example.com/a?q=[1]\"}," +
+                    "\"response\":{\"status\":200,\"content\":{\"size\":9,\"text\":\"{\\\"big\\\": [\\\"body\\\"]}\"}}," +
+                    "\"timings\":{\"wait\":12.5}}," +
+                    "{\"response\":{\"status\":404,\"content\":{\"size\":0,\"text\":\"\"}},\"timings\":{\"wait\":3}}," +
+                    "{\"request\":{\"method\":\"POST\",\"url\":\"https://example.com/b\"}," +
+                    "\"response\":{\"status\":201,\"content\":{\"size\":2,\"text\":\"ok\"}}}]}}";
+
+    @Test
+    public void test_include() throws IOException {
+        assertProjected(HAR, new String[] { "log.entries[*].request" }, new String[0],
+                "{\"log\":{\"entries\":[" +
+                        "{\"request\":{\"method\":\"GET\",\"url\":\"https://example.com/a?q=[1]\"}}," +
+                        "{\"request\":{\"method\":\"POST\",\"url\":\"https://example.com/b\"}}]}}");
+    }
+
+    @Test
+    public void test_include_several_paths() throws IOException {
+        assertProjected(HAR, new String[] { "$.log.entries[*].request.url", "$.log.entries[*].timings" }, new String[0],
+                "{\"log\":{\"entries\":[" +
+                        "{\"request\":{\"url\":\"https://example.com/a?q=[1]\"},\"timings\":{\"wait\":12.5}}," +
+                        "{\"timings\":{\"wait\":3}}," +
+                        "{\"request\":{\"url\":\"https://example.com/b\"}}]}}");
+    }
+
+    @Test
+    public void test_exclude() throws IOException {
+        assertProjected(HAR, new String[0], new String[] { "log.entries[*].response.content.text", "log.version" },
+                "{\"log\":{\"entries\":[" +
+                        "{\"request\":{\"method\":\"GET\",\"url\":\"https://example.com/a?q=[1]\"}," +
+                        "\"response\":{\"status\":200,\"content\":{\"size\":9}}," +
+                        "\"timings\":{\"wait\":12.5}}," +
+                        "{\"response\":{\"status\":404,\"content\":{\"size\":0}},\"timings\":{\"wait\":3}}," +
+                        "{\"request\":{\"method\":\"POST\",\"url\":\"https://example.com/b\"}," +
+                        "\"response\":{\"status\":201,\"content\":{\"size\":2}}}]}}");
+    }
+
+    @Test
+    public void test_exclude_inside_include() throws IOException {
+        assertProjected(HAR, new String[] { "log.entries[1]" }, new String[] { "log.entries[*].response.content" },
+                "{\"log\":{\"entries\":[{\"response\":{\"status\":404},\"timings\":{\"wait\":3}}]}}");
+        // an included container is kept even if all in it is excluded
+        assertProjected(HAR, new String[] { "log.entries[1].response.content" },
+                new String[] { "log.entries[1].response.content.*" },
+                "{\"log\":{\"entries\":[{\"response\":{\"content\":{}}}]}}");
+    }
+
+    @Test
+    public void test_quoted_names_and_indexes() throws IOException {
+        String json = "{\"a b\":{\"c.d\":[10,20,{\"it's\":30}]},\"e\":[[1,2],[3,4]]}";
+        assertProjected(json, new String[] { "['a b']['c.d'][2]['it\\'s']", "e[*][1]" }, new String[0],
+                "{\"a b\":{\"c.d\":[{\"it's\":30}]},\"e\":[[2],[4]]}");
+    }
+
+    @Test
+    public void test_nothing_selected() throws IOException {
+        assertProjected(HAR, new String[] { "log.pages" }, new String[0], "{}");
+        assertProjected("[1,2]", new String[0], new String[] { "[*]" }, "[]");
+    }
+
+    /**
+     * the input is fed in fragments of a few bytes, so that they end inside names,
+     * escape sequences and numbers
+     */
+    @Test
+    public void test_fragments() throws IOException {
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder()
+                .include("log.entries[*].request", "log.entries[*].response.status").build();
+        byte[] bytes = HAR.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        formatter.prettyPrint(new ByteArrayInputStream(bytes), expected);
+        Random random = new Random(0);
+        for (int t = 0; t < 50; t++) {
+            InputStream in = new ByteArrayInputStream(bytes) {
+                @Override
+                public synchronized int read(byte[] b, int off, int len) {
+                    return super.read(b, off, Math.min(len, 1 + random.nextInt(5)));
+                }
+            };
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            formatter.prettyPrint(in, actual);
+            assertThat(actual.toByteArray()).isEqualTo(expected.toByteArray());
+        }
+    }
+
+    @Test
+    public void test_files_and_parallel() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_files_and_parallel");
+        Path in = dir.resolve("in.json");
+        Files.writeString(in, HAR);
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder()
+                .include("log.entries[*].request").build();
+        Path expected = dir.resolve("expected.json");
+        try (OutputStream os = Files.newOutputStream(expected)) {
+            formatter.prettyPrint(new ByteArrayInputStream(HAR.getBytes(StandardCharsets.UTF_8)), os);
+        }
+        Path actual = dir.resolve("actual.json");
+        formatter.prettyPrint(in, actual);
+        assertThat(Files.readAllBytes(actual)).isEqualTo(Files.readAllBytes(expected));
+        Path parallel = dir.resolve("parallel.json");
+        formatter.prettyPrintParallel(in, parallel, ForkJoinPool.commonPool());
+        assertThat(Files.readAllBytes(parallel)).isEqualTo(Files.readAllBytes(expected));
+    }
+
+    @Test
+    public void test_strict_checks_the_skipped_parts() {
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder()
+                .include("a").strict(true).build();
+        String json = "{\"a\":1,\"b\":[1,2,}";
+        assertThatThrownBy(() -> formatter.prettyPrint(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), new ByteArrayOutputStream()))
+                .isInstanceOf(JsonFlyweightException.class)
+                .hasMessageContaining("path $.b[2]");
+    }
+
+    @Test
+    public void test_invalid_paths() {
+        JsonFlyweight.Formatter.Builder builder = new JsonFlyweight.Formatter.Builder();
+        assertThatThrownBy(() -> builder.include("log..entries")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> builder.include("log.entries[")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> builder.include("log.entries[x]")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> builder.exclude("['unterminated]")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void test_not_available_on_chars() {
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder().include("a").build();
+        assertThatThrownBy(() -> formatter.prettyPrint(new StringReader("{}"), new StringWriter()))
+                .isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(() -> new NonBlockingFormatter(formatter))
+                .isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    private static void assertProjected(String json, String[] includes, String[] excludes, String expectedUgly)
+            throws IOException {
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder()
+                .include(includes).exclude(excludes).build();
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        formatter.prettyPrint(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), actual);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new JsonFlyweight.Formatter.Builder().build().prettyPrint(
+                new ByteArrayInputStream(expectedUgly.getBytes(StandardCharsets.UTF_8)), expected);
+        assertThat(actual.toString(StandardCharsets.UTF_8)).isEqualTo(expected.toString(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,198 @@
+package com.kazurayam.jsonflyweight;
+
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+public class JsonValidatorTest {
+
+    private static final TestOutputOrganizer too =
+            new TestOutputOrganizer.Builder(JsonValidatorTest.class)
+                    .outputDirectoryRelativeToProject("build/tmp/testOutput")
+                    .subOutputDirectory(JsonValidatorTest.class).build();
+
+    private static final JsonFlyweight.Formatter STRICT =
+            new JsonFlyweight.Formatter.Builder().strict(true).bufferCapacity(1024).build();
+
+    private Path fixtures;
+
+    @BeforeClass
+    public void beforeClass() {
+        fixtures = too.getProjectDirectory().resolve("src/test/fixtures");
+    }
+
+    /**
+     * the strict mode formats a well-formed JSON exactly as the permissive mode does
+     */
+    @Test
+    public void test_wellformed_same_as_permissive() throws IOException {
+        byte[] json = Files.readAllBytes(fixtures.resolve("store.json"));
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        int expectedLines = JsonFlyweight.prettyPrint(new ByteArrayInputStream(json), expected);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        int numLines = STRICT.prettyPrint(new ByteArrayInputStream(json), actual);
+        assertThat(actual.toByteArray()).isEqualTo(expected.toByteArray());
+        assertThat(numLines).isEqualTo(expectedLines);
+    }
+
+    /**
+     * the input is checked in the same pass as it is formatted; fed in fragments of any size,
+     * the output is the same as the permissive one, and an error is found at the same offset
+     */
+    @Test
+    public void test_fragments() throws IOException {
+        String json = "{\"a\\\"b\":[-0.5e+10, 0, 1E2, true, false, null, \"\\u00e9\\\\\", {}, []],\n"
+                + " \"名前\" : \"日本語\", \"n\": [12345678901234567890, -3.14159265358979]}";
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        JsonFlyweight.prettyPrint(new ByteArrayInputStream(bytes), expected);
+        byte[] broken = json.replace("-3.14", "-3.1.4").getBytes(StandardCharsets.UTF_8);
+        for (int size = 1; size <= 9; size++) {
+            ByteFormatter formatter = STRICT.newByteFormatter();
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            for (int off = 0; off < bytes.length; off += size) {
+                formatter.format(bytes, off, Math.min(size, bytes.length - off), actual);
+            }
+            formatter.finish();
+            formatter.drainTo(actual);
+            assertThat(actual.toByteArray()).as("size=%d", size).isEqualTo(expected.toByteArray());
+            ByteFormatter again = STRICT.newByteFormatter();
+            int fragment = size;
+            Throwable t = catchThrowable(() -> {
+                for (int off = 0; off < broken.length; off += fragment) {
+                    again.format(broken, off, Math.min(fragment, broken.length - off), new ByteArrayOutputStream());
+                }
+            });
+            assertThat(t).as("size=%d", size).isInstanceOf(JsonFlyweightException.class);
+            assertThat(((JsonFlyweightException) t).getOffset()).isEqualTo(
+                    json.substring(0, json.indexOf("-3.14")).getBytes(StandardCharsets.UTF_8).length + 4);
+            assertThat(((JsonFlyweightException) t).getLine()).isEqualTo(2);
+            // the same by chars
+            CharFormatter chars = STRICT.newCharFormatter();
+            StringWriter writer = new StringWriter();
+            char[] cin = json.toCharArray();
+            for (int off = 0; off < cin.length; off += size) {
+                chars.format(cin, off, Math.min(size, cin.length - off), writer);
+            }
+            chars.finish();
+            chars.drainTo(writer);
+            assertThat(writer.toString()).isEqualTo(expected.toString(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void test_tricky_but_wellformed() throws IOException {
+        String[] jsons = {
+                "{\"a\\\"b\":[-0.5e+10, 0, 1E2, true, false, null, \"\\u00e9\\\\\", {}, []]}",
+                " \"top level string\" ",
+                "-12.5e-3",
+                "{\"名前\":\"日本語\",\"\\n\":[[[]]]}"
+        };
+        for (String json : jsons) {
+            assertThat(STRICT.prettyPrint(new StringReader(json), new StringWriter()))
+                    .as(json).isGreaterThan(-1);
+            STRICT.prettyPrint(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)),
+                    new ByteArrayOutputStream());
+        }
+    }
+
+    @Test
+    public void test_offset_line_and_path() {
+        String json = "{\"log\":{\n\"entries\":[{\"a\":1},\n  {\"request\":tru}]}}";
+        Throwable t = catchThrowable(() -> STRICT.prettyPrint(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), new ByteArrayOutputStream()));
+        assertThat(t).isInstanceOf(JsonFlyweightException.class)
+                .hasMessageContaining("Invalid literal, expected true");
+        JsonFlyweightException e = (JsonFlyweightException) t;
+        assertThat(e.getOffset()).isEqualTo(json.indexOf("tru}") + 3);
+        assertThat(e.getLine()).isEqualTo(3);
+        assertThat(e.getColumn()).isEqualTo(17);
+        assertThat(e.getPath()).isEqualTo("$.log.entries[1].request");
+    }
+
+    /**
+     * a Reader tells the offset in chars rather than in bytes
+     */
+    @Test
+    public void test_offset_in_chars_for_Reader() {
+        String json = "{\"名前\":\"日本語\",\"key with space\":01}";
+        Throwable t = catchThrowable(() -> STRICT.prettyPrint(new StringReader(json), new StringWriter()));
+        assertThat(t).isInstanceOf(JsonFlyweightException.class).hasMessageContaining("leading zero");
+        JsonFlyweightException e = (JsonFlyweightException) t;
+        assertThat(e.getOffset()).isEqualTo(json.indexOf("01") + 1);
+        assertThat(e.getPath()).isEqualTo("$['key with space']");
+    }
+
+    @Test
+    public void test_malformed() {
+        String[][] cases = {
+                {"", "Unexpected end of input"},
+                {"{\"a\":[1,2}", "Expected ',' or ']' but found '}'"},
+                {"[1,]", "Expected a value but found ']'"},
+                {"{\"a\":1,}", "Expected a key in double quotes but found '}'"},
+                {"{\"a\" 1}", "Expected ':' but found '1'"},
+                {"[1.]", "Invalid number, expected a digit but found ']'"},
+                {"[\"a\\x\"]", "Invalid escape sequence"},
+                {"[\"\\u12G4\"]", "Invalid hex digit 'G'"},
+                {"[\"tab\tin a string\"]", "Unescaped control character 0x09"},
+                {"{} []", "Unexpected '[' after the end of the JSON"},
+                {"[[{}]", "Unexpected end of input"}
+        };
+        for (String[] c : cases) {
+            assertThatThrownBy(() -> STRICT.prettyPrint(new StringReader(c[0]), new StringWriter()))
+                    .as(c[0]).isInstanceOf(JsonFlyweightException.class).hasMessageContaining(c[1]);
+            assertThatThrownBy(() -> STRICT.prettyPrint(
+                    new ByteArrayInputStream(c[0].getBytes(StandardCharsets.UTF_8)), new ByteArrayOutputStream()))
+                    .as(c[0]).isInstanceOf(JsonFlyweightException.class).hasMessageContaining(c[1]);
+        }
+    }
+
+    /**
+     * the permissive mode, the default, formats a malformed input as it is
+     */
+    @Test
+    public void test_permissive_by_default() throws IOException {
+        StringWriter sw = new StringWriter();
+        JsonFlyweight.prettyPrint(new StringReader("[1,]"), sw);
+        assertThat(sw.toString()).contains("]");
+    }
+
+    /**
+     * the chunks are validated in order, even if the error is far from the first chunk
+     */
+    @Test
+    public void test_parallel() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_parallel");
+        Path in = dir.resolve("in.json");
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < 1000; i++) {
+            sb.append("{\"id\":").append(i).append(",\"name\":\"n").append(i).append("\"},");
+        }
+        sb.append("{\"id\":1000,\"name\":nul}]");
+        Files.writeString(in, sb.toString());
+        ParallelPrettyPrinter printer = new ParallelPrettyPrinter(STRICT, ForkJoinPool.commonPool(), 100);
+        Throwable t = catchThrowable(() -> printer.prettyPrint(in, dir.resolve("out.json")));
+        assertThat(t).isInstanceOf(JsonFlyweightException.class);
+        JsonFlyweightException e = (JsonFlyweightException) t;
+        assertThat(e.getOffset()).isEqualTo(sb.indexOf("nul}") + 3);
+        assertThat(e.getPath()).isEqualTo("$[1000].name");
+        sb.setLength(sb.length() - "nul}]".length());
+        sb.append("null}]");
+        Files.writeString(in, sb.toString());
+        assertThat(printer.prettyPrint(in, dir.resolve("out.json"))).isGreaterThan(4000);
+    }
+}
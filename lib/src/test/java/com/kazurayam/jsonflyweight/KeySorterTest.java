@@ -0,0 +1,374 @@
+package com.kazurayam.jsonflyweight;
+
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+public class KeySorterTest {
+
+    private static final TestOutputOrganizer too =
+            new TestOutputOrganizer.Builder(KeySorterTest.class)
+                    .outputDirectoryRelativeToProject("build/tmp/testOutput")
+                    .subOutputDirectory(KeySorterTest.class).build();
+
+    @Test
+    public void test_sorted_in_memory() throws IOException {
+        assertSorted("{ \"b\": 1, \"a\": { \"d\": [ {\"z\":0, \"y\":1}, 3 ], \"c\": \"x, y: {z}\" }, \"ab\": null }",
+                1 << 20,
+                "{\"a\":{\"c\":\"x, y: {z}\",\"d\":[{\"y\":1,\"z\":0},3]},\"ab\":null,\"b\":1}");
+    }
+
+    @Test
+    public void test_order_of_names() throws IOException {
+        // by the bytes in UTF-8: a prefix first, upper case before lower case, and the non-ASCII last
+        assertSorted("{\"é\":1,\"ab\":2,\"a\":3,\"B\":4,\"a b\":5,\"\":6}", 1 << 20,
+                "{\"\":6,\"B\":4,\"a\":3,\"a b\":5,\"ab\":2,\"é\":1}");
+    }
+
+    @Test
+    public void test_same_names_keep_their_order() throws IOException {
+        String json = "{\"k\":3,\"a\":0,\"k\":1,\"k\":2}";
+        assertSorted(json, 1 << 20, "{\"a\":0,\"k\":3,\"k\":1,\"k\":2}");
+        assertSorted(json, 1024, "{\"a\":0,\"k\":3,\"k\":1,\"k\":2}");
+    }
+
+    @Test
+    public void test_arrays_and_scalars_as_they_are() throws IOException {
+        assertSorted("[3, \"b\", {}, [], {\"b\":{},\"a\":[]}]", 1 << 20, "[3,\"b\",{},[],{\"a\":[],\"b\":{}}]");
+        assertSorted("\"just a string\"", 1 << 20, "\"just a string\"");
+    }
+
+    @Test
+    public void test_spilled_to_files() throws IOException {
+        Random random = new Random(21);
+        Object tree = randomObject(random, 0);
+        String reference = canonical(tree);
+        for (int budget : new int[] { 1024, 4096, 1 << 20 }) {
+            for (int shuffle = 0; shuffle < 2; shuffle++) {
+                StringBuilder ugly = new StringBuilder();
+                write(tree, new Random(shuffle), ugly);
+                assertSorted(ugly.toString(), budget, reference);
+            }
+        }
+        assertThat(reference.length()).isGreaterThan(50_000);
+    }
+
+    @Test
+    public void test_more_runs_than_merged_at_once() throws IOException {
+        // a thousand members of a hundred bytes in a budget of 1 KB: some hundred runs
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, new Random(7));
+        StringBuilder ugly = new StringBuilder("{");
+        StringBuilder expected = new StringBuilder("{");
+        String pad = "x".repeat(90);
+        for (int i = 0; i < 1000; i++) {
+            ugly.append(i > 0 ? "," : "").append(String.format("\"%04d\":\"%s\"", order.get(i), pad));
+            expected.append(i > 0 ? "," : "").append(String.format("\"%04d\":\"%s\"", i, pad));
+        }
+        assertSorted(ugly.append("}").toString(), 1024, expected.append("}").toString());
+    }
+
+    @Test
+    public void test_value_larger_than_the_budget() throws IOException {
+        String big = "0123456789\\\"".repeat(20_000);
+        String json = "{\"z\":{\"b\":\"" + big + "\",\"a\":[1,{\"y\":\"" + big + "\",\"x\":2}]},\"a\":true}";
+        assertSorted(json, 1024,
+                "{\"a\":true,\"z\":{\"a\":[1,{\"x\":2,\"y\":\"" + big + "\"}],\"b\":\"" + big + "\"}}");
+    }
+
+    /**
+     * the buffers are counted by their capacity, of the open objects and of the closed ones alike,
+     * and are given back as they are spilled; nested objects larger than the budget do not pile them up
+     */
+    @Test
+    public void test_buffers_stay_in_the_budget() throws IOException {
+        StringBuilder ugly = new StringBuilder();
+        String pad = "v".repeat(300);
+        for (int level = 0; level < 8; level++) {
+            ugly.append(level > 0 ? ",\"z\":{" : "{");
+            for (int i = 0; i < 300; i++) {
+                ugly.append(String.format("\"k%03d\":\"%s\",", (i * 37) % 300, pad));
+            }
+            ugly.append("\"y\":").append(level);
+        }
+        ugly.append("}".repeat(8));
+        byte[] json = ugly.toString().getBytes(StandardCharsets.UTF_8);
+        int budget = 64 * 1024;
+        KeySorter sorter = new KeySorter(budget);
+        ByteFormatter engine = new JsonFlyweight.Formatter.Builder()
+                .lineSeparator("\n").build().newByteFormatter();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int off = 0; off < json.length; off += 4096) {
+            sorter.sort(json, off, Math.min(4096, json.length - off), engine, out);
+            assertThat(sorter.getHeld()).as("at %d", off).isLessThanOrEqualTo(budget);
+        }
+        engine.drainTo(out);
+        JsonFlyweight.Formatter inMemory = new JsonFlyweight.Formatter.Builder()
+                .sortKeys(Integer.MAX_VALUE).lineSeparator("\n").build();
+        assertThat(out.toString(StandardCharsets.UTF_8)).isEqualTo(prettyPrint(inMemory, ugly.toString()));
+        sorter.reset();
+        assertThat(sorter.getHeld()).isLessThanOrEqualTo(8 * (256 + 2 * 16 * Integer.BYTES));
+    }
+
+    /**
+     * the offsets of many small members take as much as their bytes, and are counted with them
+     */
+    @Test
+    public void test_offsets_of_small_members_stay_in_the_budget() throws IOException {
+        StringBuilder ugly = new StringBuilder("{");
+        for (int i = 0; i < 20_000; i++) {
+            ugly.append(String.format("\"%d\":0,", (i * 7919) % 20_000));
+        }
+        byte[] json = ugly.append("\"a\":0}").toString().getBytes(StandardCharsets.UTF_8);
+        // held open, the records, 15 bytes longer than the members, are counted with their two offsets
+        KeySorter unbounded = new KeySorter(Integer.MAX_VALUE);
+        ByteFormatter engine = new JsonFlyweight.Formatter.Builder().lineSeparator("\n").build().newByteFormatter();
+        unbounded.sort(json, 0, json.length - 1, engine, new ByteArrayOutputStream());
+        assertThat(unbounded.getHeld()).isGreaterThanOrEqualTo(json.length + 20_000L * (15 + 2 * Integer.BYTES));
+        unbounded.reset();
+        int budget = 64 * 1024;
+        KeySorter sorter = new KeySorter(budget);
+        engine = new JsonFlyweight.Formatter.Builder().lineSeparator("\n").build().newByteFormatter();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int off = 0; off < json.length; off += 4096) {
+            sorter.sort(json, off, Math.min(4096, json.length - off), engine, out);
+            assertThat(sorter.getHeld()).as("at %d", off).isLessThanOrEqualTo(budget);
+        }
+        engine.drainTo(out);
+        JsonFlyweight.Formatter inMemory = new JsonFlyweight.Formatter.Builder()
+                .sortKeys(Integer.MAX_VALUE).lineSeparator("\n").build();
+        assertThat(out.toString(StandardCharsets.UTF_8)).isEqualTo(prettyPrint(inMemory, ugly.toString()));
+    }
+
+    @Test
+    public void test_with_projection_and_cut_strings() throws IOException {
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder()
+                .sortKeys(1024).exclude("log.entries[*].response").maxStringLength(3).lineSeparator("\n").build();
+        String har = "{\"log\":{\"version\":\"1.2\",\"entries\":[{\"response\":{\"status\":200},"
+                + "\"request\":{\"url\":\"https://example.com\",\"method\":\"GET\"}}]}}";
+        assertThat(prettyPrint(formatter, har)).isEqualTo(pretty(
+                "{\"log\":{\"entries\":[{\"request\":{\"method\":\"GET\",\"url\":\"htt…(+16 chars)\"}}],"
+                        + "\"version\":\"1.2\"}}"));
+    }
+
+    @Test
+    public void test_strict_tells_where_in_the_input() {
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder()
+                .sortKeys(1024).strict(true).build();
+        Throwable t = catchThrowable(() -> prettyPrint(formatter, "{\"b\":1,\n\"a\" 2}"));
+        assertThat(t).isInstanceOf(JsonFlyweightException.class);
+        JsonFlyweightException e = (JsonFlyweightException) t;
+        assertThat(e.getLine()).isEqualTo(2);
+        assertThat(e.getOffset()).isEqualTo(12);
+    }
+
+    @Test
+    public void test_files() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_files");
+        Random random = new Random(3);
+        Object tree = randomObject(random, 0);
+        StringBuilder ugly = new StringBuilder();
+        write(tree, random, ugly);
+        Path input = Files.writeString(dir.resolve("ugly.json"), ugly);
+        Path output = dir.resolve("sorted.json");
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder()
+                .sortKeys(2048).lineSeparator("\n").build();
+        formatter.prettyPrint(input, output);
+        assertThat(Files.readString(output)).isEqualTo(pretty(canonical(tree)));
+        // the same by the parallel one, which falls back to this
+        formatter.prettyPrintParallel(input, output, java.util.concurrent.ForkJoinPool.commonPool());
+        assertThat(Files.readString(output)).isEqualTo(pretty(canonical(tree)));
+    }
+
+    @Test
+    public void test_bytes_only() {
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder().sortKeys(1024).build();
+        assertThat(catchThrowable(() -> formatter.prettyPrint(new StringReader("{}"), new StringWriter())))
+                .isInstanceOf(UnsupportedOperationException.class);
+        assertThat(catchThrowable(() -> new NonBlockingFormatter(formatter)))
+                .isInstanceOf(UnsupportedOperationException.class);
+        assertThat(catchThrowable(() -> new JsonFlyweight.Formatter.Builder().sortKeys(1000)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(catchThrowable(() -> new JsonFlyweight.Formatter.Builder().sortKeys(1024).checkpointInterval(1).build()))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void test_compareNames() {
+        byte[] a = "\"ab\"".getBytes(StandardCharsets.UTF_8);
+        byte[] b = "\"a\"".getBytes(StandardCharsets.UTF_8);
+        byte[] c = "\"a \"".getBytes(StandardCharsets.UTF_8);
+        assertThat(KeySorter.compareNames(a, 0, a.length, b, 0, b.length)).isGreaterThan(0);
+        assertThat(KeySorter.compareNames(c, 0, c.length, b, 0, b.length)).isGreaterThan(0);
+        assertThat(KeySorter.compareNames(c, 0, c.length, a, 0, a.length)).isLessThan(0);
+    }
+
+    private static void assertSorted(String json, int budget, String expectedUgly) throws IOException {
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder()
+                .sortKeys(budget).lineSeparator("\n").build();
+        String expected = pretty(expectedUgly);
+        assertThat(prettyPrint(formatter, json)).as("budget=%d", budget).isEqualTo(expected);
+        // again by the same Formatter, fed a few bytes at a time
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        formatter.prettyPrint(new Trickle(json.getBytes(StandardCharsets.UTF_8)), out);
+        assertThat(out.toString(StandardCharsets.UTF_8)).as("budget=%d, trickled", budget).isEqualTo(expected);
+    }
+
+    private static String prettyPrint(JsonFlyweight.Formatter formatter, String json) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        formatter.prettyPrint(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static String pretty(String json) throws IOException {
+        return prettyPrint(new JsonFlyweight.Formatter.Builder().lineSeparator("\n").build(), json);
+    }
+
+    // a JSON as a tree: an object is a List of String[1] names each followed by its value,
+    // an array is an Object[], a scalar is its text
+
+    private static Object randomObject(Random random, int depth) {
+        List<Object> object = new ArrayList<>();
+        int n = depth == 0 ? 400 : random.nextInt(depth < 3 ? 12 : 4);
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            String name;
+            do {
+                name = randomName(random);
+            } while (names.contains(name));
+            names.add(name);
+            object.add(new String[] { name });
+            object.add(randomValue(random, depth + 1));
+        }
+        return object;
+    }
+
+    private static Object randomValue(Random random, int depth) {
+        switch (depth < 4 ? random.nextInt(6) : random.nextInt(3)) {
+            case 0:
+                return String.valueOf(random.nextInt(100_000));
+            case 1:
+                String text = "lorem ipsum, {dolor} [sit]: \\\"amet\\\" 日本 ".substring(0, random.nextInt(40));
+                // not cut between a backslash and the quote it escapes
+                return "\"" + (text.endsWith("\\") ? text + "\"" : text) + "\"";
+            case 2:
+                return random.nextBoolean() ? "true" : "null";
+            case 3:
+                Object[] array = new Object[random.nextInt(5)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = randomValue(random, depth + 1);
+                }
+                return array;
+            default:
+                return randomObject(random, depth);
+        }
+    }
+
+    private static String randomName(Random random) {
+        String[] parts = { "a", "b", "ab", "Z", "é", "_", "1", "request", "re" };
+        StringBuilder sb = new StringBuilder();
+        for (int i = random.nextInt(3); i >= 0; i--) {
+            sb.append(parts[random.nextInt(parts.length)]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write the tree with the members in a random order and some whitespace
+     */
+    @SuppressWarnings("unchecked")
+    private static void write(Object value, Random random, StringBuilder sb) {
+        if (value instanceof List) {
+            List<Object> object = (List<Object>) value;
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < object.size(); i += 2) {
+                order.add(i);
+            }
+            Collections.shuffle(order, random);
+            sb.append("{ ");
+            for (int i = 0; i < order.size(); i++) {
+                sb.append(i > 0 ? ",\n  " : "");
+                sb.append('"').append(((String[]) object.get(order.get(i)))[0]).append("\" :\t");
+                write(object.get(order.get(i) + 1), random, sb);
+            }
+            sb.append(" }");
+        } else if (value instanceof Object[]) {
+            sb.append("[ ");
+            Object[] array = (Object[]) value;
+            for (int i = 0; i < array.length; i++) {
+                sb.append(i > 0 ? ", " : "");
+                write(array[i], random, sb);
+            }
+            sb.append(" ]");
+        } else {
+            sb.append(value);
+        }
+    }
+
+    /**
+     * @return the tree without whitespace, the members sorted by the bytes of their names in UTF-8
+     */
+    @SuppressWarnings("unchecked")
+    private static String canonical(Object value) {
+        if (value instanceof List) {
+            List<Object> object = (List<Object>) value;
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < object.size(); i += 2) {
+                order.add(i);
+            }
+            order.sort((x, y) -> Arrays.compareUnsigned(
+                    ((String[]) object.get(x))[0].getBytes(StandardCharsets.UTF_8),
+                    ((String[]) object.get(y))[0].getBytes(StandardCharsets.UTF_8)));
+            StringBuilder sb = new StringBuilder("{");
+            for (int i = 0; i < order.size(); i++) {
+                sb.append(i > 0 ? "," : "").append('"').append(((String[]) object.get(order.get(i)))[0]).append("\":")
+                        .append(canonical(object.get(order.get(i) + 1)));
+            }
+            return sb.append('}').toString();
+        } else if (value instanceof Object[]) {
+            StringBuilder sb = new StringBuilder("[");
+            Object[] array = (Object[]) value;
+            for (int i = 0; i < array.length; i++) {
+                sb.append(i > 0 ? "," : "").append(canonical(array[i]));
+            }
+            return sb.append(']').toString();
+        }
+        return value.toString();
+    }
+
+    /**
+     * gives a few bytes per read, to cut the input anywhere
+     */
+    private static final class Trickle extends FilterInputStream {
+        private final Random random = new Random(5);
+
+        Trickle(byte[] bytes) {
+            super(new ByteArrayInputStream(bytes));
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return in.read(b, off, Math.min(len, 1 + random.nextInt(7)));
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.kazurayam.jsonflyweight;
+
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class LineIndexTest {
+
+    private static final TestOutputOrganizer too =
+            new TestOutputOrganizer.Builder(LineIndexTest.class)
+                    .outputDirectoryRelativeToProject("build/tmp/testOutput")
+                    .subOutputDirectory(LineIndexTest.class).build();
+
+    /**
+     * every entry is checked against the lines found in the output;
+     * the small buffer makes the lines straddle the drains
+     */
+    @Test
+    public void test_entries_match_the_lines() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_entries_match_the_lines");
+        Path ugly = writeHar(dir.resolve("har.json"), 500);
+        for (String separator : new String[] { "\n", "\r\n" }) {
+            Path pretty = dir.resolve("pretty" + separator.length() + ".json");
+            JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder()
+                    .lineSeparator(separator).bufferCapacity(1024).lineIndex(7).build();
+            int numLines = formatter.prettyPrint(ugly, pretty);
+            List<String> lines = readLines(pretty, separator);
+            List<Long> offsets = lineOffsets(pretty, separator);
+            assertThat(lines).hasSize(numLines + 1);
+            try (LineIndex index = LineIndex.open(LineIndex.sideCarOf(pretty))) {
+                assertThat(index.getInterval()).isEqualTo(7);
+                assertThat(index.getNumLines()).isEqualTo(numLines + 1);
+                assertThat(index.size()).isEqualTo(numLines / 7 + 1);
+                for (int i = 0; i < index.size(); i++) {
+                    LineIndex.Entry entry = index.get(i);
+                    String line = lines.get((int) entry.getLine());
+                    assertThat(entry.getOffset()).as(entry.toString()).isEqualTo(offsets.get((int) entry.getLine()));
+                    assertThat(entry.getDepth() * 2).as(entry.toString())
+                            .isEqualTo(line.length() - line.trim().length());
+                    // the blank line in an empty object or array counts as closing it
+                    assertThat(entry.isClosing()).as(entry.toString()).isEqualTo(line.trim().isEmpty()
+                            || line.trim().startsWith("}") || line.trim().startsWith("]"));
+                    if (line.trim().startsWith("\"")) {
+                        String key = line.trim().substring(1, line.trim().indexOf('"', 1));
+                        assertThat(entry.getPath()).as(entry.toString()).endsWith("." + key);
+                    }
+                }
+                assertThat(index.get(0).getPath()).isEqualTo("$");
+            }
+        }
+    }
+
+    @Test
+    public void test_floorPath() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_floorPath");
+        Path ugly = writeHar(dir.resolve("har.json"), 2000);
+        // every line indexed tells the exact line of each value
+        Path exact = dir.resolve("exact.json");
+        new JsonFlyweight.Formatter.Builder().lineSeparator("\n").lineIndex(1).build().prettyPrint(ugly, exact);
+        Path sparse = dir.resolve("sparse.json");
+        new JsonFlyweight.Formatter.Builder().lineSeparator("\n").lineIndex(64).build().prettyPrint(ugly, sparse);
+        assertThat(Files.readAllBytes(sparse)).isEqualTo(Files.readAllBytes(exact));
+        try (LineIndex all = LineIndex.open(LineIndex.sideCarOf(exact));
+             LineIndex index = LineIndex.open(LineIndex.sideCarOf(sparse))) {
+            for (int n : new int[] { 0, 1, 17, 999, 1000, 1999 }) {
+                String[][] paths = {
+                        { "$.log.entries[" + n + "]", "$.log.entries[" + n + "]" },
+                        { "$.log.entries[" + n + "].request", "$.log.entries[" + n + "].request" },
+                        { "log.entries[" + n + "].response.content.text",
+                                "$.log.entries[" + n + "].response.content.text" },
+                        { "$['log']['entries'][" + n + "]['timings']", "$.log.entries[" + n + "].timings" } };
+                for (String[] pair : paths) {
+                    String path = pair[0];
+                    LineIndex.Entry expected = all.floorPath(path);
+                    assertThat(expected.isClosing()).isFalse();
+                    assertThat(expected.getPath()).isEqualTo(pair[1]);
+                    LineIndex.Entry actual = index.floorPath(path);
+                    assertThat(actual.getOffset()).as(path).isLessThanOrEqualTo(expected.getOffset());
+                    if (expected.getLine() % 64 == 0) {
+                        assertThat(actual.getOffset()).as(path).isEqualTo(expected.getOffset());
+                    }
+                }
+            }
+            assertThat(all.floorPath("$.log.entries[5].request").getPath()).isEqualTo("$.log.entries[5].request");
+            assertThat(all.floorPath("$.log.version").getPath()).isEqualTo("$.log.version");
+            assertThat(index.floorPath("$").getOffset()).isEqualTo(0);
+            // not in the JSON: somewhere before where it would be
+            assertThat(all.floorPath("$.log.entries[2000]").getOffset()).isLessThan(Files.size(exact));
+            assertThat(all.floorPath("$.log.pages").getOffset()).isLessThan(Files.size(exact));
+            assertThatThrownBy(() -> index.floorPath("$.log.entries[*]"))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    /**
+     * the names which are not identifiers are compared in their quoted form, as they lie in the index
+     */
+    @Test
+    public void test_floorPath_quoted_names() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_floorPath_quoted_names");
+        Path ugly = dir.resolve("ugly.json");
+        Files.writeString(ugly, "{\"a b\":[1,2],\"it's\":{\"x\":[3,{\"y\":4}]},\"a.b\":5,\"名前\":6,\"z\":7}",
+                StandardCharsets.UTF_8);
+        Path pretty = dir.resolve("pretty.json");
+        new JsonFlyweight.Formatter.Builder().lineSeparator("\n").lineIndex(1).build().prettyPrint(ugly, pretty);
+        try (LineIndex index = LineIndex.open(LineIndex.sideCarOf(pretty))) {
+            assertThat(index.floorPath("$['a b'][1]").getPath()).isEqualTo("$['a b'][1]");
+            assertThat(index.floorPath("$['it\\'s'].x[1].y").getPath()).isEqualTo("$['it\\'s'].x[1].y");
+            assertThat(index.floorPath("$['a.b']").getPath()).isEqualTo("$['a.b']");
+            assertThat(index.floorPath("$.名前").getPath()).isEqualTo("$.名前");
+            assertThat(index.floorPath("$['z']").getPath()).isEqualTo("$.z");
+            assertThat(index.floorPath("$.a").getLine()).isLessThan(index.floorPath("$.z").getLine());
+        }
+    }
+
+    /**
+     * the blank line inside an empty object or array is not taken for an element of it
+     */
+    @Test
+    public void test_empty_containers() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_empty_containers");
+        String[][] cases = {
+                // the JSON, then the paths of its lines, "!" marking the closing ones
+                { "[]", "$", "!$", "!$" },
+                { "{}", "$", "!$", "!$" },
+                { "[[],{}]", "$", "$[0]", "!$[0]", "!$[0]", "$[1]", "!$[1]", "!$[1]", "!$" },
+                { "{\"a\":[],\"b\":1}", "$", "$.a", "!$.a", "!$.a", "$.b", "!$" }
+        };
+        for (String[] c : cases) {
+            Path ugly = Files.writeString(dir.resolve("ugly.json"), c[0]);
+            Path pretty = dir.resolve("pretty.json");
+            new JsonFlyweight.Formatter.Builder().lineSeparator("\n").lineIndex(1).build().prettyPrint(ugly, pretty);
+            try (LineIndex index = LineIndex.open(LineIndex.sideCarOf(pretty))) {
+                assertThat(index.size()).as(c[0]).isEqualTo(c.length - 1);
+                for (int i = 0; i < index.size(); i++) {
+                    LineIndex.Entry entry = index.get(i);
+                    assertThat((entry.isClosing() ? "!" : "") + entry.getPath()).as(c[0]).isEqualTo(c[i + 1]);
+                }
+                if (c[0].equals("[]")) {
+                    assertThat(index.floorPath("$[0]").getPath()).isNotEqualTo("$[0]");
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test_offsetOfLine() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_offsetOfLine");
+        Path ugly = writeHar(dir.resolve("har.json"), 100);
+        Path pretty = dir.resolve("pretty.json");
+        new JsonFlyweight.Formatter.Builder().lineSeparator("\r\n").lineIndex(10).build().prettyPrint(ugly, pretty);
+        List<Long> offsets = lineOffsets(pretty, "\r\n");
+        try (LineIndex index = LineIndex.open(LineIndex.sideCarOf(pretty));
+             FileChannel channel = FileChannel.open(pretty, StandardOpenOption.READ)) {
+            for (int line = 0; line < offsets.size(); line++) {
+                assertThat(index.offsetOfLine(line, channel)).isEqualTo(offsets.get(line));
+            }
+            assertThatThrownBy(() -> index.floorLine(offsets.size()))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    public void test_invalid() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_invalid");
+        assertThatThrownBy(() -> new JsonFlyweight.Formatter.Builder().lineIndex(-1))
+                .isInstanceOf(IllegalArgumentException.class);
+        Path notIndex = dir.resolve("not.idx");
+        Files.writeString(notIndex, "{\"this is\": \"not an index at all\"}");
+        assertThatThrownBy(() -> LineIndex.open(notIndex)).isInstanceOf(IOException.class);
+        // no index unless asked
+        Path ugly = writeHar(dir.resolve("har.json"), 1);
+        Path pretty = dir.resolve("pretty.json");
+        JsonFlyweight.prettyPrint(ugly, pretty);
+        assertThat(LineIndex.sideCarOf(pretty)).doesNotExist();
+    }
+
+    private static Path writeHar(Path file, int numEntries) throws IOException {
+        try (Writer w = Files.newBufferedWriter(file)) {
+            w.write("{\"log\":{\"version\":\"1.2\",\"entries\":[");
+            for (int i = 0; i < numEntries; i++) {
+                if (i > 0) {
+                    w.write(",");
+                }
+                w.write("{\"request\":{\"method\":\"GET\",\"url\":\"https://example.com/" + i + "?q=[{,}]\"," +
+                        "\"headers\":[{\"name\":\"a\",\"value\":\"b\"},{\"name\":\"c\",\"value\":\"d\\\"}\"}]},");
+                w.write("\"response\":{\"status\":200,\"content\":{\"size\":" + i + ",\"text\":\"" +
+                        "x".repeat(i % 700) + "\"},\"cookies\":[],\"empty\":{}},");
+                w.write("\"timings\":{\"wait\":" + (i * 0.5) + "}}");
+            }
+            w.write("]}}");
+        }
+        return file;
+    }
+
+    private static List<String> readLines(Path file, String separator) throws IOException {
+        String text = Files.readString(file, StandardCharsets.UTF_8);
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        int found;
+        while ((found = text.indexOf(separator, start)) >= 0) {
+            lines.add(text.substring(start, found));
+            start = found + separator.length();
+        }
+        lines.add(text.substring(start));
+        return lines;
+    }
+
+    private static List<Long> lineOffsets(Path file, String separator) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        byte last = (byte) separator.charAt(separator.length() - 1);
+        List<Long> offsets = new ArrayList<>();
+        offsets.add(0L);
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == last) {
+                offsets.add((long) i + 1);
+            }
+        }
+        return offsets;
+    }
+}
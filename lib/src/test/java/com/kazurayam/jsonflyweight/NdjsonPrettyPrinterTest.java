@@ -0,0 +1,239 @@
+package com.kazurayam.jsonflyweight;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+public class NdjsonPrettyPrinterTest {
+
+    private static final String TRICKY =
+            "{\"path\":\"C:\\\\temp\\\\\",\"quote\":\"say \\\"hi\\\", {ok} [ok]\"," +
+                    "\"list\":[1, 2.5, true, null, {\"名前\":\"日本語\"}],\"empty\":{}}";
+
+    private ForkJoinPool pool;
+
+    @BeforeClass
+    public void beforeClass() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterClass
+    public void afterClass() {
+        pool.shutdown();
+    }
+
+    /**
+     * small batches and reads of a few bytes make the records straddle the batches;
+     * the records longer than a batch are streamed, and are cut short as well when flushed while idle
+     */
+    @Test
+    public void test_same_as_record_by_record() throws IOException {
+        List<String> records = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            records.add(i % 3 == 0 ? TRICKY
+                    : "{\"n\":" + i + ",\"text\":\"" + "x".repeat(i % 150) + "\",\"a\":[{\"b\":[]}]}");
+        }
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < records.size(); i++) {
+            input.append(i % 7 == 0 ? "  " : "").append(records.get(i)).append(i % 5 == 0 ? " \r\n" : "\n");
+            if (i % 11 == 0) {
+                input.append("\n");
+            }
+        }
+        byte[] expected = recordByRecord(new JsonFlyweight.Formatter.Builder().lineSeparator("\n").build(), records);
+        for (boolean flushWhenIdle : new boolean[] { false, true }) {
+            JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder()
+                    .lineSeparator("\n").flushWhenIdle(flushWhenIdle).build();
+            for (int batchSize : new int[] { 7, 64, 100, 333, 4096 }) {
+                ByteArrayOutputStream actual = new ByteArrayOutputStream();
+                long numRecords = new NdjsonPrettyPrinter(formatter, pool, batchSize)
+                        .prettyPrint(new Dribble(input.toString(), batchSize), actual);
+                assertThat(numRecords).as("batchSize=%d", batchSize).isEqualTo(records.size());
+                assertThat(actual.toString(StandardCharsets.UTF_8)).as("batchSize=%d", batchSize)
+                        .isEqualTo(new String(expected, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * a line feed in a string or in brackets does not end a record;
+     * small batches cut such records, so that the batches after them are split from a wrong state
+     */
+    @Test
+    public void test_records_spanning_lines() throws IOException {
+        String input = "{\"a\":\n 1,\n\"b\": [\n2\n]}\n[\"x\\n\"]\n\n\"just a string\"\n".repeat(20);
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder().lineSeparator("\n").build();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        long numRecords = formatter.prettyPrintNdjson(
+                new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), expected, pool);
+        assertThat(numRecords).isEqualTo(60);
+        assertThat(expected.toString(StandardCharsets.UTF_8)).contains("\"b\": [").contains("[\n  \"x\\n\"\n]\n")
+                .endsWith("\"just a string\"\n");
+        for (int batchSize = 1; batchSize <= 40; batchSize++) {
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            assertThat(new NdjsonPrettyPrinter(formatter, pool, batchSize)
+                    .prettyPrint(new Dribble(input, batchSize), actual)).as("batchSize=%d", batchSize).isEqualTo(60);
+            assertThat(actual.toString(StandardCharsets.UTF_8)).as("batchSize=%d", batchSize)
+                    .isEqualTo(expected.toString(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void test_strict_tells_the_line_in_the_whole_input() throws IOException {
+        String input = "{\"a\":1}\n{\"b\":2}\n{\"c\" 3}\n{\"d\":4}\n";
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder().strict(true).build();
+        for (int batchSize : new int[] { 5, 1024 }) {
+            Throwable t = catchThrowable(() -> new NdjsonPrettyPrinter(formatter, pool, batchSize)
+                    .prettyPrint(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)),
+                            new ByteArrayOutputStream()));
+            assertThat(t).isInstanceOf(JsonFlyweightException.class);
+            JsonFlyweightException e = (JsonFlyweightException) t;
+            assertThat(e.getLine()).as("batchSize=%d", batchSize).isEqualTo(3);
+            assertThat(e.getOffset()).as("batchSize=%d", batchSize).isEqualTo(input.indexOf("3}"));
+        }
+    }
+
+    /**
+     * the records come out as soon as they come in, not when a batch of a megabyte is full
+     */
+    @Test
+    public void test_records_are_written_as_they_come() throws Exception {
+        PipedOutputStream feed = new PipedOutputStream();
+        PipedInputStream in = new PipedInputStream(feed, 64 * 1024);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder()
+                .lineSeparator("\n").flushWhenIdle(true).build();
+        FutureTask<Long> printing = new FutureTask<>(
+                () -> new NdjsonPrettyPrinter(formatter, pool).prettyPrint(in, out));
+        Thread thread = new Thread(printing);
+        thread.setDaemon(true);
+        thread.start();
+        feed.write("{\"a\":1}\n{\"b\":".getBytes(StandardCharsets.UTF_8));
+        feed.flush();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (out.toString(StandardCharsets.UTF_8).isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(out.toString(StandardCharsets.UTF_8)).isEqualTo("{\n  \"a\": 1\n}\n");
+        feed.write("2}\n".getBytes(StandardCharsets.UTF_8));
+        feed.close();
+        assertThat(printing.get(10, TimeUnit.SECONDS)).isEqualTo(2);
+        assertThat(out.toString(StandardCharsets.UTF_8)).isEqualTo("{\n  \"a\": 1\n}\n{\n  \"b\": 2\n}\n");
+    }
+
+    /**
+     * an input which never tells that more is ready is still read into full batches
+     */
+    @Test
+    public void test_batches_are_full_unless_flushed_when_idle() throws IOException {
+        String input = "{\"a\":1}\n".repeat(1000);
+        for (boolean flushWhenIdle : new boolean[] { false, true }) {
+            JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder()
+                    .lineSeparator("\n").flushWhenIdle(flushWhenIdle).build();
+            int[] flushes = new int[1];
+            ByteArrayOutputStream out = new ByteArrayOutputStream() {
+                @Override
+                public void flush() {
+                    flushes[0]++;
+                }
+            };
+            InputStream in = new FilterInputStream(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8))) {
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    return super.read(b, off, Math.min(len, 100));
+                }
+
+                @Override
+                public int available() {
+                    return 0;
+                }
+            };
+            assertThat(new NdjsonPrettyPrinter(formatter, pool, 4096).prettyPrint(in, out)).isEqualTo(1000);
+            assertThat(out.toString(StandardCharsets.UTF_8)).isEqualTo("{\n  \"a\": 1\n}\n".repeat(1000));
+            if (flushWhenIdle) {
+                assertThat(flushes[0]).isGreaterThan(input.length() / 100);
+            } else {
+                assertThat(flushes[0]).isEqualTo(1);
+            }
+        }
+    }
+
+    /**
+     * the blanks after a record at the end of the batches are not held back without a limit
+     */
+    @Test
+    public void test_long_runs_of_blanks() throws IOException {
+        String spaced = "[2]" + "\t".repeat(10_000) + "[3]";
+        String input = "{\"a\":1}" + " ".repeat(10_000) + "\n" + spaced + "\n";
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder().lineSeparator("\n").build();
+        byte[] expected = recordByRecord(formatter, List.of("{\"a\":1}", spaced));
+        for (int batchSize : new int[] { 100, 4096 }) {
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            assertThat(new NdjsonPrettyPrinter(formatter, pool, batchSize)
+                    .prettyPrint(new Dribble(input, batchSize), actual)).as("batchSize=%d", batchSize).isEqualTo(2);
+            assertThat(actual.toByteArray()).as("batchSize=%d", batchSize).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void test_static_method() throws IOException {
+        List<String> records = List.of(TRICKY, "[]", "{\"k\":\"v\"}");
+        String input = String.join("\n", records);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        long numRecords = JsonFlyweight.prettyPrintNdjson(
+                new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), actual);
+        assertThat(numRecords).isEqualTo(3);
+        assertThat(actual.toByteArray())
+                .isEqualTo(recordByRecord(new JsonFlyweight.Formatter.Builder().build(), records));
+    }
+
+    private static byte[] recordByRecord(JsonFlyweight.Formatter formatter, List<String> records)
+            throws IOException {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (String record : records) {
+            formatter.prettyPrint(new ByteArrayInputStream(record.getBytes(StandardCharsets.UTF_8)), expected);
+            expected.write(formatter.getLineSeparator().getBytes(StandardCharsets.US_ASCII));
+        }
+        return expected.toByteArray();
+    }
+
+    /**
+     * returns a few bytes at a time, and now and then tells that no more is ready, as a pipe does
+     */
+    private static final class Dribble extends FilterInputStream {
+        private final Random random;
+
+        Dribble(String text, long seed) {
+            super(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+            this.random = new Random(seed);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, 1 + random.nextInt(50)));
+        }
+
+        @Override
+        public int available() throws IOException {
+            return random.nextInt(4) == 0 ? 0 : super.available();
+        }
+    }
+}
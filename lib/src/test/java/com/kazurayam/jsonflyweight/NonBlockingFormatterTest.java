@@ -0,0 +1,71 @@
+package com.kazurayam.jsonflyweight;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class NonBlockingFormatterTest {
+
+    private static final byte[] UGLY =
+            ("{\"path\":\"C:\\\\temp\\\\\",\"quote\":\"say \\\"hi\\\", {ok}\"," +
+                    "\"list\":[1, 2.5, true, null, {\"名前\":\"日本語\"}],\"empty\":{}}")
+                    .getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * the fragments end in the middle of multi-byte UTF-8 sequences and right after backslashes,
+     * and the output buffer is often too small
+     */
+    @Test
+    public void test_feed_in_fragments() throws IOException {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        int expectedLines = JsonFlyweight.prettyPrint(new ByteArrayInputStream(UGLY), expected);
+        Random random = new Random(0);
+        for (int t = 0; t < 100; t++) {
+            boolean direct = (t % 2 == 0);
+            NonBlockingFormatter formatter = new NonBlockingFormatter();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ByteBuffer out = ByteBuffer.allocate(1 + random.nextInt(8));
+            int i = 0;
+            while (i < UGLY.length) {
+                int n = Math.min(UGLY.length - i, random.nextInt(5));
+                ByteBuffer in = direct ? ByteBuffer.allocateDirect(n) : ByteBuffer.allocate(n);
+                in.put(UGLY, i, n).flip();
+                while (in.hasRemaining()) {
+                    formatter.feed(in, out);
+                    drain(out, baos);
+                }
+                i += n;
+            }
+            formatter.finish();
+            while (!formatter.flush(out)) {
+                drain(out, baos);
+            }
+            drain(out, baos);
+            assertThat(formatter.isFinished()).isTrue();
+            assertThat(baos.toByteArray()).isEqualTo(expected.toByteArray());
+            assertThat(formatter.getNumLines()).isEqualTo(expectedLines);
+        }
+    }
+
+    @Test
+    public void test_feed_after_finish() throws IOException {
+        NonBlockingFormatter formatter = new NonBlockingFormatter();
+        formatter.finish();
+        assertThatThrownBy(() -> formatter.feed(ByteBuffer.wrap(UGLY), ByteBuffer.allocate(16)))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    private static void drain(ByteBuffer out, ByteArrayOutputStream baos) {
+        out.flip();
+        baos.write(out.array(), out.arrayOffset() + out.position(), out.remaining());
+        out.clear();
+    }
+}
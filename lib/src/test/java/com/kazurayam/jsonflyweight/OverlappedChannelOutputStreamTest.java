@@ -0,0 +1,232 @@
+package com.kazurayam.jsonflyweight;
+
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+public class OverlappedChannelOutputStreamTest {
+
+    private static final TestOutputOrganizer too =
+            new TestOutputOrganizer.Builder(OverlappedChannelOutputStreamTest.class)
+                    .outputDirectoryRelativeToProject("build/tmp/testOutput")
+                    .subOutputDirectory(OverlappedChannelOutputStreamTest.class).build();
+
+    @Test
+    public void test_same_bytes_in_the_same_order() throws IOException {
+        Random random = new Random(20);
+        byte[] data = new byte[300_000];
+        random.nextBytes(data);
+        for (int numBuffers : new int[] { 2, 3, 5 }) {
+            ByteArrayOutputStream written = new ByteArrayOutputStream();
+            OverlappedChannelOutputStream out = new OverlappedChannelOutputStream(4096, numBuffers);
+            // reused for a second channel, as a Workspace does
+            for (int round = 0; round < 2; round++) {
+                written.reset();
+                out.attach(Channels.newChannel(written));
+                int i = 0;
+                while (i < data.length) {
+                    int n = Math.min(data.length - i, random.nextInt(10_000));
+                    if (n == 1) {
+                        out.write(data[i]);
+                    } else {
+                        out.write(data, i, n);
+                    }
+                    i += n;
+                    if (random.nextInt(10) == 0) {
+                        out.flush();
+                        assertThat(written.size()).isEqualTo(i);
+                    }
+                }
+                out.flush();
+                out.detach();
+                assertThat(written.toByteArray()).as("numBuffers=%d", numBuffers).isEqualTo(data);
+            }
+        }
+    }
+
+    /**
+     * the caller goes on filling the other buffers while the channel is stuck in a write
+     */
+    @Test
+    public void test_fills_while_writing() throws Exception {
+        Stuck channel = new Stuck();
+        OverlappedChannelOutputStream out = new OverlappedChannelOutputStream(4096, 3);
+        out.attach(channel);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // the first buffer goes to the writer, which gets stuck; the second is handed over
+            // and the third is being filled
+            Future<?> filling = executor.submit(() -> {
+                out.write(new byte[4096 * 2 + 100]);
+                return null;
+            });
+            filling.get(10, TimeUnit.SECONDS);
+            assertThat(channel.entered.await(10, TimeUnit.SECONDS)).isTrue();
+            assertThat(channel.written.size()).isEqualTo(0);
+            channel.release.countDown();
+            out.flush();
+            assertThat(channel.written.size()).isEqualTo(4096 * 2 + 100);
+        } finally {
+            channel.release.countDown();
+            out.detach();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void test_failure_of_a_write_is_thrown() throws IOException {
+        OverlappedChannelOutputStream out = new OverlappedChannelOutputStream(4096, 2);
+        out.attach(new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                throw new IOException("No space left on device");
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        try {
+            // thrown at the next write or at the flush, whichever comes after the failure
+            Throwable t = catchThrowable(() -> {
+                out.write(new byte[10_000]);
+                out.flush();
+            });
+            assertThat(t).isInstanceOf(IOException.class);
+            assertThat(t.getMessage()).isEqualTo("No space left on device");
+        } finally {
+            out.detach();
+        }
+    }
+
+    /**
+     * an interrupt must not let a writer which is still writing share the buffers with the next one
+     */
+    @Test
+    public void test_detach_waits_for_the_writer_even_if_interrupted() throws Exception {
+        Stuck channel = new Stuck();
+        OverlappedChannelOutputStream out = new OverlappedChannelOutputStream(4096, 2);
+        out.attach(channel);
+        byte[] data = new byte[5000];
+        new Random(7).nextBytes(data);
+        out.write(data);
+        channel.entered.await();
+        AtomicBoolean interrupted = new AtomicBoolean();
+        Thread detaching = new Thread(() -> {
+            out.detach();
+            interrupted.set(Thread.currentThread().isInterrupted());
+        });
+        detaching.start();
+        detaching.interrupt();
+        detaching.join(200);
+        assertThat(detaching.isAlive()).isTrue();
+        channel.release.countDown();
+        detaching.join();
+        assertThat(interrupted.get()).isTrue();
+        assertThat(writerThreads()).isEqualTo(0);
+        assertThat(channel.written.toByteArray()).isEqualTo(Arrays.copyOf(data, 4096));
+        // and the stream goes on with another channel
+        Stuck next = new Stuck();
+        next.release.countDown();
+        out.attach(next);
+        out.write(data);
+        out.flush();
+        out.detach();
+        assertThat(next.written.toByteArray()).isEqualTo(data);
+    }
+
+    @Test
+    public void test_prettyPrint_files() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_prettyPrint_files");
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < 5000; i++) {
+            sb.append(i > 0 ? "," : "").append("{\"id\":").append(i).append(",\"name\":\"item ").append(i)
+                    .append("\",\"tags\":[\"a\",\"b\"],\"note\":\"say \\\"hi\\\" 日本\"}");
+        }
+        Path ugly = Files.writeString(dir.resolve("ugly.json"), sb.append("]"));
+        Path expected = dir.resolve("expected.json");
+        int expectedLines = new JsonFlyweight.Formatter.Builder().build().prettyPrint(ugly, expected);
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder()
+                .bufferCapacity(4096).overlappedWrites(3).build();
+        Path actual = dir.resolve("actual.json");
+        for (int round = 0; round < 2; round++) {
+            assertThat(formatter.prettyPrint(ugly, actual)).isEqualTo(expectedLines);
+            assertThat(Files.readAllBytes(actual)).isEqualTo(Files.readAllBytes(expected));
+        }
+        // along with the checkpoints, which flush the writes before they are taken
+        JsonFlyweight.Formatter checkpointing = new JsonFlyweight.Formatter.Builder()
+                .bufferCapacity(4096).overlappedWrites(2).checkpointInterval(50_000).build();
+        assertThat(checkpointing.prettyPrint(ugly, actual)).isEqualTo(expectedLines);
+        assertThat(Files.readAllBytes(actual)).isEqualTo(Files.readAllBytes(expected));
+        assertThat(writerThreads()).isEqualTo(0);
+    }
+
+    @Test
+    public void test_one_buffer_is_not_overlapped() {
+        Throwable t = catchThrowable(() -> new JsonFlyweight.Formatter.Builder().overlappedWrites(1));
+        assertThat(t).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static long writerThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> t.getName().equals("JsonFlyweight-writer")).count();
+    }
+
+    /**
+     * a channel whose writes wait until released
+     */
+    private static final class Stuck implements WritableByteChannel {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            int n = src.remaining();
+            byte[] b = new byte[n];
+            src.get(b);
+            synchronized (written) {
+                written.write(b, 0, n);
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
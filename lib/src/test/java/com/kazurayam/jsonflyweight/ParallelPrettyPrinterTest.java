@@ -0,0 +1,95 @@
+package com.kazurayam.jsonflyweight;
+
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ParallelPrettyPrinterTest {
+
+    private static final TestOutputOrganizer too =
+            new TestOutputOrganizer.Builder(ParallelPrettyPrinterTest.class)
+                    .outputDirectoryRelativeToProject("build/tmp/testOutput")
+                    .subOutputDirectory(ParallelPrettyPrinterTest.class).build();
+
+    private static final String TRICKY =
+            "{\"path\":\"C:\\\\temp\\\\\",\"quote\":\"say \\\"hi\\\", {ok} [ok]\"," +
+                    "\"list\":[1, 2.5, true, null, {\"名前\":\"日本語\"}],\"empty\":{}}";
+
+    private Path fixtures;
+    private ForkJoinPool pool;
+
+    @BeforeClass
+    public void beforeClass() {
+        fixtures = too.getProjectDirectory().resolve("src/test/fixtures");
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterClass
+    public void afterClass() {
+        pool.shutdown();
+    }
+
+    /**
+     * cut the input into chunks of a few bytes so that the chunk boundaries fall
+     * inside strings, right after a backslash, inside multi-byte UTF-8 sequences, etc.
+     */
+    @Test
+    public void test_tiny_chunks_same_as_sequential() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_tiny_chunks_same_as_sequential");
+        Path in = dir.resolve("in.json");
+        Files.writeString(in, "[" + TRICKY + "," + Files.readString(fixtures.resolve("store.json")) + "]");
+        Path expected = dir.resolve("expected.json");
+        int expectedLines = JsonFlyweight.prettyPrint(in, expected);
+        JsonFlyweight.Formatter formatter =
+                new JsonFlyweight.Formatter.Builder().bufferCapacity(1024).build();
+        for (int chunkSize = 1; chunkSize <= 17; chunkSize++) {
+            Path actual = dir.resolve("actual" + chunkSize + ".json");
+            int actualLines = new ParallelPrettyPrinter(formatter, pool, chunkSize).prettyPrint(in, actual);
+            assertThat(actualLines).as("chunkSize=%d", chunkSize).isEqualTo(expectedLines);
+            assertThat(Files.readAllBytes(actual)).as("chunkSize=%d", chunkSize)
+                    .isEqualTo(Files.readAllBytes(expected));
+        }
+    }
+
+    @Test
+    public void test_prettyPrintParallel() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_prettyPrintParallel");
+        Path in = dir.resolve("in.json");
+        try (Writer w = Files.newBufferedWriter(in)) {
+            w.write("[");
+            for (int i = 0; i < 100_000; i++) {
+                if (i > 0) {
+                    w.write(",");
+                }
+                w.write(TRICKY);
+            }
+            w.write("]");
+        }
+        Path expected = dir.resolve("expected.json");
+        int expectedLines = JsonFlyweight.prettyPrint(in, expected);
+        Path actual = dir.resolve("actual.json");
+        int actualLines = JsonFlyweight.prettyPrintParallel(in, actual, pool);
+        assertThat(actualLines).isEqualTo(expectedLines);
+        assertThat(Files.readAllBytes(actual)).isEqualTo(Files.readAllBytes(expected));
+    }
+
+    @Test
+    public void test_empty_file() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_empty_file");
+        Path in = dir.resolve("in.json");
+        Files.writeString(in, "");
+        Path out = dir.resolve("out.json");
+        assertThat(JsonFlyweight.prettyPrintParallel(in, out, pool)).isEqualTo(0);
+        assertThat(out).exists();
+        assertThat(Files.size(out)).isEqualTo(0);
+    }
+}
@@ -0,0 +1,145 @@
+package com.kazurayam.jsonflyweight;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PrettyPrintProcessorTest {
+
+    private static final byte[] UGLY =
+            ("{\"path\":\"C:\\\\temp\\\\\",\"quote\":\"say \\\"hi\\\", {ok}\"," +
+                    "\"list\":[1, 2.5, true, null, {\"名前\":\"日本語\"}],\"empty\":{}}")
+                    .getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * the Subscriber requests one buffer at a time
+     */
+    @Test
+    public void test_publish_through_processor() throws Exception {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        int expectedLines = JsonFlyweight.prettyPrint(new ByteArrayInputStream(UGLY), expected);
+        // a small buffer so that a fragment yields several output buffers
+        PrettyPrintProcessor processor = new PrettyPrintProcessor(
+                new JsonFlyweight.Formatter.Builder().bufferCapacity(1024).build());
+        CollectingSubscriber subscriber = new CollectingSubscriber();
+        try (SubmissionPublisher<ByteBuffer> publisher = new SubmissionPublisher<>()) {
+            publisher.subscribe(processor);
+            processor.subscribe(subscriber);
+            for (int i = 0; i < UGLY.length; i += 3) {
+                publisher.submit(ByteBuffer.wrap(UGLY, i, Math.min(3, UGLY.length - i)));
+            }
+        }
+        subscriber.completion.get(10, TimeUnit.SECONDS);
+        assertThat(subscriber.baos.toByteArray()).isEqualTo(expected.toByteArray());
+        assertThat(processor.getNumLines()).isEqualTo(expectedLines);
+    }
+
+    /**
+     * the buffers delivered are kept by the Subscriber until the end; the later output must not overwrite them
+     */
+    @Test
+    public void test_buffers_may_be_kept() throws Exception {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        JsonFlyweight.prettyPrint(new ByteArrayInputStream(UGLY), expected);
+        PrettyPrintProcessor processor = new PrettyPrintProcessor(
+                new JsonFlyweight.Formatter.Builder().bufferCapacity(1024).build());
+        List<ByteBuffer> kept = new ArrayList<>();
+        CompletableFuture<Void> completion = new CompletableFuture<>();
+        try (SubmissionPublisher<ByteBuffer> publisher = new SubmissionPublisher<>()) {
+            publisher.subscribe(processor);
+            processor.subscribe(new Flow.Subscriber<>() {
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(ByteBuffer item) {
+                    kept.add(item);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    completion.completeExceptionally(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    completion.complete(null);
+                }
+            });
+            for (int round = 0; round < 20; round++) {
+                for (int i = 0; i < UGLY.length; i++) {
+                    publisher.submit(ByteBuffer.wrap(UGLY, i, 1));
+                }
+            }
+        }
+        completion.get(10, TimeUnit.SECONDS);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        for (ByteBuffer b : kept) {
+            byte[] bytes = new byte[b.remaining()];
+            b.get(bytes);
+            actual.write(bytes, 0, bytes.length);
+        }
+        // twenty documents in a row, formatted as one
+        String one = expected.toString(StandardCharsets.UTF_8);
+        String all = actual.toString(StandardCharsets.UTF_8);
+        assertThat(all).startsWith(one);
+        assertThat(all.replaceAll("\\s", "")).isEqualTo(one.replaceAll("\\s", "").repeat(20));
+    }
+
+    @Test
+    public void test_upstream_error_is_passed_downstream() throws Exception {
+        PrettyPrintProcessor processor = new PrettyPrintProcessor();
+        CollectingSubscriber subscriber = new CollectingSubscriber();
+        SubmissionPublisher<ByteBuffer> publisher = new SubmissionPublisher<>();
+        publisher.subscribe(processor);
+        processor.subscribe(subscriber);
+        publisher.submit(ByteBuffer.wrap(UGLY, 0, 10));
+        publisher.closeExceptionally(new IOException("broken pipe"));
+        Throwable t = subscriber.completion.handle((v, e) -> e).get(10, TimeUnit.SECONDS);
+        assertThat(t).isInstanceOf(IOException.class);
+    }
+
+    private static class CollectingSubscriber implements Flow.Subscriber<ByteBuffer> {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final CompletableFuture<Void> completion = new CompletableFuture<>();
+        private Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(ByteBuffer item) {
+            byte[] bytes = new byte[item.remaining()];
+            item.get(bytes);
+            baos.write(bytes, 0, bytes.length);
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            completion.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            completion.complete(null);
+        }
+    }
+}
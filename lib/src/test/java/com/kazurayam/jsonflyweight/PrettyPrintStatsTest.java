@@ -0,0 +1,154 @@
+package com.kazurayam.jsonflyweight;
+
+import com.kazurayam.unittest.TestOutputOrganizer;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PrettyPrintStatsTest {
+
+    private static final TestOutputOrganizer too =
+            new TestOutputOrganizer.Builder(PrettyPrintStatsTest.class)
+                    .outputDirectoryRelativeToProject("build/tmp/testOutput")
+                    .subOutputDirectory(PrettyPrintStatsTest.class).build();
+
+    private static final String JSON =
+            "{\"a\":[1,{\"b\":[[\"x\\\"y\"]]}],\"longest\":\"0123456789\\u00e9\",\"c\":\"éé\"}";
+
+    @Test
+    public void test_streams() throws IOException {
+        List<PrettyPrintStats> received = new ArrayList<>();
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder()
+                .listener(received::add).bufferCapacity(1024).build();
+        byte[] bytes = JSON.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int numLines = formatter.prettyPrint(new ByteArrayInputStream(bytes), out);
+        assertThat(received).hasSize(1);
+        PrettyPrintStats stats = received.get(0);
+        assertThat(stats.getSource()).isNull();
+        assertThat(stats.isChars()).isFalse();
+        assertThat(stats.getInputSize()).isEqualTo(bytes.length);
+        assertThat(stats.getOutputSize()).isEqualTo(out.size());
+        assertThat(stats.getNumLines()).isEqualTo(numLines);
+        assertThat(stats.getMaxDepth()).isEqualTo(5);
+        // 0123456789é as it is written
+        assertThat(stats.getLongestString()).isEqualTo(16);
+        assertThat(stats.getElapsed()).isEqualTo(
+                stats.getReadTime().plus(stats.getFormatTime()).plus(stats.getWriteTime()));
+
+        StringWriter sw = new StringWriter();
+        formatter.prettyPrint(new StringReader(JSON), sw);
+        assertThat(received).hasSize(2);
+        PrettyPrintStats charStats = received.get(1);
+        assertThat(charStats.isChars()).isTrue();
+        assertThat(charStats.getInputSize()).isEqualTo(JSON.length());
+        assertThat(charStats.getOutputSize()).isEqualTo(sw.toString().length());
+        assertThat(charStats.getMaxDepth()).isEqualTo(5);
+        assertThat(charStats.getLongestString()).isEqualTo(16);
+    }
+
+    @Test
+    public void test_files() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_files");
+        Path ugly = dir.resolve("ugly.json");
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < 3000; i++) {
+            sb.append(i == 0 ? "" : ",").append(JSON);
+        }
+        Files.writeString(ugly, sb.append("]"));
+        Path pretty = dir.resolve("pretty.json");
+        List<PrettyPrintStats> received = new ArrayList<>();
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder()
+                .listener(received::add).bufferCapacity(1024).maxStringLength(5).build();
+        int numLines = formatter.prettyPrint(ugly, pretty);
+        PrettyPrintStats stats = received.get(0);
+        assertThat(stats.getSource()).isEqualTo(ugly.toString());
+        assertThat(stats.getInputSize()).isEqualTo(Files.size(ugly));
+        assertThat(stats.getOutputSize()).isEqualTo(Files.size(pretty));
+        assertThat(stats.getNumLines()).isEqualTo(numLines);
+        assertThat(stats.getMaxDepth()).isEqualTo(6);
+        // 01234…(+6 chars) as it is written
+        assertThat(stats.getLongestString()).isEqualTo("01234…(+6 chars)".getBytes(StandardCharsets.UTF_8).length);
+        assertThat(stats.getThroughput()).isPositive();
+    }
+
+    /**
+     * a slow input and a slow output are told apart from the formatting
+     */
+    @Test
+    public void test_time_blocked() throws IOException {
+        List<PrettyPrintStats> received = new ArrayList<>();
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder().listener(received::add).build();
+        InputStream slowInput = new ByteArrayInputStream(JSON.getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                sleep(50);
+                return super.read(b, off, len);
+            }
+        };
+        OutputStream slowOutput = new ByteArrayOutputStream() {
+            @Override
+            public void flush() {
+                sleep(100);
+            }
+        };
+        formatter.prettyPrint(slowInput, slowOutput);
+        PrettyPrintStats stats = received.get(0);
+        assertThat(stats.getReadTime().toMillis()).isGreaterThanOrEqualTo(100);
+        assertThat(stats.getWriteTime().toMillis()).isGreaterThanOrEqualTo(100);
+        assertThat(stats.getFormatTime().toMillis()).isLessThan(100);
+    }
+
+    @Test
+    public void test_JFR_events() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_JFR_events");
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder().bufferCapacity(1024).build();
+        byte[] bytes = JSON.repeat(10).getBytes(StandardCharsets.UTF_8);
+        Path recorded = dir.resolve("recording.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(PrettyPrintMeter.EVENT_NAME);
+            recording.enable(PrettyPrintMeter.CHUNK_EVENT_NAME);
+            recording.start();
+            formatter.prettyPrint(new ByteArrayInputStream(bytes), new ByteArrayOutputStream());
+            recording.stop();
+            recording.dump(recorded);
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(recorded);
+        List<RecordedEvent> calls = events.stream()
+                .filter(e -> e.getEventType().getName().equals(PrettyPrintMeter.EVENT_NAME))
+                .collect(Collectors.toList());
+        assertThat(calls).hasSize(1);
+        assertThat(calls.get(0).getLong("inputSize")).isEqualTo(bytes.length);
+        assertThat(calls.get(0).getInt("maxDepth")).isEqualTo(5);
+        List<RecordedEvent> chunks = events.stream()
+                .filter(e -> e.getEventType().getName().equals(PrettyPrintMeter.CHUNK_EVENT_NAME))
+                .collect(Collectors.toList());
+        assertThat(chunks).hasSize((bytes.length + 1023) / 1024);
+        assertThat(chunks.stream().mapToLong(e -> e.getInt("size")).sum()).isEqualTo(bytes.length);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.kazurayam.jsonflyweight;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PrettyPrintingOutputStreamTest {
+
+    private static final byte[] UGLY =
+            ("{\"path\":\"C:\\\\temp\\\\\",\"quote\":\"say \\\"hi\\\", {ok}\"," +
+                    "\"list\":[1, 2.5, true, null, {\"名前\":\"日本語\"}],\"empty\":{}}")
+                    .getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * the fragments end in the middle of multi-byte UTF-8 sequences and right after backslashes
+     */
+    @Test
+    public void test_write_in_fragments() throws IOException {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        int expectedLines = JsonFlyweight.prettyPrint(new ByteArrayInputStream(UGLY), expected);
+        Random random = new Random(0);
+        for (int t = 0; t < 100; t++) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            PrettyPrintingOutputStream ppos = new PrettyPrintingOutputStream(baos);
+            int i = 0;
+            while (i < UGLY.length) {
+                int n = Math.min(UGLY.length - i, random.nextInt(5));
+                if (n == 1) {
+                    ppos.write(UGLY[i]);
+                } else {
+                    ppos.write(UGLY, i, n);
+                }
+                i += n;
+            }
+            ppos.close();
+            assertThat(baos.toByteArray()).isEqualTo(expected.toByteArray());
+            assertThat(ppos.getNumLines()).isEqualTo(expectedLines);
+        }
+    }
+}
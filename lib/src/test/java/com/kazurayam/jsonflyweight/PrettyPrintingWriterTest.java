@@ -0,0 +1,63 @@
+package com.kazurayam.jsonflyweight;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PrettyPrintingWriterTest {
+
+    private static final String UGLY =
+            "{\"path\":\"C:\\\\temp\\\\\",\"quote\":\"say \\\"hi\\\", {ok}\"," +
+                    "\"list\":[1, 2.5, true, null, {\"名前\":\"日本語\"}],\"empty\":{}}";
+
+    @Test
+    public void test_write_in_fragments() throws IOException {
+        StringWriter expected = new StringWriter();
+        int expectedLines = JsonFlyweight.prettyPrint(new StringReader(UGLY), expected);
+        Random random = new Random(0);
+        for (int t = 0; t < 100; t++) {
+            StringWriter sw = new StringWriter();
+            PrettyPrintingWriter ppw = new PrettyPrintingWriter(sw);
+            int i = 0;
+            while (i < UGLY.length()) {
+                int n = Math.min(UGLY.length() - i, random.nextInt(5));
+                if (n == 1) {
+                    ppw.write(UGLY.charAt(i));
+                } else {
+                    ppw.write(UGLY, i, n);
+                }
+                i += n;
+            }
+            ppw.close();
+            assertThat(sw.toString()).isEqualTo(expected.toString());
+            assertThat(ppw.getNumLines()).isEqualTo(expectedLines);
+        }
+    }
+
+    @Test
+    public void test_flush_passes_what_is_formatted_so_far() throws IOException {
+        StringWriter sw = new StringWriter();
+        Writer w = new PrettyPrintingWriter(sw, new JsonFlyweight.Formatter.Builder().lineSeparator("\n").build());
+        w.write("{\"a\":1,");
+        assertThat(sw.toString()).isEmpty();
+        w.flush();
+        assertThat(sw.toString()).isEqualTo("{\n  \"a\": 1,\n  ");
+        w.write("\"b\":2}");
+        w.close();
+        assertThat(sw.toString()).isEqualTo("{\n  \"a\": 1,\n  \"b\": 2\n}");
+    }
+
+    @Test
+    public void test_write_after_close() throws IOException {
+        Writer w = new PrettyPrintingWriter(new StringWriter());
+        w.close();
+        assertThatThrownBy(() -> w.write("{}")).isInstanceOf(IOException.class);
+    }
+}
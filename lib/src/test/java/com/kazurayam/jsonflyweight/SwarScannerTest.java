@@ -0,0 +1,87 @@
+package com.kazurayam.jsonflyweight;
+
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SwarScannerTest {
+
+    @Test
+    public void test_indexOfQuoteOrBackslash() {
+        byte[] b = "0123456789abcdef\"xyz".getBytes(StandardCharsets.UTF_8);
+        assertThat(SwarScanner.indexOfQuoteOrBackslash(b, 0, b.length)).isEqualTo(16);
+        assertThat(SwarScanner.indexOfQuoteOrBackslash(b, 0, 16)).isEqualTo(16);
+        assertThat(SwarScanner.indexOfQuoteOrBackslash(b, 17, b.length)).isEqualTo(b.length);
+        byte[] c = "日本語のテキスト\\n".getBytes(StandardCharsets.UTF_8);
+        assertThat(SwarScanner.indexOfQuoteOrBackslash(c, 0, c.length)).isEqualTo(c.length - 2);
+    }
+
+    @Test
+    public void test_indexOfStructural() {
+        byte[] b = "1234567890.5e+10]".getBytes(StandardCharsets.UTF_8);
+        assertThat(SwarScanner.indexOfStructural(b, 0, b.length)).isEqualTo(b.length - 1);
+        byte[] c = "truefalsenull\t".getBytes(StandardCharsets.UTF_8);
+        assertThat(SwarScanner.indexOfStructural(c, 0, c.length)).isEqualTo(c.length - 1);
+        // ';' and '+' are close to ':' and ',' but are not structural
+        byte[] d = ";;;;++++;;;;++++{".getBytes(StandardCharsets.UTF_8);
+        assertThat(SwarScanner.indexOfStructural(d, 0, d.length)).isEqualTo(d.length - 1);
+    }
+
+    /**
+     * compare with a byte-by-byte scan over random bytes,
+     * many of which are close to the interesting ones
+     */
+    @Test
+    public void test_same_as_byte_by_byte() {
+        byte[] alphabet = { '"', '\\', '{', '}', '[', ']', ',', ':', ' ', '\t', '\n', ';', '+', '!',
+                (byte) 0x80, (byte) 0xA0, (byte) 0xDB, (byte) 0xDD, (byte) 0xE3, (byte) 0xFB, 'a', '0', '5', '9', '/' };
+        Random random = new Random(0);
+        for (int t = 0; t < 100_000; t++) {
+            byte[] b = new byte[random.nextInt(40)];
+            for (int k = 0; k < b.length; k++) {
+                b[k] = random.nextBoolean()
+                        ? alphabet[random.nextInt(alphabet.length)] : (byte) random.nextInt(256);
+            }
+            int from = random.nextInt(b.length + 1);
+            int expected1 = from;
+            while (expected1 < b.length && b[expected1] != '"' && b[expected1] != '\\') {
+                expected1++;
+            }
+            int expected2 = from;
+            while (expected2 < b.length && !SwarScanner.isStructural(b[expected2])) {
+                expected2++;
+            }
+            int expected3 = from;
+            while (expected3 < b.length && b[expected3] != '"' && b[expected3] != '{' && b[expected3] != '}'
+                    && b[expected3] != '[' && b[expected3] != ']') {
+                expected3++;
+            }
+            assertThat(SwarScanner.indexOfQuoteOrBackslash(b, from, b.length)).isEqualTo(expected1);
+            assertThat(SwarScanner.indexOfStructural(b, from, b.length)).isEqualTo(expected2);
+            assertThat(SwarScanner.indexOfQuoteOrBracket(b, from, b.length)).isEqualTo(expected3);
+            int expected5 = expected3;
+            for (int k = from; k < expected3; k++) {
+                if (b[k] == '\n') {
+                    expected5 = k;
+                    break;
+                }
+            }
+            assertThat(SwarScanner.indexOfQuoteBracketOrLineFeed(b, from, b.length)).isEqualTo(expected5);
+            int expected4 = 0;
+            for (int k = from; k < b.length; k++) {
+                if ((b[k] & 0xC0) != 0x80) {
+                    expected4++;
+                }
+            }
+            assertThat(SwarScanner.countCodePoints(b, from, b.length)).isEqualTo(expected4);
+            int expected6 = from;
+            while (expected6 < b.length && b[expected6] >= '0' && b[expected6] <= '9') {
+                expected6++;
+            }
+            assertThat(SwarScanner.indexOfNonDigit(b, from, b.length)).isEqualTo(expected6);
+        }
+    }
+}
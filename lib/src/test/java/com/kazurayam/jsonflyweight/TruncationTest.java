@@ -0,0 +1,157 @@
+package com.kazurayam.jsonflyweight;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TruncationTest {
+
+    @Test
+    public void test_long_values_are_cut() throws IOException {
+        String body = "iVBORw0KGgo".repeat(1000);
+        String json = "{\"content\":{\"size\":11000,\"text\":\"" + body + "\"},\"short\":\"abc\"}";
+        assertTruncated(json, 10,
+                "{\"content\":{\"size\":11000,\"text\":\"iVBORw0KGg\u2026(+10990 chars)\"},\"short\":\"abc\"}");
+    }
+
+    @Test
+    public void test_names_are_not_cut() throws IOException {
+        String json = "{\"a long name of a member\":[\"a long string in an array\",{\"another long name\":1}]}";
+        assertTruncated(json, 5,
+                "{\"a long name of a member\":[\"a lon\u2026(+20 chars)\",{\"another long name\":1}]}");
+    }
+
+    @Test
+    public void test_exactly_the_maximum() throws IOException {
+        assertTruncated("[\"12345\",\"123456\",\"\"]", 5, "[\"12345\",\"12345\u2026(+1 chars)\",\"\"]");
+        assertTruncated("[\"12345\",\"\"]", 0, "[\"\u2026(+5 chars)\",\"\"]");
+    }
+
+    /**
+     * an escape sequence, a character of multiple bytes and a surrogate pair each count as one
+     * character, and none of them is split
+     */
+    @Test
+    public void test_escapes_and_multibyte_characters() throws IOException {
+        assertTruncated("[\"a\\\"b\\u00e9c\"]", 3, "[\"a\\\"b\u2026(+2 chars)\"]");
+        assertTruncated("[\"\u00e9\u4e2d\ud83d\ude00xyz\"]", 3, "[\"\u00e9\u4e2d\ud83d\ude00\u2026(+3 chars)\"]");
+        assertTruncated("[\"a\\ud83d\\ude00b\"]", 2, "[\"a\\ud83d\\ude00\u2026(+1 chars)\"]");
+        assertTruncated("[\"a\\ud83d\\ude00b\"]", 1, "[\"a\u2026(+2 chars)\"]");
+    }
+
+    /**
+     * the input is fed in fragments of a few bytes, so that they end inside escape sequences
+     * and multi-byte characters
+     */
+    @Test
+    public void test_fragments() throws IOException {
+        String json = "{\"log\":{\"entries\":[{\"text\":\"\\\"q\\\" \\u00e9\u00e9\u4e2d\ud83d\ude00 " +
+                "x".repeat(500) + "\",\"n\":1},{\"text\":\"\\\\\\\\\\\\\",\"cookie\":\"" +
+                "\\ud83d\\ude00".repeat(100) + "\"}]}}";
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder().maxStringLength(7).build();
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        formatter.prettyPrint(new ByteArrayInputStream(bytes), expected);
+        Random random = new Random(0);
+        for (int t = 0; t < 50; t++) {
+            InputStream in = new ByteArrayInputStream(bytes) {
+                @Override
+                public synchronized int read(byte[] b, int off, int len) {
+                    return super.read(b, off, Math.min(len, 1 + random.nextInt(5)));
+                }
+            };
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            formatter.prettyPrint(in, actual);
+            assertThat(actual.toByteArray()).isEqualTo(expected.toByteArray());
+            Reader reader = new StringReader(json) {
+                @Override
+                public int read(char[] b, int off, int len) throws IOException {
+                    return super.read(b, off, Math.min(len, 1 + random.nextInt(5)));
+                }
+            };
+            StringWriter chars = new StringWriter();
+            formatter.prettyPrint(reader, chars);
+            assertThat(chars.toString()).isEqualTo(expected.toString(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void test_with_projection_and_strict() throws IOException {
+        JsonFlyweight.Formatter formatter = new JsonFlyweight.Formatter.Builder()
+                .include("log.entries[*].response").maxStringLength(3).strict(true).build();
+        String json = "{\"log\":{\"entries\":[{\"request\":\"GET\",\"response\":{\"text\":\"abcdef\"}}]}}";
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        formatter.prettyPrint(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), actual);
+        assertThat(actual.toString(StandardCharsets.UTF_8))
+                .isEqualTo(prettyPrint("{\"log\":{\"entries\":[{\"response\":{\"text\":\"abc\u2026(+3 chars)\"}}]}}"));
+    }
+
+    /**
+     * a u-escape which is cut short ends at the first non hex digit; watching the strings,
+     * to measure or to cut them, must not change how a malformed input is formatted
+     */
+    @Test
+    public void test_malformed_unicode_escapes() throws IOException {
+        String[] jsons = {
+                "{\"a\":\"\\u12\",\"b\":[1,2]}",
+                "\"x\\u\"",
+                "[\"\\uZZ\",{\"k\":\"\\u0\\\"\",\"l\":2}]",
+                "[\"\\ud83d\\u\",\"\\u00e9\"]"
+        };
+        JsonFlyweight.Formatter plain = new JsonFlyweight.Formatter.Builder().build();
+        JsonFlyweight.Formatter[] watching = {
+                new JsonFlyweight.Formatter.Builder().listener(stats -> { }).build(),
+                new JsonFlyweight.Formatter.Builder().maxStringLength(100).build()
+        };
+        for (String json : jsons) {
+            byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            plain.prettyPrint(new ByteArrayInputStream(bytes), expected);
+            StringWriter expectedChars = new StringWriter();
+            plain.prettyPrint(new StringReader(json), expectedChars);
+            for (JsonFlyweight.Formatter formatter : watching) {
+                ByteArrayOutputStream actual = new ByteArrayOutputStream();
+                formatter.prettyPrint(new ByteArrayInputStream(bytes), actual);
+                assertThat(actual.toString(StandardCharsets.UTF_8)).as(json)
+                        .isEqualTo(expected.toString(StandardCharsets.UTF_8));
+                StringWriter actualChars = new StringWriter();
+                formatter.prettyPrint(new StringReader(json), actualChars);
+                assertThat(actualChars.toString()).as(json).isEqualTo(expectedChars.toString());
+            }
+        }
+    }
+
+    @Test
+    public void test_invalid_maxStringLength() {
+        assertThatThrownBy(() -> new JsonFlyweight.Formatter.Builder().maxStringLength(-1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static void assertTruncated(String json, int maxStringLength, String expectedUgly) throws IOException {
+        JsonFlyweight.Formatter formatter =
+                new JsonFlyweight.Formatter.Builder().maxStringLength(maxStringLength).build();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        formatter.prettyPrint(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), bytes);
+        assertThat(bytes.toString(StandardCharsets.UTF_8)).isEqualTo(prettyPrint(expectedUgly));
+        StringWriter chars = new StringWriter();
+        formatter.prettyPrint(new StringReader(json), chars);
+        assertThat(chars.toString()).isEqualTo(prettyPrint(expectedUgly));
+    }
+
+    private static String prettyPrint(String json) throws IOException {
+        StringWriter sw = new StringWriter();
+        new JsonFlyweight.Formatter.Builder().build().prettyPrint(new StringReader(json), sw);
+        return sw.toString();
+    }
+}